@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.compiler.direct;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.Input;
+import org.lisapark.octopus.core.ProcessingModel;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.memory.Memory;
+import org.lisapark.octopus.core.memory.MemoryProvider;
+import org.lisapark.octopus.core.memory.heap.HeapMemoryProvider;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.core.runtime.basic.BasicProcessorContext;
+import org.lisapark.octopus.core.runtime.basic.BasicSinkContext;
+import org.lisapark.octopus.core.runtime.direct.DirectRuntime;
+import org.lisapark.octopus.core.runtime.direct.EventConsumer;
+import org.lisapark.octopus.core.sink.external.CompiledExternalSink;
+import org.lisapark.octopus.core.sink.external.ExternalSink;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.core.source.external.ExternalSource;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link org.lisapark.octopus.core.compiler.Compiler} that compiles a whole model into a {@link DirectRuntime}
+ * instead of Esper statements. All sources and processors are numbered and for every one of them the array of
+ * consumers of its events is resolved at compile time, so at runtime an event is passed on by index with a direct
+ * call and no statement, listener, event type or map based routing is involved.
+ * <p/>
+ * This is meant for stable, high volume models. It gives the same results as the
+ * {@link org.lisapark.octopus.core.compiler.esper.EsperCompiler} for models without cycles; models with cycles are
+ * rejected.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DirectCompiler extends org.lisapark.octopus.core.compiler.Compiler {
+
+    private MemoryProvider memoryProvider = new HeapMemoryProvider();
+    private PrintStream standardOut = System.out;
+    private PrintStream standardError = System.err;
+
+    @Override
+    public synchronized void setMemoryProvider(MemoryProvider memoryProvider) {
+        checkArgument(memoryProvider != null, "memoryProvider cannot be null");
+        this.memoryProvider = memoryProvider;
+    }
+
+    @Override
+    public synchronized void setStandardOut(PrintStream standardOut) {
+        checkArgument(standardOut != null, "standardOut cannot be null");
+        this.standardOut = standardOut;
+    }
+
+    @Override
+    public synchronized void setStandardError(PrintStream standardError) {
+        checkArgument(standardError != null, "standardError cannot be null");
+        this.standardError = standardError;
+    }
+
+    @Override
+    public synchronized ProcessingRuntime compile(ProcessingModel model) throws ValidationException {
+        checkArgument(model != null, "model cannot be null");
+
+        // ensure we have at least one source
+        if (model.getExternalSources().size() == 0) {
+            throw new ValidationException(
+                    String.format("The model '%s' must have at least one source configured.", model.getModelName())
+            );
+        }
+
+        List<String> errors = Lists.newLinkedList();
+
+        // number the sources first and then the processors
+        Map<UUID, Integer> indexesById = Maps.newHashMap();
+        Map<UUID, Integer> sourceIndexesById = Maps.newHashMap();
+        for (ExternalSource externalSource : model.getExternalSources()) {
+            sourceIndexesById.put(externalSource.getId(), indexesById.size());
+            indexesById.put(externalSource.getId(), indexesById.size());
+        }
+        for (Processor processor : model.getProcessors()) {
+            indexesById.put(processor.getId(), indexesById.size());
+        }
+
+        List<List<EventConsumer>> consumersByIndex = Lists.newArrayListWithCapacity(indexesById.size());
+        for (int i = 0; i < indexesById.size(); ++i) {
+            consumersByIndex.add(Lists.<EventConsumer>newArrayList());
+        }
+
+        Collection<CompiledExternalSource> compiledSources = compileExternalSources(model, errors);
+        List<DirectProcessorAdaptor> processorAdaptors = compileProcessors(model, indexesById, consumersByIndex, errors);
+        compileSinks(model, indexesById, consumersByIndex, errors);
+
+        List<DirectProcessorAdaptor> sortedProcessorAdaptors = null;
+        if (errors.isEmpty()) {
+            sortedProcessorAdaptors = sortProcessors(model, processorAdaptors, consumersByIndex);
+        }
+        if (errors.size() > 0) {
+            throw new ValidationException(Joiner.on('\n').join(errors));
+        }
+
+        EventConsumer[][] consumers = new EventConsumer[consumersByIndex.size()][];
+        for (int i = 0; i < consumers.length; ++i) {
+            consumers[i] = consumersByIndex.get(i).toArray(new EventConsumer[consumersByIndex.get(i).size()]);
+        }
+        for (DirectProcessorAdaptor processorAdaptor : processorAdaptors) {
+            processorAdaptor.setConsumers(consumers[processorAdaptor.getIndex()]);
+        }
+
+        return new DirectRuntime(compiledSources, sourceIndexesById, consumers, sortedProcessorAdaptors,
+                standardOut, standardError);
+    }
+
+    private Collection<CompiledExternalSource> compileExternalSources(ProcessingModel model, List<String> errors) {
+        Collection<CompiledExternalSource> compiledSources = Lists.newLinkedList();
+
+        for (ExternalSource externalSource : model.getExternalSources()) {
+            try {
+                compiledSources.add(externalSource.compile());
+            } catch (ValidationException e) {
+                errors.add(e.getLocalizedMessage());
+            }
+        }
+
+        return compiledSources;
+    }
+
+    private List<DirectProcessorAdaptor> compileProcessors(ProcessingModel model, Map<UUID, Integer> indexesById,
+                                                           List<List<EventConsumer>> consumersByIndex,
+                                                           List<String> errors) {
+        List<DirectProcessorAdaptor> processorAdaptors = Lists.newArrayList();
+
+        for (Processor processor : model.getProcessors()) {
+            Memory processorMemory = processor.createMemoryForProcessor(memoryProvider);
+
+            try {
+                CompiledProcessor<?> compiledProcessor = processor.compile();
+
+                ProcessorContext ctx;
+                if (processorMemory != null) {
+                    ctx = new BasicProcessorContext(standardOut, standardError, processorMemory);
+                } else {
+                    ctx = new BasicProcessorContext(standardOut, standardError);
+                }
+
+                List<ProcessorInput> inputs = compiledProcessor.getInputs();
+                int[] inputSourceIndexes = getIndexesForInputs(inputs, indexesById);
+                int[] inputIds = getIdsOfInputs(inputs);
+
+                DirectProcessorAdaptor processorAdaptor = new DirectProcessorAdaptor(compiledProcessor, ctx,
+                        indexesById.get(processor.getId()), inputSourceIndexes, inputIds);
+                processorAdaptors.add(processorAdaptor);
+
+                addConsumer(processorAdaptor, inputSourceIndexes, consumersByIndex);
+            } catch (ValidationException e) {
+                errors.add(e.getLocalizedMessage());
+            }
+        }
+
+        return processorAdaptors;
+    }
+
+    private void compileSinks(ProcessingModel model, Map<UUID, Integer> indexesById,
+                              List<List<EventConsumer>> consumersByIndex, List<String> errors) {
+        for (ExternalSink externalSink : model.getExternalSinks()) {
+            try {
+                CompiledExternalSink compiledExternalSink = externalSink.compile();
+
+                List<? extends Input> inputs = compiledExternalSink.getInputs();
+                if (!inputs.isEmpty()) {
+                    int[] inputSourceIndexes = getIndexesForInputs(inputs, indexesById);
+
+                    DirectExternalSinkAdaptor sinkAdaptor = new DirectExternalSinkAdaptor(
+                            compiledExternalSink, new BasicSinkContext(standardOut, standardError),
+                            inputSourceIndexes, getIdsOfInputs(inputs)
+                    );
+                    addConsumer(sinkAdaptor, inputSourceIndexes, consumersByIndex);
+                }
+            } catch (ValidationException e) {
+                errors.add(e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private int getIndexForInput(Input input, Map<UUID, Integer> indexesById) throws ValidationException {
+        Integer index = (input.getSource() == null) ? null : indexesById.get(input.getSource().getId());
+
+        if (index == null) {
+            throw new ValidationException(String.format("The source of input '%s' is not part of the model", input.getName()));
+        }
+
+        return index;
+    }
+
+    private int[] getIndexesForInputs(List<? extends Input> inputs, Map<UUID, Integer> indexesById)
+            throws ValidationException {
+        int[] indexes = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); ++i) {
+            indexes[i] = getIndexForInput(inputs.get(i), indexesById);
+        }
+
+        return indexes;
+    }
+
+    private int[] getIdsOfInputs(List<? extends Input> inputs) {
+        int[] ids = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); ++i) {
+            ids[i] = inputs.get(i).getId();
+        }
+
+        return ids;
+    }
+
+    private void addConsumer(EventConsumer consumer, int[] sourceIndexes, List<List<EventConsumer>> consumersByIndex) {
+        for (int sourceIndex : sourceIndexes) {
+            List<EventConsumer> consumers = consumersByIndex.get(sourceIndex);
+
+            // a consumer with several inputs on the same source is called once per event
+            if (!consumers.contains(consumer)) {
+                consumers.add(consumer);
+            }
+        }
+    }
+
+    /**
+     * Returns the processors with every processor after the processors it consumes. Events are passed on by direct
+     * calls, so a cycle between processors would never end. This removes processors without processor inputs until
+     * none are left.
+     */
+    private List<DirectProcessorAdaptor> sortProcessors(ProcessingModel model,
+                                                        List<DirectProcessorAdaptor> processorAdaptors,
+                                                        List<List<EventConsumer>> consumersByIndex)
+            throws ValidationException {
+        Map<EventConsumer, Integer> numberOfProducers = Maps.newHashMap();
+        for (DirectProcessorAdaptor processorAdaptor : processorAdaptors) {
+            numberOfProducers.put(processorAdaptor, 0);
+        }
+        for (DirectProcessorAdaptor processorAdaptor : processorAdaptors) {
+            for (EventConsumer consumer : consumersByIndex.get(processorAdaptor.getIndex())) {
+                if (numberOfProducers.containsKey(consumer)) {
+                    numberOfProducers.put(consumer, numberOfProducers.get(consumer) + 1);
+                }
+            }
+        }
+
+        List<DirectProcessorAdaptor> ready = Lists.newLinkedList();
+        for (DirectProcessorAdaptor processorAdaptor : processorAdaptors) {
+            if (numberOfProducers.get(processorAdaptor) == 0) {
+                ready.add(processorAdaptor);
+            }
+        }
+
+        List<DirectProcessorAdaptor> sorted = Lists.newArrayListWithCapacity(processorAdaptors.size());
+        while (!ready.isEmpty()) {
+            DirectProcessorAdaptor processorAdaptor = ready.remove(0);
+            sorted.add(processorAdaptor);
+
+            for (EventConsumer consumer : consumersByIndex.get(processorAdaptor.getIndex())) {
+                Integer remaining = numberOfProducers.get(consumer);
+
+                if (remaining != null) {
+                    numberOfProducers.put(consumer, remaining - 1);
+                    if (remaining == 1) {
+                        ready.add((DirectProcessorAdaptor) consumer);
+                    }
+                }
+            }
+        }
+
+        if (sorted.size() < processorAdaptors.size()) {
+            throw new ValidationException(
+                    String.format("The processors of the model '%s' form a cycle.", model.getModelName())
+            );
+        }
+
+        return sorted;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.compiler.direct;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.runtime.SinkContext;
+import org.lisapark.octopus.core.runtime.direct.EventConsumer;
+import org.lisapark.octopus.core.sink.external.CompiledExternalSink;
+
+import java.util.Map;
+
+/**
+ * Hands the events of all inputs of a sink to the {@link CompiledExternalSink}. The sink is called for every event
+ * with the event on the inputs it arrived for and the latest event of every other input, like the Esper join of
+ * the inputs; until every input has seen an event the sink is not called.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+class DirectExternalSinkAdaptor implements EventConsumer {
+    private final CompiledExternalSink externalSink;
+    private final SinkContext ctx;
+
+    /**
+     * Index of the source of every input and id of the input, in the order of the inputs
+     */
+    private final int[] inputSourceIndexes;
+    private final int[] inputIds;
+
+    /**
+     * Latest event of every input, guarded by this
+     */
+    private final Event[] latestEvents;
+
+    DirectExternalSinkAdaptor(CompiledExternalSink externalSink, SinkContext ctx, int[] inputSourceIndexes,
+                              int[] inputIds) {
+        this.externalSink = externalSink;
+        this.ctx = ctx;
+        this.inputSourceIndexes = inputSourceIndexes;
+        this.inputIds = inputIds;
+        this.latestEvents = new Event[inputIds.length];
+    }
+
+    @Override
+    public synchronized void receive(int sourceIndex, Event event) {
+        Map<Integer, Event> eventsByInputId = Maps.newHashMapWithExpectedSize(inputIds.length);
+        boolean complete = true;
+
+        for (int i = 0; i < inputIds.length; ++i) {
+            if (inputSourceIndexes[i] == sourceIndex) {
+                latestEvents[i] = event;
+            }
+            if (latestEvents[i] == null) {
+                complete = false;
+            } else {
+                eventsByInputId.put(inputIds[i], latestEvents[i]);
+            }
+        }
+
+        if (complete) {
+            externalSink.processEvent(ctx, eventsByInputId);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.compiler.direct;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.core.runtime.ScheduledProcessor;
+import org.lisapark.octopus.core.runtime.direct.EventConsumer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Calls a {@link CompiledProcessor} with the events of its inputs and hands the output events to the consumers of
+ * the processor. Like the Esper statements it replaces, it keeps the latest event of every input and calls the
+ * processor whenever one of them changes once all inputs have seen an event, or, for a processor that is
+ * {@link CompiledProcessor#isInputDriven()}, with only the inputs of the arriving event.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+class DirectProcessorAdaptor implements EventConsumer, ScheduledProcessor {
+    private final CompiledProcessor processor;
+    private final ProcessorContext ctx;
+    private final int index;
+    private final String outputAttributeName;
+    private final boolean inputDriven;
+    private final boolean outputEventComplete;
+
+    /**
+     * Index of the source of every input and id of the input, in the order of the inputs
+     */
+    private final int[] inputSourceIndexes;
+    private final int[] inputIds;
+
+    /**
+     * Latest event of every input, guarded by this
+     */
+    private final Event[] latestEvents;
+
+    private EventConsumer[] consumers = new EventConsumer[0];
+
+    DirectProcessorAdaptor(CompiledProcessor<?> processor, ProcessorContext<?> ctx, int index,
+                           int[] inputSourceIndexes, int[] inputIds) {
+        this.processor = processor;
+        this.ctx = ctx;
+        this.index = index;
+        this.outputAttributeName = processor.getOutput().getAttributeName();
+        this.inputDriven = processor.isInputDriven();
+        this.outputEventComplete = processor.isOutputEventComplete();
+        this.inputSourceIndexes = inputSourceIndexes;
+        this.inputIds = inputIds;
+        this.latestEvents = new Event[inputIds.length];
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    void setConsumers(EventConsumer[] consumers) {
+        this.consumers = consumers;
+    }
+
+    @Override
+    public void receive(int sourceIndex, Event event) {
+        Map<Integer, Event> eventsByInputId = Maps.newHashMapWithExpectedSize(inputIds.length);
+        Object output;
+
+        // the processor is called under the lock, the consumers are not so that sources do not wait on each other
+        synchronized (this) {
+            boolean complete = true;
+
+            for (int i = 0; i < inputIds.length; ++i) {
+                if (inputSourceIndexes[i] == sourceIndex) {
+                    latestEvents[i] = event;
+                    eventsByInputId.put(inputIds[i], event);
+
+                } else if (!inputDriven) {
+                    if (latestEvents[i] == null) {
+                        complete = false;
+                    } else {
+                        eventsByInputId.put(inputIds[i], latestEvents[i]);
+                    }
+                }
+            }
+
+            if (!complete) {
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            Object processorOutput = processor.processEvent(ctx, eventsByInputId);
+            output = processorOutput;
+        }
+
+        sendOutputs(output, eventsByInputId);
+    }
+
+    @Override
+    public long getTickIntervalMillis() {
+        return processor.getTickIntervalMillis();
+    }
+
+    @Override
+    public void processTick(long now) {
+        Object output;
+
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Object processorOutput = processor.processTick(ctx, now);
+            output = processorOutput;
+        }
+
+        sendOutputs(output, Collections.<Integer, Event>emptyMap());
+    }
+
+    @Override
+    public void processEnd() {
+        Object output;
+
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            Object processorOutput = processor.processEnd(ctx);
+            output = processorOutput;
+        }
+
+        sendOutputs(output, Collections.<Integer, Event>emptyMap());
+    }
+
+    private void sendOutputs(Object output, Map<Integer, Event> eventsByInputId) {
+        if (output instanceof Collection) {
+            for (Object item : (Collection<?>) output) {
+                sendOutput(item, eventsByInputId);
+            }
+        } else {
+            sendOutput(output, eventsByInputId);
+        }
+    }
+
+    private void sendOutput(Object output, Map<Integer, Event> eventsByInputId) {
+        Event outputEvent;
+
+        if (output instanceof Event && outputEventComplete) {
+            outputEvent = (Event) output;
+
+        } else if (output instanceof Event) {
+            // the processor produced several attributes, these take precedence over the input attributes
+            Map<String, Object> outputData = Maps.newHashMap();
+            for (Event inputEvent : eventsByInputId.values()) {
+                outputData.putAll(inputEvent.getData());
+            }
+            outputData.putAll(((Event) output).getData());
+
+            outputEvent = new Event(outputData);
+
+        } else if (output != null && outputAttributeName != null) {
+            outputEvent = new Event(outputAttributeName, output).unionWith(eventsByInputId.values());
+
+        } else {
+            return;
+        }
+
+        for (EventConsumer consumer : consumers) {
+            consumer.receive(index, outputEvent);
+        }
+    }
+}
@@ -24,8 +24,11 @@ import com.espertech.esper.client.EPServiceProvider;
 import com.espertech.esper.client.EPServiceProviderManager;
 import com.espertech.esper.client.EPStatement;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import org.lisapark.octopus.core.Input;
 import org.lisapark.octopus.core.ProcessingModel;
 import org.lisapark.octopus.core.ValidationException;
@@ -41,8 +44,10 @@ import org.lisapark.octopus.core.runtime.ProcessorContext;
 import org.lisapark.octopus.core.runtime.basic.BasicProcessorContext;
 import org.lisapark.octopus.core.runtime.basic.BasicSinkContext;
 import org.lisapark.octopus.core.runtime.esper.EsperRuntime;
+import org.lisapark.octopus.core.runtime.esper.SourceEventsListener;
 import org.lisapark.octopus.core.sink.external.CompiledExternalSink;
 import org.lisapark.octopus.core.sink.external.ExternalSink;
+import org.lisapark.octopus.core.source.Source;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
 import org.lisapark.octopus.util.esper.EsperUtils;
@@ -52,6 +57,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -125,18 +131,25 @@ public class EsperCompiler extends org.lisapark.octopus.core.compiler.Compiler {
 
         List<String> errors = Lists.newLinkedList();
 
+        Multimap<String, SourceEventsListener> sourceEventsListeners = ArrayListMultimap.create();
+        Set<String> sourcesReadByStatements = Sets.newHashSet();
+
         Collection<CompiledExternalSource> compiledSources = compileExternalSources(model.getExternalSources(), errors);
-        compileProcessors(epService, model.getProcessors(), errors);
-        compileSinks(epService, model.getExternalSinks(), errors);
+        List<EsperProcessorAdaptor> processorAdaptors = compileProcessors(epService, model.getProcessors(),
+                model.getExternalSources(), model.getExternalSinks(), sourceEventsListeners, sourcesReadByStatements,
+                errors);
+        compileSinks(epService, model.getExternalSinks(), sourcesReadByStatements, errors);
 
         if (errors.size() > 0) {
             throw new ValidationException(Joiner.on('\n').join(errors));
         }
 
-        return new EsperRuntime(epService, compiledSources, standardOut, standardError);
+        return new EsperRuntime(epService, compiledSources, sourceEventsListeners, sourcesReadByStatements,
+                sortProcessors(processorAdaptors), standardOut, standardError);
     }
 
-    private void compileSinks(EPServiceProvider epService, Set<ExternalSink> externalSinks, List<String> errors) {
+    private void compileSinks(EPServiceProvider epService, Set<ExternalSink> externalSinks,
+                              Set<String> sourcesReadByStatements, List<String> errors) {
         EPAdministrator admin = epService.getEPAdministrator();
         EPRuntime runtime = epService.getEPRuntime();
 
@@ -146,6 +159,7 @@ public class EsperCompiler extends org.lisapark.octopus.core.compiler.Compiler {
 
                 String statement = getStatementForCompiledSink(compiledExternalSink);
                 EPStatement stmt = admin.createEPL(statement);
+                addSourcesOf(compiledExternalSink.getInputs(), sourcesReadByStatements);
 
                 EsperExternalSinkAdaptor runner = new EsperExternalSinkAdaptor(
                         compiledExternalSink, new BasicSinkContext(standardOut, standardError), runtime
@@ -160,20 +174,23 @@ public class EsperCompiler extends org.lisapark.octopus.core.compiler.Compiler {
         }
     }
 
-    private Collection<CompiledProcessor<?>> compileProcessors(EPServiceProvider epService, Collection<Processor> processors, List<String> errors) {
+    private List<EsperProcessorAdaptor> compileProcessors(EPServiceProvider epService, Collection<Processor> processors,
+                                                               Set<ExternalSource> externalSources,
+                                                               Set<ExternalSink> externalSinks,
+                                                               Multimap<String, SourceEventsListener> sourceEventsListeners,
+                                                               Set<String> sourcesReadByStatements,
+                                                               List<String> errors) {
         EPAdministrator admin = epService.getEPAdministrator();
         EPRuntime runtime = epService.getEPRuntime();
 
-        Collection<CompiledProcessor<?>> compiledProcessors = Lists.newLinkedList();
+        // compile all processors first, fusing needs the adaptors of both sides
+        Map<UUID, EsperProcessorAdaptor> adaptorsById = Maps.newLinkedHashMap();
 
         for (Processor processor : processors) {
             Memory processorMemory = processor.createMemoryForProcessor(memoryProvider);
 
             try {
                 CompiledProcessor<?> compiledProcessor = processor.compile();
-                String statement = getStatementForCompiledProcessor(compiledProcessor);
-
-                EPStatement stmt = admin.createEPL(statement);
 
                 ProcessorContext ctx;
                 if (processorMemory != null) {
@@ -182,19 +199,185 @@ public class EsperCompiler extends org.lisapark.octopus.core.compiler.Compiler {
                     ctx = new BasicProcessorContext(standardOut, standardError);
                 }
 
-                EsperProcessorAdaptor runner = new EsperProcessorAdaptor(compiledProcessor, ctx, runtime);
-                stmt.addListener(runner);
-
-                compiledProcessors.add(compiledProcessor);
+                adaptorsById.put(compiledProcessor.getId(), new EsperProcessorAdaptor(compiledProcessor, ctx, runtime));
             } catch (ValidationException e) {
                 errors.add(e.getLocalizedMessage());
+            }
+        }
+
+        Map<UUID, Integer> numberOfConsumersById = getNumberOfConsumersBySourceId(processors, externalSinks);
+        List<EsperProcessorAdaptor> compiledAdaptors = Lists.newArrayList();
+
+        for (EsperProcessorAdaptor runner : adaptorsById.values()) {
+            CompiledProcessor<?> compiledProcessor = runner.getProcessor();
+
+            try {
+                EsperProcessorAdaptor predecessor = getFusablePredecessor(compiledProcessor, adaptorsById, numberOfConsumersById);
+                Source batchSource = getBatchSourceForCompiledProcessor(compiledProcessor, externalSources);
+
+                if (predecessor != null) {
+                    // the processor is called directly with the output of the processor feeding it
+                    predecessor.fuseWith(runner);
+
+                } else if (batchSource != null) {
+                    // the runtime calls the processor directly with the source events, possibly in batches
+                    sourceEventsListeners.put(EsperUtils.getEventNameForSource(batchSource), runner);
+
+                } else if (compiledProcessor.isInputDriven()) {
+                    for (String statement : getStatementsForInputDrivenProcessor(compiledProcessor)) {
+                        EPStatement stmt = admin.createEPL(statement);
+                        stmt.addListener(runner);
+                    }
+                    addSourcesOf(compiledProcessor.getInputs(), sourcesReadByStatements);
+                } else {
+                    String statement = getStatementForCompiledProcessor(compiledProcessor);
 
+                    EPStatement stmt = admin.createEPL(statement);
+                    stmt.addListener(runner);
+                    addSourcesOf(compiledProcessor.getInputs(), sourcesReadByStatements);
+                }
+
+                compiledAdaptors.add(runner);
             } catch (EPException e) {
                 errors.add(e.getLocalizedMessage());
             }
         }
 
-        return compiledProcessors;
+        return compiledAdaptors;
+    }
+
+    /**
+     * Returns the adaptors with every processor after the processors it consumes, as far as the processors do not
+     * form a cycle. The processors of a cycle follow in the order given.
+     */
+    List<EsperProcessorAdaptor> sortProcessors(List<EsperProcessorAdaptor> adaptors) {
+        Map<UUID, EsperProcessorAdaptor> adaptorsById = Maps.newLinkedHashMap();
+        for (EsperProcessorAdaptor adaptor : adaptors) {
+            adaptorsById.put(adaptor.getProcessor().getId(), adaptor);
+        }
+
+        List<EsperProcessorAdaptor> sorted = Lists.newArrayListWithCapacity(adaptors.size());
+        Set<UUID> sortedIds = Sets.newHashSet();
+
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+
+            for (EsperProcessorAdaptor adaptor : adaptorsById.values()) {
+                UUID id = adaptor.getProcessor().getId();
+                if (!sortedIds.contains(id) && allProcessorSourcesIn(adaptor, adaptorsById, sortedIds)) {
+                    sorted.add(adaptor);
+                    sortedIds.add(id);
+                    progress = true;
+                }
+            }
+        }
+
+        for (EsperProcessorAdaptor adaptor : adaptors) {
+            if (!sortedIds.contains(adaptor.getProcessor().getId())) {
+                sorted.add(adaptor);
+            }
+        }
+
+        return sorted;
+    }
+
+    private boolean allProcessorSourcesIn(EsperProcessorAdaptor adaptor, Map<UUID, EsperProcessorAdaptor> adaptorsById,
+                                          Set<UUID> sortedIds) {
+        for (ProcessorInput input : adaptor.getProcessor().getInputs()) {
+            UUID sourceId = (input.getSource() == null) ? null : input.getSource().getId();
+
+            if (sourceId != null && adaptorsById.containsKey(sourceId) && !sortedIds.contains(sourceId)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the Esper event names of the sources of the specified inputs, which are read by a statement.
+     */
+    private void addSourcesOf(List<? extends Input> inputs, Set<String> sourcesReadByStatements) {
+        for (Input input : inputs) {
+            if (input.getSource() != null) {
+                sourcesReadByStatements.add(EsperUtils.getEventNameForSource(input.getSource()));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of processors and sinks that consume the output of each source, keyed by source id.
+     */
+    Map<UUID, Integer> getNumberOfConsumersBySourceId(Collection<Processor> processors, Set<ExternalSink> externalSinks) {
+        Map<UUID, Integer> numberOfConsumersById = Maps.newHashMap();
+
+        for (Processor processor : processors) {
+            countConsumer(processor.getInputs(), numberOfConsumersById);
+        }
+        for (ExternalSink externalSink : externalSinks) {
+            countConsumer(externalSink.getInputs(), numberOfConsumersById);
+        }
+
+        return numberOfConsumersById;
+    }
+
+    private void countConsumer(List<? extends Input> inputs, Map<UUID, Integer> numberOfConsumersById) {
+        // a consumer with several inputs on the same source counts once
+        Set<UUID> sourceIds = Sets.newHashSet();
+        for (Input input : inputs) {
+            if (input.getSource() != null) {
+                sourceIds.add(input.getSource().getId());
+            }
+        }
+
+        for (UUID sourceId : sourceIds) {
+            Integer numberOfConsumers = numberOfConsumersById.get(sourceId);
+            numberOfConsumersById.put(sourceId, (numberOfConsumers == null) ? 1 : numberOfConsumers + 1);
+        }
+    }
+
+    /**
+     * Returns the adaptor of the processor the specified processor can be fused behind, or null if there is none.
+     * A processor is fused if it is {@link CompiledProcessor#isStateless()}, all of its inputs are connected to the
+     * same stateless processor and it is the only consumer of that processor. Since neither of them has state, calling
+     * the processor directly with the output of the other gives the same results as going through Esper, minus one
+     * statement, listener and event dispatch. Fused processors form chains, each one fused behind the previous.
+     *
+     * @param compiledProcessor     to check
+     * @param adaptorsById          adaptors of all processors of the model
+     * @param numberOfConsumersById number of consumers of each source
+     * @return adaptor to fuse behind or null
+     */
+    EsperProcessorAdaptor getFusablePredecessor(CompiledProcessor<?> compiledProcessor,
+                                                Map<UUID, EsperProcessorAdaptor> adaptorsById,
+                                                Map<UUID, Integer> numberOfConsumersById) {
+        if (!compiledProcessor.isStateless() || compiledProcessor.isInputDriven()) {
+            return null;
+        }
+
+        UUID sourceId = null;
+        for (ProcessorInput input : compiledProcessor.getInputs()) {
+            if (input.getSource() == null) {
+                return null;
+            }
+
+            UUID inputSourceId = input.getSource().getId();
+            if (sourceId == null) {
+                sourceId = inputSourceId;
+            } else if (!sourceId.equals(inputSourceId)) {
+                return null;
+            }
+        }
+
+        EsperProcessorAdaptor predecessor = (sourceId == null) ? null : adaptorsById.get(sourceId);
+
+        if (predecessor == null || !predecessor.getProcessor().isStateless()
+                || !Integer.valueOf(1).equals(numberOfConsumersById.get(sourceId))) {
+            return null;
+        }
+
+        return predecessor;
     }
 
     private Collection<CompiledExternalSource> compileExternalSources(Set<ExternalSource> externalSources, List<String> errors) {
@@ -272,6 +455,76 @@ public class EsperCompiler extends org.lisapark.octopus.core.compiler.Compiler {
         }
     }
 
+    /**
+     * Returns the external source of the specified processor if the processor is
+     * {@link CompiledProcessor#isBatchCapable()} and all of its inputs are connected to that one external source,
+     * otherwise null. Such a processor does not need an Esper statement, it can be fed by the runtime directly.
+     *
+     * @param compiledProcessor to check
+     * @param externalSources   of the model
+     * @return external source for batches or null
+     */
+    Source getBatchSourceForCompiledProcessor(CompiledProcessor<?> compiledProcessor, Set<ExternalSource> externalSources) {
+        if (!compiledProcessor.isBatchCapable() || compiledProcessor.isInputDriven()) {
+            return null;
+        }
+
+        Source batchSource = null;
+        for (ProcessorInput input : compiledProcessor.getInputs()) {
+            Source source = input.getSource();
+
+            if (batchSource == null) {
+                batchSource = source;
+            } else if (!batchSource.equals(source)) {
+                return null;
+            }
+        }
+
+        return (batchSource != null && externalSources.contains(batchSource)) ? batchSource : null;
+    }
+
+    /**
+     * Returns one statement for every distinct source connected to the specified processor. Each statement fires
+     * for every event of that source alone, so the processor sees the events of its inputs as they arrive instead
+     * of the combination of the last event of each input.
+     * <p/>
+     * Like in {@link #getStatementForCompiledProcessor(CompiledProcessor)} the event of the input with index i is
+     * selected as <code>_i_properties</code>. If several inputs are connected to the same source, e.g. for a self
+     * join, the statement of that source selects its event once for every one of these inputs.
+     *
+     * @param compiledProcessor that is {@link CompiledProcessor#isInputDriven()}
+     * @return statements for the processor
+     */
+    List<String> getStatementsForInputDrivenProcessor(CompiledProcessor<?> compiledProcessor) {
+        // the select clause and alias of the statement of each source, in the order of the inputs
+        Map<String, StringBuilder> selectClauses = Maps.newLinkedHashMap();
+        Map<String, String> aliases = Maps.newHashMap();
+
+        int aliasIndex = 0;
+        for (ProcessorInput input : compiledProcessor.getInputs()) {
+            String inputName = EsperUtils.getEventNameForSource(input.getSource());
+            String aliasName = "_" + aliasIndex++;
+
+            StringBuilder selectClause = selectClauses.get(inputName);
+            if (selectClause == null) {
+                selectClause = new StringBuilder();
+                selectClauses.put(inputName, selectClause);
+                aliases.put(inputName, aliasName);
+            } else {
+                selectClause.append(", ");
+            }
+            selectClause.append(aliases.get(inputName)).append(".* as ").append(aliasName).append("_properties");
+        }
+
+        List<String> statements = Lists.newArrayList();
+        for (Map.Entry<String, StringBuilder> selectClause : selectClauses.entrySet()) {
+            String inputName = selectClause.getKey();
+            statements.add(String.format("SELECT %s FROM %s as %s", selectClause.getValue(), inputName, aliases.get(inputName)));
+        }
+
+        return statements;
+    }
+
     String getStatementForCompiledSink(CompiledExternalSink compiledExternalSink) {
         // get inputs_
         StringBuilder selectClause = new StringBuilder();
@@ -22,20 +22,27 @@ import com.espertech.esper.client.UpdateListener;
 import com.espertech.esper.event.map.MapEventBean;
 import com.google.common.collect.Maps;
 import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventBatch;
 import org.lisapark.octopus.core.processor.CompiledProcessor;
 import org.lisapark.octopus.core.processor.ProcessorInput;
 import org.lisapark.octopus.core.processor.ProcessorJoin;
 import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.core.runtime.ScheduledProcessor;
+import org.lisapark.octopus.core.runtime.esper.SourceEventsListener;
 import org.lisapark.octopus.util.Pair;
 import org.lisapark.octopus.util.esper.EsperUtils;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
  * @author dave sinclair(david.sinclair@lisa-park.com)
  */
-class EsperProcessorAdaptor implements UpdateListener {
+class EsperProcessorAdaptor implements UpdateListener, SourceEventsListener, ScheduledProcessor {
+    private static final String PROPERTIES_SUFFIX = "_properties";
+
     private final CompiledProcessor processor;
     private final Pair<String, ProcessorInput>[] sourceIdToInput;
     private final String outputAttributeName;
@@ -44,6 +51,12 @@ class EsperProcessorAdaptor implements UpdateListener {
     private final ProcessorContext ctx;
     private final EPRuntime runtime;
 
+    /**
+     * Adaptor of the processor fused behind this one, if any. The output events are then handed to it directly
+     * instead of being sent through the runtime.
+     */
+    private EsperProcessorAdaptor successor;
+
     @SuppressWarnings("unchecked")
     EsperProcessorAdaptor(CompiledProcessor<?> processor, ProcessorContext<?> ctx, EPRuntime runtime) {
         
@@ -63,6 +76,20 @@ class EsperProcessorAdaptor implements UpdateListener {
         outputEventId = EsperUtils.getEventNameForProcessor(processor);
     }
 
+    CompiledProcessor<?> getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Fuses the specified adaptor behind this one. This is only valid if the processor of the successor is the
+     * sole consumer of the output of this processor and all of its inputs are connected to it.
+     *
+     * @param successor adaptor to hand the output events to
+     */
+    void fuseWith(EsperProcessorAdaptor successor) {
+        this.successor = successor;
+    }
+
     @Override
     public void update(EventBean[] newEvents, EventBean[] oldEvents) {
         if (isMapEvent(newEvents)) {
@@ -73,17 +100,113 @@ class EsperProcessorAdaptor implements UpdateListener {
             @SuppressWarnings("unchecked")
             Object output = processor.processEvent(ctx, eventsByInputId);
 
-            if (output != null && outputAttributeName != null) {
-                // todo create new event based on old event - what about name collisions??
+            sendOutputs(output, eventsByInputId);
+        }
+    }
 
-                Event outputEvent = new Event(outputAttributeName, output);
-                outputEvent = outputEvent.unionWith(eventsByInputId.values());
+    /**
+     * Called by the runtime with a single event of the one source that all inputs of the processor are connected to.
+     *
+     * @param sourceEvent event of the source
+     */
+    @Override
+    public void update(Event sourceEvent) {
+        Map<Integer, Event> eventsByInputId = eventsByInputIdForSourceEvent(sourceEvent);
 
-                runtime.sendEvent(outputEvent.getData(), outputEventId);
+        @SuppressWarnings("unchecked")
+        Object output = processor.processEvent(ctx, eventsByInputId);
+
+        sendOutputs(output, eventsByInputId);
+    }
+
+    /**
+     * Called by the runtime with a batch of events of the one source that all inputs of the processor are connected
+     * to. The batch is handed to the processor as a whole and the outputs are sent in the order of the events.
+     *
+     * @param sourceEvents events of the source
+     */
+    @Override
+    public void update(List<Event> sourceEvents) {
+        EventBatch batch = new EventBatch(sourceEvents);
+
+        Map<Integer, EventBatch> batchesByInputId = Maps.newHashMapWithExpectedSize(sourceIdToInput.length);
+        for (Pair<String, ProcessorInput> sourceIdAndInput : sourceIdToInput) {
+            batchesByInputId.put(sourceIdAndInput.getSecond().getId(), batch);
+        }
+
+        @SuppressWarnings("unchecked")
+        Object[] outputs = processor.processEventBatch(ctx, batchesByInputId);
+
+        for (int i = 0; i < outputs.length; ++i) {
+            if (outputs[i] != null) {
+                sendOutputs(outputs[i], eventsByInputIdForSourceEvent(batch.getEvent(i)));
             }
         }
     }
 
+    @Override
+    public long getTickIntervalMillis() {
+        return processor.getTickIntervalMillis();
+    }
+
+    @Override
+    public void processTick(long now) {
+        @SuppressWarnings("unchecked")
+        Object output = processor.processTick(ctx, now);
+
+        sendOutputs(output, Collections.<Integer, Event>emptyMap());
+    }
+
+    @Override
+    public void processEnd() {
+        @SuppressWarnings("unchecked")
+        Object output = processor.processEnd(ctx);
+
+        sendOutputs(output, Collections.<Integer, Event>emptyMap());
+    }
+
+    private void sendOutputs(Object output, Map<Integer, Event> eventsByInputId) {
+        if (output instanceof Collection) {
+            for (Object item : (Collection<?>) output) {
+                sendOutput(item, eventsByInputId);
+            }
+        } else {
+            sendOutput(output, eventsByInputId);
+        }
+    }
+
+    private void sendOutput(Object output, Map<Integer, Event> eventsByInputId) {
+        if (output instanceof Event && processor.isOutputEventComplete()) {
+            emit(((Event) output).getData());
+
+        } else if (output instanceof Event) {
+            // the processor produced several attributes, these take precedence over the input attributes
+            Map<String, Object> outputData = Maps.newHashMap();
+            for (Event inputEvent : eventsByInputId.values()) {
+                outputData.putAll(inputEvent.getData());
+            }
+            outputData.putAll(((Event) output).getData());
+
+            emit(outputData);
+
+        } else if (output != null && outputAttributeName != null) {
+            // todo create new event based on old event - what about name collisions??
+
+            Event outputEvent = new Event(outputAttributeName, output);
+            outputEvent = outputEvent.unionWith(eventsByInputId.values());
+
+            emit(outputEvent.getData());
+        }
+    }
+
+    private void emit(Map<String, Object> outputData) {
+        if (successor != null) {
+            successor.update(new Event(outputData));
+        } else {
+            runtime.sendEvent(outputData, outputEventId);
+        }
+    }
+
     /**
      * Returns true if the specified set of {@link EventBean}s is non-null and the first item of which is a
      * {@link MapEventBean}
@@ -96,13 +219,13 @@ class EsperProcessorAdaptor implements UpdateListener {
     }
 
     private Map<Integer, Event> eventsByInputIdsFromMapEvent(MapEventBean mapEvent) {
-        Collection<Object> mapEventBeans = mapEvent.getProperties().values();
+        Map<String, Object> mapEventBeans = mapEvent.getProperties();
         Map<Integer, Event> eventsByInputId = Maps.newHashMapWithExpectedSize(mapEventBeans.size());
 
-        for (Object mapEventBeanObj : mapEventBeans) {
-            MapEventBean mapEventBean = (MapEventBean) mapEventBeanObj;
+        for (Map.Entry<String, Object> mapEventBeanEntry : mapEventBeans.entrySet()) {
+            MapEventBean mapEventBean = (MapEventBean) mapEventBeanEntry.getValue();
 
-            ProcessorInput input = getInputForSourceId(mapEventBean.getEventType().getName());
+            ProcessorInput input = getInputForPropertyName(mapEventBeanEntry.getKey());
 
             if (input != null) {
                 // put the event for the input
@@ -122,13 +245,35 @@ class EsperProcessorAdaptor implements UpdateListener {
         return eventsByInputId;
     }
 
-    private ProcessorInput getInputForSourceId(String sourceId) {
+    private Map<Integer, Event> eventsByInputIdForSourceEvent(Event sourceEvent) {
+        Map<Integer, Event> eventsByInputId = Maps.newHashMapWithExpectedSize(sourceIdToInput.length);
+
+        for (Pair<String, ProcessorInput> sourceIdAndInput : sourceIdToInput) {
+            eventsByInputId.put(sourceIdAndInput.getSecond().getId(), sourceEvent);
+        }
+
+        return eventsByInputId;
+    }
+
+    /**
+     * Returns the input of the event selected as the specified property. The statements of the compiler select the
+     * event of the input with index i as <code>_i_properties</code>, so inputs are told apart even if they are
+     * connected to the same source.
+     *
+     * @param propertyName of the event in the statement
+     * @return input or null if the property is not the event of an input
+     */
+    private ProcessorInput getInputForPropertyName(String propertyName) {
         ProcessorInput input = null;
 
-        for (int index = 0; index < sourceIdToInput.length; ++index) {
-            if (sourceIdToInput[index].getFirst().equals(sourceId)) {
-                input = sourceIdToInput[index].getSecond();
-                break;
+        if (propertyName.startsWith("_") && propertyName.endsWith(PROPERTIES_SUFFIX)) {
+            try {
+                int index = Integer.parseInt(propertyName.substring(1, propertyName.length() - PROPERTIES_SUFFIX.length()));
+                if (index >= 0 && index < sourceIdToInput.length) {
+                    input = sourceIdToInput[index].getSecond();
+                }
+            } catch (NumberFormatException e) {
+                // not an input property
             }
         }
 
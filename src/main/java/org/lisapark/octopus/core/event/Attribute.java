@@ -76,6 +76,11 @@ public class Attribute implements Copyable {
             compatible = true;
         }
 
+        // any attribute can feed an input that accepts plain objects, e.g. a join key
+        if (!compatible && type == Object.class) {
+            compatible = true;
+        }
+
         return compatible;
     }
 
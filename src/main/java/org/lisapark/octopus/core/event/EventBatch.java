@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.event;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A chunk of {@link Event}s that arrived together, e.g. the rows of a result set. Besides the events themselves, a
+ * batch gives column oriented access to numeric attributes as primitive arrays so that processors can work on the
+ * whole batch with a simple loop instead of a map lookup and unboxing per event.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class EventBatch {
+    private final List<Event> events;
+
+    public EventBatch(List<Event> events) {
+        checkArgument(events != null, "events cannot be null");
+        this.events = ImmutableList.copyOf(events);
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public Event getEvent(int index) {
+        return events.get(index);
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the values of the specified numeric attribute for all events of this batch. Events that do not
+     * have the attribute have {@link Double#NaN} in the column.
+     *
+     * @param attributeName of the column
+     * @return column of values, one for each event
+     */
+    public double[] getDoubleColumn(String attributeName) {
+        return getDoubleColumn(attributeName, Double.NaN);
+    }
+
+    /**
+     * Returns the values of the specified numeric attribute for all events of this batch, using the specified
+     * missing value for the events that do not have the attribute.
+     *
+     * @param attributeName of the column
+     * @param missingValue  for events without the attribute
+     * @return column of values, one for each event
+     */
+    public double[] getDoubleColumn(String attributeName, double missingValue) {
+        double[] column = new double[events.size()];
+
+        for (int i = 0; i < column.length; ++i) {
+            Object value = events.get(i).getData().get(attributeName);
+            column[i] = (value != null) ? ((Number) value).doubleValue() : missingValue;
+        }
+
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return "EventBatch{" +
+                "size=" + events.size() +
+                '}';
+    }
+}
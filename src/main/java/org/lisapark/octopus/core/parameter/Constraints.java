@@ -37,6 +37,14 @@ public class Constraints {
         return new IntegerConstraint(message, minimum);
     }
 
+    public static Constraint<Double> doubleConstraintWithRangeAndMessage(Double minimum, Double maximum, String message) {
+        checkArgument(minimum != null, "minimum cannot be null");
+        checkArgument(maximum != null, "maximum cannot be null");
+        checkArgument(message != null, "message cannot be null");
+
+        return new DoubleConstraint(message, minimum, maximum);
+    }
+
     @Persistable
     static class IntegerConstraint implements Constraint<Integer> {
 
@@ -75,6 +83,32 @@ public class Constraints {
         }
     }
 
+    @Persistable
+    static class DoubleConstraint implements Constraint<Double> {
+
+        private final Double min;
+        private final Double max;
+        private final String message;
+
+        private DoubleConstraint(String message, Double min, Double max) {
+            this.message = message;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public void validate(String name, Double value) throws ConstraintException {
+            if (value < min || value > max) {
+                throw new ConstraintException(message);
+            }
+        }
+
+        @Override
+        public Constraint<Double> copyOf() {
+            return new DoubleConstraint(message, min, max);
+        }
+    }
+
     @Persistable
     static class ClassConstraint implements Constraint<String> {
 
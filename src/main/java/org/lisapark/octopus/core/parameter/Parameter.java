@@ -151,6 +151,10 @@ public abstract class Parameter<T> extends AbstractComponent {
         return (Long) value;
     }
 
+    public Double getValueAsDouble() {
+        return (Double) value;
+    }
+
     /**
      * This method will try and set the {@link #value} of this parameter using the specified stringValue.
      *
@@ -16,7 +16,9 @@
  */
 package org.lisapark.octopus.core.processor;
 
+import com.google.common.collect.Maps;
 import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventBatch;
 import org.lisapark.octopus.core.runtime.ProcessorContext;
 
 import java.util.List;
@@ -71,5 +73,123 @@ public abstract class CompiledProcessor<MEMORY_TYPE> {
         return join;
     }
 
+    /**
+     * By default a processor with several inputs is called with the latest event of <b>every</b> input whenever any
+     * of them changes. Processors that keep their own state per input, e.g. a windowed join, return true here in
+     * which case they are called once per arriving event with only the input that event came in on.
+     *
+     * @return true if the processor should receive the events of each input separately
+     */
+    public boolean isInputDriven() {
+        return false;
+    }
+
+    /**
+     * Returns true if the output of this processor depends on nothing but the events it is called with, i.e. it
+     * keeps no state between calls and uses no processor memory. The compiler may then call the processor directly
+     * from the processor feeding it, instead of through a separate statement.
+     *
+     * @return true if the processor has no state
+     */
+    public boolean isStateless() {
+        return false;
+    }
+
+    /**
+     * Returns true if the {@link Event}s this processor produces are complete and are passed on as they are. By
+     * default the attributes of an output event are merged over the attributes of the input events, so that the
+     * output carries the input along.
+     *
+     * @return true if output events are not merged with the input events
+     */
+    public boolean isOutputEventComplete() {
+        return false;
+    }
+
+    /**
+     * Processes the events for this processor. The returned value is normally the value of the output attribute. A
+     * processor that produces several attributes can return an {@link Event} and a processor that produces several
+     * events for one input event can return a {@link java.util.Collection} of them; null means no output.
+     *
+     * @param ctx             of the processor
+     * @param eventsByInputId events keyed by the id of the input they arrived on
+     * @return output value, event or events
+     */
     public abstract Object processEvent(ProcessorContext<MEMORY_TYPE> ctx, Map<Integer, Event> eventsByInputId);
+
+    /**
+     * Returns true if this processor overrides {@link #processEventBatch(ProcessorContext, java.util.Map)} with a
+     * computation over whole batches. The runtime will then hand it the events of a source in batches whenever the
+     * source delivers them that way, e.g. the rows of a query.
+     *
+     * @return true if the processor processes batches itself
+     */
+    public boolean isBatchCapable() {
+        return false;
+    }
+
+    /**
+     * Processes a batch of events for this processor. All batches have the same size and the events at the same
+     * index belong together. The returned array has one output for each index with the same meaning as the return
+     * value of {@link #processEvent(ProcessorContext, java.util.Map)}.
+     * <p/>
+     * This implementation simply calls {@link #processEvent(ProcessorContext, java.util.Map)} for each index.
+     *
+     * @param ctx              of the processor
+     * @param batchesByInputId batches keyed by the id of the input they arrived on
+     * @return outputs, one for each index of the batches
+     */
+    public Object[] processEventBatch(ProcessorContext<MEMORY_TYPE> ctx, Map<Integer, EventBatch> batchesByInputId) {
+        checkArgument(!batchesByInputId.isEmpty(), "batchesByInputId cannot be empty");
+
+        int size = batchesByInputId.values().iterator().next().size();
+        Object[] outputs = new Object[size];
+
+        for (int i = 0; i < size; ++i) {
+            Map<Integer, Event> eventsByInputId = Maps.newHashMapWithExpectedSize(batchesByInputId.size());
+            for (Map.Entry<Integer, EventBatch> batchForInput : batchesByInputId.entrySet()) {
+                eventsByInputId.put(batchForInput.getKey(), batchForInput.getValue().getEvent(i));
+            }
+
+            outputs[i] = processEvent(ctx, eventsByInputId);
+        }
+
+        return outputs;
+    }
+
+    /**
+     * Returns the number of milliseconds between the calls of {@link #processTick(ProcessorContext, long)}, for a
+     * processor whose output also depends on the passing of time, e.g. an event that did not arrive. The default of
+     * 0 means the processor is only called with events.
+     *
+     * @return milliseconds between ticks or 0 for no ticks
+     */
+    public long getTickIntervalMillis() {
+        return 0;
+    }
+
+    /**
+     * Called by the runtime every {@link #getTickIntervalMillis()} while it is running, whether events arrive or
+     * not. The returned value has the same meaning as the return value of
+     * {@link #processEvent(ProcessorContext, java.util.Map)}, but it is not combined with any input event.
+     *
+     * @param ctx of the processor
+     * @param now current time in milliseconds
+     * @return output value, event or events
+     */
+    public Object processTick(ProcessorContext<MEMORY_TYPE> ctx, long now) {
+        return null;
+    }
+
+    /**
+     * Called once by the runtime when it shuts down, after all sources have stopped. A processor that holds back
+     * output, e.g. an open window, returns it here with the same meaning as the return value of
+     * {@link #processEvent(ProcessorContext, java.util.Map)}, and releases the resources it holds.
+     *
+     * @param ctx of the processor
+     * @return output value, event or events
+     */
+    public Object processEnd(ProcessorContext<MEMORY_TYPE> ctx) {
+        return null;
+    }
 }
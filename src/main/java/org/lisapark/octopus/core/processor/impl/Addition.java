@@ -20,6 +20,7 @@ import org.lisapark.octopus.ProgrammerException;
 import org.lisapark.octopus.core.Persistable;
 import org.lisapark.octopus.core.ValidationException;
 import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventBatch;
 import org.lisapark.octopus.core.runtime.ProcessorContext;
 
 import java.util.Map;
@@ -135,6 +136,11 @@ public class Addition extends Processor<Void> {
             secondAttributeName = addition.getSecondInput().getSourceAttributeName();
         }
 
+        @Override
+        public boolean isStateless() {
+            return true;
+        }
+
         @Override
         public Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
             Event firstEvent = eventsByInputId.get(FIRST_INPUT_ID);
@@ -148,5 +154,24 @@ public class Addition extends Processor<Void> {
 
             return firstOperand + secondOperand;
         }
+
+        @Override
+        public boolean isBatchCapable() {
+            return true;
+        }
+
+        @Override
+        public Object[] processEventBatch(ProcessorContext<Void> ctx, Map<Integer, EventBatch> batchesByInputId) {
+            // missing operands count as 0 just like for a single event
+            double[] firstOperands = batchesByInputId.get(FIRST_INPUT_ID).getDoubleColumn(firstAttributeName, 0);
+            double[] secondOperands = batchesByInputId.get(SECOND_INPUT_ID).getDoubleColumn(secondAttributeName, 0);
+
+            Object[] sums = new Object[firstOperands.length];
+            for (int i = 0; i < sums.length; ++i) {
+                sums[i] = firstOperands[i] + secondOperands[i];
+            }
+
+            return sums;
+        }
     }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.Keys;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} flags values that deviate from the recent behaviour of their series. For every value of
+ * the optional key attribute it keeps an exponentially weighted mean and variance; the score of an event is the
+ * number of standard deviations its value is away from the mean before the event, and the event is an anomaly if
+ * the absolute score exceeds the threshold.
+ * <p/>
+ * No event is flagged until its key has been seen for the warm up number of events. With the anomalies only option
+ * events that are not anomalies produce no output, so the processor can be put in front of expensive sinks.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class AnomalyDetector extends Processor<Void> {
+    private static final String DEFAULT_NAME = "AnomalyDetector";
+    private static final String DEFAULT_DESCRIPTION = "Flags values far from their exponentially weighted mean.";
+    private static final String DEFAULT_KEY_ATTRIBUTE_DESCRIPTION = "Optional attribute of the input source, every" +
+            " value of it is a separate series.";
+    private static final String DEFAULT_ALPHA_DESCRIPTION = "Weight of a new value in the mean and variance, between" +
+            " 0 and 1.";
+    private static final String DEFAULT_THRESHOLD_DESCRIPTION = "Number of standard deviations from the mean that is" +
+            " an anomaly.";
+    private static final String DEFAULT_WARM_UP_DESCRIPTION = "Number of events of a series before its anomalies are" +
+            " flagged.";
+    private static final String DEFAULT_ANOMALIES_ONLY_DESCRIPTION = "True produces events for anomalies only, false" +
+            " for all events.";
+    private static final String DEFAULT_MAXIMUM_KEYS_DESCRIPTION = "Maximum number of series kept, the least" +
+            " recently seen series are forgotten.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Value of the series.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "True if the value is an anomaly.";
+
+    private static final int KEY_ATTRIBUTE_PARAMETER_ID = 1;
+    private static final int ALPHA_PARAMETER_ID = 2;
+    private static final int THRESHOLD_PARAMETER_ID = 3;
+    private static final int WARM_UP_PARAMETER_ID = 4;
+    private static final int ANOMALIES_ONLY_PARAMETER_ID = 5;
+    private static final int MAXIMUM_KEYS_PARAMETER_ID = 6;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String SCORE_ATTRIBUTE = "score";
+
+    protected AnomalyDetector(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected AnomalyDetector(UUID id, AnomalyDetector copyFromDetector) {
+        super(id, copyFromDetector);
+    }
+
+    protected AnomalyDetector(AnomalyDetector copyFromDetector) {
+        super(copyFromDetector);
+    }
+
+    public String getKeyAttribute() {
+        return getParameter(KEY_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setKeyAttribute(String keyAttribute) throws ValidationException {
+        getParameter(KEY_ATTRIBUTE_PARAMETER_ID).setValue(keyAttribute);
+    }
+
+    public double getAlpha() {
+        return getParameter(ALPHA_PARAMETER_ID).getValueAsDouble();
+    }
+
+    public double getThreshold() {
+        return getParameter(THRESHOLD_PARAMETER_ID).getValueAsDouble();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setThreshold(double threshold) throws ValidationException {
+        getParameter(THRESHOLD_PARAMETER_ID).setValue(threshold);
+    }
+
+    public int getWarmUp() {
+        return getParameter(WARM_UP_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWarmUp(int warmUp) throws ValidationException {
+        getParameter(WARM_UP_PARAMETER_ID).setValue(warmUp);
+    }
+
+    public Boolean getAnomaliesOnly() {
+        return (Boolean) getParameter(ANOMALIES_ONLY_PARAMETER_ID).getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setAnomaliesOnly(Boolean anomaliesOnly) throws ValidationException {
+        getParameter(ANOMALIES_ONLY_PARAMETER_ID).setValue(anomaliesOnly);
+    }
+
+    public int getMaximumKeys() {
+        return getParameter(MAXIMUM_KEYS_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setMaximumKeys(int maximumKeys) throws ValidationException {
+        getParameter(MAXIMUM_KEYS_PARAMETER_ID).setValue(maximumKeys);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for an anomaly detector
+        return getInputs().get(0);
+    }
+
+    String getKeyAttributeName() {
+        String keyAttribute = getKeyAttribute();
+        return (keyAttribute == null || keyAttribute.trim().length() == 0) ? null : keyAttribute.trim();
+    }
+
+    @Override
+    public AnomalyDetector newInstance() {
+        return new AnomalyDetector(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public AnomalyDetector copyOf() {
+        return new AnomalyDetector(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        String keyAttributeName = getKeyAttributeName();
+        if (keyAttributeName != null &&
+                !getInput().getSource().getOutput().getEventType().containsAttributeWithName(keyAttributeName)) {
+            throw new ValidationException(String.format("The input source has no attribute named '%s'", keyAttributeName));
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        AnomalyDetector copy = copyOf();
+
+        return new CompiledAnomalyDetector(copy);
+    }
+
+    /**
+     * Returns a new {@link AnomalyDetector} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link AnomalyDetector}
+     */
+    public static AnomalyDetector newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        AnomalyDetector detector = new AnomalyDetector(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        detector.addParameter(
+                Parameter.stringParameterWithIdAndName(KEY_ATTRIBUTE_PARAMETER_ID, "Key attribute").
+                        description(DEFAULT_KEY_ATTRIBUTE_DESCRIPTION)
+        );
+        detector.addParameter(
+                Parameter.doubleParameterWithIdAndName(ALPHA_PARAMETER_ID, "Alpha").
+                        description(DEFAULT_ALPHA_DESCRIPTION).
+                        defaultValue(0.05).required(true).
+                        constraint(Constraints.doubleConstraintWithRangeAndMessage(0.0, 1.0, "Alpha should be between 0 and 1."))
+        );
+        detector.addParameter(
+                Parameter.doubleParameterWithIdAndName(THRESHOLD_PARAMETER_ID, "Threshold").
+                        description(DEFAULT_THRESHOLD_DESCRIPTION).
+                        defaultValue(3.0).required(true).
+                        constraint(Constraints.doubleConstraintWithRangeAndMessage(0.0, Double.MAX_VALUE, "Threshold cannot be negative."))
+        );
+        detector.addParameter(
+                Parameter.integerParameterWithIdAndName(WARM_UP_PARAMETER_ID, "Warm up").
+                        description(DEFAULT_WARM_UP_DESCRIPTION).
+                        defaultValue(30).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(2, "Warm up should be at least 2."))
+        );
+        detector.addParameter(
+                Parameter.booleanParameterWithIdAndName(ANOMALIES_ONLY_PARAMETER_ID, "Anomalies only").
+                        description(DEFAULT_ANOMALIES_ONLY_DESCRIPTION).
+                        defaultValue(Boolean.FALSE).required(true)
+        );
+        detector.addParameter(
+                Parameter.integerParameterWithIdAndName(MAXIMUM_KEYS_PARAMETER_ID, "Maximum keys").
+                        description(DEFAULT_MAXIMUM_KEYS_DESCRIPTION).
+                        defaultValue(100000).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Maximum keys should be greater than 0."))
+        );
+
+        // only a single double input
+        detector.addInput(
+                ProcessorInput.doubleInputWithId(INPUT_ID).name("Value").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // the flag is the output attribute, the score is added to the output event
+        try {
+            ProcessorOutput output = ProcessorOutput.booleanOutputWithId(OUTPUT_ID).name("Anomaly").
+                    description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("anomaly").build();
+            output.addAttribute(Attribute.doubleAttribute(SCORE_ATTRIBUTE));
+
+            detector.setOutput(output);
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the AnomalyDetector with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return detector;
+    }
+
+    /**
+     * This {@link CompiledProcessor} keeps a {@link Series} per key in an access ordered map, so that the least
+     * recently seen series is the first one to be evicted once the maximum number of keys is reached. Scoring and
+     * updating an event takes constant time.
+     */
+    static class CompiledAnomalyDetector extends CompiledProcessor<Void> {
+        private final String inputAttributeName;
+        private final String outputAttributeName;
+        private final String keyAttributeName;
+        private final double alpha;
+        private final double threshold;
+        private final int warmUp;
+        private final boolean anomaliesOnly;
+        private final int maximumKeys;
+
+        private final Map<Object, Series> seriesByKey = new LinkedHashMap<Object, Series>(16, 0.75f, true);
+
+        protected CompiledAnomalyDetector(AnomalyDetector detector) {
+            super(detector);
+
+            this.inputAttributeName = detector.getInput().getSourceAttributeName();
+            this.outputAttributeName = detector.getOutputAttributeName();
+            this.keyAttributeName = detector.getKeyAttributeName();
+            this.alpha = detector.getAlpha();
+            this.threshold = detector.getThreshold();
+            this.warmUp = detector.getWarmUp();
+            this.anomaliesOnly = Boolean.TRUE.equals(detector.getAnomaliesOnly());
+            this.maximumKeys = detector.getMaximumKeys();
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            Double value = event.getAttributeAsDouble(inputAttributeName);
+            if (value == null || value.isNaN()) {
+                return null;
+            }
+
+            Object key = (keyAttributeName == null) ? null : Keys.keyOf(event.getData().get(keyAttributeName));
+            Series series = seriesByKey.get(key);
+            if (series == null) {
+                if (seriesByKey.size() == maximumKeys) {
+                    Iterator<Series> leastRecentlySeen = seriesByKey.values().iterator();
+                    leastRecentlySeen.next();
+                    leastRecentlySeen.remove();
+                }
+                series = new Series();
+                seriesByKey.put(key, series);
+            }
+
+            double score = series.score(value);
+            boolean anomaly = series.count >= warmUp && Math.abs(score) > threshold;
+            series.update(value, alpha);
+
+            if (anomaliesOnly && !anomaly) {
+                return null;
+            }
+
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(2);
+            data.put(outputAttributeName, anomaly);
+            data.put(SCORE_ATTRIBUTE, score);
+
+            return new Event(data);
+        }
+    }
+
+    /**
+     * Exponentially weighted mean and variance of a series, updated incrementally as described by Finch,
+     * "Incremental calculation of weighted mean and variance".
+     */
+    static class Series {
+        long count;
+        double mean;
+        double variance;
+
+        double score(double value) {
+            if (count == 0) {
+                return 0;
+            }
+            if (variance <= 0) {
+                return (value == mean) ? 0 : Math.signum(value - mean) * Double.MAX_VALUE;
+            }
+            return (value - mean) / Math.sqrt(variance);
+        }
+
+        void update(double value, double alpha) {
+            if (count == 0) {
+                mean = value;
+            } else {
+                double difference = value - mean;
+                double increment = alpha * difference;
+                mean += increment;
+                variance = (1 - alpha) * (variance + difference * increment);
+            }
+            count++;
+        }
+    }
+}
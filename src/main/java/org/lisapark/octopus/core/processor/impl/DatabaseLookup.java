@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.jdbc.LookupTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} enriches events with the columns of a database table, for example attaching the product
+ * name and price to events that only carry the product id. The table is read once into memory through a
+ * {@link LookupTable} and looked up there for every event, no query is run per event.
+ * <p/>
+ * The table can be refreshed periodically. If a change column is configured only changed rows are read on a
+ * refresh. The columns of the table row are added to the event, replacing event attributes with the same name.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class DatabaseLookup extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Database Lookup";
+    private static final String DEFAULT_DESCRIPTION = "Adds the columns of a database table row with the same key to" +
+            " each event. The table is cached in memory.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Attribute that holds the key to look up.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "True if a row was found for the key.";
+
+    private static final int URL_PARAMETER_ID = 1;
+    private static final int USER_NAME_PARAMETER_ID = 2;
+    private static final int PASSWORD_PARAMETER_ID = 3;
+    private static final int DRIVER_PARAMETER_ID = 4;
+    private static final int QUERY_PARAMETER_ID = 5;
+    private static final int KEY_COLUMN_PARAMETER_ID = 6;
+    private static final int CHANGE_COLUMN_PARAMETER_ID = 7;
+    private static final int REFRESH_INTERVAL_PARAMETER_ID = 8;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    protected DatabaseLookup(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected DatabaseLookup(UUID id, DatabaseLookup copyFromLookup) {
+        super(id, copyFromLookup);
+    }
+
+    protected DatabaseLookup(DatabaseLookup copyFromLookup) {
+        super(copyFromLookup);
+    }
+
+    public String getUrl() {
+        return getParameter(URL_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setUrl(String url) throws ValidationException {
+        getParameter(URL_PARAMETER_ID).setValue(url);
+    }
+
+    public String getUsername() {
+        return getParameter(USER_NAME_PARAMETER_ID).getValueAsString();
+    }
+
+    public String getPassword() {
+        return getParameter(PASSWORD_PARAMETER_ID).getValueAsString();
+    }
+
+    public String getDriverClass() {
+        return getParameter(DRIVER_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setDriverClass(String driverClass) throws ValidationException {
+        getParameter(DRIVER_PARAMETER_ID).setValue(driverClass);
+    }
+
+    public String getQuery() {
+        return getParameter(QUERY_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setQuery(String query) throws ValidationException {
+        getParameter(QUERY_PARAMETER_ID).setValue(query);
+    }
+
+    public String getKeyColumn() {
+        return getParameter(KEY_COLUMN_PARAMETER_ID).getValueAsString();
+    }
+
+    public String getChangeColumn() {
+        return getParameter(CHANGE_COLUMN_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setChangeColumn(String changeColumn) throws ValidationException {
+        getParameter(CHANGE_COLUMN_PARAMETER_ID).setValue(changeColumn);
+    }
+
+    public int getRefreshInterval() {
+        return getParameter(REFRESH_INTERVAL_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setRefreshInterval(int refreshInterval) throws ValidationException {
+        getParameter(REFRESH_INTERVAL_PARAMETER_ID).setValue(refreshInterval);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a lookup
+        return getInputs().get(0);
+    }
+
+    @Override
+    public DatabaseLookup newInstance() {
+        return new DatabaseLookup(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public DatabaseLookup copyOf() {
+        return new DatabaseLookup(this);
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        DatabaseLookup copy = copyOf();
+
+        return new CompiledDatabaseLookup(copy);
+    }
+
+    /**
+     * Returns a new {@link DatabaseLookup} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link DatabaseLookup}
+     */
+    public static DatabaseLookup newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        DatabaseLookup lookup = new DatabaseLookup(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(URL_PARAMETER_ID, "URL").required(true));
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(USER_NAME_PARAMETER_ID, "User name"));
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(PASSWORD_PARAMETER_ID, "Password:"));
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(DRIVER_PARAMETER_ID, "Driver class name:").required(true).
+                defaultValue("com.mysql.jdbc.Driver").
+                constraint(Constraints.classConstraintWithMessage("%s is not a valid Driver Class")));
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(QUERY_PARAMETER_ID, "SQL query:").
+                description("Query that returns the lookup table, e.g. SELECT id, name, price FROM products").
+                required(true));
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(KEY_COLUMN_PARAMETER_ID, "Key column:").
+                description("Column of the query that is matched with the input key.").
+                defaultValue("id").required(true));
+        lookup.addParameter(Parameter.stringParameterWithIdAndName(CHANGE_COLUMN_PARAMETER_ID, "Change column:").
+                description("Optional increasing column, e.g. a last modified timestamp. If set, refreshes only read" +
+                        " rows changed since the last refresh."));
+        lookup.addParameter(Parameter.integerParameterWithIdAndName(REFRESH_INTERVAL_PARAMETER_ID, "Refresh interval (sec)").
+                description("Number of seconds between refreshes of the table, 0 reads the table only once.").
+                defaultValue(300).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(0, "Refresh interval cannot be negative.")));
+
+        lookup.addInput(
+                ProcessorInput.objectInputWithId(INPUT_ID).name("Key").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        try {
+            lookup.setOutput(
+                    ProcessorOutput.booleanOutputWithId(OUTPUT_ID).name("Found").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("found")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the DatabaseLookup with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return lookup;
+    }
+
+    static class CompiledDatabaseLookup extends CompiledProcessor<Void> {
+        private static final Logger LOG = LoggerFactory.getLogger(CompiledDatabaseLookup.class);
+
+        private final String keyAttributeName;
+        private final String outputAttributeName;
+        private final LookupTable table;
+
+        private volatile boolean loaded;
+
+        protected CompiledDatabaseLookup(DatabaseLookup lookup) {
+            super(lookup);
+
+            this.keyAttributeName = lookup.getInput().getSourceAttributeName();
+            this.outputAttributeName = lookup.getOutputAttributeName();
+            this.table = new LookupTable(lookup.getDriverClass(), lookup.getUrl(), lookup.getUsername(),
+                    lookup.getPassword(), lookup.getQuery(), lookup.getKeyColumn(), lookup.getChangeColumn(),
+                    lookup.getRefreshInterval() * 1000L);
+        }
+
+        @Override
+        public Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            if (!loaded) {
+                load(ctx);
+            }
+
+            Map<String, Object> row = table.get(event.getData().get(keyAttributeName));
+
+            if (row == null) {
+                return Boolean.FALSE;
+            }
+
+            Map<String, Object> enrichedData = Maps.newHashMap(row);
+            enrichedData.put(outputAttributeName, Boolean.TRUE);
+
+            return new Event(enrichedData);
+        }
+
+        /**
+         * The table is read with the first event, so compiling a model does not need the database. If the read
+         * fails the events pass through as not found until a refresh succeeds.
+         */
+        private synchronized void load(ProcessorContext<Void> ctx) {
+            if (loaded) {
+                return;
+            }
+
+            try {
+                table.load();
+            } catch (Exception e) {
+                ctx.getStandardError().println("Could not load lookup table: " + e.getLocalizedMessage());
+                LOG.error("Problem loading lookup table", e);
+            }
+            loaded = true;
+        }
+    }
+}
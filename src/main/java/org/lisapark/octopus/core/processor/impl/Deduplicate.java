@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.Keys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} drops events that repeat an event seen within the time horizon, e.g. rows read twice by a
+ * database source or messages redelivered by a broker. Two events are the same if they have the same values for the
+ * key attributes: the attribute of the input and any additional attributes.
+ * <p/>
+ * In the <b>bloom</b> mode the keys are kept in two rotating Bloom filters sized for the capacity, so memory is
+ * constant; a small fraction of new events, about the configured false positive rate, is dropped as well. In the
+ * <b>exact</b> mode the keys are kept in a set bounded by the capacity; no new event is dropped, but if the capacity
+ * is exceeded the oldest keys are forgotten before the horizon is over.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class Deduplicate extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Deduplicate";
+    private static final String DEFAULT_DESCRIPTION = "Drops events with the same key as an event seen before.";
+    private static final String DEFAULT_ATTRIBUTES_DESCRIPTION = "Comma separated attributes that are part of the key" +
+            " in addition to the input attribute.";
+    private static final String DEFAULT_HORIZON_DESCRIPTION = "Number of seconds a key is remembered at least.";
+    private static final String DEFAULT_MODE_DESCRIPTION = "bloom (constant memory, few false duplicates) or exact.";
+    private static final String DEFAULT_CAPACITY_DESCRIPTION = "Expected number of distinct keys within the horizon.";
+    private static final String DEFAULT_FALSE_POSITIVE_DESCRIPTION = "For the bloom mode, at most one in this many new" +
+            " events is dropped by mistake.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Key attribute of the event.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "True for events that were not seen before.";
+
+    private static final int ATTRIBUTES_PARAMETER_ID = 1;
+    private static final int HORIZON_PARAMETER_ID = 2;
+    private static final int MODE_PARAMETER_ID = 3;
+    private static final int CAPACITY_PARAMETER_ID = 4;
+    private static final int FALSE_POSITIVE_PARAMETER_ID = 5;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String BLOOM_MODE = "bloom";
+    private static final String EXACT_MODE = "exact";
+
+    protected Deduplicate(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected Deduplicate(UUID id, Deduplicate copyFromDeduplicate) {
+        super(id, copyFromDeduplicate);
+    }
+
+    protected Deduplicate(Deduplicate copyFromDeduplicate) {
+        super(copyFromDeduplicate);
+    }
+
+    public String getAttributes() {
+        return getParameter(ATTRIBUTES_PARAMETER_ID).getValueAsString();
+    }
+
+    public int getHorizon() {
+        return getParameter(HORIZON_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setHorizon(int horizon) throws ValidationException {
+        getParameter(HORIZON_PARAMETER_ID).setValue(horizon);
+    }
+
+    public String getMode() {
+        return getParameter(MODE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setMode(String mode) throws ValidationException {
+        getParameter(MODE_PARAMETER_ID).setValue(mode);
+    }
+
+    public int getCapacity() {
+        return getParameter(CAPACITY_PARAMETER_ID).getValueAsInteger();
+    }
+
+    public int getFalsePositiveRate() {
+        return getParameter(FALSE_POSITIVE_PARAMETER_ID).getValueAsInteger();
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a deduplicate
+        return getInputs().get(0);
+    }
+
+    List<String> getKeyAttributeNames() {
+        List<String> names = Lists.newArrayList(getInput().getSourceAttributeName());
+
+        String attributes = getAttributes();
+        if (attributes != null) {
+            for (String name : attributes.split(",")) {
+                if (name.trim().length() > 0 && !names.contains(name.trim())) {
+                    names.add(name.trim());
+                }
+            }
+        }
+
+        return names;
+    }
+
+    @Override
+    public Deduplicate newInstance() {
+        return new Deduplicate(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public Deduplicate copyOf() {
+        return new Deduplicate(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        String mode = getMode().trim();
+        if (!mode.equalsIgnoreCase(BLOOM_MODE) && !mode.equalsIgnoreCase(EXACT_MODE)) {
+            throw new ValidationException(String.format("%s is not a valid mode, use %s", mode, DEFAULT_MODE_DESCRIPTION));
+        }
+
+        for (String name : getKeyAttributeNames()) {
+            if (!getInput().getSource().getOutput().getEventType().containsAttributeWithName(name)) {
+                throw new ValidationException(String.format("The input source has no attribute named '%s'", name));
+            }
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        Deduplicate copy = copyOf();
+
+        return new CompiledDeduplicate(copy);
+    }
+
+    /**
+     * Returns a new {@link Deduplicate} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link Deduplicate}
+     */
+    public static Deduplicate newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        Deduplicate deduplicate = new Deduplicate(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        deduplicate.addParameter(
+                Parameter.stringParameterWithIdAndName(ATTRIBUTES_PARAMETER_ID, "Additional key attributes").
+                        description(DEFAULT_ATTRIBUTES_DESCRIPTION)
+        );
+        deduplicate.addParameter(
+                Parameter.integerParameterWithIdAndName(HORIZON_PARAMETER_ID, "Horizon (sec)").
+                        description(DEFAULT_HORIZON_DESCRIPTION).
+                        defaultValue(600).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Horizon should be greater than 0."))
+        );
+        deduplicate.addParameter(
+                Parameter.stringParameterWithIdAndName(MODE_PARAMETER_ID, "Mode").
+                        description(DEFAULT_MODE_DESCRIPTION).
+                        defaultValue(BLOOM_MODE).required(true)
+        );
+        deduplicate.addParameter(
+                Parameter.integerParameterWithIdAndName(CAPACITY_PARAMETER_ID, "Capacity").
+                        description(DEFAULT_CAPACITY_DESCRIPTION).
+                        defaultValue(100000).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Capacity should be greater than 0."))
+        );
+        deduplicate.addParameter(
+                Parameter.integerParameterWithIdAndName(FALSE_POSITIVE_PARAMETER_ID, "False positive rate (1 in)").
+                        description(DEFAULT_FALSE_POSITIVE_DESCRIPTION).
+                        defaultValue(10000).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(2, "False positive rate should be greater than 1."))
+        );
+
+        deduplicate.addInput(
+                ProcessorInput.objectInputWithId(INPUT_ID).name("Key").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        try {
+            deduplicate.setOutput(
+                    ProcessorOutput.booleanOutputWithId(OUTPUT_ID).name("Unique").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("unique")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the Deduplicate with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return deduplicate;
+    }
+
+    /**
+     * This {@link CompiledProcessor} builds the key of every event and lets the event through if it is added to the
+     * {@link KeySet}.
+     */
+    static class CompiledDeduplicate extends CompiledProcessor<Void> {
+        private final String[] keyAttributeNames;
+        private final KeySet keys;
+
+        private long numberOfEvents;
+        private long numberOfDuplicates;
+
+        protected CompiledDeduplicate(Deduplicate deduplicate) {
+            super(deduplicate);
+
+            List<String> names = deduplicate.getKeyAttributeNames();
+            this.keyAttributeNames = names.toArray(new String[names.size()]);
+
+            long horizonMillis = deduplicate.getHorizon() * 1000L;
+            if (deduplicate.getMode().trim().equalsIgnoreCase(EXACT_MODE)) {
+                this.keys = new ExactKeySet(horizonMillis, deduplicate.getCapacity());
+            } else {
+                this.keys = new RotatingBloomFilter(horizonMillis, deduplicate.getCapacity(),
+                        1.0 / deduplicate.getFalsePositiveRate());
+            }
+        }
+
+        public long getNumberOfEvents() {
+            return numberOfEvents;
+        }
+
+        public long getNumberOfDuplicates() {
+            return numberOfDuplicates;
+        }
+
+        public KeySet getKeys() {
+            return keys;
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Map<String, Object> data = eventsByInputId.get(INPUT_ID).getData();
+
+            StringBuilder key = new StringBuilder();
+            for (String name : keyAttributeNames) {
+                // numbers of different types with the same value are the same key
+                key.append(Keys.keyOf(data.get(name))).append('\u0001');
+            }
+
+            numberOfEvents++;
+            if (keys.add(key.toString(), System.currentTimeMillis())) {
+                return Boolean.TRUE;
+            }
+
+            numberOfDuplicates++;
+            return null;
+        }
+    }
+
+    /**
+     * The keys seen within the horizon.
+     */
+    interface KeySet {
+
+        /**
+         * Adds the key, returns false if it was seen before.
+         */
+        boolean add(String key, long now);
+
+        /**
+         * Returns the estimated fraction of new keys that are taken as seen before.
+         */
+        double getFalsePositiveProbability();
+
+        /**
+         * Returns the fraction of the capacity in use.
+         */
+        double getLoad();
+    }
+
+    /**
+     * Two Bloom filters, the current one that keys are added to and the previous one. Both are checked for a key.
+     * Every horizon the previous filter is cleared and becomes the current one, so a key is remembered for at least
+     * one and at most two horizons, and each filter only ever holds the keys of one horizon. After a horizon
+     * without events both filters are cleared.
+     */
+    static class RotatingBloomFilter implements KeySet {
+        private static final Logger LOG = LoggerFactory.getLogger(RotatingBloomFilter.class);
+
+        private final long horizonMillis;
+        private final int numberOfBits;
+        private final int numberOfHashes;
+
+        private long[] current;
+        private long[] previous;
+        private int currentCount;
+        private long rotationTime;
+
+        RotatingBloomFilter(long horizonMillis, int capacity, double falsePositiveRate) {
+            this.horizonMillis = horizonMillis;
+
+            // the optimal size and number of hashes for the capacity and false positive rate
+            double bits = -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            this.numberOfBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(bits)));
+            this.numberOfHashes = Math.max(1, (int) Math.round((double) numberOfBits / capacity * Math.log(2)));
+
+            this.current = new long[(numberOfBits + 63) / 64];
+            this.previous = new long[current.length];
+        }
+
+        @Override
+        public boolean add(String key, long now) {
+            if (rotationTime == 0) {
+                rotationTime = now + horizonMillis;
+            } else if (now >= rotationTime) {
+                rotate(now);
+            }
+
+            long hash1 = hash(key, 0xcbf29ce484222325L);
+            long hash2 = hash(key, 0x84222325cbf29ce4L) | 1;
+
+            boolean inCurrent = true;
+            boolean inPrevious = true;
+
+            for (int i = 0; i < numberOfHashes; ++i) {
+                int bit = (int) (((hash1 + i * hash2) & Long.MAX_VALUE) % numberOfBits);
+                int word = bit >>> 6;
+                long mask = 1L << bit;
+
+                if ((current[word] & mask) == 0) {
+                    inCurrent = false;
+                    current[word] |= mask;
+                }
+                if ((previous[word] & mask) == 0) {
+                    inPrevious = false;
+                }
+            }
+
+            if (!inCurrent) {
+                currentCount++;
+            }
+
+            return !inCurrent && !inPrevious;
+        }
+
+        private void rotate(long now) {
+            LOG.debug("Rotating Bloom filter with {} keys, false positive probability {}",
+                    currentCount, getFalsePositiveProbability());
+
+            long[] cleared = previous;
+            Arrays.fill(cleared, 0);
+            if (now >= rotationTime + horizonMillis) {
+                // a whole horizon went by without events, the keys of the current filter are too old as well
+                Arrays.fill(current, 0);
+            } else {
+                previous = current;
+                current = cleared;
+            }
+            currentCount = 0;
+
+            // skip the horizons without events
+            rotationTime = now + horizonMillis;
+        }
+
+        /**
+         * 64 bit FNV-1a hash of the key with the specified offset basis, with a final mix of the bits.
+         */
+        private static long hash(String key, long basis) {
+            long hash = basis;
+            for (int i = 0; i < key.length(); ++i) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+
+            return hash;
+        }
+
+        @Override
+        public double getFalsePositiveProbability() {
+            // probability that all bits of a new key are set in the current filter
+            double bitSet = 1 - Math.exp(-(double) numberOfHashes * currentCount / numberOfBits);
+            return Math.pow(bitSet, numberOfHashes);
+        }
+
+        @Override
+        public double getLoad() {
+            return (double) currentCount * numberOfHashes / numberOfBits / Math.log(2);
+        }
+    }
+
+    /**
+     * The exact keys of the horizon in the order they were first seen, bounded by the capacity.
+     */
+    static class ExactKeySet implements KeySet {
+        private final long horizonMillis;
+        private final int capacity;
+
+        private final LinkedHashMap<String, Long> timesByKey = new LinkedHashMap<String, Long>();
+        private long numberOfEvictions;
+
+        ExactKeySet(long horizonMillis, int capacity) {
+            this.horizonMillis = horizonMillis;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean add(String key, long now) {
+            Iterator<Long> iterator = timesByKey.values().iterator();
+            while (iterator.hasNext() && iterator.next() < now - horizonMillis) {
+                iterator.remove();
+            }
+
+            if (timesByKey.containsKey(key)) {
+                return false;
+            }
+
+            timesByKey.put(key, now);
+            if (timesByKey.size() > capacity) {
+                // the key is forgotten before the horizon is over, a repeat of it would not be detected
+                timesByKey.remove(timesByKey.keySet().iterator().next());
+                numberOfEvictions++;
+            }
+
+            return true;
+        }
+
+        public long getNumberOfEvictions() {
+            return numberOfEvictions;
+        }
+
+        @Override
+        public double getFalsePositiveProbability() {
+            return 0;
+        }
+
+        @Override
+        public double getLoad() {
+            return (double) timesByKey.size() / capacity;
+        }
+    }
+}
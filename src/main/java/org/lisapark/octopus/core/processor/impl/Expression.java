@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.expression.EventExpression;
+import org.lisapark.octopus.util.expression.ExpressionCompiler;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} computes an arithmetic or boolean expression over the attributes of the input event, e.g.
+ * <code>(price + tax) * quantity / lots</code>, instead of wiring an {@link Addition}, a {@link Multiplication} and
+ * a {@link Division} together.
+ * <p/>
+ * The expression can use all numeric and boolean attributes of the source of the input by name. It is parsed into a
+ * tree of typed nodes when the processor is compiled, see {@link ExpressionCompiler}, so evaluating it for an event
+ * is primitive arithmetic without boxing. Missing attributes count as 0 or false. A boolean expression gives 1 for
+ * true and 0 for false.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class Expression extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Expression";
+    private static final String DEFAULT_DESCRIPTION = "Computes an expression over the attributes of the input.";
+    private static final String DEFAULT_EXPRESSION_DESCRIPTION = "Expression over the attributes of the input source," +
+            " e.g. (a + b) * c / d. Supports + - * / %, comparisons, && || !, c ? x : y and abs, sqrt, pow, exp, log," +
+            " log10, floor, ceil, min, max.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Source of the attributes used in the expression.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Value of the expression.";
+
+    private static final int EXPRESSION_PARAMETER_ID = 1;
+
+    /**
+     * Expression takes a single input, all attributes of its source can be used in the expression
+     */
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    protected Expression(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected Expression(UUID id, Expression copyFromExpression) {
+        super(id, copyFromExpression);
+    }
+
+    protected Expression(Expression copyFromExpression) {
+        super(copyFromExpression);
+    }
+
+    public String getExpression() {
+        return getParameter(EXPRESSION_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setExpression(String expression) throws ValidationException {
+        getParameter(EXPRESSION_PARAMETER_ID).setValue(expression);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for an expression
+        return getInputs().get(0);
+    }
+
+    @Override
+    public Expression newInstance() {
+        return new Expression(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public Expression copyOf() {
+        return new Expression(this);
+    }
+
+    /**
+     * Validates the expression against the attributes of the input source in addition to the standard validation.
+     *
+     * @throws ValidationException if the expression is not valid
+     */
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        newExpressionCompiler();
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        Expression copy = copyOf();
+
+        return new CompiledExpression(copy);
+    }
+
+    private ExpressionCompiler newExpressionCompiler() throws ValidationException {
+        return EventExpression.parse(getExpression(), getInput().getSource().getOutput().getEventType());
+    }
+
+    /**
+     * Returns a new {@link Expression} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link Expression}
+     */
+    public static Expression newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        Expression expression = new Expression(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        expression.addParameter(
+                Parameter.stringParameterWithIdAndName(EXPRESSION_PARAMETER_ID, "Expression").
+                        description(DEFAULT_EXPRESSION_DESCRIPTION).
+                        required(true)
+        );
+
+        // a single input of any type, it only selects the source
+        expression.addInput(
+                ProcessorInput.objectInputWithId(INPUT_ID).name("Input").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // double output
+        try {
+            expression.setOutput(
+                    ProcessorOutput.doubleOutputWithId(OUTPUT_ID).name("Result").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("result")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the Expression with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return expression;
+    }
+
+    /**
+     * This {@link CompiledProcessor} evaluates the compiled expression with the attributes of the input event.
+     */
+    static class CompiledExpression extends CompiledProcessor<Void> {
+        private final EventExpression expression;
+
+        protected CompiledExpression(Expression expression) throws ValidationException {
+            super(expression);
+
+            this.expression = EventExpression.compile(expression.getExpression(),
+                    expression.getInput().getSource().getOutput().getEventType());
+        }
+
+        @Override
+        public boolean isStateless() {
+            return true;
+        }
+
+        @Override
+        public Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            return expression.evaluate(eventsByInputId.get(INPUT_ID).getData());
+        }
+    }
+}
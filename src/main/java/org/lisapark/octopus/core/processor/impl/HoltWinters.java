@@ -0,0 +1,646 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This {@link Processor} forecasts a time series with exponential smoothing. The method selects the model:
+ * <ul>
+ * <li><b>single</b> - level only, for series without trend or season</li>
+ * <li><b>double</b> - level and trend (Holt)</li>
+ * <li><b>triple</b> - level, trend and additive season (Holt-Winters)</li>
+ * </ul>
+ * Every observation updates the state of the model in constant time, and an event with the forecast for the
+ * configured number of steps ahead is produced, together with the level, trend and seasonal component. The triple
+ * model is initialized from the first two seasons, no forecast is produced before.
+ * <p/>
+ * If a refit interval is configured the smoothing factors are fitted again on the recent observations on a
+ * background thread, by minimizing the squared one step ahead errors; the new factors are used from the next
+ * observation on, so the processing of events never waits for a fit. The triple model is only fitted once the
+ * history is longer than two seasons, before it has no errors to minimize. The fitting thread is stopped when the
+ * processing ends.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class HoltWinters extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Holt-Winters";
+    private static final String DEFAULT_DESCRIPTION = "Forecasts a series with single, double or triple exponential smoothing.";
+    private static final String DEFAULT_METHOD_DESCRIPTION = "single (level), double (level and trend) or triple" +
+            " (level, trend and season).";
+    private static final String DEFAULT_ALPHA_DESCRIPTION = "Smoothing factor of the level, between 0 and 1.";
+    private static final String DEFAULT_BETA_DESCRIPTION = "Smoothing factor of the trend, between 0 and 1.";
+    private static final String DEFAULT_GAMMA_DESCRIPTION = "Smoothing factor of the season, between 0 and 1.";
+    private static final String DEFAULT_SEASON_LENGTH_DESCRIPTION = "Number of observations in a season.";
+    private static final String DEFAULT_HORIZON_DESCRIPTION = "Number of steps ahead to forecast.";
+    private static final String DEFAULT_REFIT_INTERVAL_DESCRIPTION = "Number of observations between fits of the" +
+            " smoothing factors, 0 keeps the configured factors.";
+    private static final String DEFAULT_REFIT_HISTORY_DESCRIPTION = "Number of recent observations the smoothing" +
+            " factors are fitted on.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Observation of the series.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Forecast for the horizon.";
+
+    private static final int METHOD_PARAMETER_ID = 1;
+    private static final int ALPHA_PARAMETER_ID = 2;
+    private static final int BETA_PARAMETER_ID = 3;
+    private static final int GAMMA_PARAMETER_ID = 4;
+    private static final int SEASON_LENGTH_PARAMETER_ID = 5;
+    private static final int HORIZON_PARAMETER_ID = 6;
+    private static final int REFIT_INTERVAL_PARAMETER_ID = 7;
+    private static final int REFIT_HISTORY_PARAMETER_ID = 8;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String LEVEL_ATTRIBUTE = "level";
+    private static final String TREND_ATTRIBUTE = "trend";
+    private static final String SEASONAL_ATTRIBUTE = "seasonal";
+
+    static enum Method {
+        SINGLE, DOUBLE, TRIPLE
+    }
+
+    protected HoltWinters(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected HoltWinters(UUID id, HoltWinters copyFromHoltWinters) {
+        super(id, copyFromHoltWinters);
+    }
+
+    protected HoltWinters(HoltWinters copyFromHoltWinters) {
+        super(copyFromHoltWinters);
+    }
+
+    public String getMethod() {
+        return getParameter(METHOD_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setMethod(String method) throws ValidationException {
+        getParameter(METHOD_PARAMETER_ID).setValue(method);
+    }
+
+    public double getAlpha() {
+        return getParameter(ALPHA_PARAMETER_ID).getValueAsDouble();
+    }
+
+    public double getBeta() {
+        return getParameter(BETA_PARAMETER_ID).getValueAsDouble();
+    }
+
+    public double getGamma() {
+        return getParameter(GAMMA_PARAMETER_ID).getValueAsDouble();
+    }
+
+    public int getSeasonLength() {
+        return getParameter(SEASON_LENGTH_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setSeasonLength(int seasonLength) throws ValidationException {
+        getParameter(SEASON_LENGTH_PARAMETER_ID).setValue(seasonLength);
+    }
+
+    public int getHorizon() {
+        return getParameter(HORIZON_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setHorizon(int horizon) throws ValidationException {
+        getParameter(HORIZON_PARAMETER_ID).setValue(horizon);
+    }
+
+    public int getRefitInterval() {
+        return getParameter(REFIT_INTERVAL_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setRefitInterval(int refitInterval) throws ValidationException {
+        getParameter(REFIT_INTERVAL_PARAMETER_ID).setValue(refitInterval);
+    }
+
+    public int getRefitHistory() {
+        return getParameter(REFIT_HISTORY_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setRefitHistory(int refitHistory) throws ValidationException {
+        getParameter(REFIT_HISTORY_PARAMETER_ID).setValue(refitHistory);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a holt-winters
+        return getInputs().get(0);
+    }
+
+    @Override
+    public HoltWinters newInstance() {
+        return new HoltWinters(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public HoltWinters copyOf() {
+        return new HoltWinters(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        Method method = getMethodValue();
+        if (method == Method.TRIPLE && getRefitInterval() > 0 && getRefitHistory() < 3 * getSeasonLength()) {
+            throw new ValidationException("The refit history should be at least three seasons long.");
+        }
+    }
+
+    Method getMethodValue() throws ValidationException {
+        String method = getMethod();
+
+        try {
+            return Method.valueOf(method.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(String.format("%s is not a valid method, use %s", method, DEFAULT_METHOD_DESCRIPTION));
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        HoltWinters copy = copyOf();
+
+        return new CompiledHoltWinters(copy, copy.getMethodValue());
+    }
+
+    /**
+     * Returns a new {@link HoltWinters} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link HoltWinters}
+     */
+    public static HoltWinters newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        HoltWinters holtWinters = new HoltWinters(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        holtWinters.addParameter(
+                Parameter.stringParameterWithIdAndName(METHOD_PARAMETER_ID, "Method").
+                        description(DEFAULT_METHOD_DESCRIPTION).
+                        defaultValue("triple").required(true)
+        );
+        holtWinters.addParameter(
+                Parameter.doubleParameterWithIdAndName(ALPHA_PARAMETER_ID, "Alpha").
+                        description(DEFAULT_ALPHA_DESCRIPTION).
+                        defaultValue(0.5).required(true).
+                        constraint(Constraints.doubleConstraintWithRangeAndMessage(0.0, 1.0, "Alpha should be between 0 and 1."))
+        );
+        holtWinters.addParameter(
+                Parameter.doubleParameterWithIdAndName(BETA_PARAMETER_ID, "Beta").
+                        description(DEFAULT_BETA_DESCRIPTION).
+                        defaultValue(0.1).required(true).
+                        constraint(Constraints.doubleConstraintWithRangeAndMessage(0.0, 1.0, "Beta should be between 0 and 1."))
+        );
+        holtWinters.addParameter(
+                Parameter.doubleParameterWithIdAndName(GAMMA_PARAMETER_ID, "Gamma").
+                        description(DEFAULT_GAMMA_DESCRIPTION).
+                        defaultValue(0.1).required(true).
+                        constraint(Constraints.doubleConstraintWithRangeAndMessage(0.0, 1.0, "Gamma should be between 0 and 1."))
+        );
+        holtWinters.addParameter(
+                Parameter.integerParameterWithIdAndName(SEASON_LENGTH_PARAMETER_ID, "Season length").
+                        description(DEFAULT_SEASON_LENGTH_DESCRIPTION).
+                        defaultValue(12).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(2, "Season length should be greater than 1."))
+        );
+        holtWinters.addParameter(
+                Parameter.integerParameterWithIdAndName(HORIZON_PARAMETER_ID, "Horizon").
+                        description(DEFAULT_HORIZON_DESCRIPTION).
+                        defaultValue(1).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Horizon should be greater than 0."))
+        );
+        holtWinters.addParameter(
+                Parameter.integerParameterWithIdAndName(REFIT_INTERVAL_PARAMETER_ID, "Refit interval").
+                        description(DEFAULT_REFIT_INTERVAL_DESCRIPTION).
+                        defaultValue(0).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(0, "Refit interval cannot be negative."))
+        );
+        holtWinters.addParameter(
+                Parameter.integerParameterWithIdAndName(REFIT_HISTORY_PARAMETER_ID, "Refit history").
+                        description(DEFAULT_REFIT_HISTORY_DESCRIPTION).
+                        defaultValue(500).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(10, "Refit history should be at least 10."))
+        );
+
+        // only a single double input
+        holtWinters.addInput(
+                ProcessorInput.doubleInputWithId(INPUT_ID).name("Value").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // the forecast is the output attribute, the components of the model are added to the output event
+        try {
+            ProcessorOutput output = ProcessorOutput.doubleOutputWithId(OUTPUT_ID).name("Forecast").
+                    description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("forecast").build();
+            output.addAttribute(Attribute.doubleAttribute(LEVEL_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(TREND_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(SEASONAL_ATTRIBUTE));
+
+            holtWinters.setOutput(output);
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the HoltWinters with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return holtWinters;
+    }
+
+    /**
+     * This {@link CompiledProcessor} updates a {@link Smoothing} with every observation. If refitting is enabled
+     * the recent observations are kept in a circular array, a copy of it is handed to a background thread every
+     * refit interval and the {@link Factors} it finds are picked up by the next observation.
+     */
+    static class CompiledHoltWinters extends CompiledProcessor<Void> {
+        private static final Logger LOG = LoggerFactory.getLogger(CompiledHoltWinters.class);
+
+        private final String inputAttributeName;
+        private final String outputAttributeName;
+        private final int horizon;
+        private final int refitInterval;
+
+        private final Smoothing smoothing;
+
+        private final double[] history;
+        private int historySize;
+        private int historyEnd;
+        private long numberOfObservations;
+
+        private ExecutorService refitExecutor;
+        private volatile Factors fittedFactors;
+        private boolean refitRunning;
+
+        protected CompiledHoltWinters(HoltWinters holtWinters, Method method) {
+            super(holtWinters);
+
+            this.inputAttributeName = holtWinters.getInput().getSourceAttributeName();
+            this.outputAttributeName = holtWinters.getOutputAttributeName();
+            this.horizon = holtWinters.getHorizon();
+            this.refitInterval = holtWinters.getRefitInterval();
+
+            this.smoothing = new Smoothing(method, holtWinters.getSeasonLength(),
+                    new Factors(holtWinters.getAlpha(), holtWinters.getBeta(), holtWinters.getGamma()));
+            this.history = (refitInterval > 0) ? new double[holtWinters.getRefitHistory()] : null;
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Double value = eventsByInputId.get(INPUT_ID).getAttributeAsDouble(inputAttributeName);
+            if (value == null) {
+                return null;
+            }
+
+            Factors factors = fittedFactors;
+            if (factors != null) {
+                fittedFactors = null;
+                refitRunning = false;
+                smoothing.setFactors(factors);
+            }
+
+            smoothing.update(value);
+            numberOfObservations++;
+
+            if (history != null) {
+                addToHistory(value);
+            }
+
+            if (!smoothing.isInitialized()) {
+                return null;
+            }
+
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(4);
+            data.put(outputAttributeName, smoothing.forecast(horizon));
+            data.put(LEVEL_ATTRIBUTE, smoothing.getLevel());
+            data.put(TREND_ATTRIBUTE, smoothing.getTrend());
+            data.put(SEASONAL_ATTRIBUTE, smoothing.getSeasonal(horizon));
+
+            return new Event(data);
+        }
+
+        private void addToHistory(double value) {
+            history[historyEnd] = value;
+            historyEnd = (historyEnd + 1) % history.length;
+            historySize = Math.min(historySize + 1, history.length);
+
+            if (!refitRunning && numberOfObservations % refitInterval == 0 && smoothing.canFit(historySize)) {
+                // the oldest observation is historySize before the end of the circular array
+                final double[] observations = new double[historySize];
+                int start = (historyEnd - historySize + history.length) % history.length;
+                for (int i = 0; i < historySize; ++i) {
+                    observations[i] = history[(start + i) % history.length];
+                }
+
+                final Smoothing template = smoothing;
+                final Factors current = smoothing.getFactors();
+                refitRunning = true;
+                getRefitExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Factors factors = template.fit(observations, current);
+                        LOG.debug("Fitted smoothing factors {}", factors);
+                        fittedFactors = factors;
+                    }
+                });
+            }
+        }
+
+        /**
+         * Stops the fitting thread, a fit that is still running is interrupted and its factors are not used.
+         */
+        @Override
+        public synchronized Object processEnd(ProcessorContext<Void> ctx) {
+            if (refitExecutor != null) {
+                refitExecutor.shutdownNow();
+                refitExecutor = null;
+            }
+            return null;
+        }
+
+        private ExecutorService getRefitExecutor() {
+            if (refitExecutor == null) {
+                refitExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "HoltWinters refit");
+                        // a fit never keeps the vm alive
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return refitExecutor;
+        }
+    }
+
+    /**
+     * The smoothing factors of a model, immutable so a fit can hand them to the processing thread at once.
+     */
+    static final class Factors {
+        private final double alpha;
+        private final double beta;
+        private final double gamma;
+
+        Factors(double alpha, double beta, double gamma) {
+            this.alpha = alpha;
+            this.beta = beta;
+            this.gamma = gamma;
+        }
+
+        double getAlpha() {
+            return alpha;
+        }
+
+        double getBeta() {
+            return beta;
+        }
+
+        double getGamma() {
+            return gamma;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("alpha %s, beta %s, gamma %s", alpha, beta, gamma);
+        }
+    }
+
+    /**
+     * The state of an exponential smoothing model: the level, the trend and the additive seasonal components.
+     */
+    static class Smoothing {
+        private static final double[] GRID = {0.05, 0.15, 0.25, 0.35, 0.45, 0.55, 0.65, 0.75, 0.85, 0.95};
+
+        private final Method method;
+        private final int seasonLength;
+
+        private double alpha;
+        private double beta;
+        private double gamma;
+        private Factors factors;
+
+        private double level;
+        private double trend;
+        private final double[] seasonals;
+
+        /**
+         * Number of observations so far, the seasonal component of observation t is at t modulo the season length.
+         */
+        private long time;
+
+        /**
+         * The first two seasons of the triple model, or the first observation of the double model, used for
+         * the initial state.
+         */
+        private final double[] initial;
+
+        Smoothing(Method method, int seasonLength, Factors factors) {
+            this.method = method;
+            this.seasonLength = seasonLength;
+            setFactors(factors);
+            this.seasonals = (method == Method.TRIPLE) ? new double[seasonLength] : null;
+            this.initial = (method == Method.TRIPLE) ? new double[2 * seasonLength] : new double[1];
+        }
+
+        void setFactors(Factors factors) {
+            this.factors = factors;
+            this.alpha = factors.getAlpha();
+            this.beta = factors.getBeta();
+            this.gamma = factors.getGamma();
+        }
+
+        Factors getFactors() {
+            return factors;
+        }
+
+        /**
+         * Returns true if the number of observations gives one step ahead errors to fit on, the observations that
+         * initialize the model have no forecast.
+         */
+        boolean canFit(int numberOfObservations) {
+            int initializing = (method == Method.TRIPLE) ? initial.length : (method == Method.DOUBLE) ? 2 : 1;
+            return numberOfObservations > initializing;
+        }
+
+        boolean isInitialized() {
+            switch (method) {
+                case SINGLE:
+                    return time >= 1;
+                case DOUBLE:
+                    return time >= 2;
+                default:
+                    return time >= initial.length;
+            }
+        }
+
+        void update(double value) {
+            switch (method) {
+                case SINGLE:
+                    level = (time == 0) ? value : alpha * value + (1 - alpha) * level;
+                    break;
+
+                case DOUBLE:
+                    if (time == 0) {
+                        level = value;
+                    } else if (time == 1) {
+                        trend = value - level;
+                        level = value;
+                    } else {
+                        double previousLevel = level;
+                        level = alpha * value + (1 - alpha) * (level + trend);
+                        trend = beta * (level - previousLevel) + (1 - beta) * trend;
+                    }
+                    break;
+
+                default:
+                    if (time < initial.length) {
+                        initial[(int) time] = value;
+                        if (time == initial.length - 1) {
+                            initializeSeasons();
+                        }
+                    } else {
+                        int season = (int) (time % seasonLength);
+                        double previousLevel = level;
+                        level = alpha * (value - seasonals[season]) + (1 - alpha) * (level + trend);
+                        trend = beta * (level - previousLevel) + (1 - beta) * trend;
+                        seasonals[season] = gamma * (value - level) + (1 - gamma) * seasonals[season];
+                    }
+            }
+            time++;
+        }
+
+        /**
+         * The level is the mean of the second season, the trend is the average change per observation between the
+         * first and the second season and the seasonal components are the deviations from the season means.
+         */
+        private void initializeSeasons() {
+            double firstMean = 0;
+            double secondMean = 0;
+            for (int i = 0; i < seasonLength; ++i) {
+                firstMean += initial[i];
+                secondMean += initial[seasonLength + i];
+            }
+            firstMean /= seasonLength;
+            secondMean /= seasonLength;
+
+            trend = (secondMean - firstMean) / seasonLength;
+            for (int i = 0; i < seasonLength; ++i) {
+                seasonals[i] = ((initial[i] - firstMean) + (initial[seasonLength + i] - secondMean)) / 2;
+            }
+            // the level at the last observation of the second season
+            level = secondMean + trend * (seasonLength - 1) / 2.0;
+        }
+
+        double forecast(int steps) {
+            switch (method) {
+                case SINGLE:
+                    return level;
+                case DOUBLE:
+                    return level + steps * trend;
+                default:
+                    return level + steps * trend + getSeasonal(steps);
+            }
+        }
+
+        double getLevel() {
+            return level;
+        }
+
+        double getTrend() {
+            return trend;
+        }
+
+        /**
+         * Returns the seasonal component for the specified number of steps after the last observation.
+         */
+        double getSeasonal(int steps) {
+            if (seasonals == null) {
+                return 0;
+            }
+            return seasonals[(int) ((time - 1 + steps) % seasonLength)];
+        }
+
+        /**
+         * Returns the factors with the smallest sum of squared one step ahead errors over the observations, searched
+         * on a grid. Only the factors used by the method are searched, the others are kept from the current ones,
+         * which are returned as they are if the observations are too few to fit on.
+         */
+        Factors fit(double[] observations, Factors current) {
+            if (!canFit(observations.length)) {
+                return current;
+            }
+
+            double[] betas = (method == Method.SINGLE) ? new double[]{current.getBeta()} : GRID;
+            double[] gammas = (method == Method.TRIPLE) ? GRID : new double[]{current.getGamma()};
+
+            Factors best = current;
+            double bestError = Double.MAX_VALUE;
+
+            for (double a : GRID) {
+                for (double b : betas) {
+                    for (double g : gammas) {
+                        Smoothing candidate = new Smoothing(method, seasonLength, new Factors(a, b, g));
+                        double error = 0;
+
+                        for (double observation : observations) {
+                            if (candidate.isInitialized()) {
+                                double difference = observation - candidate.forecast(1);
+                                error += difference * difference;
+                            }
+                            candidate.update(observation);
+                        }
+
+                        if (error < bestError) {
+                            bestError = error;
+                            best = candidate.getFactors();
+                        }
+                    }
+                }
+            }
+
+            return best;
+        }
+    }
+}
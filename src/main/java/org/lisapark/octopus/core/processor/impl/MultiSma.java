@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} computes the Simple Moving Averages of several window lengths over the same input in one
+ * pass, e.g. the 10, 50 and 200 point averages that are compared by a {@link CrossAbove}. It is equivalent to an
+ * {@link Sma} per window length, but the values are stored once and all averages are produced in one event.
+ * <p/>
+ * The average of a window length n is the attribute <code>average_n</code>, the average of the first window length
+ * is also the output attribute. Like the {@link Sma}, an average is taken over the values seen so far until there
+ * are n of them, and a missing value counts as 0.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class MultiSma extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Multi SMA";
+    private static final String DEFAULT_DESCRIPTION = "Simple Moving Averages of several window lengths";
+    private static final String DEFAULT_WINDOW_LENGTHS_DESCRIPTION = "Comma separated numbers of data points to" +
+            " consider when performing the averages, e.g. 10,50,200.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "This is the attribute from the connected source that the" +
+            " SMAs will be averaging.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Average of the first window length.";
+
+    private static final int WINDOW_LENGTHS_PARAMETER_ID = 1;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String AVERAGE_ATTRIBUTE_PREFIX = "average_";
+
+    protected MultiSma(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected MultiSma(UUID id, MultiSma copyFromMultiSma) {
+        super(id, copyFromMultiSma);
+    }
+
+    protected MultiSma(MultiSma copyFromMultiSma) {
+        super(copyFromMultiSma);
+    }
+
+    public String getWindowLengths() {
+        return getParameter(WINDOW_LENGTHS_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWindowLengths(String windowLengths) throws ValidationException {
+        getParameter(WINDOW_LENGTHS_PARAMETER_ID).setValue(windowLengths);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a multi sma
+        return getInputs().get(0);
+    }
+
+    List<Integer> getWindowLengthValues() throws ValidationException {
+        List<Integer> windowLengths = Lists.newArrayList();
+
+        for (String windowLength : getWindowLengths().split(",")) {
+            if (windowLength.trim().length() == 0) {
+                continue;
+            }
+
+            int value;
+            try {
+                value = Integer.parseInt(windowLength.trim());
+            } catch (NumberFormatException e) {
+                throw new ValidationException(String.format("%s is not a valid window length", windowLength.trim()));
+            }
+
+            if (value < 1) {
+                throw new ValidationException("Window lengths should be greater than 0.");
+            }
+            if (!windowLengths.contains(value)) {
+                windowLengths.add(value);
+            }
+        }
+
+        if (windowLengths.isEmpty()) {
+            throw new ValidationException("At least one window length is required.");
+        }
+
+        return windowLengths;
+    }
+
+    @Override
+    public MultiSma newInstance() {
+        return new MultiSma(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public MultiSma copyOf() {
+        return new MultiSma(this);
+    }
+
+    /**
+     * Validates the window lengths in addition to the standard validation and makes the output have one average
+     * attribute for every window length.
+     *
+     * @throws ValidationException if a window length is not valid
+     */
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        List<Integer> windowLengths = getWindowLengthValues();
+        ProcessorOutput output = getOutput();
+
+        for (Attribute attribute : output.getEventType().getAttributes()) {
+            Integer windowLength = windowLengthOf(attribute.getName());
+            if (windowLength != null && !windowLengths.contains(windowLength)) {
+                output.removeAttribute(attribute);
+            }
+        }
+
+        for (Integer windowLength : windowLengths) {
+            if (output.getAttributeByName(AVERAGE_ATTRIBUTE_PREFIX + windowLength) == null) {
+                output.addAttribute(Attribute.doubleAttribute(AVERAGE_ATTRIBUTE_PREFIX + windowLength));
+            }
+        }
+    }
+
+    /**
+     * Returns the window length of an average attribute, null if the name is not the prefix followed by a number,
+     * e.g. an attribute the user added.
+     */
+    private static Integer windowLengthOf(String attributeName) {
+        if (!attributeName.startsWith(AVERAGE_ATTRIBUTE_PREFIX)) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(attributeName.substring(AVERAGE_ATTRIBUTE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        MultiSma copy = copyOf();
+
+        return new CompiledMultiSma(copy, copy.getWindowLengthValues());
+    }
+
+    /**
+     * Returns a new {@link MultiSma} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link MultiSma}
+     */
+    public static MultiSma newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        MultiSma multiSma = new MultiSma(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        multiSma.addParameter(
+                Parameter.stringParameterWithIdAndName(WINDOW_LENGTHS_PARAMETER_ID, "Time windows").
+                        description(DEFAULT_WINDOW_LENGTHS_DESCRIPTION).
+                        defaultValue("10,50,200").required(true)
+        );
+
+        // only a single double input
+        multiSma.addInput(
+                ProcessorInput.doubleInputWithId(INPUT_ID).name("Input").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // the averages of the window lengths are added to the output event by validate
+        try {
+            multiSma.setOutput(
+                    ProcessorOutput.doubleOutputWithId(OUTPUT_ID).name("SMA").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("average")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the MultiSma with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return multiSma;
+    }
+
+    /**
+     * This {@link CompiledProcessor} keeps the values in a single circular array as long as the longest window and a
+     * running sum for every window length; a new value is added to every sum and the value that leaves a window is
+     * subtracted from its sum, so an event takes time proportional to the number of window lengths. The sums are
+     * recomputed from the array once every turn of it, so rounding errors do not accumulate.
+     */
+    static class CompiledMultiSma extends CompiledProcessor<Void> {
+        private final String inputAttributeName;
+        private final String outputAttributeName;
+        private final int[] windowLengths;
+        private final String[] averageAttributeNames;
+
+        private final double[] values;
+        private final double[] sums;
+        private long count;
+        private int next;
+
+        protected CompiledMultiSma(MultiSma multiSma, List<Integer> windowLengths) {
+            super(multiSma);
+
+            this.inputAttributeName = multiSma.getInput().getSourceAttributeName();
+            this.outputAttributeName = multiSma.getOutputAttributeName();
+
+            this.windowLengths = new int[windowLengths.size()];
+            this.averageAttributeNames = new String[windowLengths.size()];
+            int longest = 0;
+            for (int i = 0; i < this.windowLengths.length; ++i) {
+                this.windowLengths[i] = windowLengths.get(i);
+                this.averageAttributeNames[i] = AVERAGE_ATTRIBUTE_PREFIX + windowLengths.get(i);
+                longest = Math.max(longest, windowLengths.get(i));
+            }
+
+            this.values = new double[longest];
+            this.sums = new double[windowLengths.size()];
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            // multi sma only has a single event
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            Double newItem = event.getAttributeAsDouble(inputAttributeName);
+            if (newItem == null) {
+                newItem = 0D;
+            }
+
+            for (int i = 0; i < windowLengths.length; ++i) {
+                sums[i] += newItem;
+                if (count >= windowLengths[i]) {
+                    // the value that was added window length events ago leaves the window
+                    sums[i] -= values[(next - windowLengths[i] + values.length) % values.length];
+                }
+            }
+            values[next] = newItem;
+            next = (next + 1) % values.length;
+            count++;
+
+            if (next == 0) {
+                recomputeSums();
+            }
+
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(windowLengths.length + 1);
+            for (int i = 0; i < windowLengths.length; ++i) {
+                double average = sums[i] / Math.min(count, windowLengths[i]);
+                data.put(averageAttributeNames[i], average);
+                if (i == 0) {
+                    data.put(outputAttributeName, average);
+                }
+            }
+
+            return new Event(data);
+        }
+
+        private void recomputeSums() {
+            for (int i = 0; i < windowLengths.length; ++i) {
+                double sum = 0;
+                for (int j = 1; j <= Math.min(count, windowLengths[i]); ++j) {
+                    sum += values[(next - j + values.length) % values.length];
+                }
+                sums[i] = sum;
+            }
+        }
+    }
+}
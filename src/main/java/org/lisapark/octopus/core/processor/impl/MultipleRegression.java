@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} fits the linear model <code>y = a + b1*x1 + ... + bn*xn</code> by least squares over a
+ * sliding window of the last events, where y is the attribute of the input and x1 to xn are the regressor
+ * attributes of the same source. For every event the prediction of the model for the event is produced together
+ * with the intercept and the coefficients, the coefficient of regressor x is the attribute <code>b_x</code>.
+ * <p/>
+ * No prediction is produced until the window holds more events than there are coefficients, or while the
+ * regressors of the window are linearly dependent.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class MultipleRegression extends Processor<Void> {
+    private static final String DEFAULT_NAME = "MultipleRegression";
+    private static final String DEFAULT_DESCRIPTION = "Fits y = a + b1*x1 + ... + bn*xn over a sliding window.";
+    private static final String DEFAULT_REGRESSORS_DESCRIPTION = "Comma separated attributes of the input source" +
+            " used as regressors.";
+    private static final String DEFAULT_WINDOW_LENGTH_DESCRIPTION = "Number of events to consider when fitting the model.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Dependent variable y.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Prediction of the model for the event.";
+
+    private static final int REGRESSORS_PARAMETER_ID = 1;
+    private static final int WINDOW_LENGTH_PARAMETER_ID = 2;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String INTERCEPT_ATTRIBUTE = "intercept";
+    private static final String COEFFICIENT_ATTRIBUTE_PREFIX = "b_";
+
+    protected MultipleRegression(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected MultipleRegression(UUID id, MultipleRegression copyFromRegression) {
+        super(id, copyFromRegression);
+    }
+
+    protected MultipleRegression(MultipleRegression copyFromRegression) {
+        super(copyFromRegression);
+    }
+
+    public String getRegressors() {
+        return getParameter(REGRESSORS_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setRegressors(String regressors) throws ValidationException {
+        getParameter(REGRESSORS_PARAMETER_ID).setValue(regressors);
+    }
+
+    public int getWindowLength() {
+        return getParameter(WINDOW_LENGTH_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWindowLength(int windowLength) throws ValidationException {
+        getParameter(WINDOW_LENGTH_PARAMETER_ID).setValue(windowLength);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a multiple regression, the regressors are attributes of its source
+        return getInputs().get(0);
+    }
+
+    List<String> getRegressorNames() {
+        List<String> names = Lists.newArrayList();
+
+        String regressors = getRegressors();
+        if (regressors != null) {
+            for (String name : regressors.split(",")) {
+                if (name.trim().length() > 0 && !names.contains(name.trim())) {
+                    names.add(name.trim());
+                }
+            }
+        }
+
+        return names;
+    }
+
+    @Override
+    public MultipleRegression newInstance() {
+        return new MultipleRegression(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public MultipleRegression copyOf() {
+        return new MultipleRegression(this);
+    }
+
+    /**
+     * Validates the regressors against the attributes of the input source in addition to the standard validation,
+     * and makes the output have one coefficient attribute for every regressor.
+     *
+     * @throws ValidationException if a regressor is not an attribute of the source
+     */
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        List<String> names = getRegressorNames();
+        if (names.isEmpty()) {
+            throw new ValidationException("At least one regressor is required.");
+        }
+        if (names.size() >= getWindowLength()) {
+            throw new ValidationException("The window should be longer than the number of regressors.");
+        }
+
+        EventType sourceEventType = getInput().getSource().getOutput().getEventType();
+        for (String name : names) {
+            if (!sourceEventType.containsAttributeWithName(name)) {
+                throw new ValidationException(String.format("The input source has no attribute named '%s'", name));
+            }
+        }
+
+        updateCoefficientAttributes(names);
+    }
+
+    private void updateCoefficientAttributes(List<String> names) throws ValidationException {
+        ProcessorOutput output = getOutput();
+
+        for (Attribute attribute : output.getEventType().getAttributes()) {
+            String name = attribute.getName();
+            if (name.startsWith(COEFFICIENT_ATTRIBUTE_PREFIX) &&
+                    !names.contains(name.substring(COEFFICIENT_ATTRIBUTE_PREFIX.length()))) {
+                output.removeAttribute(attribute);
+            }
+        }
+
+        for (String name : names) {
+            if (output.getAttributeByName(COEFFICIENT_ATTRIBUTE_PREFIX + name) == null) {
+                output.addAttribute(Attribute.doubleAttribute(COEFFICIENT_ATTRIBUTE_PREFIX + name));
+            }
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        MultipleRegression copy = copyOf();
+
+        return new CompiledMultipleRegression(copy);
+    }
+
+    /**
+     * Returns a new {@link MultipleRegression} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link MultipleRegression}
+     */
+    public static MultipleRegression newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        MultipleRegression regression = new MultipleRegression(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        regression.addParameter(
+                Parameter.stringParameterWithIdAndName(REGRESSORS_PARAMETER_ID, "Regressors").
+                        description(DEFAULT_REGRESSORS_DESCRIPTION).
+                        required(true)
+        );
+        regression.addParameter(
+                Parameter.integerParameterWithIdAndName(WINDOW_LENGTH_PARAMETER_ID, "Time-window").
+                        description(DEFAULT_WINDOW_LENGTH_DESCRIPTION).
+                        defaultValue(1000).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(2, "Time-window should be greater than 1."))
+        );
+
+        // only a single double input
+        regression.addInput(
+                ProcessorInput.doubleInputWithId(INPUT_ID).name("Y").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // the prediction is the output attribute, the coefficients are added to the output event by validate
+        try {
+            ProcessorOutput output = ProcessorOutput.doubleOutputWithId(OUTPUT_ID).name("Prediction").
+                    description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("prediction").build();
+            output.addAttribute(Attribute.doubleAttribute(INTERCEPT_ATTRIBUTE));
+
+            regression.setOutput(output);
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the MultipleRegression with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return regression;
+    }
+
+    /**
+     * This {@link CompiledProcessor} keeps the events of the window in a circular array and the sufficient
+     * statistics X'X and X'y of the window, which are updated by adding the new and subtracting the evicted event.
+     * The normal equations are solved by a Cholesky decomposition of X'X, so the cost of an event depends on the
+     * number of regressors only and not on the length of the window. To keep the rounding errors of the updates
+     * from accumulating the statistics are recomputed from the window once every window length events.
+     */
+    static class CompiledMultipleRegression extends CompiledProcessor<Void> {
+        private final String inputAttributeName;
+        private final String outputAttributeName;
+        private final String[] regressorNames;
+        private final String[] coefficientAttributeNames;
+
+        /**
+         * Number of coefficients, the intercept and one per regressor
+         */
+        private final int size;
+        private final int windowLength;
+
+        /**
+         * Rows of the window, each row is 1, x1, ..., xn, y
+         */
+        private final double[][] rows;
+        private int count;
+        private int next;
+        private long numberOfUpdates;
+
+        private final double[][] xtx;
+        private final double[] xty;
+
+        private final double[][] cholesky;
+        private final double[] coefficients;
+        private final double[] row;
+
+        protected CompiledMultipleRegression(MultipleRegression regression) {
+            super(regression);
+
+            this.inputAttributeName = regression.getInput().getSourceAttributeName();
+            this.outputAttributeName = regression.getOutputAttributeName();
+
+            List<String> names = regression.getRegressorNames();
+            this.regressorNames = names.toArray(new String[names.size()]);
+            this.coefficientAttributeNames = new String[regressorNames.length];
+            for (int i = 0; i < regressorNames.length; ++i) {
+                coefficientAttributeNames[i] = COEFFICIENT_ATTRIBUTE_PREFIX + regressorNames[i];
+            }
+
+            this.size = regressorNames.length + 1;
+            this.windowLength = regression.getWindowLength();
+            this.rows = new double[windowLength][size + 1];
+
+            this.xtx = new double[size][size];
+            this.xty = new double[size];
+            this.cholesky = new double[size][size];
+            this.coefficients = new double[size];
+            this.row = new double[size + 1];
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            if (!readRow(event)) {
+                return null;
+            }
+
+            if (count == windowLength) {
+                update(rows[next], -1);
+            } else {
+                count++;
+            }
+            System.arraycopy(row, 0, rows[next], 0, row.length);
+            next = (next + 1) % windowLength;
+
+            if (++numberOfUpdates % windowLength == 0) {
+                recompute();
+            } else {
+                update(row, 1);
+            }
+
+            if (count <= size || !solve()) {
+                return null;
+            }
+
+            double prediction = 0;
+            for (int i = 0; i < size; ++i) {
+                prediction += coefficients[i] * row[i];
+            }
+
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(size + 1);
+            data.put(outputAttributeName, prediction);
+            data.put(INTERCEPT_ATTRIBUTE, coefficients[0]);
+            for (int i = 0; i < coefficientAttributeNames.length; ++i) {
+                data.put(coefficientAttributeNames[i], coefficients[i + 1]);
+            }
+
+            return new Event(data);
+        }
+
+        /**
+         * Reads 1, x1, ..., xn, y of the event into the row, returns false if a value is missing.
+         */
+        private boolean readRow(Event event) {
+            row[0] = 1;
+            for (int i = 0; i < regressorNames.length; ++i) {
+                Double value = event.getAttributeAsDouble(regressorNames[i]);
+                if (value == null || value.isNaN()) {
+                    return false;
+                }
+                row[i + 1] = value;
+            }
+
+            Double y = event.getAttributeAsDouble(inputAttributeName);
+            if (y == null || y.isNaN()) {
+                return false;
+            }
+            row[size] = y;
+
+            return true;
+        }
+
+        /**
+         * Adds the row to the statistics with sign 1, or removes it with sign -1. Only the lower triangle of X'X
+         * is maintained.
+         */
+        private void update(double[] values, int sign) {
+            double y = values[size];
+            for (int i = 0; i < size; ++i) {
+                double xi = sign * values[i];
+                for (int j = 0; j <= i; ++j) {
+                    xtx[i][j] += xi * values[j];
+                }
+                xty[i] += xi * y;
+            }
+        }
+
+        private void recompute() {
+            for (int i = 0; i < size; ++i) {
+                Arrays.fill(xtx[i], 0);
+            }
+            Arrays.fill(xty, 0);
+
+            for (int r = 0; r < count; ++r) {
+                update(rows[r], 1);
+            }
+        }
+
+        /**
+         * Solves X'X b = X'y with the Cholesky decomposition X'X = LL', returns false if X'X is not positive
+         * definite, i.e. the regressors of the window are linearly dependent.
+         */
+        private boolean solve() {
+            for (int i = 0; i < size; ++i) {
+                for (int j = 0; j <= i; ++j) {
+                    double sum = xtx[i][j];
+                    for (int k = 0; k < j; ++k) {
+                        sum -= cholesky[i][k] * cholesky[j][k];
+                    }
+
+                    if (i == j) {
+                        if (sum <= 1e-12 * Math.abs(xtx[i][i])) {
+                            return false;
+                        }
+                        cholesky[i][i] = Math.sqrt(sum);
+                    } else {
+                        cholesky[i][j] = sum / cholesky[j][j];
+                    }
+                }
+            }
+
+            // forward substitution L z = X'y, then back substitution L' b = z
+            for (int i = 0; i < size; ++i) {
+                double sum = xty[i];
+                for (int k = 0; k < i; ++k) {
+                    sum -= cholesky[i][k] * coefficients[k];
+                }
+                coefficients[i] = sum / cholesky[i][i];
+            }
+            for (int i = size - 1; i >= 0; --i) {
+                double sum = coefficients[i];
+                for (int k = i + 1; k < size; ++k) {
+                    sum -= cholesky[k][i] * coefficients[k];
+                }
+                coefficients[i] = sum / cholesky[i][i];
+            }
+
+            return true;
+        }
+    }
+}
@@ -136,6 +136,11 @@ public class Or extends Processor<Void> {
             secondAttributeName = addition.getSecondInput().getSourceAttributeName();
         }
 
+        @Override
+        public boolean isStateless() {
+            return true;
+        }
+
         @Override
         public Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
             Event firstEvent = eventsByInputId.get(FIRST_INPUT_ID);
@@ -133,6 +133,11 @@ public class PipeString extends Processor<Double> {
             this.inputAttributeName = pipe.getInput().getSourceAttributeName();
         }
 
+        @Override
+        public boolean isStateless() {
+            return true;
+        }
+
         @Override
         public Object processEvent(ProcessorContext<Double> ctx, Map<Integer, Event> eventsByInputId) {
             // sma only has a single event
@@ -133,6 +133,11 @@ public class PipeStringDouble extends Processor<String> {
             this.inputAttributeName = pipe.getInput().getSourceAttributeName();
         }
 
+        @Override
+        public boolean isStateless() {
+            return true;
+        }
+
         @Override
         public Object processEvent(ProcessorContext<String> ctx, Map<Integer, Event> eventsByInputId) {
             // sma only has a single event
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.EventTimes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} turns an irregular series into a regular one. Events are put into buckets of a fixed
+ * interval by their time and one event is produced for every bucket once it is closed, with the open, high, low and
+ * close value of the bucket, the number of events and their sum.
+ * <p/>
+ * The time of an event is taken from the time attribute if one is configured, otherwise it is the arrival time. A
+ * bucket is closed by the first event of a later bucket, the last bucket is closed when the processing ends. Empty
+ * buckets in between can be filled with events that repeat the last close with a count of 0. Events older than the
+ * current bucket, and events without a time when a time attribute is configured, are ignored. A bucket event has
+ * only the attributes of the bucket, not those of the events in it.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class Resample extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Resample";
+    private static final String DEFAULT_DESCRIPTION = "Produces one open/high/low/close event per time interval.";
+    private static final String DEFAULT_INTERVAL_DESCRIPTION = "Length of a bucket in seconds.";
+    private static final String DEFAULT_GAP_FILL_DESCRIPTION = "Maximum number of empty buckets filled with the last" +
+            " close, 0 does not fill gaps.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Value to resample.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Last value of the bucket.";
+
+    private static final int INTERVAL_PARAMETER_ID = 1;
+    private static final int TIME_ATTRIBUTE_PARAMETER_ID = 2;
+    private static final int GAP_FILL_PARAMETER_ID = 3;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String OPEN_ATTRIBUTE = "open";
+    private static final String HIGH_ATTRIBUTE = "high";
+    private static final String LOW_ATTRIBUTE = "low";
+    private static final String COUNT_ATTRIBUTE = "count";
+    private static final String SUM_ATTRIBUTE = "sum";
+    private static final String BUCKET_START_ATTRIBUTE = "bucketStart";
+
+    protected Resample(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected Resample(UUID id, Resample copyFromResample) {
+        super(id, copyFromResample);
+    }
+
+    protected Resample(Resample copyFromResample) {
+        super(copyFromResample);
+    }
+
+    public int getInterval() {
+        return getParameter(INTERVAL_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setInterval(int interval) throws ValidationException {
+        getParameter(INTERVAL_PARAMETER_ID).setValue(interval);
+    }
+
+    public String getTimeAttribute() {
+        return getParameter(TIME_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeAttribute(String timeAttribute) throws ValidationException {
+        getParameter(TIME_ATTRIBUTE_PARAMETER_ID).setValue(timeAttribute);
+    }
+
+    public int getGapFill() {
+        return getParameter(GAP_FILL_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setGapFill(int gapFill) throws ValidationException {
+        getParameter(GAP_FILL_PARAMETER_ID).setValue(gapFill);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a resample
+        return getInputs().get(0);
+    }
+
+    @Override
+    public Resample newInstance() {
+        return new Resample(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public Resample copyOf() {
+        return new Resample(this);
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        Resample copy = copyOf();
+
+        return new CompiledResample(copy);
+    }
+
+    /**
+     * Returns a new {@link Resample} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link Resample}
+     */
+    public static Resample newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        Resample resample = new Resample(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        resample.addParameter(
+                Parameter.integerParameterWithIdAndName(INTERVAL_PARAMETER_ID, "Interval (sec)").
+                        description(DEFAULT_INTERVAL_DESCRIPTION).
+                        defaultValue(60).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Interval should be greater than 0."))
+        );
+        resample.addParameter(EventTimes.timeAttributeParameter(TIME_ATTRIBUTE_PARAMETER_ID));
+        resample.addParameter(
+                Parameter.integerParameterWithIdAndName(GAP_FILL_PARAMETER_ID, "Gap fill").
+                        description(DEFAULT_GAP_FILL_DESCRIPTION).
+                        defaultValue(0).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(0, "Gap fill cannot be negative."))
+        );
+
+        // only a single double input
+        resample.addInput(
+                ProcessorInput.doubleInputWithId(INPUT_ID).name("Value").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // the close is the output attribute, the other aggregates of the bucket are added to the output event
+        try {
+            ProcessorOutput output = ProcessorOutput.doubleOutputWithId(OUTPUT_ID).name("Close").
+                    description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("close").build();
+            output.addAttribute(Attribute.doubleAttribute(OPEN_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(HIGH_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(LOW_ATTRIBUTE));
+            output.addAttribute(Attribute.integerAttribute(COUNT_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(SUM_ATTRIBUTE));
+            output.addAttribute(Attribute.longAttribute(BUCKET_START_ATTRIBUTE));
+
+            resample.setOutput(output);
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the Resample with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return resample;
+    }
+
+    /**
+     * This {@link CompiledProcessor} keeps the aggregates of the current bucket only, each event updates them in
+     * constant time.
+     */
+    static class CompiledResample extends CompiledProcessor<Void> {
+        private static final Logger LOG = LoggerFactory.getLogger(CompiledResample.class);
+
+        private final String inputAttributeName;
+        private final String outputAttributeName;
+        private final String timeAttributeName;
+        private final long intervalMillis;
+        private final int gapFill;
+
+        private boolean bucketOpen;
+        private long bucketStart;
+        private double open;
+        private double high;
+        private double low;
+        private double close;
+        private int count;
+        private double sum;
+
+        private long numberOfLateEvents;
+
+        protected CompiledResample(Resample resample) {
+            super(resample);
+
+            this.inputAttributeName = resample.getInput().getSourceAttributeName();
+            this.outputAttributeName = resample.getOutputAttributeName();
+
+            this.timeAttributeName = EventTimes.attributeNameOf(resample.getTimeAttribute());
+            this.intervalMillis = resample.getInterval() * 1000L;
+            this.gapFill = resample.getGapFill();
+        }
+
+        @Override
+        public boolean isOutputEventComplete() {
+            return true;
+        }
+
+        /**
+         * Closes the open bucket, it will not get any more events.
+         */
+        @Override
+        public synchronized Object processEnd(ProcessorContext<Void> ctx) {
+            if (!bucketOpen) {
+                return null;
+            }
+            bucketOpen = false;
+
+            return bucketEvent(bucketStart, open, high, low, close, count, sum);
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            Double value = event.getAttributeAsDouble(inputAttributeName);
+            Long time = EventTimes.timeOf(event, timeAttributeName);
+            if (value == null || time == null) {
+                return null;
+            }
+
+            // floor, so that times before 1970 are put into the bucket that starts before them
+            long eventBucketStart = time - (((time % intervalMillis) + intervalMillis) % intervalMillis);
+
+            if (!bucketOpen) {
+                startBucket(eventBucketStart, value);
+                return null;
+            }
+
+            if (eventBucketStart < bucketStart) {
+                if (++numberOfLateEvents % 1000 == 1) {
+                    LOG.debug("Ignored {} events older than the current bucket", numberOfLateEvents);
+                }
+                return null;
+            }
+
+            if (eventBucketStart == bucketStart) {
+                high = Math.max(high, value);
+                low = Math.min(low, value);
+                close = value;
+                count++;
+                sum += value;
+                return null;
+            }
+
+            // the event closes the current bucket
+            List<Event> buckets = Lists.newArrayList();
+            buckets.add(bucketEvent(bucketStart, open, high, low, close, count, sum));
+
+            long numberOfGaps = (eventBucketStart - bucketStart) / intervalMillis - 1;
+            for (long gap = 1; gap <= Math.min(numberOfGaps, gapFill); ++gap) {
+                buckets.add(bucketEvent(bucketStart + gap * intervalMillis, close, close, close, close, 0, 0));
+            }
+
+            startBucket(eventBucketStart, value);
+
+            return buckets;
+        }
+
+        private void startBucket(long start, double value) {
+            bucketOpen = true;
+            bucketStart = start;
+            open = value;
+            high = value;
+            low = value;
+            close = value;
+            count = 1;
+            sum = value;
+        }
+
+        private Event bucketEvent(long start, double open, double high, double low, double close, int count, double sum) {
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(7);
+            data.put(OPEN_ATTRIBUTE, open);
+            data.put(HIGH_ATTRIBUTE, high);
+            data.put(LOW_ATTRIBUTE, low);
+            data.put(outputAttributeName, close);
+            data.put(COUNT_ATTRIBUTE, count);
+            data.put(SUM_ATTRIBUTE, sum);
+            data.put(BUCKET_START_ATTRIBUTE, start);
+
+            return new Event(data);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.EventTimes;
+import org.lisapark.octopus.util.Keys;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} lets only a sample of its input events through, so that slow sinks can be connected to
+ * fast streams. The mode selects how the sample is taken:
+ * <ul>
+ * <li><b>every</b> - every n-th event</li>
+ * <li><b>rate</b> - at most n events per window, the first ones of the window</li>
+ * <li><b>reservoir</b> - a uniform random sample of n events of every window, produced when the window is over</li>
+ * <li><b>stratified</b> - like reservoir but n events for every value of the key attribute</li>
+ * </ul>
+ * The random modes use a generator with a fixed seed, so the same input gives the same sample. Windows follow the
+ * time of the events, taken from the time attribute if one is configured, otherwise it is the arrival time. A
+ * window is closed by the first event of a later window, the sample of the last window is produced when the
+ * processing ends. When a time attribute is configured, the window modes leave out events without a time.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class Sample extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Sample";
+    private static final String DEFAULT_DESCRIPTION = "Lets a sample of the events through.";
+    private static final String DEFAULT_MODE_DESCRIPTION = "every, rate, reservoir or stratified.";
+    private static final String DEFAULT_SIZE_DESCRIPTION = "n of the mode: every n-th event, or n events per window" +
+            " (per key for stratified).";
+    private static final String DEFAULT_WINDOW_DESCRIPTION = "Length of a window in seconds for the rate, reservoir" +
+            " and stratified modes.";
+    private static final String DEFAULT_SEED_DESCRIPTION = "Seed of the random generator.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Key of the event, only used by the stratified mode.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "True for every event of the sample.";
+
+    private static final int MODE_PARAMETER_ID = 1;
+    private static final int SIZE_PARAMETER_ID = 2;
+    private static final int WINDOW_PARAMETER_ID = 3;
+    private static final int SEED_PARAMETER_ID = 4;
+    private static final int TIME_ATTRIBUTE_PARAMETER_ID = 5;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    static enum Mode {
+        EVERY, RATE, RESERVOIR, STRATIFIED
+    }
+
+    protected Sample(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected Sample(UUID id, Sample copyFromSample) {
+        super(id, copyFromSample);
+    }
+
+    protected Sample(Sample copyFromSample) {
+        super(copyFromSample);
+    }
+
+    public String getMode() {
+        return getParameter(MODE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setMode(String mode) throws ValidationException {
+        getParameter(MODE_PARAMETER_ID).setValue(mode);
+    }
+
+    public int getSize() {
+        return getParameter(SIZE_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setSize(int size) throws ValidationException {
+        getParameter(SIZE_PARAMETER_ID).setValue(size);
+    }
+
+    public int getWindow() {
+        return getParameter(WINDOW_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWindow(int window) throws ValidationException {
+        getParameter(WINDOW_PARAMETER_ID).setValue(window);
+    }
+
+    public int getSeed() {
+        return getParameter(SEED_PARAMETER_ID).getValueAsInteger();
+    }
+
+    public String getTimeAttribute() {
+        return getParameter(TIME_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeAttribute(String timeAttribute) throws ValidationException {
+        getParameter(TIME_ATTRIBUTE_PARAMETER_ID).setValue(timeAttribute);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a sample
+        return getInputs().get(0);
+    }
+
+    @Override
+    public Sample newInstance() {
+        return new Sample(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public Sample copyOf() {
+        return new Sample(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        getModeValue();
+    }
+
+    Mode getModeValue() throws ValidationException {
+        String mode = getMode();
+
+        try {
+            return Mode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(String.format("%s is not a valid sample mode, use %s", mode, DEFAULT_MODE_DESCRIPTION));
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        Sample copy = copyOf();
+
+        return new CompiledSample(copy, copy.getModeValue());
+    }
+
+    /**
+     * Returns a new {@link Sample} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link Sample}
+     */
+    public static Sample newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        Sample sample = new Sample(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        sample.addParameter(
+                Parameter.stringParameterWithIdAndName(MODE_PARAMETER_ID, "Mode").
+                        description(DEFAULT_MODE_DESCRIPTION).
+                        defaultValue("every").required(true)
+        );
+        sample.addParameter(
+                Parameter.integerParameterWithIdAndName(SIZE_PARAMETER_ID, "Sample size").
+                        description(DEFAULT_SIZE_DESCRIPTION).
+                        defaultValue(10).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Sample size should be greater than 0."))
+        );
+        sample.addParameter(
+                Parameter.integerParameterWithIdAndName(WINDOW_PARAMETER_ID, "Window (sec)").
+                        description(DEFAULT_WINDOW_DESCRIPTION).
+                        defaultValue(60).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Window should be greater than 0."))
+        );
+        sample.addParameter(
+                Parameter.integerParameterWithIdAndName(SEED_PARAMETER_ID, "Seed").
+                        description(DEFAULT_SEED_DESCRIPTION).
+                        defaultValue(0).required(true)
+        );
+        sample.addParameter(EventTimes.timeAttributeParameter(TIME_ATTRIBUTE_PARAMETER_ID));
+
+        sample.addInput(
+                ProcessorInput.objectInputWithId(INPUT_ID).name("Key").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        try {
+            sample.setOutput(
+                    ProcessorOutput.booleanOutputWithId(OUTPUT_ID).name("Sampled").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("sampled")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the Sample with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return sample;
+    }
+
+    /**
+     * This {@link CompiledProcessor} decides for every event in constant time. The every and rate modes keep a
+     * counter only; the reservoir modes keep preallocated reservoirs that are reused from window to window, so no
+     * objects are created for an event unless it ends up in the sample.
+     */
+    static class CompiledSample extends CompiledProcessor<Void> {
+        private final Mode mode;
+        private final int size;
+        private final long windowMillis;
+        private final String keyAttributeName;
+        private final String outputAttributeName;
+        private final String timeAttributeName;
+
+        private final Random random;
+
+        private long count;
+        private boolean windowStarted;
+        private long windowStart;
+
+        private final Reservoir reservoir;
+        private final Map<Object, Reservoir> reservoirsByKey = Maps.newHashMap();
+
+        protected CompiledSample(Sample sample, Mode mode) {
+            super(sample);
+
+            this.mode = mode;
+            this.size = sample.getSize();
+            this.windowMillis = sample.getWindow() * 1000L;
+            this.keyAttributeName = sample.getInput().getSourceAttributeName();
+            this.outputAttributeName = sample.getOutputAttributeName();
+
+            this.timeAttributeName = EventTimes.attributeNameOf(sample.getTimeAttribute());
+            this.random = new Random(sample.getSeed());
+            this.reservoir = (mode == Mode.RESERVOIR) ? new Reservoir(size) : null;
+        }
+
+        /**
+         * The sampled events of the reservoir modes are copies of the events of the window, not of the event that
+         * closed it.
+         */
+        @Override
+        public boolean isOutputEventComplete() {
+            return true;
+        }
+
+        /**
+         * Produces the sample of the last window of the reservoir modes.
+         */
+        @Override
+        public synchronized Object processEnd(ProcessorContext<Void> ctx) {
+            List<Event> sample = Lists.newArrayList();
+
+            if (mode == Mode.RESERVOIR) {
+                reservoir.drainTo(sample, outputAttributeName);
+            } else if (mode == Mode.STRATIFIED) {
+                drainReservoirsByKey(sample);
+            }
+            windowStarted = false;
+
+            return sample.isEmpty() ? null : sample;
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            if (mode == Mode.EVERY) {
+                return (count++ % size == 0) ? Boolean.TRUE : null;
+            }
+
+            Long time = EventTimes.timeOf(event, timeAttributeName);
+            if (time == null) {
+                return null;
+            }
+
+            switch (mode) {
+                case RATE:
+                    if (startWindowIfOver(time)) {
+                        count = 0;
+                    }
+                    return (count++ < size) ? Boolean.TRUE : null;
+
+                case RESERVOIR: {
+                    List<Event> sample = null;
+                    if (startWindowIfOver(time)) {
+                        sample = Lists.newArrayListWithCapacity(reservoir.size());
+                        reservoir.drainTo(sample, outputAttributeName);
+                    }
+                    reservoir.add(event, random);
+
+                    return sample;
+                }
+
+                default: {
+                    List<Event> sample = null;
+                    if (startWindowIfOver(time)) {
+                        sample = Lists.newArrayList();
+                        drainReservoirsByKey(sample);
+                    }
+
+                    Object key = Keys.keyOf(event.getData().get(keyAttributeName));
+                    Reservoir reservoirForKey = reservoirsByKey.get(key);
+                    if (reservoirForKey == null) {
+                        reservoirForKey = new Reservoir(size);
+                        reservoirsByKey.put(key, reservoirForKey);
+                    }
+                    reservoirForKey.add(event, random);
+
+                    return sample;
+                }
+            }
+        }
+
+        /**
+         * Returns true if the event is after the current window, the window of the event is started then. Events
+         * before the current window count to it.
+         */
+        private boolean startWindowIfOver(long time) {
+            if (!windowStarted || time - windowStart >= windowMillis) {
+                boolean hadWindow = windowStarted;
+                windowStarted = true;
+                windowStart = time - (((time % windowMillis) + windowMillis) % windowMillis);
+
+                return hadWindow;
+            }
+            return false;
+        }
+
+        private void drainReservoirsByKey(List<Event> sample) {
+            Iterator<Reservoir> iterator = reservoirsByKey.values().iterator();
+
+            while (iterator.hasNext()) {
+                Reservoir reservoirForKey = iterator.next();
+
+                if (reservoirForKey.size() == 0) {
+                    // no events for the key during the last window, forget it
+                    iterator.remove();
+                } else {
+                    reservoirForKey.drainTo(sample, outputAttributeName);
+                }
+            }
+        }
+    }
+
+    /**
+     * A uniform random sample of fixed size of the events added to it, see Vitter's algorithm R.
+     */
+    static class Reservoir {
+        private final Event[] events;
+        private long numberOfEventsSeen;
+
+        Reservoir(int size) {
+            this.events = new Event[size];
+        }
+
+        void add(Event event, Random random) {
+            if (numberOfEventsSeen < events.length) {
+                events[(int) numberOfEventsSeen] = event;
+            } else {
+                long index = (long) (random.nextDouble() * (numberOfEventsSeen + 1));
+                if (index < events.length) {
+                    events[(int) index] = event;
+                }
+            }
+            numberOfEventsSeen++;
+        }
+
+        int size() {
+            return (int) Math.min(numberOfEventsSeen, events.length);
+        }
+
+        void drainTo(List<Event> sample, String outputAttributeName) {
+            for (int i = 0; i < size(); ++i) {
+                Map<String, Object> data = Maps.newHashMap(events[i].getData());
+                data.put(outputAttributeName, Boolean.TRUE);
+                sample.add(new Event(data));
+
+                events[i] = null;
+            }
+            numberOfEventsSeen = 0;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.EventTimes;
+import org.lisapark.octopus.util.Keys;
+import org.lisapark.octopus.util.expression.EventExpression;
+import org.lisapark.octopus.util.expression.ExpressionCompiler;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This {@link Processor} detects sequences of events with the same key, e.g. for the same machine. A pattern is a
+ * list of steps separated by <code>-&gt;</code>, every step is a condition in parentheses over the attributes of the
+ * input event:
+ * <pre>
+ * (state == 1) -&gt; (temperature &gt; 90) within 300 -&gt; !(state == 0) for 600
+ * </pre>
+ * means a start, followed by a high temperature within 5 minutes, followed by 10 minutes without a stop.
+ * <code>within</code> limits the seconds since the previous step, <code>!(...) for</code> is a step that completes
+ * when no matching event arrived for the given number of seconds. The first step cannot be negated.
+ * <p/>
+ * The pattern is compiled into a non-deterministic automaton with one state per step. Partial matches wait in the
+ * state of their next step; all partial matches of a key that advance with the same event are merged into one, so
+ * the state does not grow with the number of ways a sequence can be matched. Partial matches are kept at most for
+ * the time window of the pattern. When the last step completes an event with the attributes of the last matched
+ * event is produced.
+ * <p/>
+ * The time of an event is taken from the time attribute if one is configured, otherwise it is the arrival time.
+ * Time never goes back, a late event counts as current, and events without a time are left out when a time
+ * attribute is configured.
+ * <p/>
+ * A negated step completes on the next event of any key after its deadline, or, with the arrival time, on the next
+ * tick of the runtime when no events arrive. The runtime ticks a pattern with negated steps every second, so a
+ * negated step that ends a pattern is reported at most a second late on a quiet stream. Event times only advance
+ * with the events, so such a pattern is not ticked.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class SequencePattern extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Sequence Pattern";
+    private static final String DEFAULT_DESCRIPTION = "Detects sequences of events with the same key.";
+    private static final String DEFAULT_PATTERN_DESCRIPTION = "Steps separated by ->, e.g." +
+            " (state == 1) -> (temperature > 90) within 300 -> !(state == 0) for 600";
+    private static final String DEFAULT_TIME_WINDOW_DESCRIPTION = "Maximum number of seconds from the first to the" +
+            " last step of a match.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Attribute that holds the key, e.g. the machine id.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "True when the pattern is matched.";
+
+    private static final int PATTERN_PARAMETER_ID = 1;
+    private static final int TIME_WINDOW_PARAMETER_ID = 2;
+    private static final int TIME_ATTRIBUTE_PARAMETER_ID = 3;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    /**
+     * Milliseconds between the ticks that complete negated steps when no events arrive
+     */
+    private static final long ABSENCE_TICK_INTERVAL_MILLIS = 1000L;
+
+    private static final String STEP_SEPARATOR = "->";
+    private static final Pattern STEP = Pattern.compile("(!?)\\s*\\((.*)\\)\\s*(?:(within|for)\\s+(\\d+))?");
+
+    protected SequencePattern(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected SequencePattern(UUID id, SequencePattern copyFromPattern) {
+        super(id, copyFromPattern);
+    }
+
+    protected SequencePattern(SequencePattern copyFromPattern) {
+        super(copyFromPattern);
+    }
+
+    public String getPattern() {
+        return getParameter(PATTERN_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setPattern(String pattern) throws ValidationException {
+        getParameter(PATTERN_PARAMETER_ID).setValue(pattern);
+    }
+
+    public int getTimeWindow() {
+        return getParameter(TIME_WINDOW_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeWindow(int timeWindow) throws ValidationException {
+        getParameter(TIME_WINDOW_PARAMETER_ID).setValue(timeWindow);
+    }
+
+    public String getTimeAttribute() {
+        return getParameter(TIME_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeAttribute(String timeAttribute) throws ValidationException {
+        getParameter(TIME_ATTRIBUTE_PARAMETER_ID).setValue(timeAttribute);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a pattern
+        return getInputs().get(0);
+    }
+
+    @Override
+    public SequencePattern newInstance() {
+        return new SequencePattern(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public SequencePattern copyOf() {
+        return new SequencePattern(this);
+    }
+
+    /**
+     * Validates the steps of the pattern in addition to the standard validation.
+     *
+     * @throws ValidationException if the pattern is not valid
+     */
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        parseSteps(false);
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        SequencePattern copy = copyOf();
+
+        return new CompiledSequencePattern(copy, copy.parseSteps(true));
+    }
+
+    /**
+     * Parses the pattern into its steps. The conditions of the steps are only compiled if specified.
+     */
+    private List<Step> parseSteps(boolean compileConditions) throws ValidationException {
+        String pattern = getPattern();
+        EventType eventType = getInput().getSource().getOutput().getEventType();
+        List<Step> steps = Lists.newArrayList();
+
+        for (String stepDefinition : pattern.split(STEP_SEPARATOR)) {
+            Matcher matcher = STEP.matcher(stepDefinition.trim());
+            if (!matcher.matches()) {
+                throw new ValidationException(String.format("Step '%s' of pattern '%s' should look like (condition)," +
+                        " (condition) within seconds or !(condition) for seconds", stepDefinition.trim(), pattern));
+            }
+
+            boolean absence = matcher.group(1).length() > 0;
+            String condition = matcher.group(2);
+            String keyword = matcher.group(3);
+            long windowMillis = (matcher.group(4) == null) ? 0 : Long.parseLong(matcher.group(4)) * 1000L;
+
+            if (absence && !"for".equals(keyword)) {
+                throw new ValidationException(String.format("Negated step '%s' needs a duration, e.g. !(...) for 60",
+                        stepDefinition.trim()));
+            }
+            if (!absence && "for".equals(keyword)) {
+                throw new ValidationException(String.format("Use within instead of for in step '%s'", stepDefinition.trim()));
+            }
+            if (absence && steps.isEmpty()) {
+                throw new ValidationException(String.format("The first step of pattern '%s' cannot be negated", pattern));
+            }
+
+            ExpressionCompiler compiler = EventExpression.parse(condition, eventType);
+            if (compiler.getType() != ExpressionCompiler.Type.BOOLEAN) {
+                throw new ValidationException(String.format("Condition '%s' of pattern '%s' is not a boolean expression",
+                        condition, pattern));
+            }
+
+            EventExpression compiledCondition = null;
+            if (compileConditions) {
+                compiledCondition = EventExpression.compile(condition, eventType);
+            }
+            steps.add(new Step(absence, compiledCondition, windowMillis));
+        }
+
+        return steps;
+    }
+
+    /**
+     * Returns a new {@link SequencePattern} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link SequencePattern}
+     */
+    public static SequencePattern newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        SequencePattern pattern = new SequencePattern(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        pattern.addParameter(
+                Parameter.stringParameterWithIdAndName(PATTERN_PARAMETER_ID, "Pattern").
+                        description(DEFAULT_PATTERN_DESCRIPTION).
+                        required(true)
+        );
+        pattern.addParameter(
+                Parameter.integerParameterWithIdAndName(TIME_WINDOW_PARAMETER_ID, "Time window (sec)").
+                        description(DEFAULT_TIME_WINDOW_DESCRIPTION).
+                        defaultValue(3600).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Time window should be greater than 0."))
+        );
+        pattern.addParameter(EventTimes.timeAttributeParameter(TIME_ATTRIBUTE_PARAMETER_ID));
+
+        pattern.addInput(
+                ProcessorInput.objectInputWithId(INPUT_ID).name("Key").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        try {
+            pattern.setOutput(
+                    ProcessorOutput.booleanOutputWithId(OUTPUT_ID).name("Matched").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("matched")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the SequencePattern with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return pattern;
+    }
+
+    /**
+     * A step of the pattern. A positive step is taken by a matching event, within the window since the previous step
+     * if the window is not 0. A negated step is taken when no matching event arrived for the window, a matching event
+     * drops the partial matches waiting in it.
+     */
+    static class Step {
+        private final boolean absence;
+        private final EventExpression condition;
+        private final long windowMillis;
+
+        Step(boolean absence, EventExpression condition, long windowMillis) {
+            this.absence = absence;
+            this.condition = condition;
+            this.windowMillis = windowMillis;
+        }
+    }
+
+    /**
+     * This {@link CompiledProcessor} runs the automaton of the pattern. Every key has a queue of partial matches for
+     * every step, ordered by the time they entered the step, so expired partial matches are always at the head of a
+     * queue and are dropped without scanning. The partial matches waiting for a negated step of all keys are also
+     * kept in one queue per step, ordered by their deadline, so completed absences are found without scanning the
+     * keys. Keys without events for longer than the time window are dropped in least recently used order.
+     */
+    static class CompiledSequencePattern extends CompiledProcessor<Void> {
+        private final String keyAttributeName;
+        private final String outputAttributeName;
+        private final long timeWindowMillis;
+        private final String timeAttributeName;
+
+        private final Step[] steps;
+        private final boolean hasAbsences;
+        private final Map<Object, KeyState> keyStates = new LinkedHashMap<Object, KeyState>(16, 0.75f, true);
+        private final ArrayDeque<PartialMatch>[] absenceDeadlines;
+
+        /**
+         * Latest time seen, the queues are ordered by time so it never moves backwards.
+         */
+        private long latestTime = Long.MIN_VALUE;
+
+        @SuppressWarnings("unchecked")
+        protected CompiledSequencePattern(SequencePattern pattern, List<Step> steps) {
+            super(pattern);
+
+            this.keyAttributeName = pattern.getInput().getSourceAttributeName();
+            this.outputAttributeName = pattern.getOutputAttributeName();
+            this.timeWindowMillis = pattern.getTimeWindow() * 1000L;
+            this.timeAttributeName = EventTimes.attributeNameOf(pattern.getTimeAttribute());
+            this.steps = steps.toArray(new Step[steps.size()]);
+
+            boolean hasAbsences = false;
+            this.absenceDeadlines = (ArrayDeque<PartialMatch>[]) new ArrayDeque[this.steps.length];
+            for (int i = 0; i < this.steps.length; ++i) {
+                if (this.steps[i].absence) {
+                    absenceDeadlines[i] = new ArrayDeque<PartialMatch>();
+                    hasAbsences = true;
+                }
+            }
+            this.hasAbsences = hasAbsences;
+        }
+
+        @Override
+        public long getTickIntervalMillis() {
+            return (hasAbsences && timeAttributeName == null) ? ABSENCE_TICK_INTERVAL_MILLIS : 0;
+        }
+
+        /**
+         * Completes the negated steps whose deadline passed while no events arrived.
+         */
+        @Override
+        public synchronized Object processTick(ProcessorContext<Void> ctx, long now) {
+            List<Event> matches = Lists.newArrayList();
+
+            completeAbsences(now, matches);
+            evictIdleKeys(now);
+
+            return matches.isEmpty() ? null : matches;
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            Long time = EventTimes.timeOf(event, timeAttributeName);
+            if (time == null) {
+                return null;
+            }
+            latestTime = Math.max(latestTime, time);
+            long now = latestTime;
+
+            List<Event> matches = Lists.newArrayList();
+
+            completeAbsences(now, matches);
+            evictIdleKeys(now);
+
+            Object key = Keys.keyOf(event.getData().get(keyAttributeName));
+            if (key != null) {
+                KeyState keyState = keyStates.get(key);
+                if (keyState == null) {
+                    keyState = new KeyState(steps.length);
+                    keyStates.put(key, keyState);
+                }
+                keyState.lastActivity = now;
+
+                processEventForKey(keyState, event, now, matches);
+
+                if (keyState.isEmpty()) {
+                    keyStates.remove(key);
+                }
+            }
+
+            return matches.isEmpty() ? null : matches;
+        }
+
+        /**
+         * Moves the partial matches of the key with the event. The steps are visited from last to first so that a
+         * partial match is moved at most one step by an event.
+         */
+        private void processEventForKey(KeyState keyState, Event event, long now, List<Event> matches) {
+            Map<String, Object> data = event.getData();
+            long oldestAllowedStart = now - timeWindowMillis;
+
+            for (int stepIndex = steps.length - 1; stepIndex >= 0; --stepIndex) {
+                Step step = steps[stepIndex];
+                ArrayDeque<PartialMatch> waiting = keyState.waiting[stepIndex];
+
+                if (stepIndex > 0 && waiting.isEmpty()) {
+                    continue;
+                }
+                if (!step.condition.test(data)) {
+                    continue;
+                }
+
+                if (step.absence) {
+                    // the event that should not have happened, all partial matches waiting for its absence fail
+                    for (PartialMatch partialMatch : waiting) {
+                        partialMatch.dead = true;
+                    }
+                    waiting.clear();
+
+                } else if (stepIndex == 0) {
+                    advance(keyState, new PartialMatch(now, event), 1, now, matches);
+
+                } else {
+                    PartialMatch merged = null;
+                    long oldestAllowedEntry = (step.windowMillis > 0) ? now - step.windowMillis : Long.MIN_VALUE;
+
+                    for (PartialMatch partialMatch : waiting) {
+                        if (partialMatch.entered >= oldestAllowedEntry && partialMatch.start >= oldestAllowedStart) {
+                            if (merged == null || partialMatch.start < merged.start) {
+                                merged = partialMatch;
+                            }
+                        }
+                    }
+                    waiting.clear();
+
+                    if (merged != null) {
+                        merged.lastEvent = event;
+                        advance(keyState, merged, stepIndex + 1, now, matches);
+                    }
+                }
+            }
+
+            // drop the partial matches that can no longer be completed in time
+            for (int stepIndex = 1; stepIndex < steps.length; ++stepIndex) {
+                ArrayDeque<PartialMatch> waiting = keyState.waiting[stepIndex];
+                long oldestAllowedEntry = (steps[stepIndex].windowMillis > 0 && !steps[stepIndex].absence) ?
+                        now - steps[stepIndex].windowMillis : oldestAllowedStart;
+
+                while (!waiting.isEmpty() && waiting.peekFirst().entered < oldestAllowedEntry) {
+                    waiting.pollFirst().dead = true;
+                }
+            }
+        }
+
+        /**
+         * Puts the partial match into the state of the specified step, or produces a match if it was the last step.
+         * A partial match entering a state at the same time as the previous one is merged into it.
+         */
+        private void advance(KeyState keyState, PartialMatch partialMatch, int stepIndex, long time, List<Event> matches) {
+            if (stepIndex == steps.length) {
+                Map<String, Object> data = Maps.newHashMap(partialMatch.lastEvent.getData());
+                data.put(outputAttributeName, Boolean.TRUE);
+                matches.add(new Event(data));
+                return;
+            }
+
+            ArrayDeque<PartialMatch> waiting = keyState.waiting[stepIndex];
+            PartialMatch last = waiting.peekLast();
+
+            if (last != null && last.entered == time) {
+                last.start = Math.min(last.start, partialMatch.start);
+                last.lastEvent = partialMatch.lastEvent;
+                return;
+            }
+
+            partialMatch.entered = time;
+            partialMatch.stepIndex = stepIndex;
+            partialMatch.keyState = keyState;
+            waiting.addLast(partialMatch);
+
+            if (steps[stepIndex].absence) {
+                absenceDeadlines[stepIndex].addLast(partialMatch);
+            }
+        }
+
+        /**
+         * Moves on all partial matches, of any key, whose negated step has passed without a matching event.
+         */
+        private void completeAbsences(long now, List<Event> matches) {
+            for (int stepIndex = 0; stepIndex < steps.length; ++stepIndex) {
+                ArrayDeque<PartialMatch> deadlines = absenceDeadlines[stepIndex];
+                if (deadlines == null) {
+                    continue;
+                }
+
+                long windowMillis = steps[stepIndex].windowMillis;
+                while (!deadlines.isEmpty() && deadlines.peekFirst().entered + windowMillis <= now) {
+                    PartialMatch partialMatch = deadlines.pollFirst();
+
+                    if (!partialMatch.dead && partialMatch.stepIndex == stepIndex) {
+                        KeyState keyState = partialMatch.keyState;
+                        keyState.waiting[stepIndex].remove(partialMatch);
+
+                        if (partialMatch.start >= now - timeWindowMillis) {
+                            advance(keyState, partialMatch, stepIndex + 1, partialMatch.entered + windowMillis, matches);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void evictIdleKeys(long now) {
+            Iterator<KeyState> iterator = keyStates.values().iterator();
+
+            while (iterator.hasNext()) {
+                KeyState keyState = iterator.next();
+                if (keyState.lastActivity >= now - timeWindowMillis) {
+                    // the keys are in least recently used order, all following keys are more recent
+                    break;
+                }
+
+                keyState.kill();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The partial matches of one key, by the step they wait for. The queue of the first step is not used.
+     */
+    static class KeyState {
+        private final ArrayDeque<PartialMatch>[] waiting;
+        private long lastActivity;
+
+        @SuppressWarnings("unchecked")
+        KeyState(int numberOfSteps) {
+            this.waiting = (ArrayDeque<PartialMatch>[]) new ArrayDeque[numberOfSteps];
+            for (int i = 0; i < numberOfSteps; ++i) {
+                waiting[i] = new ArrayDeque<PartialMatch>();
+            }
+        }
+
+        boolean isEmpty() {
+            for (ArrayDeque<PartialMatch> partialMatches : waiting) {
+                if (!partialMatches.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void kill() {
+            for (ArrayDeque<PartialMatch> partialMatches : waiting) {
+                for (PartialMatch partialMatch : partialMatches) {
+                    partialMatch.dead = true;
+                }
+                partialMatches.clear();
+            }
+        }
+    }
+
+    static class PartialMatch {
+        private long start;
+        private long entered;
+        private int stepIndex;
+        private Event lastEvent;
+        private KeyState keyState;
+        private boolean dead;
+
+        PartialMatch(long start, Event lastEvent) {
+            this.start = start;
+            this.lastEvent = lastEvent;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.EventTimes;
+import org.lisapark.octopus.util.Keys;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} groups the events of every value of the key into sessions. A session is opened by the
+ * first event of a key and closed once no event of the key arrived for the gap; one event is produced for every
+ * closed session with its start, end, duration, number of events and, if a value attribute is configured, the sum,
+ * minimum and maximum of the value.
+ * <p/>
+ * The time of an event is taken from the time attribute if one is configured, otherwise it is the arrival time.
+ * Sessions are closed when time advances, i.e. by the arrival of a later event of any key and, with the arrival
+ * time, by the passing of time while no events arrive. Events without a time are left out when a time attribute is
+ * configured. The sessions still open are closed when the processing ends.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class SessionWindow extends Processor<Void> {
+    private static final String DEFAULT_NAME = "SessionWindow";
+    private static final String DEFAULT_DESCRIPTION = "Produces one summary event per session of a key.";
+    private static final String DEFAULT_GAP_DESCRIPTION = "Number of seconds without events of a key that close its" +
+            " session.";
+    private static final String DEFAULT_VALUE_ATTRIBUTE_DESCRIPTION = "Optional numeric attribute of the input" +
+            " source that is aggregated over the session.";
+    private static final String DEFAULT_INPUT_DESCRIPTION = "Key of the session.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Duration of the session in milliseconds.";
+
+    private static final int GAP_PARAMETER_ID = 1;
+    private static final int VALUE_ATTRIBUTE_PARAMETER_ID = 2;
+    private static final int TIME_ATTRIBUTE_PARAMETER_ID = 3;
+
+    private static final int INPUT_ID = 1;
+    private static final int OUTPUT_ID = 1;
+
+    private static final String START_ATTRIBUTE = "sessionStart";
+    private static final String END_ATTRIBUTE = "sessionEnd";
+    private static final String COUNT_ATTRIBUTE = "count";
+    private static final String SUM_ATTRIBUTE = "sum";
+    private static final String MIN_ATTRIBUTE = "min";
+    private static final String MAX_ATTRIBUTE = "max";
+
+    protected SessionWindow(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected SessionWindow(UUID id, SessionWindow copyFromSessionWindow) {
+        super(id, copyFromSessionWindow);
+    }
+
+    protected SessionWindow(SessionWindow copyFromSessionWindow) {
+        super(copyFromSessionWindow);
+    }
+
+    public int getGap() {
+        return getParameter(GAP_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setGap(int gap) throws ValidationException {
+        getParameter(GAP_PARAMETER_ID).setValue(gap);
+    }
+
+    public String getValueAttribute() {
+        return getParameter(VALUE_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setValueAttribute(String valueAttribute) throws ValidationException {
+        getParameter(VALUE_ATTRIBUTE_PARAMETER_ID).setValue(valueAttribute);
+    }
+
+    public String getTimeAttribute() {
+        return getParameter(TIME_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeAttribute(String timeAttribute) throws ValidationException {
+        getParameter(TIME_ATTRIBUTE_PARAMETER_ID).setValue(timeAttribute);
+    }
+
+    public ProcessorInput getInput() {
+        // there is only one input for a session window
+        return getInputs().get(0);
+    }
+
+    private static String trimToNull(String attribute) {
+        return (attribute == null || attribute.trim().length() == 0) ? null : attribute.trim();
+    }
+
+    @Override
+    public SessionWindow newInstance() {
+        return new SessionWindow(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public SessionWindow copyOf() {
+        return new SessionWindow(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        String valueAttribute = trimToNull(getValueAttribute());
+        if (valueAttribute != null &&
+                !getInput().getSource().getOutput().getEventType().containsAttributeWithName(valueAttribute)) {
+            throw new ValidationException(String.format("The input source has no attribute named '%s'", valueAttribute));
+        }
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        SessionWindow copy = copyOf();
+
+        return new CompiledSessionWindow(copy);
+    }
+
+    /**
+     * Returns a new {@link SessionWindow} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link SessionWindow}
+     */
+    public static SessionWindow newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        SessionWindow sessionWindow = new SessionWindow(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        sessionWindow.addParameter(
+                Parameter.integerParameterWithIdAndName(GAP_PARAMETER_ID, "Gap (sec)").
+                        description(DEFAULT_GAP_DESCRIPTION).
+                        defaultValue(300).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Gap should be greater than 0."))
+        );
+        sessionWindow.addParameter(
+                Parameter.stringParameterWithIdAndName(VALUE_ATTRIBUTE_PARAMETER_ID, "Value attribute").
+                        description(DEFAULT_VALUE_ATTRIBUTE_DESCRIPTION)
+        );
+        sessionWindow.addParameter(EventTimes.timeAttributeParameter(TIME_ATTRIBUTE_PARAMETER_ID));
+
+        sessionWindow.addInput(
+                ProcessorInput.objectInputWithId(INPUT_ID).name("Key").description(DEFAULT_INPUT_DESCRIPTION)
+        );
+
+        // the duration is the output attribute, the other aggregates of the session are added to the output event
+        try {
+            ProcessorOutput output = ProcessorOutput.longOutputWithId(OUTPUT_ID).name("Duration").
+                    description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("duration").build();
+            output.addAttribute(Attribute.longAttribute(START_ATTRIBUTE));
+            output.addAttribute(Attribute.longAttribute(END_ATTRIBUTE));
+            output.addAttribute(Attribute.integerAttribute(COUNT_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(SUM_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(MIN_ATTRIBUTE));
+            output.addAttribute(Attribute.doubleAttribute(MAX_ATTRIBUTE));
+
+            sessionWindow.setOutput(output);
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the SessionWindow with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return sessionWindow;
+    }
+
+    /**
+     * This {@link CompiledProcessor} keeps the open sessions in a map by key and schedules them on a hashed timer
+     * wheel, so advancing time only visits the sessions that are due in the elapsed ticks instead of all open
+     * sessions.
+     * <p/>
+     * A tick is a 64th of the gap and the wheel spans two gaps. An event does not move its session on the wheel,
+     * it only extends the deadline of the session; when the slot of a session comes up and its deadline was
+     * extended, the session is put into the slot of its new deadline. Since no deadline is more than a gap ahead,
+     * one turn of the wheel covers all of them.
+     */
+    static class CompiledSessionWindow extends CompiledProcessor<Void> {
+        private static final int TICKS_PER_GAP = 64;
+        private static final int WHEEL_SIZE = 2 * TICKS_PER_GAP;
+
+        private final String keyAttributeName;
+        private final String outputAttributeName;
+        private final String valueAttributeName;
+        private final String timeAttributeName;
+        private final long gapMillis;
+        private final long tickMillis;
+
+        private final Map<Object, Session> sessionsByKey = Maps.newHashMap();
+        private final Session[] wheel = new Session[WHEEL_SIZE];
+
+        private long currentTick = Long.MIN_VALUE;
+        private long now = Long.MIN_VALUE;
+
+        protected CompiledSessionWindow(SessionWindow sessionWindow) {
+            super(sessionWindow);
+
+            this.keyAttributeName = sessionWindow.getInput().getSourceAttributeName();
+            this.outputAttributeName = sessionWindow.getOutputAttributeName();
+            this.valueAttributeName = trimToNull(sessionWindow.getValueAttribute());
+            this.timeAttributeName = EventTimes.attributeNameOf(sessionWindow.getTimeAttribute());
+            this.gapMillis = sessionWindow.getGap() * 1000L;
+            this.tickMillis = Math.max(1, gapMillis / TICKS_PER_GAP);
+        }
+
+        /**
+         * With the arrival time the wheel is also advanced by the clock, so sessions are closed on time when no
+         * events arrive. Event times only advance with the events.
+         */
+        @Override
+        public long getTickIntervalMillis() {
+            return (timeAttributeName == null) ? tickMillis : 0;
+        }
+
+        @Override
+        public synchronized Object processTick(ProcessorContext<Void> ctx, long now) {
+            if (currentTick == Long.MIN_VALUE) {
+                // no events yet
+                return null;
+            }
+            this.now = Math.max(this.now, now);
+
+            return advance(this.now / tickMillis - 1);
+        }
+
+        /**
+         * Closes all the open sessions, they will not get any more events.
+         */
+        @Override
+        public synchronized Object processEnd(ProcessorContext<Void> ctx) {
+            List<Event> closedSessions = Lists.newArrayListWithCapacity(sessionsByKey.size());
+            for (Session session : sessionsByKey.values()) {
+                closedSessions.add(summaryOf(session));
+            }
+
+            sessionsByKey.clear();
+            Arrays.fill(wheel, null);
+            currentTick = Long.MIN_VALUE;
+
+            return closedSessions.isEmpty() ? null : closedSessions;
+        }
+
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event event = eventsByInputId.get(INPUT_ID);
+
+            Long time = EventTimes.timeOf(event, timeAttributeName);
+            if (time == null) {
+                return null;
+            }
+            // time never goes back, late events count as current
+            now = Math.max(now, time);
+
+            List<Event> closedSessions = null;
+            if (currentTick == Long.MIN_VALUE) {
+                currentTick = now / tickMillis - 1;
+            } else {
+                closedSessions = advance(now / tickMillis - 1);
+            }
+
+            Object rawKey = event.getData().get(keyAttributeName);
+            Object key = Keys.keyOf(rawKey);
+
+            Session session = sessionsByKey.get(key);
+            if (session == null) {
+                session = new Session(rawKey, now);
+                session.deadline = now + gapMillis;
+                sessionsByKey.put(key, session);
+                schedule(session);
+            } else {
+                session.deadline = now + gapMillis;
+            }
+            session.add(now, (valueAttributeName == null) ? null : event.getAttributeAsDouble(valueAttributeName));
+
+            return closedSessions;
+        }
+
+        /**
+         * Visits the slots of the ticks after the current tick up to the specified tick, which is the last tick
+         * that is over, so every session in a visited slot whose deadline was not extended is due. If more than a
+         * turn elapsed every slot is visited once.
+         */
+        private List<Event> advance(long tick) {
+            List<Event> closedSessions = null;
+
+            long lastTick = Math.min(tick, currentTick + WHEEL_SIZE);
+            while (currentTick < lastTick) {
+                currentTick++;
+
+                int slot = (int) (currentTick % WHEEL_SIZE);
+                Session session = wheel[slot];
+                wheel[slot] = null;
+
+                while (session != null) {
+                    Session nextInSlot = session.nextInSlot;
+
+                    if (session.deadline <= now) {
+                        sessionsByKey.remove(Keys.keyOf(session.key));
+                        if (closedSessions == null) {
+                            closedSessions = Lists.newArrayList();
+                        }
+                        closedSessions.add(summaryOf(session));
+                    } else {
+                        schedule(session);
+                    }
+
+                    session = nextInSlot;
+                }
+            }
+            currentTick = tick;
+
+            return closedSessions;
+        }
+
+        private void schedule(Session session) {
+            int slot = (int) ((session.deadline / tickMillis) % WHEEL_SIZE);
+
+            session.nextInSlot = wheel[slot];
+            wheel[slot] = session;
+        }
+
+        private Event summaryOf(Session session) {
+            Map<String, Object> data = Maps.newHashMapWithExpectedSize(8);
+            data.put(keyAttributeName, session.key);
+            data.put(outputAttributeName, session.end - session.start);
+            data.put(START_ATTRIBUTE, session.start);
+            data.put(END_ATTRIBUTE, session.end);
+            data.put(COUNT_ATTRIBUTE, session.count);
+            if (session.numberOfValues > 0) {
+                data.put(SUM_ATTRIBUTE, session.sum);
+                data.put(MIN_ATTRIBUTE, session.min);
+                data.put(MAX_ATTRIBUTE, session.max);
+            }
+
+            return new Event(data);
+        }
+    }
+
+    /**
+     * The aggregates of an open session, and the link to the next session in the same slot of the wheel.
+     */
+    static class Session {
+        final Object key;
+        final long start;
+        long end;
+        long deadline;
+        int count;
+
+        int numberOfValues;
+        double sum;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+
+        Session nextInSlot;
+
+        Session(Object key, long start) {
+            this.key = key;
+            this.start = start;
+        }
+
+        void add(long time, Double value) {
+            end = time;
+            count++;
+
+            if (value != null) {
+                numberOfValues++;
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.UUID;
 import org.lisapark.octopus.ProgrammerException;
 import org.lisapark.octopus.core.ValidationException;
 import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventBatch;
 import org.lisapark.octopus.core.processor.CompiledProcessor;
 import org.lisapark.octopus.core.processor.Processor;
 import org.lisapark.octopus.core.processor.ProcessorInput;
@@ -128,6 +129,11 @@ public class Subtraction  extends Processor<Void> {
             secondAttributeName = subtraction.getSecondInput().getSourceAttributeName();
         }
 
+        @Override
+        public boolean isStateless() {
+            return true;
+        }
+
         @Override
         public Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
             Event firstEvent = eventsByInputId.get(FIRST_INPUT_ID);
@@ -141,5 +147,24 @@ public class Subtraction  extends Processor<Void> {
 
             return firstOperand - secondOperand;
         }
+
+        @Override
+        public boolean isBatchCapable() {
+            return true;
+        }
+
+        @Override
+        public Object[] processEventBatch(ProcessorContext<Void> ctx, Map<Integer, EventBatch> batchesByInputId) {
+            // missing operands count as 0 just like for a single event
+            double[] firstOperands = batchesByInputId.get(FIRST_INPUT_ID).getDoubleColumn(firstAttributeName, 0);
+            double[] secondOperands = batchesByInputId.get(SECOND_INPUT_ID).getDoubleColumn(secondAttributeName, 0);
+
+            Object[] differences = new Object[firstOperands.length];
+            for (int i = 0; i < differences.length; ++i) {
+                differences[i] = firstOperands[i] - secondOperands[i];
+            }
+
+            return differences;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.ProgrammerException;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.Processor;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.processor.ProcessorOutput;
+import org.lisapark.octopus.core.runtime.ProcessorContext;
+import org.lisapark.octopus.util.EventTimes;
+import org.lisapark.octopus.util.Keys;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This {@link Processor} performs an equi-join of two streams on a key attribute. Every event that arrives on one
+ * input is kept in a window of that input and is joined with all events in the window of the other input that have
+ * the same key. The windows are bounded by time and by the number of events they keep.
+ * <p/>
+ * For example, joining a production feed with a warehouse feed on the product id will produce one event for each
+ * production and warehouse record of the same product that arrived within the time window of each other.
+ * <p/>
+ * The joined event contains the attributes of both events; if both have an attribute with the same name the value
+ * from the first input is used.
+ * <p/>
+ * The time of an event is taken from the time attribute if one is configured, otherwise it is the arrival time. With
+ * a time attribute the windows move with the latest event time seen, so replaying the same events gives the same
+ * joins regardless of how fast they are replayed; events without a time are left out. Both inputs may be connected
+ * to the same source for a self join, an event is then joined with the earlier events but not with itself, and a
+ * pair of events on the same key attribute is joined once.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class WindowJoin extends Processor<Void> {
+    private static final String DEFAULT_NAME = "Window Join";
+    private static final String DEFAULT_DESCRIPTION = "Joins events of two inputs that have the same key and arrived" +
+            " within the window.";
+    private static final String DEFAULT_TIME_WINDOW_DESCRIPTION = "Number of seconds an event is kept for joining," +
+            " 0 keeps the events until they are pushed out by the window length.";
+    private static final String DEFAULT_WINDOW_LENGTH_DESCRIPTION = "Maximum number of events kept for each input.";
+    private static final String DEFAULT_OUTPUT_DESCRIPTION = "Number of events the arriving event was joined with.";
+
+    private static final int TIME_WINDOW_PARAMETER_ID = 1;
+    private static final int WINDOW_LENGTH_PARAMETER_ID = 2;
+    private static final int TIME_ATTRIBUTE_PARAMETER_ID = 3;
+
+    /**
+     * WindowJoin takes two inputs, the source attribute of each is the join key
+     */
+    private static final int FIRST_INPUT_ID = 1;
+    private static final int SECOND_INPUT_ID = 2;
+    private static final int OUTPUT_ID = 1;
+
+    protected WindowJoin(UUID id, String name, String description) {
+        super(id, name, description);
+    }
+
+    protected WindowJoin(UUID id, WindowJoin copyFromJoin) {
+        super(id, copyFromJoin);
+    }
+
+    protected WindowJoin(WindowJoin copyFromJoin) {
+        super(copyFromJoin);
+    }
+
+    public int getTimeWindow() {
+        return getParameter(TIME_WINDOW_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeWindow(int timeWindow) throws ValidationException {
+        getParameter(TIME_WINDOW_PARAMETER_ID).setValue(timeWindow);
+    }
+
+    public int getWindowLength() {
+        return getParameter(WINDOW_LENGTH_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWindowLength(int windowLength) throws ValidationException {
+        getParameter(WINDOW_LENGTH_PARAMETER_ID).setValue(windowLength);
+    }
+
+    public String getTimeAttribute() {
+        return getParameter(TIME_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setTimeAttribute(String timeAttribute) throws ValidationException {
+        getParameter(TIME_ATTRIBUTE_PARAMETER_ID).setValue(timeAttribute);
+    }
+
+    public ProcessorInput getFirstInput() {
+        // there are two inputs for a join
+        return getInputs().get(0);
+    }
+
+    public ProcessorInput getSecondInput() {
+        // there are two inputs for a join
+        return getInputs().get(1);
+    }
+
+    @Override
+    public WindowJoin newInstance() {
+        return new WindowJoin(UUID.randomUUID(), this);
+    }
+
+    @Override
+    public WindowJoin copyOf() {
+        return new WindowJoin(this);
+    }
+
+    @Override
+    public CompiledProcessor<Void> compile() throws ValidationException {
+        validate();
+
+        // we copy all the inputs and output taking a "snapshot" of this processor so we are isolated of changes
+        WindowJoin copy = copyOf();
+
+        return new CompiledWindowJoin(copy);
+    }
+
+    /**
+     * Returns a new {@link WindowJoin} processor configured with all the appropriate
+     * {@link org.lisapark.octopus.core.parameter.Parameter}s, {@link org.lisapark.octopus.core.Input}s and {@link org.lisapark.octopus.core.Output}.
+     *
+     * @return new {@link WindowJoin}
+     */
+    public static WindowJoin newTemplate() {
+        UUID processorId = UUID.randomUUID();
+        WindowJoin join = new WindowJoin(processorId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        join.addParameter(
+                Parameter.integerParameterWithIdAndName(TIME_WINDOW_PARAMETER_ID, "Time window (sec)").
+                        description(DEFAULT_TIME_WINDOW_DESCRIPTION).
+                        defaultValue(60).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(0, "Time window cannot be negative."))
+        );
+        join.addParameter(
+                Parameter.integerParameterWithIdAndName(WINDOW_LENGTH_PARAMETER_ID, "Window length").
+                        description(DEFAULT_WINDOW_LENGTH_DESCRIPTION).
+                        defaultValue(1000).required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Window length should be greater than 0."))
+        );
+        join.addParameter(EventTimes.timeAttributeParameter(TIME_ATTRIBUTE_PARAMETER_ID));
+
+        // two key inputs of any type
+        join.addInput(
+                ProcessorInput.objectInputWithId(FIRST_INPUT_ID).name("First key").description("Join key of the first input.")
+        );
+        join.addInput(
+                ProcessorInput.objectInputWithId(SECOND_INPUT_ID).name("Second key").description("Join key of the second input.")
+        );
+
+        // integer output
+        try {
+            join.setOutput(
+                    ProcessorOutput.integerOutputWithId(OUTPUT_ID).name("Matches").description(DEFAULT_OUTPUT_DESCRIPTION).attributeName("matches")
+            );
+        } catch (ValidationException ex) {
+            // this should NOT happen. It means we created the WindowJoin with an invalid attribute name
+            throw new ProgrammerException(ex);
+        }
+
+        return join;
+    }
+
+    /**
+     * This {@link CompiledProcessor} keeps a hash indexed window for each input. An arriving event evicts the expired
+     * events of both windows, probes the window of the other input with its key and is then added to its own window.
+     */
+    static class CompiledWindowJoin extends CompiledProcessor<Void> {
+        private final String firstAttributeName;
+        private final String secondAttributeName;
+        private final String outputAttributeName;
+        private final String timeAttributeName;
+        private final boolean sameKeyAttribute;
+
+        private final JoinWindow firstWindow;
+        private final JoinWindow secondWindow;
+
+        /**
+         * Latest event time seen, the windows are evicted relative to it so they never move backwards.
+         */
+        private long watermark = Long.MIN_VALUE;
+
+        protected CompiledWindowJoin(WindowJoin join) {
+            super(join);
+
+            this.firstAttributeName = join.getFirstInput().getSourceAttributeName();
+            this.secondAttributeName = join.getSecondInput().getSourceAttributeName();
+            this.outputAttributeName = join.getOutputAttributeName();
+
+            this.timeAttributeName = EventTimes.attributeNameOf(join.getTimeAttribute());
+            this.sameKeyAttribute = firstAttributeName.equals(secondAttributeName);
+
+            long timeWindowMillis = join.getTimeWindow() * 1000L;
+            this.firstWindow = new JoinWindow(timeWindowMillis, join.getWindowLength());
+            this.secondWindow = new JoinWindow(timeWindowMillis, join.getWindowLength());
+        }
+
+        @Override
+        public boolean isInputDriven() {
+            return true;
+        }
+
+        /**
+         * The inputs can be fed from different source threads, so access to the windows is serialized.
+         */
+        @Override
+        public synchronized Object processEvent(ProcessorContext<Void> ctx, Map<Integer, Event> eventsByInputId) {
+            Event firstEvent = eventsByInputId.get(FIRST_INPUT_ID);
+            Event secondEvent = eventsByInputId.get(SECOND_INPUT_ID);
+
+            Long time = EventTimes.timeOf((firstEvent != null) ? firstEvent : secondEvent, timeAttributeName);
+            if (time == null) {
+                return null;
+            }
+            watermark = Math.max(watermark, time);
+            firstWindow.evict(watermark);
+            secondWindow.evict(watermark);
+
+            Object firstKey = (firstEvent == null) ? null : Keys.keyOf(firstEvent.getData().get(firstAttributeName));
+            Object secondKey = (secondEvent == null) ? null : Keys.keyOf(secondEvent.getData().get(secondAttributeName));
+
+            // both sides are probed before the event is added to a window, so an event of a self join is not joined
+            // with itself; on the same key attribute both sides would find the same pairs, so only one is probed
+            List<Event> joinedEvents = Lists.newArrayList();
+            if (firstKey != null) {
+                List<Event> matches = secondWindow.get(firstKey);
+                for (Event matchedEvent : matches) {
+                    joinedEvents.add(join(firstEvent, matchedEvent, matches.size()));
+                }
+            }
+            if (secondKey != null && !(firstEvent == secondEvent && sameKeyAttribute)) {
+                List<Event> matches = firstWindow.get(secondKey);
+                for (Event matchedEvent : matches) {
+                    joinedEvents.add(join(matchedEvent, secondEvent, matches.size()));
+                }
+            }
+
+            if (firstKey != null) {
+                firstWindow.add(firstKey, firstEvent, time);
+            }
+            if (secondKey != null) {
+                secondWindow.add(secondKey, secondEvent, time);
+            }
+
+            return joinedEvents.isEmpty() ? null : joinedEvents;
+        }
+
+        private Event join(Event firstEvent, Event secondEvent, int numberOfMatches) {
+            Map<String, Object> data = Maps.newHashMap(secondEvent.getData());
+            data.putAll(firstEvent.getData());
+            data.put(outputAttributeName, numberOfMatches);
+
+            return new Event(data);
+        }
+    }
+
+    /**
+     * The events of one input of the join. Events are kept both in arrival order, so the oldest can be evicted in
+     * constant time, and in a hash index by key, so probing for a key does not scan the window. Since events of a
+     * key are indexed in arrival order, the oldest event of the window is always the first one of its key.
+     */
+    static class JoinWindow {
+        private final long timeWindowMillis;
+        private final int maximumLength;
+
+        private final ArrayDeque<Entry> arrivals = new ArrayDeque<Entry>();
+        private final Map<Object, ArrayDeque<Entry>> index = Maps.newHashMap();
+
+        JoinWindow(long timeWindowMillis, int maximumLength) {
+            this.timeWindowMillis = timeWindowMillis;
+            this.maximumLength = maximumLength;
+        }
+
+        void add(Object key, Event event, long timestamp) {
+            Entry entry = new Entry(key, event, timestamp);
+            arrivals.addLast(entry);
+
+            ArrayDeque<Entry> entriesForKey = index.get(key);
+            if (entriesForKey == null) {
+                entriesForKey = new ArrayDeque<Entry>();
+                index.put(key, entriesForKey);
+            }
+            entriesForKey.addLast(entry);
+
+            if (arrivals.size() > maximumLength) {
+                removeOldest();
+            }
+        }
+
+        List<Event> get(Object key) {
+            ArrayDeque<Entry> entriesForKey = index.get(key);
+            if (entriesForKey == null) {
+                return Lists.newArrayListWithCapacity(0);
+            }
+
+            List<Event> events = Lists.newArrayListWithCapacity(entriesForKey.size());
+            for (Entry entry : entriesForKey) {
+                events.add(entry.event);
+            }
+            return events;
+        }
+
+        void evict(long now) {
+            if (timeWindowMillis > 0) {
+                long oldestAllowed = now - timeWindowMillis;
+
+                while (!arrivals.isEmpty() && arrivals.peekFirst().timestamp < oldestAllowed) {
+                    removeOldest();
+                }
+            }
+        }
+
+        private void removeOldest() {
+            Entry oldest = arrivals.pollFirst();
+
+            ArrayDeque<Entry> entriesForKey = index.get(oldest.key);
+            entriesForKey.pollFirst();
+            if (entriesForKey.isEmpty()) {
+                index.remove(oldest.key);
+            }
+        }
+
+        private static class Entry {
+            private final Object key;
+            private final Event event;
+            private final long timestamp;
+
+            private Entry(Object key, Event event, long timestamp) {
+                this.key = key;
+                this.event = event;
+                this.timestamp = timestamp;
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime;
+
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.source.Source;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Base class of the {@link ProcessingRuntime}s. It runs every external source of the model in a background thread
+ * and guards the lifecycle of the runtime, so events are only delivered while it is running. The processors with a
+ * tick interval are ticked from one more thread while the runtime is running, and every processor is ended once
+ * when the runtime shuts down, after the sources have stopped. Subclasses only deliver the events of the sources to
+ * the compiled model.
+ *
+ * @author dave sinclair(david.sinclair@lisa-park.com)
+ */
+public abstract class AbstractProcessingRuntime implements ProcessingRuntime {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractProcessingRuntime.class);
+
+    private final Collection<CompiledExternalSource> externalSources;
+
+    /**
+     * Processors of the model in the order they are ended, every processor after the processors it consumes
+     */
+    private final Collection<? extends ScheduledProcessor> processors;
+
+    /**
+     * This service is used to run external sources in a background thread.
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * This service ticks the processors with a tick interval, it is only created if there are any.
+     */
+    private ScheduledExecutorService tickService;
+    private boolean processorsEnded;
+
+    private final PrintStream standardOut;
+    private final PrintStream standardError;
+
+    protected static enum State {
+        NOT_STARTED, RUNNING, SHUTDOWN
+    }
+
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final Lock readLock = readWriteLock.readLock();
+    private final Lock writeLock = readWriteLock.writeLock();
+
+    private State currentState = State.NOT_STARTED;
+
+    protected AbstractProcessingRuntime(Collection<CompiledExternalSource> externalSources,
+                                        PrintStream standardOut, PrintStream standardError) {
+        this(externalSources, Collections.<ScheduledProcessor>emptyList(), standardOut, standardError);
+    }
+
+    protected AbstractProcessingRuntime(Collection<CompiledExternalSource> externalSources,
+                                        Collection<? extends ScheduledProcessor> processors,
+                                        PrintStream standardOut, PrintStream standardError) {
+        checkArgument(externalSources != null, "externalSources cannot be null");
+        checkArgument(processors != null, "processors cannot be null");
+        checkArgument(standardOut != null, "standardOut cannot be null");
+        checkArgument(standardError != null, "standardError cannot be null");
+        this.externalSources = externalSources;
+        this.processors = processors;
+        this.standardOut = standardOut;
+        this.standardError = standardError;
+        this.executorService = Executors.newFixedThreadPool(externalSources.size());
+    }
+
+    protected State getCurrentState() {
+        readLock.lock();
+
+        try {
+            return currentState;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    protected PrintStream getStandardOut() {
+        return standardOut;
+    }
+
+    protected PrintStream getStandardError() {
+        return standardError;
+    }
+
+    /**
+     * Waits for the sources to stop, then stops the ticks and ends the processors.
+     */
+    @Override
+    public void shutdown() {
+        boolean interrupted = false;
+
+        readLock.lock();
+        try {
+            checkState(currentState == State.RUNNING, "Cannot shutdown if the runtime is not running");
+
+            interrupted = awaitTermination(executorService);
+            if (tickService != null) {
+                interrupted |= awaitTermination(tickService);
+            }
+
+            endProcessors();
+        } finally {
+            readLock.unlock();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shuts the service down and waits for its tasks to finish.
+     *
+     * @return true if the thread was interrupted while waiting
+     */
+    private boolean awaitTermination(ExecutorService service) {
+        boolean interrupted = false;
+        boolean shutdownComplete = false;
+
+        while (!shutdownComplete) {
+            service.shutdown();
+
+            try {
+                shutdownComplete = service.awaitTermination(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        return interrupted;
+    }
+
+    private synchronized void endProcessors() {
+        if (processorsEnded) {
+            return;
+        }
+        processorsEnded = true;
+
+        for (ScheduledProcessor processor : processors) {
+            try {
+                processor.processEnd();
+            } catch (RuntimeException e) {
+                report("Exception while ending processor", processor, e);
+            }
+        }
+    }
+
+    @Override
+    public void start() throws IllegalStateException {
+        writeLock.lock();
+
+        try {
+            if (currentState != State.NOT_STARTED) {
+                throw new IllegalStateException(String.format("Cannot start runtime unless status is %s", State.NOT_STARTED));
+            }
+
+            currentState = State.RUNNING;
+
+            startProcessing();
+
+            for (CompiledExternalSource source : externalSources) {
+                executorService.submit(new ExternalSourceDrainer(source, this, standardError));
+            }
+
+            for (ScheduledProcessor processor : processors) {
+                long tickIntervalMillis = processor.getTickIntervalMillis();
+
+                if (tickIntervalMillis > 0) {
+                    if (tickService == null) {
+                        tickService = Executors.newSingleThreadScheduledExecutor();
+                    }
+                    tickService.scheduleWithFixedDelay(new ProcessorTicker(processor), tickIntervalMillis,
+                            tickIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendEventFromSource(Event event, Source source) {
+        readLock.lock();
+
+        try {
+            checkState(currentState == State.RUNNING, "Cannot send an event unless the runtime has been started");
+
+            deliverEventFromSource(event, source);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendEventsFromSource(List<Event> events, Source source) {
+        readLock.lock();
+
+        try {
+            checkState(currentState == State.RUNNING, "Cannot send an event unless the runtime has been started");
+
+            deliverEventsFromSource(events, source);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Called when the runtime starts, before the external sources are started. Does nothing by default.
+     */
+    protected void startProcessing() {
+    }
+
+    /**
+     * Delivers the event of the source to the compiled model. It is only called while the runtime is running.
+     *
+     * @param event  to deliver
+     * @param source of the event
+     */
+    protected abstract void deliverEventFromSource(Event event, Source source);
+
+    /**
+     * Delivers the events of the source to the compiled model, with the semantics of
+     * {@link #sendEventsFromSource(List, Source)}. It is only called while the runtime is running.
+     *
+     * @param events to deliver in order
+     * @param source of the events
+     */
+    protected abstract void deliverEventsFromSource(List<Event> events, Source source);
+
+    private void report(String message, ScheduledProcessor processor, RuntimeException e) {
+        // output it to standard error and the LOG
+        standardError.println(e.getLocalizedMessage());
+        e.printStackTrace(standardError);
+
+        LOG.error(String.format("%s [%s]", message, processor), e);
+    }
+
+    /**
+     * Ticks a processor while the runtime is running. An exception is reported and does not stop the ticks.
+     */
+    private class ProcessorTicker implements Runnable {
+        private final ScheduledProcessor processor;
+
+        private ProcessorTicker(ScheduledProcessor processor) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void run() {
+            readLock.lock();
+
+            try {
+                if (currentState == State.RUNNING) {
+                    processor.processTick(System.currentTimeMillis());
+                }
+            } catch (RuntimeException e) {
+                report("Exception while ticking processor", processor, e);
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Runs an external source until it has no more events.
+     *
+     * @author dave sinclair(david.sinclair@lisa-park.com)
+     */
+    private static class ExternalSourceDrainer implements Runnable {
+
+        private static final Logger LOG = LoggerFactory.getLogger(ExternalSourceDrainer.class);
+        private final CompiledExternalSource source;
+        private final ProcessingRuntime runtime;
+        private final PrintStream standardError;
+
+        private ExternalSourceDrainer(CompiledExternalSource source, ProcessingRuntime runtime, PrintStream standardError) {
+            this.source = source;
+            this.runtime = runtime;
+            this.standardError = standardError;
+        }
+
+        @Override
+        public void run() {
+            try {
+                source.startProcessingEvents(runtime);
+            } catch (ProcessingException e) {
+                // output it to standard error and the LOG
+                standardError.println(e.getLocalizedMessage());
+                e.printStackTrace(standardError);
+
+                LOG.error(String.format("Processing exception while draining source [%s]", source), e);
+
+            } catch (Exception e) {
+                // output it to standard error and the LOG
+                standardError.println(e.getLocalizedMessage());
+                e.printStackTrace(standardError);
+
+                LOG.error(String.format("Uncaught exception while draining source [%s]", source), e);
+
+            } finally {
+                source.stopProcessingEvents();
+            }
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.lisapark.octopus.core.runtime;
 import org.lisapark.octopus.core.event.Event;
 import org.lisapark.octopus.core.source.Source;
 
+import java.util.List;
+
 /**
  * @author dave sinclair(david.sinclair@lisa-park.com)
  */
@@ -28,4 +30,15 @@ public interface ProcessingRuntime {
     void shutdown();
 
     void sendEventFromSource(Event event, Source source);
+
+    /**
+     * Sends several events of a source at once, e.g. the rows of a query. The events are processed in order and the
+     * results are the same as calling {@link #sendEventFromSource(Event, Source)} for every event. Where nothing
+     * depends on the order in which the consumers of the source see the events, a runtime may hand the whole batch
+     * to processors that work on batches.
+     *
+     * @param events to send in order
+     * @param source of the events
+     */
+    void sendEventsFromSource(List<Event> events, Source source);
 }
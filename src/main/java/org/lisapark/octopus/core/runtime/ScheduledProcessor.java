@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime;
+
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+/**
+ * A compiled processor as it is run by a {@link ProcessingRuntime}, for the calls of the processor that do not come
+ * with an event: the ticks of {@link CompiledProcessor#getTickIntervalMillis()} and the end of the processing.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public interface ScheduledProcessor {
+
+    long getTickIntervalMillis();
+
+    /**
+     * Calls {@link CompiledProcessor#processTick} and hands its output to the consumers of the processor.
+     *
+     * @param now current time in milliseconds
+     */
+    void processTick(long now);
+
+    /**
+     * Calls {@link CompiledProcessor#processEnd} and hands its output to the consumers of the processor.
+     */
+    void processEnd();
+}
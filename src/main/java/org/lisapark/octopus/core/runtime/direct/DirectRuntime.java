@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime.direct;
+
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.runtime.AbstractProcessingRuntime;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.runtime.ScheduledProcessor;
+import org.lisapark.octopus.core.source.Source;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link ProcessingRuntime} that runs a model without Esper. The compiler resolves the whole wiring of the model
+ * up front into arrays of {@link EventConsumer}s, so an event of a source is handed from node to node with direct
+ * calls instead of going through statements, listeners and event type lookups.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DirectRuntime extends AbstractProcessingRuntime {
+
+    /**
+     * Index of every external source, keyed by source id
+     */
+    private final Map<UUID, Integer> sourceIndexesById;
+
+    /**
+     * Consumers of the events of every source and processor, by index
+     */
+    private final EventConsumer[][] consumersByIndex;
+
+    public DirectRuntime(Collection<CompiledExternalSource> externalSources, Map<UUID, Integer> sourceIndexesById,
+                         EventConsumer[][] consumersByIndex, PrintStream standardOut, PrintStream standardError) {
+        this(externalSources, sourceIndexesById, consumersByIndex, Collections.<ScheduledProcessor>emptyList(),
+                standardOut, standardError);
+    }
+
+    public DirectRuntime(Collection<CompiledExternalSource> externalSources, Map<UUID, Integer> sourceIndexesById,
+                         EventConsumer[][] consumersByIndex, Collection<? extends ScheduledProcessor> processors,
+                         PrintStream standardOut, PrintStream standardError) {
+        super(externalSources, processors, standardOut, standardError);
+        checkArgument(sourceIndexesById != null, "sourceIndexesById cannot be null");
+        checkArgument(consumersByIndex != null, "consumersByIndex cannot be null");
+        this.sourceIndexesById = sourceIndexesById;
+        this.consumersByIndex = consumersByIndex;
+    }
+
+    @Override
+    protected void deliverEventFromSource(Event event, Source source) {
+        int sourceIndex = getIndexForSource(source);
+        for (EventConsumer consumer : consumersByIndex[sourceIndex]) {
+            consumer.receive(sourceIndex, event);
+        }
+    }
+
+    @Override
+    protected void deliverEventsFromSource(List<Event> events, Source source) {
+        int sourceIndex = getIndexForSource(source);
+        EventConsumer[] consumers = consumersByIndex[sourceIndex];
+
+        for (Event event : events) {
+            for (EventConsumer consumer : consumers) {
+                consumer.receive(sourceIndex, event);
+            }
+        }
+    }
+
+    private int getIndexForSource(Source source) {
+        Integer sourceIndex = sourceIndexesById.get(source.getId());
+        checkArgument(sourceIndex != null, "%s is not a source of the model", source);
+
+        return sourceIndex;
+    }
+}
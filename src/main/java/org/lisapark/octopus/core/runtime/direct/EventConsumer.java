@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime.direct;
+
+import org.lisapark.octopus.core.event.Event;
+
+/**
+ * A processor or sink of a model compiled for the {@link DirectRuntime}. Every source and processor of the model
+ * has an index; a consumer is called with the index of the node that produced the event.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public interface EventConsumer {
+
+    void receive(int sourceIndex, Event event);
+}
@@ -16,176 +16,115 @@
  */
 package org.lisapark.octopus.core.runtime.esper;
 
+import com.espertech.esper.client.EPRuntime;
 import com.espertech.esper.client.EPServiceProvider;
-import org.lisapark.octopus.core.ProcessingException;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
 import org.lisapark.octopus.core.event.Event;
-import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.runtime.AbstractProcessingRuntime;
+import org.lisapark.octopus.core.runtime.ScheduledProcessor;
 import org.lisapark.octopus.core.source.Source;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.util.esper.EsperUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.PrintStream;
 import java.util.Collection;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
 
 /**
  * @author dave sinclair(david.sinclair@lisa-park.com)
  */
-public class EsperRuntime implements ProcessingRuntime {
+public class EsperRuntime extends AbstractProcessingRuntime {
     private final EPServiceProvider epService;
-    private final Collection<CompiledExternalSource> externalSources;
 
     /**
-     * This service is used to run external sources in a background thread.
+     * Listeners that are called directly with the events of a source, keyed by the Esper event name of the source
      */
-    private final ExecutorService executorService;
-    private final PrintStream standardOut;
-    private final PrintStream standardError;
+    private final Multimap<String, SourceEventsListener> sourceEventsListeners;
 
-    static enum State {
-        NOT_STARTED, RUNNING, SHUTDOWN
-    }
-
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private final Lock readLock = readWriteLock.readLock();
-    private final Lock writeLock = readWriteLock.writeLock();
-
-    private State currentState = State.NOT_STARTED;
+    /**
+     * Esper event names of the sources that are read by at least one Esper statement
+     */
+    private final Set<String> sourcesReadByStatements;
 
     public EsperRuntime(EPServiceProvider epService, Collection<CompiledExternalSource> externalSources,
                         PrintStream standardOut, PrintStream standardError) {
-        checkArgument(epService != null, "epService cannot be null");
-        checkArgument(externalSources != null, "externalSources cannot be null");
-        checkArgument(standardOut != null, "standardOut cannot be null");
-        checkArgument(standardError != null, "standardError cannot be null");
-        this.epService = epService;
-        this.externalSources = externalSources;
-        this.standardOut = standardOut;
-        this.standardError = standardError;
-        this.executorService = Executors.newFixedThreadPool(externalSources.size());
+        this(epService, externalSources, ArrayListMultimap.<String, SourceEventsListener>create(),
+                Collections.<String>emptySet(), standardOut, standardError);
     }
 
-    protected State getCurrentState() {
-        readLock.lock();
-
-        try {
-            return currentState;
-        } finally {
-            readLock.unlock();
-        }
+    public EsperRuntime(EPServiceProvider epService, Collection<CompiledExternalSource> externalSources,
+                        Multimap<String, SourceEventsListener> sourceEventsListeners,
+                        Set<String> sourcesReadByStatements,
+                        PrintStream standardOut, PrintStream standardError) {
+        this(epService, externalSources, sourceEventsListeners, sourcesReadByStatements,
+                Collections.<ScheduledProcessor>emptyList(), standardOut, standardError);
     }
 
-    /**
-     *
-     */
-    @Override
-    public void shutdown() {
-        boolean interrupted = false;
-        boolean shutdownComplete = false;
-
-        readLock.lock();
-        try {
-            checkState(currentState == State.RUNNING, "Cannot shutdown if the runtime is not running");
-
-            while (!shutdownComplete) {
-                executorService.shutdown();
-
-                try {
-                    shutdownComplete = executorService.awaitTermination(100, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                }
-            }
-        } finally {
-            readLock.unlock();
-        }
-
-        if (interrupted) {
-            Thread.currentThread().interrupt();
-        }
+    public EsperRuntime(EPServiceProvider epService, Collection<CompiledExternalSource> externalSources,
+                        Multimap<String, SourceEventsListener> sourceEventsListeners,
+                        Set<String> sourcesReadByStatements,
+                        Collection<? extends ScheduledProcessor> processors,
+                        PrintStream standardOut, PrintStream standardError) {
+        super(externalSources, processors, standardOut, standardError);
+        checkArgument(epService != null, "epService cannot be null");
+        checkArgument(sourceEventsListeners != null, "sourceEventsListeners cannot be null");
+        checkArgument(sourcesReadByStatements != null, "sourcesReadByStatements cannot be null");
+        this.epService = epService;
+        this.sourceEventsListeners = sourceEventsListeners;
+        this.sourcesReadByStatements = sourcesReadByStatements;
     }
 
     @Override
-    public void start() throws IllegalStateException {
-        writeLock.lock();
-
-        try {
-            if (currentState != State.NOT_STARTED) {
-                throw new IllegalStateException(String.format("Cannot start runtime unless status is %s", State.NOT_STARTED));
-            }
-
-            currentState = State.RUNNING;
-
-            // start all the statements
-            epService.getEPAdministrator().startAllStatements();
-
-            for (CompiledExternalSource source : externalSources) {
-                executorService.submit(new ExternalSourceDrainer(source, this, standardError));
-            }
-        } finally {
-            writeLock.unlock();
-        }
+    protected void startProcessing() {
+        // start all the statements
+        epService.getEPAdministrator().startAllStatements();
     }
 
     @Override
-    public void sendEventFromSource(Event event, Source source) {
-        readLock.lock();
+    protected void deliverEventFromSource(Event event, Source source) {
+        String eventName = EsperUtils.getEventNameForSource(source);
+        epService.getEPRuntime().sendEvent(event.getData(), eventName);
 
-        try {
-            checkState(currentState == State.RUNNING, "Cannot send an event unless the runtime has been started");
-
-            epService.getEPRuntime().sendEvent(event.getData(), EsperUtils.getEventNameForSource(source));
-        } finally {
-            readLock.unlock();
+        for (SourceEventsListener listener : sourceEventsListeners.get(eventName)) {
+            listener.update(event);
         }
     }
 
     /**
-     * @author dave sinclair(david.sinclair@lisa-park.com)
+     * The listeners of the source get the whole batch only if no Esper statement reads the source. Otherwise a
+     * statement may combine the last event of the source with the outputs of the listeners, e.g. a sink on both the
+     * source and a processor, so every event is sent to Esper and to the listeners before the next one, exactly
+     * like {@link #sendEventFromSource(Event, Source)} does.
      */
-    static class ExternalSourceDrainer implements Runnable {
-
-        private static final Logger LOG = LoggerFactory.getLogger(ExternalSourceDrainer.class);
-        private final CompiledExternalSource source;
-        private final ProcessingRuntime runtime;
-        private final PrintStream standardError;
-
-        private ExternalSourceDrainer(CompiledExternalSource source, ProcessingRuntime runtime, PrintStream standardError) {
-            this.source = source;
-            this.runtime = runtime;
-            this.standardError = standardError;
-        }
-
-        @Override
-        public void run() {
-            try {
-                source.startProcessingEvents(runtime);
-            } catch (ProcessingException e) {
-                // output it to standard error and the LOG
-                standardError.println(e.getLocalizedMessage());
-                e.printStackTrace(standardError);
-
-                LOG.error(String.format("Processing exception while draining source [%s]", source), e);
+    @Override
+    protected void deliverEventsFromSource(List<Event> events, Source source) {
+        String eventName = EsperUtils.getEventNameForSource(source);
+        EPRuntime runtime = epService.getEPRuntime();
+        Collection<SourceEventsListener> listeners = sourceEventsListeners.get(eventName);
+
+        if (listeners.isEmpty()) {
+            for (Event event : events) {
+                runtime.sendEvent(event.getData(), eventName);
+            }
 
-            } catch (Exception e) {
-                // output it to standard error and the LOG
-                standardError.println(e.getLocalizedMessage());
-                e.printStackTrace(standardError);
+        } else if (sourcesReadByStatements.contains(eventName)) {
+            for (Event event : events) {
+                runtime.sendEvent(event.getData(), eventName);
 
-                LOG.error(String.format("Uncaught exception while draining source [%s]", source), e);
+                for (SourceEventsListener listener : listeners) {
+                    listener.update(event);
+                }
+            }
 
-            } finally {
-                source.stopProcessingEvents();
+        } else {
+            // nothing in Esper reads the source, the listeners can take the batch as a whole
+            for (SourceEventsListener listener : listeners) {
+                listener.update(events);
             }
         }
     }
@@ -0,0 +1,34 @@
+/* 
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime.esper;
+
+import org.lisapark.octopus.core.event.Event;
+
+import java.util.List;
+
+/**
+ * A listener that the {@link EsperRuntime} calls directly with the events of an external source, bypassing the
+ * Esper statements. This is used for processors that can work on batches of events.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public interface SourceEventsListener {
+
+    void update(Event sourceEvent);
+
+    void update(List<Event> sourceEvents);
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -255,7 +256,7 @@ public class XmlProductionDatabaseSink extends AbstractNode implements ExternalS
                             } else if("DATE".equalsIgnoreCase(attr)){
                                 dataMap.put(attr, convertDate((String) item.get(attr)));
                             } else if(item.get(attr) != null){
-                                dataMap.put(attr, (String) item.get(attr));
+                                dataMap.put(attr, String.valueOf(item.get(attr)));
                             }                            
                         }                        
                         
@@ -305,9 +306,12 @@ public class XmlProductionDatabaseSink extends AbstractNode implements ExternalS
             List<Map<String, Object>> list = null;
             try {
                 Map<String, Object> eventMap = event.getData();                
-                if(eventMap != null) {
-                    list = XmlConverterUtils.eventsFromProductionXml((String)eventMap.get("XML"));
-                } 
+                if (eventMap != null && eventMap.get("XML") != null) {
+                    list = XmlConverterUtils.eventsFromProductionXml((String) eventMap.get("XML"));
+                } else if (eventMap != null) {
+                    // events of sheet rows, see ExcelEventConverter
+                    list = Collections.singletonList(eventMap);
+                }
 //                logger.log(Level.INFO, "XML: ====> {0}", eventMap.get("XML"));
             } catch (SAXException ex) {
                 Exceptions.printStackTrace(ex);
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -250,7 +251,7 @@ public class XmlWarehouseDatabaseSink extends AbstractNode implements ExternalSi
                             } else if("DATE".equalsIgnoreCase(attr)){
                                 dataMap.put(attr, convertDate((String) item.get(attr)));
                             } else if(item.get(attr) != null){
-                                dataMap.put(attr, (String) item.get(attr));
+                                dataMap.put(attr, String.valueOf(item.get(attr)));
                             }                            
                         }                        
                         
@@ -300,8 +301,12 @@ public class XmlWarehouseDatabaseSink extends AbstractNode implements ExternalSi
             List<Map<String, Object>> list = null;
             try {
                 Map<String, Object> eventMap = event.getData();                
-                if(eventMap != null)
-                list = XmlConverterUtils.eventsFromWarehouseXml((String)eventMap.get("XML")); 
+                if (eventMap != null && eventMap.get("XML") != null) {
+                    list = XmlConverterUtils.eventsFromWarehouseXml((String) eventMap.get("XML"));
+                } else if (eventMap != null) {
+                    // events of sheet rows, see ExcelEventConverter
+                    list = Collections.singletonList(eventMap);
+                }
 //                logger.log(Level.INFO, "XML: ====> {0}", eventMap.get("XML"));
             } catch (SAXException ex) {
                 Exceptions.printStackTrace(ex);
@@ -16,45 +16,54 @@
  */
 package org.lisapark.octopus.core.source.external.impl;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.ProcessingException;
 import org.lisapark.octopus.core.ValidationException;
-import org.lisapark.octopus.core.event.Attribute;
 import org.lisapark.octopus.core.event.Event;
 import org.lisapark.octopus.core.event.EventType;
 import org.lisapark.octopus.core.parameter.Constraints;
 import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
-import org.lisapark.octopus.util.Booleans;
+import org.lisapark.octopus.util.Checkpoints;
 import org.lisapark.octopus.util.jdbc.Connections;
+import org.lisapark.octopus.util.jdbc.ResultSetReader;
 import org.lisapark.octopus.util.jdbc.ResultSets;
 import org.lisapark.octopus.util.jdbc.Statements;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Map;
+import java.sql.Timestamp;
+import java.util.List;
 import java.util.UUID;
 
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
 import static com.google.common.base.Preconditions.checkState;
-import java.util.logging.Level;
 import org.openide.util.Exceptions;
 
 /**
+ * This class is an {@link ExternalSource} that keeps reading new rows of a database query. It has two modes:
+ * <ul>
+ * <li>without a watermark column the query is run over and over, and after every run the update marks the rows
+ * that were read as scanned</li>
+ * <li>with a watermark column, a column that increases with every new row like an id or a timestamp, only rows with
+ * a watermark greater than the last one read are selected, in batches of at most the batch size; a batch whose rows
+ * all have the same watermark is completed with all the rows of that watermark. The last watermark
+ * is saved in a local file after every batch, so the source continues where it stopped, and nothing is written to
+ * the database. While there are no new rows the time between the polls doubles up to the maximum poll interval.</li>
+ * </ul>
  *
  * @author Alex Mylnikov (alexmy@lisa-park.com)
  */
 public class DbScannerSource  extends ExternalSource {
-    
-     
-    private final static java.util.logging.Logger logger 
-            = java.util.logging.Logger.getLogger(DbScannerSource.class.getName());
-    
+
     private static final String DEFAULT_NAME = "Sql Query";
     private static final String DEFAULT_DESCRIPTION = "Database query source for events";
 
@@ -64,6 +73,10 @@ public class DbScannerSource  extends ExternalSource {
     private static final int DRIVER_PARAMETER_ID = 4;
     private static final int QUERY_PARAMETER_ID = 5;
     private static final int UPDATE_PARAMETER_ID = 6;
+    private static final int WATERMARK_COLUMN_PARAMETER_ID = 7;
+    private static final int WATERMARK_FILE_PARAMETER_ID = 8;
+    private static final int BATCH_SIZE_PARAMETER_ID = 9;
+    private static final int MAXIMUM_POLL_INTERVAL_PARAMETER_ID = 10;
 
     private DbScannerSource(UUID sourceId, String name, String description) {
         super(sourceId, name, description);
@@ -132,6 +145,47 @@ public class DbScannerSource  extends ExternalSource {
         return getParameter(UPDATE_PARAMETER_ID).getValueAsString();
     }
 
+    public String getWatermarkColumn() {
+        return getParameter(WATERMARK_COLUMN_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWatermarkColumn(String watermarkColumn) throws ValidationException {
+        getParameter(WATERMARK_COLUMN_PARAMETER_ID).setValue(watermarkColumn);
+    }
+
+    public String getWatermarkFile() {
+        return getParameter(WATERMARK_FILE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWatermarkFile(String watermarkFile) throws ValidationException {
+        getParameter(WATERMARK_FILE_PARAMETER_ID).setValue(watermarkFile);
+    }
+
+    public int getBatchSize() {
+        return getParameter(BATCH_SIZE_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setBatchSize(int batchSize) throws ValidationException {
+        getParameter(BATCH_SIZE_PARAMETER_ID).setValue(batchSize);
+    }
+
+    public int getMaximumPollInterval() {
+        return getParameter(MAXIMUM_POLL_INTERVAL_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setMaximumPollInterval(int maximumPollInterval) throws ValidationException {
+        getParameter(MAXIMUM_POLL_INTERVAL_PARAMETER_ID).setValue(maximumPollInterval);
+    }
+
+    boolean isChangeCapture() {
+        String watermarkColumn = getWatermarkColumn();
+        return watermarkColumn != null && watermarkColumn.trim().length() > 0;
+    }
+
     public EventType getEventType() {
         return getOutput().getEventType();
     }
@@ -147,6 +201,16 @@ public class DbScannerSource  extends ExternalSource {
         return new DbScannerSource(this);
     }
 
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        String update = getUpdate();
+        if (!isChangeCapture() && (update == null || update.trim().length() == 0)) {
+            throw new ValidationException("Either the update or the watermark column is required.");
+        }
+    }
+
     public static DbScannerSource newTemplate() {
         UUID sourceId = UUID.randomUUID();
         DbScannerSource jdbc = new DbScannerSource(sourceId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
@@ -157,7 +221,20 @@ public class DbScannerSource  extends ExternalSource {
         jdbc.addParameter(Parameter.stringParameterWithIdAndName(DRIVER_PARAMETER_ID, "Driver Class").required(true).
                 constraint(Constraints.classConstraintWithMessage("%s is not a valid Driver Class")));
         jdbc.addParameter(Parameter.stringParameterWithIdAndName(QUERY_PARAMETER_ID, "Query").required(true));
-        jdbc.addParameter(Parameter.stringParameterWithIdAndName(UPDATE_PARAMETER_ID, "Update").required(true));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(UPDATE_PARAMETER_ID, "Update").
+                description("Marks the rows read as scanned, not used with a watermark column."));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(WATERMARK_COLUMN_PARAMETER_ID, "Watermark column").
+                description("Optional column that increases with every new row, e.g. an id or a timestamp."));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(WATERMARK_FILE_PARAMETER_ID, "Watermark file").
+                description("File the last watermark is saved in, by default a file in the .octopus directory of the user."));
+        jdbc.addParameter(Parameter.integerParameterWithIdAndName(BATCH_SIZE_PARAMETER_ID, "Batch size").
+                description("Maximum number of rows read by a poll with a watermark column.").
+                defaultValue(1000).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Batch size should be greater than 0.")));
+        jdbc.addParameter(Parameter.integerParameterWithIdAndName(MAXIMUM_POLL_INTERVAL_PARAMETER_ID, "Maximum poll interval (ms)").
+                description("Longest wait between polls while there are no new rows.").
+                defaultValue(10000).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Maximum poll interval should be greater than 0.")));
 
         jdbc.setOutput(Output.outputWithId(1).setName("Output"));
 
@@ -172,6 +249,8 @@ public class DbScannerSource  extends ExternalSource {
     }
 
     private static class CompiledDbScannerSource implements CompiledExternalSource {
+        private static final long MINIMUM_POLL_INTERVAL = 100;
+
         private final DbScannerSource source;
 
         private volatile boolean running;
@@ -192,17 +271,22 @@ public class DbScannerSource  extends ExternalSource {
                 
                 connection = getConnection(source.getDriverClass(), source.getUrl(), source.getUsername(), source.getPassword());
 
-                processResultSet(connection, runtime);
+                if (source.isChangeCapture()) {
+                    processChanges(connection, runtime);
+                } else {
+                    processResultSet(connection, runtime);
+                }
                 
             } catch (SQLException ex) {
                 Exceptions.printStackTrace(ex);
+            } finally {
+                Connections.closeQuietly(connection);
+                connection = null;
             }
-            
         }
 
         void processResultSet(Connection conn, ProcessingRuntime runtime) throws SQLException, ProcessingException {
             Thread thread = Thread.currentThread();
-            EventType eventType = source.getEventType();
 
             while (!thread.isInterrupted() && running) {
                 Statement statement = null;
@@ -214,8 +298,9 @@ public class DbScannerSource  extends ExternalSource {
                     int retValue = statement.executeUpdate(source.getUpdate());
                     
                     if (retValue > 0) {
+                        ResultSetReader reader = new ResultSetReader(source.getEventType(), rs);
                         while (rs.next()) {
-                            Event newEvent = createEventFromResultSet(rs, eventType);
+                            Event newEvent = reader.readEvent(rs);
                             runtime.sendEventFromSource(newEvent, source);
                         }
                     } else {
@@ -260,56 +345,163 @@ public class DbScannerSource  extends ExternalSource {
             return connection;
         }
 
-        Event createEventFromResultSet(ResultSet rs, EventType eventType) throws SQLException {
-            Map<String, Object> attributeValues = Maps.newHashMap();
+        /**
+         * Polls the rows with a watermark greater than the last one, in the order of the watermark. A full batch can
+         * end in the middle of the rows with the same watermark, e.g. the same timestamp; those rows are left for the
+         * next poll. If the whole batch has the same watermark the next poll would skip the rows of it beyond the
+         * batch, so all rows with that watermark are read instead, however many there are.
+         */
+        void processChanges(Connection conn, ProcessingRuntime runtime) throws SQLException, ProcessingException {
+            Thread thread = Thread.currentThread();
+            String watermarkColumn = source.getWatermarkColumn().trim();
+            int batchSize = source.getBatchSize();
+            File watermarkFile = Checkpoints.fileFor(source.getWatermarkFile(), "watermark", source.getId());
+
+            Object watermark = readWatermark(watermarkFile);
+            long pollInterval = MINIMUM_POLL_INTERVAL;
 
-            for (Attribute attribute : eventType.getAttributes()) {
-                Class type = attribute.getType();
-                String attributeName = attribute.getName();
+            String query = String.format("SELECT * FROM (%s) captured WHERE %s > ? ORDER BY %s",
+                    source.getQuery(), watermarkColumn, watermarkColumn);
+            String firstQuery = String.format("SELECT * FROM (%s) captured ORDER BY %s", source.getQuery(), watermarkColumn);
+            String tiedQuery = String.format("SELECT * FROM (%s) captured WHERE %s = ?", source.getQuery(), watermarkColumn);
 
-                if (type == String.class) {
-                    String value = rs.getString(attributeName);
-                    attributeValues.put(attributeName, value);
+            PreparedStatement statement = null;
+            PreparedStatement firstStatement = null;
+            PreparedStatement tiedStatement = null;
+            try {
+                statement = conn.prepareStatement(query);
+                statement.setMaxRows(batchSize);
+
+                while (!thread.isInterrupted() && running) {
+                    List<Event> batch = Lists.newArrayListWithCapacity(batchSize);
+                    List<Object> watermarks = Lists.newArrayListWithCapacity(batchSize);
+
+                    if (watermark == null) {
+                        // nothing was read yet, start with the first rows
+                        if (firstStatement == null) {
+                            firstStatement = conn.prepareStatement(firstQuery);
+                            firstStatement.setMaxRows(batchSize);
+                        }
+                        readRows(firstStatement, watermarkColumn, batch, watermarks);
+                    } else {
+                        statement.setObject(1, watermark);
+                        readRows(statement, watermarkColumn, batch, watermarks);
+                    }
 
-                } else if (type == Integer.class) {
-                    int value = rs.getInt(attributeName);
-                    attributeValues.put(attributeName, value);
+                    int size = batch.size();
+                    if (size == batchSize) {
+                        Object last = watermarks.get(size - 1);
+                        while (size > 0 && last.equals(watermarks.get(size - 1))) {
+                            size--;
+                        }
+                        if (size == 0) {
+                            // all rows have the same watermark, this batch cannot be split
+                            if (tiedStatement == null) {
+                                tiedStatement = conn.prepareStatement(tiedQuery);
+                            }
+                            batch.clear();
+                            watermarks.clear();
+                            tiedStatement.setObject(1, last);
+                            readRows(tiedStatement, watermarkColumn, batch, watermarks);
+                            size = batch.size();
+                        }
+                    }
 
-                } else if (type == Short.class) {
-                    short value = rs.getShort(attributeName);
-                    attributeValues.put(attributeName, value);
+                    if (size > 0) {
+                        runtime.sendEventsFromSource(batch.subList(0, size), source);
 
-                } else if (type == Long.class) {
-                    long value = rs.getLong(attributeName);
-                    attributeValues.put(attributeName, value);
+                        watermark = watermarks.get(size - 1);
+                        writeWatermark(watermarkFile, watermark);
+                    }
 
-                } else if (type == Double.class) {
-                    double value = rs.getDouble(attributeName);
-                    attributeValues.put(attributeName, value);
+                    if (batch.size() >= batchSize) {
+                        // there are probably more rows, poll again right away
+                        pollInterval = MINIMUM_POLL_INTERVAL;
+                        continue;
+                    }
 
-                } else if (type == Float.class) {
-                    float value = rs.getFloat(attributeName);
-                    attributeValues.put(attributeName, value);
+                    pollInterval = (size > 0) ? MINIMUM_POLL_INTERVAL :
+                            Math.min(pollInterval * 2, source.getMaximumPollInterval());
+                    try {
+                        Thread.sleep(pollInterval);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } catch (SQLException e) {
+                throw new ProcessingException("Problem processing result set from database. Please check your settings.", e);
+            } finally {
+                Statements.closeQuietly(tiedStatement);
+                Statements.closeQuietly(firstStatement);
+                Statements.closeQuietly(statement);
+            }
+        }
 
-                } else if (type == Boolean.class) {
-                    String value = rs.getString(attributeName);
-                    attributeValues.put(attributeName, Booleans.parseBoolean(value));
-                } else {
-                    throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
+        /**
+         * Runs the query and adds the events of its rows and their watermarks to the lists.
+         */
+        private void readRows(PreparedStatement statement, String watermarkColumn, List<Event> events,
+                              List<Object> watermarks) throws SQLException {
+            ResultSet rs = statement.executeQuery();
+            try {
+                ResultSetReader reader = new ResultSetReader(source.getEventType(), rs);
+                int watermarkIndex = rs.findColumn(watermarkColumn);
+                while (rs.next()) {
+                    events.add(reader.readEvent(rs));
+                    watermarks.add(rs.getObject(watermarkIndex));
                 }
+            } finally {
+                ResultSets.closeQuietly(rs);
             }
+        }
 
-            return new Event(attributeValues);
+        /**
+         * Reads the watermark saved in the file as type:value, returns null if there is none.
+         */
+        Object readWatermark(File file) throws ProcessingException {
+            try {
+                String text = Checkpoints.read(file);
+                if (text == null || text.indexOf(':') < 0) {
+                    return null;
+                }
+
+                int separator = text.indexOf(':');
+                String type = text.substring(0, separator);
+                String value = text.substring(separator + 1);
+                if (type.equals("long")) {
+                    return Long.valueOf(value);
+                } else if (type.equals("timestamp")) {
+                    return Timestamp.valueOf(value);
+                } else {
+                    return value;
+                }
+
+            } catch (IOException e) {
+                throw new ProcessingException("Could not read the watermark file " + file, e);
+            } catch (IllegalArgumentException e) {
+                throw new ProcessingException("Invalid watermark in file " + file, e);
+            }
         }
-        
-        
-        @Override
-        protected void finalize() throws Throwable{
-            Connections.closeQuietly(connection);
-            
-            logger.log(Level.INFO, "Connection: ====> {0}", "Closed!!!");
-            
-            super.finalize();            
+
+        /**
+         * Saves the watermark as type:value. Whole numbers are saved as long, dates and times as timestamp and
+         * anything else as string.
+         */
+        void writeWatermark(File file, Object watermark) throws ProcessingException {
+            String text;
+            if (watermark instanceof Number && !(watermark instanceof Double || watermark instanceof Float)) {
+                text = "long:" + ((Number) watermark).longValue();
+            } else if (watermark instanceof java.util.Date) {
+                text = "timestamp:" + new Timestamp(((java.util.Date) watermark).getTime());
+            } else {
+                text = "string:" + watermark;
+            }
+
+            try {
+                Checkpoints.write(file, text);
+            } catch (IOException e) {
+                throw new ProcessingException("Could not write the watermark file " + file, e);
+            }
         }
     }
 }
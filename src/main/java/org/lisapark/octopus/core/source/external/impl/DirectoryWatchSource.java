@@ -0,0 +1,759 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.lisapark.octopus.core.Output;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.Checkpoints;
+import org.lisapark.octopus.util.excel.ExcelEventConverter;
+import org.lisapark.octopus.util.excel.StreamingExcelReader;
+import org.lisapark.octopus.util.excel.TableEventConverter;
+import org.lisapark.octopus.util.text.CsvLineDecoder;
+import org.lisapark.octopus.util.text.JsonLineDecoder;
+import org.lisapark.octopus.util.text.LineDecoder;
+import org.lisapark.octopus.util.text.MappedLineReader;
+import org.lisapark.octopus.util.xml.StaxXmlReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * This class is an {@link ExternalSource} that watches a local directory and reads every file that is created or
+ * changed in it into events with the attributes of the output. The format of a file comes from its extension:
+ * newline delimited JSON for .json, .jsonl and .ndjson, delimiter separated values for .csv and .txt, tab separated
+ * values for .tsv, the first sheet of a workbook for .xls and .xlsx and the elements at a depth of a document for
+ * .xml.
+ * <p/>
+ * The directory is watched with a {@link WatchService}, so a file is read as soon as it stopped changing instead of
+ * on the next scan of a table or a WebDAV folder. The files are decoded in parallel by a fixed pool of workers, every
+ * file by a single worker so that its events stay in order, and the batches go through a bounded queue to the thread
+ * of the source that sends them. Once all events of a file were sent, its size and modification time are saved in a
+ * small index file, so after a restart only the files that are new or changed since are read. A file that could not
+ * be read is not saved in the index but read again a while later, the events decoded before the problem are sent
+ * again then.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class DirectoryWatchSource extends ExternalSource {
+    private static final String DEFAULT_NAME = "Directory Watch Source";
+    private static final String DEFAULT_DESCRIPTION = "Reads the JSON, CSV, Excel and XML files created or changed in a directory.";
+
+    private static final int DIRECTORY_PARAMETER_ID = 1;
+    private static final int FILE_PATTERN_PARAMETER_ID = 2;
+    private static final int WORKER_THREADS_PARAMETER_ID = 3;
+    private static final int INDEX_FILE_PARAMETER_ID = 4;
+    private static final int DELIMITER_PARAMETER_ID = 5;
+    private static final int HEADER_PARAMETER_ID = 6;
+    private static final int EXCEL_LAYOUT_PARAMETER_ID = 7;
+    private static final int XML_DEPTH_PARAMETER_ID = 8;
+
+    /**
+     * Layout of the sheets of the workbooks, a table with the column names in the first row or one of the layouts
+     * of the {@link ExcelEventConverter}.
+     */
+    static enum ExcelLayout {
+        TABLE(null),
+        PRODUCTION(ExcelEventConverter.Layout.PRODUCTION),
+        WAREHOUSE(ExcelEventConverter.Layout.WAREHOUSE);
+
+        private final ExcelEventConverter.Layout layout;
+
+        private ExcelLayout(ExcelEventConverter.Layout layout) {
+            this.layout = layout;
+        }
+
+        ExcelEventConverter.Layout getLayout() {
+            return layout;
+        }
+    }
+
+    private DirectoryWatchSource(UUID sourceId, String name, String description) {
+        super(sourceId, name, description);
+    }
+
+    private DirectoryWatchSource(UUID sourceId, DirectoryWatchSource copyFromSource) {
+        super(sourceId, copyFromSource);
+    }
+
+    private DirectoryWatchSource(DirectoryWatchSource copyFromSource) {
+        super(copyFromSource);
+    }
+
+    public String getDirectory() {
+        return getParameter(DIRECTORY_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setDirectory(String directory) throws ValidationException {
+        getParameter(DIRECTORY_PARAMETER_ID).setValue(directory);
+    }
+
+    public String getFilePattern() {
+        return getParameter(FILE_PATTERN_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setFilePattern(String filePattern) throws ValidationException {
+        getParameter(FILE_PATTERN_PARAMETER_ID).setValue(filePattern);
+    }
+
+    public int getWorkerThreads() {
+        return getParameter(WORKER_THREADS_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setWorkerThreads(int workerThreads) throws ValidationException {
+        getParameter(WORKER_THREADS_PARAMETER_ID).setValue(workerThreads);
+    }
+
+    public String getIndexFile() {
+        return getParameter(INDEX_FILE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setIndexFile(String indexFile) throws ValidationException {
+        getParameter(INDEX_FILE_PARAMETER_ID).setValue(indexFile);
+    }
+
+    public String getDelimiter() {
+        return getParameter(DELIMITER_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setDelimiter(String delimiter) throws ValidationException {
+        getParameter(DELIMITER_PARAMETER_ID).setValue(delimiter);
+    }
+
+    public boolean hasHeader() {
+        return Boolean.TRUE.equals(getParameter(HEADER_PARAMETER_ID).getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setHeader(boolean header) throws ValidationException {
+        getParameter(HEADER_PARAMETER_ID).setValue(header);
+    }
+
+    public String getExcelLayout() {
+        return getParameter(EXCEL_LAYOUT_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setExcelLayout(String excelLayout) throws ValidationException {
+        getParameter(EXCEL_LAYOUT_PARAMETER_ID).setValue(excelLayout);
+    }
+
+    public int getXmlDepth() {
+        return getParameter(XML_DEPTH_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setXmlDepth(int xmlDepth) throws ValidationException {
+        getParameter(XML_DEPTH_PARAMETER_ID).setValue(xmlDepth);
+    }
+
+    public EventType getEventType() {
+        return getOutput().getEventType();
+    }
+
+    ExcelLayout getExcelLayoutValue() throws ValidationException {
+        try {
+            return ExcelLayout.valueOf(getExcelLayout().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(String.format("%s is not a valid Excel layout, use table, production or warehouse.",
+                    getExcelLayout()));
+        }
+    }
+
+    PathMatcher getFileMatcher() throws ValidationException {
+        try {
+            return FileSystems.getDefault().getPathMatcher("glob:" + getFilePattern().trim());
+        } catch (PatternSyntaxException e) {
+            throw new ValidationException(String.format("%s is not a valid file pattern.", getFilePattern()));
+        }
+    }
+
+    @Override
+    public DirectoryWatchSource newInstance() {
+        UUID sourceId = UUID.randomUUID();
+        return new DirectoryWatchSource(sourceId, this);
+    }
+
+    @Override
+    public DirectoryWatchSource copyOf() {
+        return new DirectoryWatchSource(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        getFileMatcher();
+        getExcelLayoutValue();
+        TextFileSource.delimiterOf(getDelimiter());
+    }
+
+    public static DirectoryWatchSource newTemplate() {
+        UUID sourceId = UUID.randomUUID();
+        DirectoryWatchSource directoryWatchSource = new DirectoryWatchSource(sourceId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        directoryWatchSource.addParameter(Parameter.stringParameterWithIdAndName(DIRECTORY_PARAMETER_ID, "Directory:").required(true));
+        directoryWatchSource.addParameter(Parameter.stringParameterWithIdAndName(FILE_PATTERN_PARAMETER_ID, "File pattern:").
+                description("Glob pattern of the names of the files to read, like *.csv.").
+                defaultValue("*").required(true));
+        directoryWatchSource.addParameter(Parameter.integerParameterWithIdAndName(WORKER_THREADS_PARAMETER_ID, "Worker threads:").
+                description("Number of files decoded at the same time.").
+                defaultValue(4).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Worker threads has to be greater than zero.")));
+        directoryWatchSource.addParameter(Parameter.stringParameterWithIdAndName(INDEX_FILE_PARAMETER_ID, "Index file:").
+                description("File the processed files are saved in, by default a file in the .octopus directory of the user."));
+        directoryWatchSource.addParameter(Parameter.stringParameterWithIdAndName(DELIMITER_PARAMETER_ID, "Delimiter:").
+                description("Delimiter of the .csv and .txt files, \\t for a tab.").
+                defaultValue(",").required(true));
+        directoryWatchSource.addParameter(Parameter.booleanParameterWithIdAndName(HEADER_PARAMETER_ID, "Header:").
+                description("Whether the first line of the .csv, .txt and .tsv files has the column names, otherwise the columns are the attributes in order.").
+                defaultValue(Boolean.TRUE).required(true));
+        directoryWatchSource.addParameter(Parameter.stringParameterWithIdAndName(EXCEL_LAYOUT_PARAMETER_ID, "Excel layout:").
+                description("table for the column names in the first row of the first sheet, production or warehouse for the tree layouts.").
+                defaultValue("table").required(true));
+        directoryWatchSource.addParameter(Parameter.integerParameterWithIdAndName(XML_DEPTH_PARAMETER_ID, "XML element depth:").
+                description("Depth of the elements read from the .xml files, 1 for the root element.").
+                defaultValue(2).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "XML element depth has to be greater than zero.")));
+
+        directoryWatchSource.setOutput(Output.outputWithId(1).setName("Output data:"));
+
+        return directoryWatchSource;
+    }
+
+    @Override
+    public CompiledExternalSource compile() throws ValidationException {
+        validate();
+
+        return new CompiledDirectoryWatchSource(this.copyOf());
+    }
+
+    /**
+     * Size and modification time of a file, a file has changed if either differs.
+     */
+    private static class FileState {
+        final long lastModified;
+        final long size;
+        final long checkedAt;
+
+        FileState(long lastModified, long size, long checkedAt) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checkedAt = checkedAt;
+        }
+
+        /**
+         * Returns the state of the file, or null if it is not a regular file (any more).
+         */
+        static FileState of(Path file) throws IOException {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    return null;
+                }
+                return new FileState(attributes.lastModifiedTime().toMillis(), attributes.size(), System.currentTimeMillis());
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        boolean isSameAs(FileState state) {
+            return state != null && lastModified == state.lastModified && size == state.size;
+        }
+    }
+
+    /**
+     * Events decoded from a file, the last batch of a file may be empty and tells whether the file was read to the
+     * end.
+     */
+    private static class FileBatch {
+        final Path file;
+        final FileState state;
+        final List<Event> events;
+        final boolean last;
+        final boolean failed;
+
+        FileBatch(Path file, FileState state, List<Event> events, boolean last, boolean failed) {
+            this.file = file;
+            this.state = state;
+            this.events = events;
+            this.last = last;
+            this.failed = failed;
+        }
+    }
+
+    private static class CompiledDirectoryWatchSource implements CompiledExternalSource {
+        private static final Logger LOG = LoggerFactory.getLogger(CompiledDirectoryWatchSource.class);
+
+        private static final int BATCH_SIZE = 1000;
+        private static final int QUEUE_CAPACITY = 16;
+
+        private static final long POLL_INTERVAL = 100;
+        /**
+         * Time the size and modification time of a file have to stay the same before it is read, so a file is not
+         * read while it is still being written or copied.
+         */
+        private static final long SETTLE_TIME = 500;
+        /**
+         * Time before a file that could not be read is read again
+         */
+        private static final long RETRY_DELAY = 10000;
+
+        private final DirectoryWatchSource source;
+
+        private final BlockingQueue<FileBatch> queue = new ArrayBlockingQueue<FileBatch>(QUEUE_CAPACITY);
+        private final Map<Path, FileState> index = Maps.newHashMap();
+        private final Map<Path, FileState> pending = Maps.newLinkedHashMap();
+        private final Set<Path> inFlight = Sets.newHashSet();
+
+        private Path directory;
+        private PathMatcher matcher;
+        private File indexFile;
+
+        private volatile boolean running;
+
+        public CompiledDirectoryWatchSource(DirectoryWatchSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public void startProcessingEvents(ProcessingRuntime runtime) throws ProcessingException {
+            // this needs to be atomic, both the check and set
+            synchronized (this) {
+                checkState(!running, "Source is already processing events. Cannot call processEvents again");
+                running = true;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(source.getWorkerThreads());
+            WatchService watcher = null;
+            try {
+                directory = Paths.get(source.getDirectory().trim()).toAbsolutePath();
+                if (!Files.isDirectory(directory)) {
+                    throw new ProcessingException("Could not find directory " + directory);
+                }
+                matcher = source.getFileMatcher();
+                indexFile = Checkpoints.fileFor(source.getIndexFile(), "directory-index", source.getId());
+                readIndex();
+
+                watcher = directory.getFileSystem().newWatchService();
+                directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+                processFiles(watcher, executor, runtime);
+
+            } catch (IOException e) {
+                throw new ProcessingException("Problem watching directory " + source.getDirectory(), e);
+            } catch (ValidationException e) {
+                // this should never happen since the source was validated
+                throw new ProcessingException(e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
+                if (watcher != null) {
+                    try {
+                        watcher.close();
+                    } catch (IOException e) {
+                        LOG.warn("Problem closing watch service of " + directory, e);
+                    }
+                }
+            }
+        }
+
+        void processFiles(WatchService watcher, ExecutorService executor, ProcessingRuntime runtime)
+                throws IOException, InterruptedException {
+            Thread thread = Thread.currentThread();
+
+            // the files that were added or changed while the source was stopped
+            scanDirectory();
+
+            while (!thread.isInterrupted() && running) {
+                FileBatch batch = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                while (batch != null) {
+                    sendBatch(batch, runtime);
+                    batch = queue.poll();
+                }
+
+                WatchKey key;
+                while ((key = watcher.poll()) != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            // events were lost, look at all files again
+                            scanDirectory();
+                        } else {
+                            fileChanged(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("Directory " + directory + " cannot be watched any more");
+                    }
+                }
+
+                submitSettledFiles(executor);
+            }
+        }
+
+        void sendBatch(FileBatch batch, ProcessingRuntime runtime) throws IOException {
+            if (!batch.events.isEmpty()) {
+                runtime.sendEventsFromSource(batch.events, source);
+            }
+
+            if (batch.last) {
+                inFlight.remove(batch.file);
+                if (batch.failed) {
+                    retryLater(batch.file);
+                } else if (Files.exists(batch.file)) {
+                    index.put(batch.file, batch.state);
+                    writeIndex();
+                }
+            }
+        }
+
+        /**
+         * Puts a file that could not be read back into the pending files, it is read again after the retry delay
+         * unless it changed in the meantime, then it is read once it settled.
+         */
+        void retryLater(Path file) throws IOException {
+            FileState state = FileState.of(file);
+            if (state != null && !pending.containsKey(file)) {
+                pending.put(file, new FileState(state.lastModified, state.size,
+                        state.checkedAt + RETRY_DELAY - SETTLE_TIME));
+            }
+        }
+
+        void scanDirectory() throws IOException {
+            List<Map.Entry<Path, FileState>> files = Lists.newArrayList();
+
+            DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+            try {
+                for (Path file : stream) {
+                    FileState state = isWatched(file) ? FileState.of(file) : null;
+                    if (state != null) {
+                        files.add(Maps.immutableEntry(file, state));
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+
+            // the oldest files first
+            Collections.sort(files, new Comparator<Map.Entry<Path, FileState>>() {
+                @Override
+                public int compare(Map.Entry<Path, FileState> entry1, Map.Entry<Path, FileState> entry2) {
+                    long lastModified1 = entry1.getValue().lastModified;
+                    long lastModified2 = entry2.getValue().lastModified;
+                    return (lastModified1 < lastModified2) ? -1 : ((lastModified1 == lastModified2) ? 0 : 1);
+                }
+            });
+
+            for (Map.Entry<Path, FileState> file : files) {
+                if (!file.getValue().isSameAs(index.get(file.getKey()))) {
+                    pending.put(file.getKey(), file.getValue());
+                }
+            }
+        }
+
+        void fileChanged(Path file) throws IOException {
+            if (!isWatched(file)) {
+                return;
+            }
+
+            FileState state = FileState.of(file);
+            if (state != null) {
+                pending.put(file, state);
+            } else {
+                pending.remove(file);
+                if (index.remove(file) != null) {
+                    writeIndex();
+                }
+            }
+        }
+
+        /**
+         * Submits the pending files that did not change for the settle time and are not being read already. A file
+         * that changes while it is read stays pending and is read again after the worker is done with it.
+         */
+        void submitSettledFiles(ExecutorService executor) throws IOException {
+            long now = System.currentTimeMillis();
+
+            Iterator<Map.Entry<Path, FileState>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Path, FileState> entry = iterator.next();
+                Path file = entry.getKey();
+                if (inFlight.contains(file) || now - entry.getValue().checkedAt < SETTLE_TIME) {
+                    continue;
+                }
+
+                FileState state = FileState.of(file);
+                if (state == null) {
+                    iterator.remove();
+                } else if (!state.isSameAs(entry.getValue())) {
+                    // still being written
+                    entry.setValue(state);
+                } else {
+                    iterator.remove();
+                    if (!state.isSameAs(index.get(file))) {
+                        inFlight.add(file);
+                        executor.execute(new FileDecoder(file, state));
+                    }
+                }
+            }
+        }
+
+        boolean isWatched(Path file) {
+            Path index = indexFile.toPath().toAbsolutePath();
+            if (file.equals(index) || file.equals(index.resolveSibling(index.getFileName() + ".new"))) {
+                return false;
+            }
+            return matcher.matches(file.getFileName());
+        }
+
+        /**
+         * Reads the index, a line with the modification time, size and path of every file that was read. Files that
+         * do not exist any more are left out.
+         */
+        void readIndex() throws IOException {
+            String content = Checkpoints.read(indexFile);
+            if (content == null || content.length() == 0) {
+                return;
+            }
+
+            for (String line : content.split("\n")) {
+                String[] fields = line.split("\t", 3);
+                try {
+                    Path file = Paths.get(fields[2]);
+                    if (Files.exists(file)) {
+                        index.put(file, new FileState(Long.parseLong(fields[0]), Long.parseLong(fields[1]), 0));
+                    }
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    LOG.warn("Skipping invalid line of index " + indexFile + ": " + line);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Skipping invalid line of index " + indexFile + ": " + line);
+                }
+            }
+        }
+
+        void writeIndex() throws IOException {
+            StringBuilder content = new StringBuilder();
+            for (Map.Entry<Path, FileState> entry : index.entrySet()) {
+                content.append(entry.getValue().lastModified).append('\t').
+                        append(entry.getValue().size).append('\t').
+                        append(entry.getKey()).append('\n');
+            }
+            Checkpoints.write(indexFile, content.toString());
+        }
+
+        @Override
+        public void stopProcessingEvents() {
+            this.running = false;
+        }
+
+        /**
+         * Decodes a file on a worker thread and puts its events into the queue in batches.
+         */
+        private class FileDecoder implements Runnable {
+            private final Path file;
+            private final FileState state;
+            private final EventType eventType;
+
+            private List<Event> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+            FileDecoder(Path file, FileState state) {
+                this.file = file;
+                this.state = state;
+                this.eventType = source.getEventType();
+            }
+
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
+                    decodeFile();
+                } catch (Exception e) {
+                    // the file is not recorded, it is read again later
+                    LOG.warn("Problem reading file " + file, e);
+                    failed = true;
+                }
+
+                try {
+                    queue.put(new FileBatch(file, state, batch, true, failed));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            void decodeFile() throws Exception {
+                String name = file.getFileName().toString().toLowerCase();
+                String extension = name.substring(name.lastIndexOf('.') + 1);
+
+                if (extension.equals("json") || extension.equals("jsonl") || extension.equals("ndjson")) {
+                    decodeLines(new JsonLineDecoder(eventType), false);
+                } else if (extension.equals("csv") || extension.equals("txt")) {
+                    decodeLines(new CsvLineDecoder(eventType, TextFileSource.delimiterOf(source.getDelimiter())),
+                            source.hasHeader());
+                } else if (extension.equals("tsv")) {
+                    decodeLines(new CsvLineDecoder(eventType, '\t'), source.hasHeader());
+                } else if (extension.equals("xls") || extension.equals("xlsx")) {
+                    decodeWorkbook();
+                } else if (extension.equals("xml")) {
+                    decodeXml();
+                } else {
+                    LOG.info("Skipping file of unknown format " + file);
+                }
+            }
+
+            void decodeLines(LineDecoder decoder, boolean header) throws IOException {
+                RandomAccessFile input = new RandomAccessFile(file.toFile(), "r");
+                try {
+                    MappedLineReader reader = new MappedLineReader(input.getChannel(), 0);
+                    if (header && reader.nextLine(true)) {
+                        ((CsvLineDecoder) decoder).readHeader(reader.getLine(), reader.getLength());
+                    }
+
+                    while (reader.nextLine(true)) {
+                        Event event = null;
+                        try {
+                            event = decoder.decode(reader.getLine(), reader.getLength());
+                        } catch (IllegalArgumentException e) {
+                            LOG.info("Skipping line of " + file + " that cannot be decoded: " + e.getMessage());
+                        }
+
+                        if (event != null && !add(event)) {
+                            return;
+                        }
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+
+            void decodeWorkbook() throws IOException, ValidationException {
+                StreamingExcelReader.RowHandler handler;
+                ExcelLayout layout = source.getExcelLayoutValue();
+                if (layout == ExcelLayout.TABLE) {
+                    handler = new TableEventConverter(eventType) {
+                        @Override
+                        protected boolean processEvent(Event event) {
+                            return add(event);
+                        }
+                    };
+                } else {
+                    handler = new ExcelEventConverter(eventType, layout.getLayout(), 0) {
+                        @Override
+                        protected boolean processEvent(Event event) {
+                            return add(event);
+                        }
+                    };
+                }
+
+                InputStream in = new FileInputStream(file.toFile());
+                try {
+                    if (!StreamingExcelReader.readSheet(in, 0, handler)) {
+                        LOG.info("Skipping workbook without sheets " + file);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+
+            void decodeXml() throws Exception {
+                InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()));
+                try {
+                    StaxXmlReader.readElements(in, source.getXmlDepth(), new StaxXmlReader.ElementHandler() {
+                        @Override
+                        public boolean handleElement(String name, Map<String, String> values) {
+                            return add(StaxXmlReader.eventOf(values, eventType));
+                        }
+                    });
+                } finally {
+                    in.close();
+                }
+            }
+
+            /**
+             * Adds the event to the batch and puts the batch into the queue once it is full.
+             *
+             * @return true to continue with the file, false if the source was stopped
+             */
+            boolean add(Event event) {
+                batch.add(event);
+                if (batch.size() == BATCH_SIZE) {
+                    try {
+                        queue.put(new FileBatch(file, state, batch, false, false));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                }
+                return running;
+            }
+        }
+    }
+}
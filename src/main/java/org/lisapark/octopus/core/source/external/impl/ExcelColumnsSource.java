@@ -16,12 +16,14 @@
  */
 package org.lisapark.octopus.core.source.external.impl;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import org.lisapark.octopus.core.Output;
@@ -167,6 +169,8 @@ public class ExcelColumnsSource extends ExternalSource {
     }
 
     private static class CompiledExcelColumnsSource implements CompiledExternalSource {
+        private static final int BATCH_SIZE = 1000;
+
         private final ExcelColumnsSource source;
 
         private volatile boolean running;
@@ -205,10 +209,20 @@ public class ExcelColumnsSource extends ExternalSource {
             Thread thread = Thread.currentThread();
             EventType eventType = source.getEventType();
 
+            // rows are sent in batches so that processors can work on several rows at once
+            List<Event> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
             while (!thread.isInterrupted() && running && rs.next()) {
-                Event newEvent = createEventFromResultSet(rs, eventType);
+                batch.add(createEventFromResultSet(rs, eventType));
+
+                if (batch.size() == BATCH_SIZE) {
+                    runtime.sendEventsFromSource(batch, source);
+                    batch.clear();
+                }
+            }
 
-                runtime.sendEventFromSource(newEvent, source);
+            if (!batch.isEmpty()) {
+                runtime.sendEventsFromSource(batch, source);
             }
         }
 
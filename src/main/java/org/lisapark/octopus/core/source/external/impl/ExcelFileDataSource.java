@@ -165,6 +165,9 @@ public class ExcelFileDataSource extends ExternalSource {
             EventType eventType = source.getOutput().getEventType();
             
             try {
+                // the workbook is not streamed with StreamingExcelReader: JsonUtils converts a sheet from the POI
+                // Row and Cell model, with the cell types and styles, and every sheet becomes a single event with
+                // the whole sheet as JSON, so each sheet is in memory either way
                 HSSFWorkbook workbook = ExcelUtils.excelWorkbookFromFile(source.getFileName());
                 JsonUtils jsonUtils = new JsonUtils() {
 
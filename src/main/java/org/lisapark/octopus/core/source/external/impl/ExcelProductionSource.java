@@ -25,16 +25,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.logging.Level;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 import org.json.JSONException;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.ProcessingException;
@@ -46,6 +41,8 @@ import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.excel.SheetRow;
+import org.lisapark.octopus.util.excel.StreamingExcelReader;
 import org.lisapark.octopus.util.json.ExcelSardineUtils;
 import org.lisapark.octopus.util.json.ExcelUtils;
 import org.lisapark.octopus.util.xml.XmlConverterUtils;
@@ -217,47 +214,14 @@ public class ExcelProductionSource  extends ExternalSource {
                         Map<String, String> props = res.getCustomProps();
                         if (props.get(ExcelSardineUtils.PROCESSED) == null) {
                             InputStream isData = sardine.get(url);
-                            HSSFWorkbook book = new HSSFWorkbook(isData);
-
-                            int index = 0;
-                            int increament = source.getIncreament();
-                            if (book.getNumberOfSheets() > index) {
-                                if (increament == 0) {
-                                    increament = ExcelSardineUtils.PROD_OUTLINE_INCREAMENT;
-                                }
-                                Sheet sheet = book.getSheetAt(index);
-                                if (sheet == null) {
-                                    continue;
-                                }
-
-                                // Iterate through the rows.
-                                int splitRowNumber = 0;
-
-                                if (sheet.getPaneInformation() != null && sheet.getPaneInformation().isFreezePane()) {
-                                    splitRowNumber = sheet.getPaneInformation().getHorizontalSplitPosition();
-                                }
-
-                                Map<String, Object> rowMap = Maps.newHashMap();
-
-                                for (Iterator<Row> rowsIt = sheet.rowIterator(); rowsIt.hasNext();) {
-                                    Row row = rowsIt.next();
-                                    if (row.getPhysicalNumberOfCells() <= 0 || row.getRowNum() < splitRowNumber) {
-                                        continue;
-                                    }
-
-                                    Cell cell = row.getCell(row.getFirstCellNum());
-
-                                    int indent = cell.getCellStyle().getIndention();
-                                    int absIndent = indent / increament;
-
-                                    if (ExcelSardineUtils.processRowProdSs(rowMap, row, cellIndexMap, absIndent)) {
-                                        
-                                        processCellRange(rowMap, runtime);
-                                        
-                                        logger.log(Level.INFO, "Row data is {0}", rowMap);
-                                    }
-                                }
+                            try {
+                                // the rows are turned into events while the workbook is read
+                                int index = 0;
+                                StreamingExcelReader.readSheet(isData, index, new ProductionRowHandler(cellIndexMap, runtime));
+                            } finally {
+                                isData.close();
                             }
+
                             props.put(ExcelSardineUtils.PROCESSED, ExcelSardineUtils.TRUE);
                             sardine.setCustomProps(url, props, null);
                         } else {
@@ -277,6 +241,46 @@ public class ExcelProductionSource  extends ExternalSource {
             }
         }
 
+        /**
+         * Keeps the data of the enclosing groups of the rows of a production sheet, given by the indention of the
+         * first cell, and sends an event for every row with the materials of a product.
+         */
+        private class ProductionRowHandler implements StreamingExcelReader.RowHandler {
+            private final Map<String, Integer> cellIndexMap;
+            private final ProcessingRuntime runtime;
+            private final int increament;
+            private final Map<String, Object> rowMap = Maps.newHashMap();
+            private int splitRowNumber;
+
+            ProductionRowHandler(Map<String, Integer> cellIndexMap, ProcessingRuntime runtime) {
+                this.cellIndexMap = cellIndexMap;
+                this.runtime = runtime;
+                this.increament = (source.getIncreament() == 0) ?
+                        ExcelSardineUtils.PROD_OUTLINE_INCREAMENT : source.getIncreament();
+            }
+
+            @Override
+            public void startSheet(String sheetName, int frozenRows) {
+                splitRowNumber = frozenRows;
+            }
+
+            @Override
+            public boolean handleRow(SheetRow row) {
+                if (row.getRowNum() >= splitRowNumber) {
+                    int indent = row.getIndention(row.getFirstCellNum());
+                    int absIndent = indent / increament;
+
+                    if (ExcelSardineUtils.processRowProdSs(rowMap, row, cellIndexMap, absIndent)) {
+
+                        processCellRange(rowMap, runtime);
+
+                        logger.log(Level.INFO, "Row data is {0}", rowMap);
+                    }
+                }
+                return running && !Thread.currentThread().isInterrupted();
+            }
+        }
+
         void processCellRange(Map<String, Object> map, ProcessingRuntime runtime) {
             Thread thread = Thread.currentThread();
             
@@ -17,6 +17,7 @@
 package org.lisapark.octopus.core.source.external.impl;
 
 import static com.google.common.base.Preconditions.checkState;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.googlecode.sardine.DavResource;
 import com.googlecode.sardine.Sardine;
@@ -25,15 +26,10 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.ProcessingException;
 import org.lisapark.octopus.core.ValidationException;
@@ -43,6 +39,8 @@ import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.excel.SheetRow;
+import org.lisapark.octopus.util.excel.StreamingExcelReader;
 import org.lisapark.octopus.util.json.ExcelSardineUtils;
 import org.openide.util.Exceptions;
 
@@ -237,59 +235,17 @@ public class ExcelWarehouseSource  extends ExternalSource {
                         Map<String, String> props = res.getCustomProps();
                         if (props.get(ExcelSardineUtils.PROCESSED) == null) {
                             InputStream isData = sardine.get(url);
-                            HSSFWorkbook book = new HSSFWorkbook(isData);
-
-                            int index = 0;
-                            int increament = source.getIncreament();
-                            if (book.getNumberOfSheets() > index) {
-                                if (increament == 0) {
-                                    increament = ExcelSardineUtils.WRH_OUTLINE_INCREAMENT;
-                                }
-                                Sheet sheet = book.getSheetAt(index);
-                                if (sheet == null) {
-                                    continue;
-                                }
-
-                                // Iterate through the rows.
-                                int splitRowNumber = 0;
-
-                                if (sheet.getPaneInformation() != null && sheet.getPaneInformation().isFreezePane()) {
-                                    splitRowNumber = sheet.getPaneInformation().getHorizontalSplitPosition();
-                                }
-
-                                Row dateRow = sheet.getRow(source.getDateRow());
-                                int start = source.getStartCol();
-                                int end = dateRow.getLastCellNum();
-
-                                for (int dateShift = start; 
-                                        dateShift < end - source.getDateShift(); 
-                                        dateShift = dateShift + source.getDateShift()) {
-
-                                    Map<String, Object> rowMap = Maps.newHashMap();
-                                    
-                                    rowMap.put(ExcelSardineUtils.DATE,
-                                            ExcelSardineUtils.formatDate(dateRow.getCell(dateShift).getStringCellValue()));
-                                    
-                                    Sheet _sheet = book.getSheetAt(index);
-
-                                    for (Iterator<Row> rowsIt = _sheet.rowIterator(); rowsIt.hasNext();) {
-                                        Row row = rowsIt.next();
-                                        if (row.getPhysicalNumberOfCells() <= 0 || row.getRowNum() < splitRowNumber) {
-                                            continue;
-                                        }
-
-                                        Cell cell = row.getCell(1);
-                                        int indent = cell.getCellStyle().getIndention();
-                                        int absIndent = indent / increament;
-//                                
-                                        if (ExcelSardineUtils.processRowWrhSs(rowMap, row, cellIndexMap, absIndent, dateShift)) {
-
-                                            processCellRange(rowMap, runtime);
-
-                                            logger.log(Level.INFO, "Row data is {0}", rowMap);
-                                        }
-                                    }
-                                }
+                            boolean hasSheet;
+                            try {
+                                // the rows are turned into events while the workbook is read
+                                int index = 0;
+                                hasSheet = StreamingExcelReader.readSheet(isData, index,
+                                        new WarehouseRowHandler(cellIndexMap, runtime));
+                            } finally {
+                                isData.close();
+                            }
+
+                            if (hasSheet) {
                                 props.put(ExcelSardineUtils.PROCESSED, ExcelSardineUtils.TRUE);
                                 sardine.setCustomProps(url, props, null);
                             } else {
@@ -310,6 +266,65 @@ public class ExcelWarehouseSource  extends ExternalSource {
             }
         }
 
+        /**
+         * Sends an event for every item row of a warehouse sheet and every date of the date row. The dates are taken
+         * from the date row, every date has the columns from its column to the date shift after it. The rows are
+         * read once, so the events of a row for all dates are sent together, before those of the next row.
+         */
+        private class WarehouseRowHandler implements StreamingExcelReader.RowHandler {
+            private final Map<String, Integer> cellIndexMap;
+            private final ProcessingRuntime runtime;
+            private final int increament;
+            private final List<Integer> dateShifts = Lists.newArrayList();
+            private final List<Map<String, Object>> rowMaps = Lists.newArrayList();
+            private int splitRowNumber;
+
+            WarehouseRowHandler(Map<String, Integer> cellIndexMap, ProcessingRuntime runtime) {
+                this.cellIndexMap = cellIndexMap;
+                this.runtime = runtime;
+                this.increament = (source.getIncreament() == 0) ?
+                        ExcelSardineUtils.WRH_OUTLINE_INCREAMENT : source.getIncreament();
+            }
+
+            @Override
+            public void startSheet(String sheetName, int frozenRows) {
+                splitRowNumber = frozenRows;
+            }
+
+            @Override
+            public boolean handleRow(SheetRow row) {
+                if (row.getRowNum() == source.getDateRow()) {
+                    int end = row.getLastCellNum();
+                    for (int dateShift = source.getStartCol();
+                            dateShift < end - source.getDateShift();
+                            dateShift = dateShift + source.getDateShift()) {
+
+                        Map<String, Object> rowMap = Maps.newHashMap();
+                        rowMap.put(ExcelSardineUtils.DATE, ExcelSardineUtils.formatDate(row.getStringValue(dateShift)));
+
+                        dateShifts.add(dateShift);
+                        rowMaps.add(rowMap);
+                    }
+                }
+
+                if (row.getRowNum() >= splitRowNumber) {
+                    int indent = row.getIndention(1);
+                    int absIndent = indent / increament;
+
+                    for (int i = 0; i < dateShifts.size(); ++i) {
+                        Map<String, Object> rowMap = rowMaps.get(i);
+                        if (ExcelSardineUtils.processRowWrhSs(rowMap, row, cellIndexMap, absIndent, dateShifts.get(i))) {
+
+                            processCellRange(rowMap, runtime);
+
+                            logger.log(Level.INFO, "Row data is {0}", rowMap);
+                        }
+                    }
+                }
+                return running && !Thread.currentThread().isInterrupted();
+            }
+        }
+
         void processCellRange(Map<String, Object> map, ProcessingRuntime runtime) {
             Thread thread = Thread.currentThread();
             
@@ -17,29 +17,23 @@
 package org.lisapark.octopus.core.source.external.impl;
 
 import static com.google.common.base.Preconditions.checkState;
-import com.google.common.collect.Maps;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.logging.Level;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.json.JSONException;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.ProcessingException;
 import org.lisapark.octopus.core.ValidationException;
-import org.lisapark.octopus.core.event.Attribute;
 import org.lisapark.octopus.core.event.Event;
 import org.lisapark.octopus.core.event.EventType;
 import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.excel.ExcelEventConverter;
+import org.lisapark.octopus.util.excel.StreamingExcelReader;
 import org.lisapark.octopus.util.json.ExcelUtils;
-import org.lisapark.octopus.util.xml.XmlConverterUtils;
-import org.openide.util.Exceptions;
 
 /**
  *
@@ -184,7 +178,7 @@ public class ExcelWarehouseSource_old  extends ExternalSource {
                 .description("Шаг отступа, который отражает группировки для элементов из первой колонки.")
                 .defaultValue(1));
 
-        gssSource.setOutput(Output.outputWithId(1).setName("XML"));
+        gssSource.setOutput(Output.outputWithId(1).setName("Warehouse"));
 
         return gssSource;
     }
@@ -232,7 +226,7 @@ public class ExcelWarehouseSource_old  extends ExternalSource {
         }
 
         void processCellRange(List<HSSFWorkbook> workbookList, ProcessingRuntime runtime) {
-            Thread thread = Thread.currentThread();
+            final Thread thread = Thread.currentThread();
             EventType eventType = source.getEventType();
 
             int count = 0;
@@ -242,9 +236,15 @@ public class ExcelWarehouseSource_old  extends ExternalSource {
             int workbookCount = workbookList.size();
             
             while (!thread.isInterrupted() && running && count < workbookCount) {
-                Event newEvent = createEventFromSpreadsheet(workbookList.get(count), eventType, index, increament);
+                HSSFWorkbook workbook = workbookList.get(count);
                 count++;
-                runtime.sendEventFromSource(newEvent, source);
+                if (workbook.getNumberOfSheets() <= index) {
+                    continue;
+                }
+
+                // the rows go straight into events, without the XML of the sheet
+                StreamingExcelReader.readRows(workbook.getSheetAt(index),
+                        new EventSender(eventType, increament, runtime, thread));
             }
         }
 
@@ -253,37 +253,21 @@ public class ExcelWarehouseSource_old  extends ExternalSource {
             this.running = false;
         }
 
-        Event createEventFromSpreadsheet(HSSFWorkbook workbook, EventType eventType, int index, int increament) {
-            Map<String, Object> attributeValues = Maps.newHashMap();
-
-            for (Attribute attribute : eventType.getAttributes()) {
-                try {
-                    Class type = attribute.getType();
-                    String attributeName = attribute.getName().trim();
-                    String xmlString = XmlConverterUtils.xmlStringFromWarehouseSS(workbook, index, increament);
-
-                    if (type == String.class) {
-                        String value = "";
-                        if(xmlString != null) {
-                            value = xmlString;
-                        }
-                        attributeValues.put(attributeName, value);
-                    }  else {
-                        throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
-                    }
-                } catch (JSONException ex) {
-                    Exceptions.printStackTrace(ex);
-                } catch (FileNotFoundException ex) {
-                    Exceptions.printStackTrace(ex);
-                } catch (IOException ex) {
-                    Exceptions.printStackTrace(ex);
-                } catch(IllegalArgumentException ex){
-                    Exceptions.printStackTrace(ex);
-                }
+        private class EventSender extends ExcelEventConverter {
+            private final ProcessingRuntime runtime;
+            private final Thread thread;
+
+            EventSender(EventType eventType, int increament, ProcessingRuntime runtime, Thread thread) {
+                super(eventType, Layout.WAREHOUSE, increament);
+                this.runtime = runtime;
+                this.thread = thread;
             }
 
-            return new Event(attributeValues);
+            @Override
+            protected boolean processEvent(Event event) {
+                runtime.sendEventFromSource(event, source);
+                return running && !thread.isInterrupted();
+            }
         }
-
     }
 }
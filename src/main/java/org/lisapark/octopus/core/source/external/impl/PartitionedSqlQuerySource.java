@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import org.lisapark.octopus.core.Output;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Constraints;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.jdbc.Connections;
+import org.lisapark.octopus.util.jdbc.ResultSetReader;
+import org.lisapark.octopus.util.jdbc.ResultSets;
+import org.lisapark.octopus.util.jdbc.Statements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * This class is an {@link ExternalSource} that reads the result of a query in parallel, e.g. for large backfills.
+ * The rows are split into ranges of a numeric partition column and every range is read with its own connection on
+ * its own thread, so the database can work on all ranges at once.
+ * <p/>
+ * The ranges divide the bounds evenly; if no bounds are configured the minimum and maximum of the partition column
+ * are queried first. Rows with a NULL partition column are not read. Without a sort attribute the rows of the
+ * ranges are interleaved as they arrive; with a sort attribute every range is read in the order of it and the
+ * ranges are merged, so the rows arrive in that order.
+ * <p/>
+ * Like the {@link SqlQuerySource}, the names and types of the columns are taken from the output event type.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class PartitionedSqlQuerySource extends ExternalSource {
+    private static final String DEFAULT_NAME = "Partitioned Database Source";
+    private static final String DEFAULT_DESCRIPTION = "Reads ranges of an SQL query in parallel.";
+
+    private static final int URL_PARAMETER_ID = 1;
+    private static final int USER_NAME_PARAMETER_ID = 2;
+    private static final int PASSWORD_PARAMETER_ID = 3;
+    private static final int DRIVER_PARAMETER_ID = 4;
+    private static final int QUERY_PARAMETER_ID = 5;
+    private static final int PARTITION_COLUMN_PARAMETER_ID = 6;
+    private static final int NUMBER_OF_PARTITIONS_PARAMETER_ID = 7;
+    private static final int LOWER_BOUND_PARAMETER_ID = 8;
+    private static final int UPPER_BOUND_PARAMETER_ID = 9;
+    private static final int SORT_ATTRIBUTE_PARAMETER_ID = 10;
+    private static final int FETCH_SIZE_PARAMETER_ID = 11;
+
+    private PartitionedSqlQuerySource(UUID sourceId, String name, String description) {
+        super(sourceId, name, description);
+    }
+
+    private PartitionedSqlQuerySource(UUID sourceId, PartitionedSqlQuerySource copyFromSource) {
+        super(sourceId, copyFromSource);
+    }
+
+    private PartitionedSqlQuerySource(PartitionedSqlQuerySource copyFromSource) {
+        super(copyFromSource);
+    }
+
+    public String getUrl() {
+        return getParameter(URL_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setUrl(String url) throws ValidationException {
+        getParameter(URL_PARAMETER_ID).setValue(url);
+    }
+
+    public String getUsername() {
+        return getParameter(USER_NAME_PARAMETER_ID).getValueAsString();
+    }
+
+    public String getPassword() {
+        return getParameter(PASSWORD_PARAMETER_ID).getValueAsString();
+    }
+
+    public String getDriverClass() {
+        return getParameter(DRIVER_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setDriverClass(String driverClass) throws ValidationException {
+        getParameter(DRIVER_PARAMETER_ID).setValue(driverClass);
+    }
+
+    public String getQuery() {
+        return getParameter(QUERY_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setQuery(String query) throws ValidationException {
+        getParameter(QUERY_PARAMETER_ID).setValue(query);
+    }
+
+    public String getPartitionColumn() {
+        return getParameter(PARTITION_COLUMN_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setPartitionColumn(String partitionColumn) throws ValidationException {
+        getParameter(PARTITION_COLUMN_PARAMETER_ID).setValue(partitionColumn);
+    }
+
+    public int getNumberOfPartitions() {
+        return getParameter(NUMBER_OF_PARTITIONS_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setNumberOfPartitions(int numberOfPartitions) throws ValidationException {
+        getParameter(NUMBER_OF_PARTITIONS_PARAMETER_ID).setValue(numberOfPartitions);
+    }
+
+    public Long getLowerBound() {
+        return getParameter(LOWER_BOUND_PARAMETER_ID).getValueAsLong();
+    }
+
+    public Long getUpperBound() {
+        return getParameter(UPPER_BOUND_PARAMETER_ID).getValueAsLong();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setBounds(Long lowerBound, Long upperBound) throws ValidationException {
+        getParameter(LOWER_BOUND_PARAMETER_ID).setValue(lowerBound);
+        getParameter(UPPER_BOUND_PARAMETER_ID).setValue(upperBound);
+    }
+
+    public String getSortAttribute() {
+        return getParameter(SORT_ATTRIBUTE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setSortAttribute(String sortAttribute) throws ValidationException {
+        getParameter(SORT_ATTRIBUTE_PARAMETER_ID).setValue(sortAttribute);
+    }
+
+    public int getFetchSize() {
+        return getParameter(FETCH_SIZE_PARAMETER_ID).getValueAsInteger();
+    }
+
+    public EventType getEventType() {
+        return getOutput().getEventType();
+    }
+
+    String getSortAttributeName() {
+        String sortAttribute = getSortAttribute();
+        return (sortAttribute == null || sortAttribute.trim().length() == 0) ? null : sortAttribute.trim();
+    }
+
+    @Override
+    public PartitionedSqlQuerySource newInstance() {
+        UUID sourceId = UUID.randomUUID();
+        return new PartitionedSqlQuerySource(sourceId, this);
+    }
+
+    @Override
+    public PartitionedSqlQuerySource copyOf() {
+        return new PartitionedSqlQuerySource(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        String sortAttributeName = getSortAttributeName();
+        if (sortAttributeName != null && !getEventType().containsAttributeWithName(sortAttributeName)) {
+            throw new ValidationException(String.format("The output has no attribute named '%s'", sortAttributeName));
+        }
+
+        Long lowerBound = getLowerBound();
+        Long upperBound = getUpperBound();
+        if ((lowerBound == null) != (upperBound == null)) {
+            throw new ValidationException("Set both bounds, or none to use the minimum and maximum of the partition column.");
+        }
+        if (lowerBound != null && lowerBound > upperBound) {
+            throw new ValidationException("The lower bound should not be greater than the upper bound.");
+        }
+    }
+
+    /**
+     * Divides the values from the lower to the upper bound, both included, into at most the number of partitions
+     * ranges of equal size, only the last range can be smaller. No range is empty, so there are fewer ranges if
+     * there are fewer values than partitions. The number of values is computed with {@link BigInteger}s, as it does
+     * not fit in a long for bounds far apart.
+     *
+     * @return the first and last value of every range
+     */
+    static List<long[]> rangesOf(long lowerBound, long upperBound, int numberOfPartitions) {
+        List<long[]> ranges = Lists.newArrayList();
+        if (lowerBound > upperBound) {
+            return ranges;
+        }
+
+        BigInteger upper = BigInteger.valueOf(upperBound);
+        BigInteger numberOfValues = upper.subtract(BigInteger.valueOf(lowerBound)).add(BigInteger.ONE);
+        BigInteger partitions = BigInteger.valueOf(Math.max(1, numberOfPartitions));
+
+        // ceil(numberOfValues / partitions)
+        BigInteger rangeSize = numberOfValues.add(partitions).subtract(BigInteger.ONE).divide(partitions);
+
+        BigInteger from = BigInteger.valueOf(lowerBound);
+        while (from.compareTo(upper) <= 0) {
+            BigInteger to = from.add(rangeSize).subtract(BigInteger.ONE).min(upper);
+            ranges.add(new long[]{from.longValue(), to.longValue()});
+
+            from = to.add(BigInteger.ONE);
+        }
+
+        return ranges;
+    }
+
+    public static PartitionedSqlQuerySource newTemplate() {
+        UUID sourceId = UUID.randomUUID();
+        PartitionedSqlQuerySource jdbc = new PartitionedSqlQuerySource(sourceId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(URL_PARAMETER_ID, "URL").required(true));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(USER_NAME_PARAMETER_ID, "User name"));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(PASSWORD_PARAMETER_ID, "Password:"));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(DRIVER_PARAMETER_ID, "Driver class name:").required(true).
+                constraint(Constraints.classConstraintWithMessage("%s is not a valid Driver Class")));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(QUERY_PARAMETER_ID, "SQL query:").required(true));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(PARTITION_COLUMN_PARAMETER_ID, "Partition column:").
+                description("Numeric column of the query result the ranges are taken of.").
+                required(true));
+        jdbc.addParameter(Parameter.integerParameterWithIdAndName(NUMBER_OF_PARTITIONS_PARAMETER_ID, "Partitions:").
+                description("Number of ranges read in parallel, each with its own connection.").
+                defaultValue(4).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Partitions should be greater than 0.")));
+        jdbc.addParameter(Parameter.longParameterWithIdAndName(LOWER_BOUND_PARAMETER_ID, "Lower bound:").
+                description("Optional smallest value of the partition column."));
+        jdbc.addParameter(Parameter.longParameterWithIdAndName(UPPER_BOUND_PARAMETER_ID, "Upper bound:").
+                description("Optional largest value of the partition column."));
+        jdbc.addParameter(Parameter.stringParameterWithIdAndName(SORT_ATTRIBUTE_PARAMETER_ID, "Sort attribute:").
+                description("Optional attribute the rows are produced in the order of."));
+        jdbc.addParameter(Parameter.integerParameterWithIdAndName(FETCH_SIZE_PARAMETER_ID, "Fetch size:").
+                description("Number of rows read from the database at a time, 0 reads the whole range at once.").
+                defaultValue(1000).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(0, "Fetch size cannot be negative.")));
+
+        jdbc.setOutput(Output.outputWithId(1).setName("Output data:"));
+
+        return jdbc;
+    }
+
+    @Override
+    public CompiledExternalSource compile() throws ValidationException {
+        validate();
+
+        return new CompiledPartitionedSqlQuerySource(this.copyOf());
+    }
+
+    private static class CompiledPartitionedSqlQuerySource implements CompiledExternalSource {
+        private static final Logger LOG = LoggerFactory.getLogger(CompiledPartitionedSqlQuerySource.class);
+
+        private static final int BATCH_SIZE = 1000;
+
+        /**
+         * Batches each partition can read ahead of the runtime
+         */
+        private static final int BATCHES_AHEAD = 4;
+
+        /**
+         * Put in the queue of a partition after its last batch
+         */
+        private static final List<Event> END_OF_PARTITION = Collections.emptyList();
+
+        private final PartitionedSqlQuerySource source;
+
+        private volatile boolean running;
+        private volatile Exception partitionException;
+
+        public CompiledPartitionedSqlQuerySource(PartitionedSqlQuerySource source) {
+            this.source = source;
+        }
+
+        @Override
+        public void startProcessingEvents(ProcessingRuntime runtime) throws ProcessingException {
+            // this needs to be atomic, both the check and set
+            synchronized (this) {
+                checkState(!running, "Source is already processing events. Cannot call processEvents again");
+                running = true;
+            }
+
+            long[] bounds = getBounds();
+            if (bounds == null) {
+                // the query has no rows
+                return;
+            }
+
+            List<long[]> ranges = rangesOf(bounds[0], bounds[1], source.getNumberOfPartitions());
+            int numberOfPartitions = ranges.size();
+            boolean ordered = source.getSortAttributeName() != null;
+
+            List<BlockingQueue<List<Event>>> queues = Lists.newArrayList();
+            BlockingQueue<List<Event>> sharedQueue = ordered ? null :
+                    new ArrayBlockingQueue<List<Event>>(BATCHES_AHEAD * numberOfPartitions);
+
+            ExecutorService executor = Executors.newFixedThreadPool(numberOfPartitions);
+            try {
+                for (long[] range : ranges) {
+                    BlockingQueue<List<Event>> queue = ordered ? new ArrayBlockingQueue<List<Event>>(BATCHES_AHEAD) : sharedQueue;
+                    queues.add(queue);
+
+                    executor.execute(new PartitionReader(range[0], range[1], queue));
+                }
+
+                if (ordered) {
+                    mergeOrdered(queues, runtime);
+                } else {
+                    mergeUnordered(sharedQueue, numberOfPartitions, runtime);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running = false;
+                executor.shutdownNow();
+            }
+
+            if (partitionException != null) {
+                throw new ProcessingException("Problem processing result set from database. Please check your settings.",
+                        partitionException);
+            }
+        }
+
+        /**
+         * Returns the configured bounds, or the minimum and maximum of the partition column, or null if there are no
+         * rows.
+         */
+        private long[] getBounds() throws ProcessingException {
+            if (source.getLowerBound() != null) {
+                return new long[]{source.getLowerBound(), source.getUpperBound()};
+            }
+
+            Connection connection = getConnection();
+            Statement statement = null;
+            ResultSet rs = null;
+            try {
+                statement = connection.createStatement();
+                rs = statement.executeQuery(String.format("SELECT MIN(%1$s), MAX(%1$s) FROM (%2$s) bounds",
+                        source.getPartitionColumn(), source.getQuery()));
+
+                if (!rs.next() || rs.getObject(1) == null) {
+                    return null;
+                }
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+
+            } catch (SQLException e) {
+                throw new ProcessingException("Could not query the bounds of the partition column. Please check your settings.", e);
+
+            } finally {
+                ResultSets.closeQuietly(rs);
+                Statements.closeQuietly(statement);
+                Connections.closeQuietly(connection);
+            }
+        }
+
+        private void mergeUnordered(BlockingQueue<List<Event>> queue, int numberOfPartitions, ProcessingRuntime runtime)
+                throws InterruptedException {
+            int numberOfEndedPartitions = 0;
+
+            while (numberOfEndedPartitions < numberOfPartitions && running) {
+                List<Event> batch = queue.take();
+
+                if (batch == END_OF_PARTITION) {
+                    numberOfEndedPartitions++;
+                } else {
+                    runtime.sendEventsFromSource(batch, source);
+                }
+            }
+        }
+
+        /**
+         * Merges the partitions, each of which is in the order of the sort attribute, by always taking the smallest
+         * of the next rows of the partitions.
+         */
+        private void mergeOrdered(List<BlockingQueue<List<Event>>> queues, ProcessingRuntime runtime)
+                throws InterruptedException {
+            final String sortAttributeName = source.getSortAttributeName();
+
+            PriorityQueue<PartitionCursor> cursors = new PriorityQueue<PartitionCursor>(queues.size(), new Comparator<PartitionCursor>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public int compare(PartitionCursor first, PartitionCursor second) {
+                    Comparable firstValue = (Comparable) first.current().getData().get(sortAttributeName);
+                    Comparable secondValue = (Comparable) second.current().getData().get(sortAttributeName);
+
+                    if (firstValue == null || secondValue == null) {
+                        return (firstValue == null) ? ((secondValue == null) ? 0 : -1) : 1;
+                    }
+                    return firstValue.compareTo(secondValue);
+                }
+            });
+
+            for (BlockingQueue<List<Event>> queue : queues) {
+                PartitionCursor cursor = new PartitionCursor(queue);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+
+            List<Event> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            while (!cursors.isEmpty() && running) {
+                PartitionCursor cursor = cursors.poll();
+                batch.add(cursor.current());
+
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+
+                if (batch.size() == BATCH_SIZE) {
+                    runtime.sendEventsFromSource(batch, source);
+                    batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                runtime.sendEventsFromSource(batch, source);
+            }
+        }
+
+        @Override
+        public void stopProcessingEvents() {
+            this.running = false;
+        }
+
+        Connection getConnection() throws ProcessingException {
+            try {
+                return Connections.getConnection(source.getDriverClass(), source.getUrl(), source.getUsername(), source.getPassword());
+            } catch (ClassNotFoundException e) {
+                // this should never happen since the parameter is constrained
+                throw new ProcessingException("Could not find JDBC Driver Class " + source.getDriverClass(), e);
+            } catch (SQLException e) {
+                throw new ProcessingException("Could not connect to database. Please check your settings.", e);
+            }
+        }
+
+        /**
+         * Reads the rows of a range of the partition column into batches and puts them into a queue, followed by
+         * {@link #END_OF_PARTITION}. The queue is bounded so a partition cannot read far ahead of the runtime.
+         */
+        private class PartitionReader implements Runnable {
+            private final long from;
+            private final long to;
+            private final BlockingQueue<List<Event>> queue;
+
+            PartitionReader(long from, long to, BlockingQueue<List<Event>> queue) {
+                this.from = from;
+                this.to = to;
+                this.queue = queue;
+            }
+
+            @Override
+            public void run() {
+                Connection connection = null;
+                PreparedStatement statement = null;
+                ResultSet rs = null;
+                boolean autoCommit = true;
+
+                try {
+                    connection = getConnection();
+                    autoCommit = connection.getAutoCommit();
+
+                    String sortAttributeName = source.getSortAttributeName();
+                    String query = String.format("SELECT * FROM (%s) partitioned WHERE %s >= ? AND %s <= ?",
+                            source.getQuery(), source.getPartitionColumn(), source.getPartitionColumn());
+                    if (sortAttributeName != null) {
+                        query += " ORDER BY " + sortAttributeName;
+                    }
+
+                    statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ResultSetReader.configureForStreaming(connection, statement, source.getUrl(), source.getFetchSize());
+                    statement.setLong(1, from);
+                    statement.setLong(2, to);
+
+                    rs = statement.executeQuery();
+                    ResultSetReader reader = new ResultSetReader(source.getEventType(), rs);
+
+                    List<Event> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                    while (running && rs.next()) {
+                        batch.add(reader.readEvent(rs));
+
+                        if (batch.size() == BATCH_SIZE) {
+                            queue.put(batch);
+                            batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        queue.put(batch);
+                    }
+
+                } catch (SQLException e) {
+                    LOG.error(String.format("Problem reading partition %d to %d", from, to), e);
+                    partitionException = e;
+                    running = false;
+
+                } catch (ProcessingException e) {
+                    LOG.error(String.format("Problem connecting for partition %d to %d", from, to), e);
+                    partitionException = e;
+                    running = false;
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                } finally {
+                    ResultSets.closeQuietly(rs);
+                    Statements.closeQuietly(statement);
+                    Connections.setAutoCommitQuietly(connection, autoCommit);
+                    Connections.closeQuietly(connection);
+
+                    try {
+                        queue.put(END_OF_PARTITION);
+                    } catch (InterruptedException e) {
+                        // the merge was stopped, nobody waits for the end of the partition
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The next row of a partition in the ordered merge.
+     */
+    private static class PartitionCursor {
+        private final BlockingQueue<List<Event>> queue;
+        private List<Event> batch = Collections.emptyList();
+        private int index;
+
+        PartitionCursor(BlockingQueue<List<Event>> queue) {
+            this.queue = queue;
+        }
+
+        Event current() {
+            return batch.get(index);
+        }
+
+        /**
+         * Moves to the next row, waiting for the next batch of the partition if needed. Returns false at the end of
+         * the partition.
+         */
+        boolean advance() throws InterruptedException {
+            if (++index < batch.size()) {
+                return true;
+            }
+
+            batch = queue.take();
+            index = 0;
+
+            return !batch.isEmpty();
+        }
+    }
+}
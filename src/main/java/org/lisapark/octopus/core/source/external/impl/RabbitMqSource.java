@@ -16,7 +16,8 @@
  */
 package org.lisapark.octopus.core.source.external.impl;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonParseException;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
@@ -26,26 +27,36 @@ import com.rabbitmq.client.ShutdownSignalException;
 import java.io.IOException;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ProcessingException;
 import org.lisapark.octopus.core.ValidationException;
-import org.lisapark.octopus.core.event.Attribute;
 import org.lisapark.octopus.core.event.Event;
-import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Constraints;
 import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
 
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.lisapark.octopus.core.processor.impl.PearsonsCorrelationProcessor;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
-import org.openide.util.Exceptions;
+import org.lisapark.octopus.util.json.JsonEventReader;
+
+import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * This {@link ExternalSource} consumes JSON messages from a RabbitMQ queue and converts them to events with the
+ * attributes of the output, each value converted to the type of its attribute.
+ * <p/>
+ * The queue is consumed on a number of channels in parallel, each with a prefetch limit on the messages the server
+ * sends ahead. The messages of a channel are decoded in batches, and a batch is acknowledged with one multiple ack
+ * after it was handed to the runtime, so a message is only acknowledged once it was processed. A channel stops when
+ * no message arrived for the time out.
+ *
  * @author dave sinclair(david.sinclair@lisa-park.com)
  */
 @Persistable
@@ -62,6 +73,9 @@ public class RabbitMqSource extends ExternalSource {
     private static final int EXCHANGE_NAME_PARAMETER_ID = 5;
     private static final int QUEUE_NAME_PARAMETER_ID    = 6;
     private static final int TIME_OUT_PARAMETER_ID      = 7;
+    private static final int PREFETCH_PARAMETER_ID      = 8;
+    private static final int ACK_BATCH_SIZE_PARAMETER_ID = 9;
+    private static final int CHANNELS_PARAMETER_ID      = 10;
 
     public RabbitMqSource(UUID id, String name, String description) {
         super(id, name, description);
@@ -99,11 +113,51 @@ public class RabbitMqSource extends ExternalSource {
     public String getQueueName() {
         return getParameter(QUEUE_NAME_PARAMETER_ID).getValueAsString();
     }
+
+    @SuppressWarnings("unchecked")
+    public void setQueueName(String queueName) throws ValidationException {
+        getParameter(QUEUE_NAME_PARAMETER_ID).setValue(queueName);
+    }
     
     private long getTimeOut() {
         return getParameter(TIME_OUT_PARAMETER_ID).getValueAsLong()*1000;
     }
 
+    /**
+     * Sets the time out in seconds.
+     */
+    @SuppressWarnings("unchecked")
+    public void setTimeOut(Long timeOut) throws ValidationException {
+        getParameter(TIME_OUT_PARAMETER_ID).setValue(timeOut);
+    }
+
+    public int getPrefetch() {
+        return getParameter(PREFETCH_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setPrefetch(int prefetch) throws ValidationException {
+        getParameter(PREFETCH_PARAMETER_ID).setValue(prefetch);
+    }
+
+    public int getAckBatchSize() {
+        return getParameter(ACK_BATCH_SIZE_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setAckBatchSize(int ackBatchSize) throws ValidationException {
+        getParameter(ACK_BATCH_SIZE_PARAMETER_ID).setValue(ackBatchSize);
+    }
+
+    public int getNumberOfChannels() {
+        return getParameter(CHANNELS_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setNumberOfChannels(int numberOfChannels) throws ValidationException {
+        getParameter(CHANNELS_PARAMETER_ID).setValue(numberOfChannels);
+    }
+
     @Override
     public RabbitMqSource copyOf() {
         return new RabbitMqSource(this);
@@ -166,6 +220,27 @@ public class RabbitMqSource extends ExternalSource {
                         defaultValue(10L).
                         required(true)
                 );
+        rabbitSource.addParameter(
+                Parameter.integerParameterWithIdAndName(PREFETCH_PARAMETER_ID, "Prefetch:").
+                        description("Number of unacknowledged messages the server sends ahead to a channel.").
+                        defaultValue(250).
+                        required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Prefetch should be greater than 0."))
+                );
+        rabbitSource.addParameter(
+                Parameter.integerParameterWithIdAndName(ACK_BATCH_SIZE_PARAMETER_ID, "Ack batch size:").
+                        description("Maximum number of messages handed to the runtime and acknowledged at once.").
+                        defaultValue(100).
+                        required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Ack batch size should be greater than 0."))
+                );
+        rabbitSource.addParameter(
+                Parameter.integerParameterWithIdAndName(CHANNELS_PARAMETER_ID, "Consumer channels:").
+                        description("Number of channels consuming the queue in parallel.").
+                        defaultValue(1).
+                        required(true).
+                        constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Consumer channels should be greater than 0."))
+                );
         return rabbitSource;
     }
 
@@ -178,33 +253,56 @@ public class RabbitMqSource extends ExternalSource {
 
         private final static Logger logger 
             = java.util.logging.Logger.getLogger(CompiledTestSource.class.getName());
-        
+
+        /**
+         * Batches each channel can decode ahead of the runtime
+         */
+        private static final int BATCHES_AHEAD = 4;
+
+        /**
+         * Put in the queue by a channel after its last batch
+         */
+        private static final DeliveryBatch END_OF_CHANNEL = new DeliveryBatch(null, 0L, null);
+
         private final RabbitMqSource source;
+        private final ConnectionFactory factory;
         private final String QUEUE_NAME;
 
         /**
          * Running is declared volatile because it may be access my different threads
          */
         private volatile boolean running;
+        private volatile Exception channelException;
         private final String DIRECT = "direct";
 
         public CompiledTestSource(RabbitMqSource source) {
+            this(source, new ConnectionFactory());
+        }
+
+        /**
+         * Creates the source with the connection factory to use, e.g. one that connects to a local stand-in for a
+         * RabbitMQ server.
+         */
+        CompiledTestSource(RabbitMqSource source, ConnectionFactory factory) {
             this.source = source;
+            this.factory = factory;
             this.QUEUE_NAME = source.getQueueName();
         }
 
         @Override
-        public void startProcessingEvents(ProcessingRuntime runtime) {
-            Thread thread = Thread.currentThread();
-            running = true;
+        public void startProcessingEvents(ProcessingRuntime runtime) throws ProcessingException {
+            // this needs to be atomic, both the check and set
+            synchronized (this) {
+                checkState(!running, "Source is already processing events. Cannot call processEvents again");
+                running = true;
+            }
+
+            int numberOfChannels = source.getNumberOfChannels();
+            BlockingQueue<DeliveryBatch> queue = new ArrayBlockingQueue<DeliveryBatch>(BATCHES_AHEAD * numberOfChannels);
 
-            EventType eventType = source.getOutput().getEventType();
-            List<Attribute> attributes = eventType.getAttributes();
-            
             Connection connection = null;
-            Channel channel = null;
+            ExecutorService executor = Executors.newFixedThreadPool(numberOfChannels);
             try {
-                ConnectionFactory factory = new ConnectionFactory();
                 factory.setUsername(source.getUserName());
                 factory.setPassword(source.getPassword());
                 
@@ -217,75 +315,61 @@ public class RabbitMqSource extends ExternalSource {
                 }
                 
                 connection = factory.newConnection();
-                channel = connection.createChannel();
-
-                channel.queueDeclare(QUEUE_NAME, true, false, false, null);
+                declareQueue(connection);
 
-                String exchname = source.getExchangeName();
-                if (!exchname.isEmpty()) {
-                    channel.exchangeDeclare(exchname, DIRECT);
+                for (int i = 0; i < numberOfChannels; ++i) {
+                    executor.execute(new ChannelConsumer(connection.createChannel(), queue));
                 }
-                
-                channel.queueBind(QUEUE_NAME, exchname, QUEUE_NAME);
-                    
-                QueueingConsumer consumer = new QueueingConsumer(channel);
-                
-//                if(exchname.isEmpty()){
-//                    channel.basicConsume(QUEUE_NAME, true, consumer);
-//                } else {
-                    channel.basicConsume(QUEUE_NAME, false, consumer);
-//                }
-                
-                while (true) {
-                    QueueingConsumer.Delivery delivery = consumer.nextDelivery(source.getTimeOut());
-                                        
-                    if (delivery == null || thread.isInterrupted() || !running) {
-                        break;
+
+                int numberOfEndedChannels = 0;
+                while (numberOfEndedChannels < numberOfChannels && running) {
+                    DeliveryBatch batch = queue.take();
+
+                    if (batch == END_OF_CHANNEL) {
+                        numberOfEndedChannels++;
+                        continue;
                     }
-                    
-                    String message = new String(delivery.getBody());
-                    logger.log(Level.INFO, message);
-                    
-                    Event e = createEvent(message, attributes);
-
-                    if(e != null) {
-                        runtime.sendEventFromSource(e, source);
+
+                    if (!batch.events.isEmpty()) {
+                        runtime.sendEventsFromSource(batch.events, source);
                     }
-                    
-                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                    // acknowledges all messages of the channel up to the last one of the batch
+                    batch.channel.basicAck(batch.lastDeliveryTag, true);
                 }
             } catch (InterruptedException ex) {
-                Exceptions.printStackTrace(ex);
-            } catch (ShutdownSignalException ex) {
-                Exceptions.printStackTrace(ex);
-            } catch (ConsumerCancelledException ex) {
-                Exceptions.printStackTrace(ex);
+                Thread.currentThread().interrupt();
             } catch (IOException ex) {
-                Exceptions.printStackTrace(ex);
+                throw new ProcessingException("Problem consuming from RabbitMQ. Please check your settings.", ex);
             } finally {
+                running = false;
+                executor.shutdownNow();
                 try {
-                    channel.close();
-                    connection.close();
+                    if (connection != null) {
+                        connection.close();
+                    }
                 } catch (Exception ignore) {
                 }
             }
+
+            if (channelException != null) {
+                throw new ProcessingException("Problem consuming from RabbitMQ. Please check your settings.",
+                        channelException);
+            }
         }
 
-        private Event createEvent(String message, List<Attribute> attributes) {
+        private void declareQueue(Connection connection) throws IOException {
+            Channel channel = connection.createChannel();
             try {
-                Map<String, Object> attributeData = Maps.newHashMap();
-                JSONObject jsonobject = new JSONObject(message);
+                channel.queueDeclare(QUEUE_NAME, true, false, false, null);
 
-                for (Attribute attribute : attributes) {
-                    if(jsonobject.has(attribute.getName())) {
-                        attributeData.put(attribute.getName(), jsonobject.getString(attribute.getName()));
-                    }
+                String exchname = source.getExchangeName();
+                if (!exchname.isEmpty()) {
+                    channel.exchangeDeclare(exchname, DIRECT);
                 }
 
-                return new Event(attributeData);
-            } catch (JSONException ex) {
-                logger.log(Level.INFO, message);                
-                return null;
+                channel.queueBind(QUEUE_NAME, exchname, QUEUE_NAME);
+            } finally {
+                channel.close();
             }
         }
 
@@ -293,5 +377,96 @@ public class RabbitMqSource extends ExternalSource {
         public void stopProcessingEvents() {
             running = false;
         }
+
+        /**
+         * The events decoded from consecutive messages of a channel, and the delivery tag of the last message.
+         */
+        static class DeliveryBatch {
+            final Channel channel;
+            final long lastDeliveryTag;
+            final List<Event> events;
+
+            DeliveryBatch(Channel channel, long lastDeliveryTag, List<Event> events) {
+                this.channel = channel;
+                this.lastDeliveryTag = lastDeliveryTag;
+                this.events = events;
+            }
+        }
+
+        /**
+         * Consumes the queue on a channel and puts the decoded messages into the queue in batches of at most the ack
+         * batch size, followed by {@link #END_OF_CHANNEL}. A batch takes the messages that already arrived, it does
+         * not wait for more.
+         */
+        private class ChannelConsumer implements Runnable {
+            private final Channel channel;
+            private final BlockingQueue<DeliveryBatch> queue;
+
+            ChannelConsumer(Channel channel, BlockingQueue<DeliveryBatch> queue) {
+                this.channel = channel;
+                this.queue = queue;
+            }
+
+            @Override
+            public void run() {
+                Thread thread = Thread.currentThread();
+                JsonEventReader reader = new JsonEventReader(source.getOutput().getEventType());
+                int ackBatchSize = source.getAckBatchSize();
+
+                try {
+                    channel.basicQos(source.getPrefetch());
+
+                    QueueingConsumer consumer = new QueueingConsumer(channel);
+                    channel.basicConsume(QUEUE_NAME, false, consumer);
+
+                    while (!thread.isInterrupted() && running) {
+                        QueueingConsumer.Delivery delivery = consumer.nextDelivery(source.getTimeOut());
+                        if (delivery == null) {
+                            break;
+                        }
+
+                        List<Event> events = Lists.newArrayListWithCapacity(ackBatchSize);
+                        int numberOfMessages = 0;
+                        long lastDeliveryTag;
+                        do {
+                            // messages that cannot be decoded are acknowledged with the batch, like before
+                            Event e = createEvent(new String(delivery.getBody()), reader);
+                            if (e != null) {
+                                events.add(e);
+                            }
+                            lastDeliveryTag = delivery.getEnvelope().getDeliveryTag();
+                            numberOfMessages++;
+
+                        } while (numberOfMessages < ackBatchSize && (delivery = consumer.nextDelivery(0)) != null);
+
+                        queue.put(new DeliveryBatch(channel, lastDeliveryTag, events));
+                    }
+
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ShutdownSignalException ex) {
+                    channelException = ex;
+                } catch (ConsumerCancelledException ex) {
+                    channelException = ex;
+                } catch (IOException ex) {
+                    channelException = ex;
+                } finally {
+                    try {
+                        queue.put(END_OF_CHANNEL);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        private Event createEvent(String message, JsonEventReader reader) {
+            try {
+                return reader.readEvent(message);
+            } catch (JsonParseException ex) {
+                logger.log(Level.INFO, message);
+                return null;
+            }
+        }
     }
 }
@@ -16,28 +16,42 @@
  */
 package org.lisapark.octopus.core.source.external.impl;
 
-import com.google.common.collect.Maps;
-import com.google.gson.Gson;
-import java.util.Collection;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ProcessingException;
 import org.lisapark.octopus.core.ValidationException;
-import org.lisapark.octopus.core.event.Attribute;
 import org.lisapark.octopus.core.event.Event;
-import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Constraints;
 import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
 import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.Checkpoints;
+import org.lisapark.octopus.util.json.JsonEventReader;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+/**
+ * This {@link ExternalSource} reads JSON messages from a Redis list and converts them to events with the attributes
+ * of the output. It has two modes:
+ * <ul>
+ * <li>range reads the list from the last offset to its end, in pages of the page size. Several pages are requested
+ * in one pipelined round trip, and the offset after every page is saved in a local file, so a restarted source does
+ * not read the list again. The list is expected to only grow at its end.</li>
+ * <li>pop removes messages from the head of the list as a queue, blocking until a message arrives, and then takes up
+ * to a page of the messages that are waiting with a range and a trim of the list in one transaction. It runs until
+ * the source is stopped.</li>
+ * </ul>
+ */
 @Persistable
 public class RedisListSource extends ExternalSource {
 
@@ -49,6 +63,17 @@ public class RedisListSource extends ExternalSource {
     private static final int REDIS_PORT_PARAMETER_ID = 4;
     private static final int LIST_PREFIX_PARAMETER_ID = 5;
     private static final int LIST_NAME_PARAMETER_ID = 6;
+    private static final int MODE_PARAMETER_ID = 7;
+    private static final int PAGE_SIZE_PARAMETER_ID = 8;
+    private static final int OFFSET_FILE_PARAMETER_ID = 9;
+    private static final int POP_TIMEOUT_PARAMETER_ID = 10;
+
+    /**
+     * How the list is consumed.
+     */
+    static enum Mode {
+        RANGE, POP
+    }
 
     public RedisListSource(UUID id, String name, String description) {
         super(id, name, description);
@@ -87,6 +112,51 @@ public class RedisListSource extends ExternalSource {
         return getParameter(6).getValueAsString();
     }
 
+    public String getMode() {
+        return getParameter(MODE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setMode(String mode) throws ValidationException {
+        getParameter(MODE_PARAMETER_ID).setValue(mode);
+    }
+
+    public int getPageSize() {
+        return getParameter(PAGE_SIZE_PARAMETER_ID).getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setPageSize(int pageSize) throws ValidationException {
+        getParameter(PAGE_SIZE_PARAMETER_ID).setValue(pageSize);
+    }
+
+    public String getOffsetFile() {
+        return getParameter(OFFSET_FILE_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setOffsetFile(String offsetFile) throws ValidationException {
+        getParameter(OFFSET_FILE_PARAMETER_ID).setValue(offsetFile);
+    }
+
+    public int getPopTimeout() {
+        return getParameter(POP_TIMEOUT_PARAMETER_ID).getValueAsInteger();
+    }
+
+    Mode getModeValue() throws ValidationException {
+        try {
+            return Mode.valueOf(getMode().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(String.format("%s is not a valid mode, use range or pop.", getMode()));
+        }
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+        getModeValue();
+    }
+
     @Override
     public RedisListSource copyOf() {
         return new RedisListSource(this);
@@ -116,81 +186,181 @@ public class RedisListSource extends ExternalSource {
 
         redisSource.addParameter(Parameter.stringParameterWithIdAndName(6, "Redis List Name:").description("Redis List name.").defaultValue("model").required(true));
 
+        redisSource.addParameter(Parameter.stringParameterWithIdAndName(MODE_PARAMETER_ID, "Mode:")
+                .description("range reads the list from the last offset, pop removes the messages from the list.")
+                .defaultValue("range").required(true));
+
+        redisSource.addParameter(Parameter.integerParameterWithIdAndName(PAGE_SIZE_PARAMETER_ID, "Page size:")
+                .description("Number of messages read at a time.").defaultValue(1000).required(true)
+                .constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Page size should be greater than 0.")));
+
+        redisSource.addParameter(Parameter.stringParameterWithIdAndName(OFFSET_FILE_PARAMETER_ID, "Offset file:")
+                .description("File the offset of the range mode is saved in, by default a file in the .octopus directory of the user."));
+
+        redisSource.addParameter(Parameter.integerParameterWithIdAndName(POP_TIMEOUT_PARAMETER_ID, "Pop timeout:")
+                .description("Time out in seconds of a blocking pop, the source checks if it was stopped after it.")
+                .defaultValue(5).required(true)
+                .constraint(Constraints.integerConstraintWithMinimumAndMessage(1, "Pop timeout should be greater than 0.")));
+
         return redisSource;
     }
 
     @Override
     public CompiledExternalSource compile() throws ValidationException {
+        validate();
         return new CompiledRedisSource(copyOf());
     }
 
     static class CompiledRedisSource implements CompiledExternalSource {
 
         private static final Logger logger = Logger.getLogger(CompiledRedisSource.class.getName());
+        private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+        /**
+         * Number of pages requested in one pipelined round trip of the range mode.
+         */
+        private static final int PAGES_PER_ROUND_TRIP = 4;
+
         private final RedisListSource source;
-        private final String QUEUE_NAME;
         private volatile boolean running;
-        private final String DIRECT = "direct";
 
         public CompiledRedisSource(RedisListSource source) {
             this.source = source;
-            this.QUEUE_NAME = source.getListName();
         }
 
         @Override
-        public void startProcessingEvents(ProcessingRuntime runtime) {
-            Thread thread = Thread.currentThread();
-            this.running = true;
-
-            EventType eventType = this.source.getOutput().getEventType();
-            List attributes = eventType.getAttributes();
-
+        public void startProcessingEvents(ProcessingRuntime runtime) throws ProcessingException {
             JedisConnectionFactory cf = new JedisConnectionFactory();
             cf.setHostName(this.source.getRedisUrl());
             cf.setPort(this.source.getRedisPort());
             cf.afterPropertiesSet();
 
-            StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
-            RedisTemplate tmpl = new RedisTemplate();
-
-            tmpl.setConnectionFactory(cf);
-            tmpl.setKeySerializer(STRING_SERIALIZER);
-            tmpl.setValueSerializer(STRING_SERIALIZER);
+            RedisConnection connection = cf.getConnection();
+            try {
+                processEvents(connection, runtime);
+            } finally {
+                connection.close();
+                cf.destroy();
+            }
+        }
 
-            tmpl.afterPropertiesSet();
+        void processEvents(RedisConnection connection, ProcessingRuntime runtime) throws ProcessingException {
+            this.running = true;
 
-            String key = this.source.getListPrefix() + this.source.getListName();
+            byte[] key = STRING_SERIALIZER.serialize(this.source.getListPrefix() + this.source.getListName());
+            JsonEventReader reader = new JsonEventReader(this.source.getOutput().getEventType());
 
-            Long size = tmpl.opsForList().size(key);
-            Collection<String> messages = tmpl.opsForList().range(key, 0L, size.longValue() - 1L);
+            try {
+                if (this.source.getModeValue() == Mode.POP) {
+                    pop(connection, key, reader, runtime);
+                } else {
+                    range(connection, key, reader, runtime);
+                }
+            } catch (ValidationException e) {
+                throw new ProcessingException(e.getMessage(), e);
+            }
+        }
 
-            for (String message : messages) {
-                if ((thread.isInterrupted()) || (!this.running) || (message == null)) {
-                    break;
+        void range(RedisConnection connection, byte[] key, JsonEventReader reader, ProcessingRuntime runtime)
+                throws ProcessingException {
+            Thread thread = Thread.currentThread();
+            int pageSize = this.source.getPageSize();
+            File offsetFile = Checkpoints.fileFor(this.source.getOffsetFile(), "redis-offset", this.source.getId());
+            long offset = readOffset(offsetFile);
+
+            while (!thread.isInterrupted() && this.running) {
+                connection.openPipeline();
+                for (int i = 0; i < PAGES_PER_ROUND_TRIP; ++i) {
+                    long start = offset + (long) i * pageSize;
+                    connection.lRange(key, start, start + pageSize - 1);
                 }
-                Event e = createEvent(message, attributes);
-                if (e != null) {
-                    runtime.sendEventFromSource(e, this.source);
+                List<Object> pages = connection.closePipeline();
+
+                for (Object page : pages) {
+                    @SuppressWarnings("unchecked")
+                    List<byte[]> messages = (List<byte[]>) page;
+                    if (messages == null || messages.isEmpty()) {
+                        return;
+                    }
+
+                    sendMessages(messages, reader, runtime);
+                    offset += messages.size();
+                    writeOffset(offsetFile, offset);
+
+                    if (messages.size() < pageSize || thread.isInterrupted() || !this.running) {
+                        // this was the end of the list
+                        return;
+                    }
                 }
             }
         }
 
-        private Event createEvent(String message, List<Attribute> attributes) {
-            try {
-                Map attributeData = Maps.newHashMap();
-                Map map = (Map) new Gson().fromJson(message, Map.class);
+        void pop(RedisConnection connection, byte[] key, JsonEventReader reader, ProcessingRuntime runtime) {
+            Thread thread = Thread.currentThread();
+            int pageSize = this.source.getPageSize();
+            int timeout = this.source.getPopTimeout();
+
+            while (!thread.isInterrupted() && this.running) {
+                // blocks until there is a message, the result is the key and the message
+                List<byte[]> popped = connection.bLPop(timeout, key);
+                if (popped == null || popped.size() < 2) {
+                    continue;
+                }
 
-                for (Attribute attribute : attributes) {
-                    if (map.containsKey(attribute.getName())) {
-                        attributeData.put(attribute.getName(), map.get(attribute.getName()));
+                List<byte[]> messages = Lists.newArrayListWithCapacity(pageSize);
+                messages.add(popped.get(1));
+
+                if (pageSize > 1) {
+                    // take the messages that are already waiting, the transaction keeps other consumers from
+                    // taking them between the range and the trim
+                    connection.multi();
+                    connection.lRange(key, 0, pageSize - 2);
+                    connection.lTrim(key, pageSize - 1, -1);
+                    List<Object> results = connection.exec();
+
+                    if (results != null && !results.isEmpty() && results.get(0) instanceof List) {
+                        for (Object message : (List<?>) results.get(0)) {
+                            messages.add((byte[]) message);
+                        }
                     }
                 }
 
-                return new Event(attributeData);
-            } catch (Exception ex) {
-                logger.log(Level.INFO, message);
+                sendMessages(messages, reader, runtime);
+            }
+        }
+
+        private void sendMessages(List<byte[]> messages, JsonEventReader reader, ProcessingRuntime runtime) {
+            List<Event> events = Lists.newArrayListWithCapacity(messages.size());
+            for (byte[] bytes : messages) {
+                String message = STRING_SERIALIZER.deserialize(bytes);
+                try {
+                    events.add(reader.readEvent(message));
+                } catch (JsonParseException ex) {
+                    logger.log(Level.INFO, message);
+                }
+            }
+            if (!events.isEmpty()) {
+                runtime.sendEventsFromSource(events, this.source);
+            }
+        }
+
+        private long readOffset(File file) throws ProcessingException {
+            try {
+                String offset = Checkpoints.read(file);
+                return (offset == null || offset.length() == 0) ? 0L : Long.parseLong(offset);
+            } catch (IOException e) {
+                throw new ProcessingException("Could not read the offset file " + file, e);
+            } catch (NumberFormatException e) {
+                throw new ProcessingException("Invalid offset in file " + file, e);
+            }
+        }
+
+        private void writeOffset(File file, long offset) throws ProcessingException {
+            try {
+                Checkpoints.write(file, Long.toString(offset));
+            } catch (IOException e) {
+                throw new ProcessingException("Could not write the offset file " + file, e);
             }
-            return null;
         }
 
         @Override
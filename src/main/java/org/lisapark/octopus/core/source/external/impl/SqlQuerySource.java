@@ -16,19 +16,18 @@
  */
 package org.lisapark.octopus.core.source.external.impl;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import org.lisapark.octopus.core.Output;
 import org.lisapark.octopus.core.Persistable;
 import org.lisapark.octopus.core.ProcessingException;
 import org.lisapark.octopus.core.ValidationException;
-import org.lisapark.octopus.core.event.Attribute;
 import org.lisapark.octopus.core.event.Event;
 import org.lisapark.octopus.core.event.EventType;
 import org.lisapark.octopus.core.parameter.Constraints;
 import org.lisapark.octopus.core.parameter.Parameter;
 import org.lisapark.octopus.core.runtime.ProcessingRuntime;
-import org.lisapark.octopus.util.Booleans;
 import org.lisapark.octopus.util.jdbc.Connections;
+import org.lisapark.octopus.util.jdbc.ResultSetReader;
 import org.lisapark.octopus.util.jdbc.ResultSets;
 import org.lisapark.octopus.util.jdbc.Statements;
 
@@ -37,7 +36,7 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Map;
+import java.util.List;
 import java.util.UUID;
 
 import org.lisapark.octopus.core.source.external.CompiledExternalSource;
@@ -64,6 +63,9 @@ public class SqlQuerySource extends ExternalSource {
     private static final int PASSWORD_PARAMETER_ID = 3;
     private static final int DRIVER_PARAMETER_ID = 4;
     private static final int QUERY_PARAMETER_ID = 5;
+    private static final int FETCH_SIZE_PARAMETER_ID = 6;
+
+    private static final int DEFAULT_FETCH_SIZE = 1000;
 
     private SqlQuerySource(UUID sourceId, String name, String description) {
         super(sourceId, name, description);
@@ -122,6 +124,17 @@ public class SqlQuerySource extends ExternalSource {
         return getParameter(QUERY_PARAMETER_ID).getValueAsString();
     }
 
+    public int getFetchSize() {
+        // models saved before the parameter existed do not have it
+        Parameter parameter = getParameter(FETCH_SIZE_PARAMETER_ID);
+        return (parameter == null) ? DEFAULT_FETCH_SIZE : parameter.getValueAsInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setFetchSize(int fetchSize) throws ValidationException {
+        getParameter(FETCH_SIZE_PARAMETER_ID).setValue(fetchSize);
+    }
+
     public EventType getEventType() {
         return getOutput().getEventType();
     }
@@ -147,6 +160,10 @@ public class SqlQuerySource extends ExternalSource {
         jdbc.addParameter(Parameter.stringParameterWithIdAndName(DRIVER_PARAMETER_ID, "Driver class name:").required(true).
                 constraint(Constraints.classConstraintWithMessage("%s is not a valid Driver Class")));
         jdbc.addParameter(Parameter.stringParameterWithIdAndName(QUERY_PARAMETER_ID, "SQL query:").required(true));
+        jdbc.addParameter(Parameter.integerParameterWithIdAndName(FETCH_SIZE_PARAMETER_ID, "Fetch size:").
+                description("Number of rows read from the database at a time, 0 reads the whole result at once.").
+                defaultValue(DEFAULT_FETCH_SIZE).required(true).
+                constraint(Constraints.integerConstraintWithMinimumAndMessage(0, "Fetch size cannot be negative.")));
 
         jdbc.setOutput(Output.outputWithId(1).setName("Output data:"));
 
@@ -161,6 +178,8 @@ public class SqlQuerySource extends ExternalSource {
     }
 
     private static class CompiledSqlQuerySource implements CompiledExternalSource {
+        private static final int BATCH_SIZE = 1000;
+
         private final SqlQuerySource source;
 
         private volatile boolean running;
@@ -180,8 +199,13 @@ public class SqlQuerySource extends ExternalSource {
             Connection connection = getConnection(source.getDriverClass(), source.getUrl(), source.getUsername(), source.getPassword());
             Statement statement = null;
             ResultSet rs = null;
+            boolean autoCommit = true;
             try {
-                statement = connection.createStatement();
+                autoCommit = connection.getAutoCommit();
+
+                // a forward only cursor lets the driver stream the rows in chunks of the fetch size
+                statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ResultSetReader.configureForStreaming(connection, statement, source.getUrl(), source.getFetchSize());
 
                 rs = statement.executeQuery(source.getQuery());
                 processResultSet(rs, runtime);
@@ -191,18 +215,29 @@ public class SqlQuerySource extends ExternalSource {
             } finally {
                 ResultSets.closeQuietly(rs);
                 Statements.closeQuietly(statement);
+                Connections.setAutoCommitQuietly(connection, autoCommit);
                 Connections.closeQuietly(connection);
             }
         }
 
         void processResultSet(ResultSet rs, ProcessingRuntime runtime) throws SQLException {
             Thread thread = Thread.currentThread();
-            EventType eventType = source.getEventType();
+            ResultSetReader reader = new ResultSetReader(source.getEventType(), rs);
+
+            // rows are sent in batches so that processors can work on several rows at once
+            List<Event> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
 
             while (!thread.isInterrupted() && running && rs.next()) {
-                Event newEvent = createEventFromResultSet(rs, eventType);
+                batch.add(reader.readEvent(rs));
+
+                if (batch.size() == BATCH_SIZE) {
+                    runtime.sendEventsFromSource(batch, source);
+                    batch.clear();
+                }
+            }
 
-                runtime.sendEventFromSource(newEvent, source);
+            if (!batch.isEmpty()) {
+                runtime.sendEventsFromSource(batch, source);
             }
         }
 
@@ -234,47 +269,5 @@ public class SqlQuerySource extends ExternalSource {
 
             return connection;
         }
-
-        Event createEventFromResultSet(ResultSet rs, EventType eventType) throws SQLException {
-            Map<String, Object> attributeValues = Maps.newHashMap();
-
-            for (Attribute attribute : eventType.getAttributes()) {
-                Class type = attribute.getType();
-                String attributeName = attribute.getName();
-
-                if (type == String.class) {
-                    String value = rs.getString(attributeName);
-                    attributeValues.put(attributeName, value);
-
-                } else if (type == Integer.class) {
-                    int value = rs.getInt(attributeName);
-                    attributeValues.put(attributeName, value);
-
-                } else if (type == Short.class) {
-                    short value = rs.getShort(attributeName);
-                    attributeValues.put(attributeName, value);
-
-                } else if (type == Long.class) {
-                    long value = rs.getLong(attributeName);
-                    attributeValues.put(attributeName, value);
-
-                } else if (type == Double.class) {
-                    double value = rs.getDouble(attributeName);
-                    attributeValues.put(attributeName, value);
-
-                } else if (type == Float.class) {
-                    float value = rs.getFloat(attributeName);
-                    attributeValues.put(attributeName, value);
-
-                } else if (type == Boolean.class) {
-                    String value = rs.getString(attributeName);
-                    attributeValues.put(attributeName, Booleans.parseBoolean(value));
-                } else {
-                    throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
-                }
-            }
-
-            return new Event(attributeValues);
-        }
     }
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import org.lisapark.octopus.core.Output;
+import org.lisapark.octopus.core.Persistable;
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.core.source.external.ExternalSource;
+import org.lisapark.octopus.util.text.CsvLineDecoder;
+import org.lisapark.octopus.util.text.JsonLineDecoder;
+import org.lisapark.octopus.util.text.LineDecoder;
+import org.lisapark.octopus.util.text.MappedLineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * This class is an {@link ExternalSource} that reads a text file with a record per line, either newline delimited
+ * JSON objects or delimiter separated values, into events with the attributes of the output.
+ * <p/>
+ * The file is read through memory mapped windows by a {@link MappedLineReader} and every line is decoded straight from
+ * its bytes. With follow on, the source keeps reading the lines appended to the file, like <code>tail -f</code>, and
+ * starts over when the file gets shorter than what was read.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+@Persistable
+public class TextFileSource extends ExternalSource {
+    private static final String DEFAULT_NAME = "Text File Source";
+    private static final String DEFAULT_DESCRIPTION = "Reads a newline delimited JSON or CSV file.";
+
+    private static final int FILE_NAME_PARAMETER_ID = 1;
+    private static final int FORMAT_PARAMETER_ID = 2;
+    private static final int DELIMITER_PARAMETER_ID = 3;
+    private static final int HEADER_PARAMETER_ID = 4;
+    private static final int FOLLOW_PARAMETER_ID = 5;
+
+    /**
+     * Format of the lines of the file.
+     */
+    static enum Format {
+        JSON, CSV
+    }
+
+    private TextFileSource(UUID sourceId, String name, String description) {
+        super(sourceId, name, description);
+    }
+
+    private TextFileSource(UUID sourceId, TextFileSource copyFromSource) {
+        super(sourceId, copyFromSource);
+    }
+
+    private TextFileSource(TextFileSource copyFromSource) {
+        super(copyFromSource);
+    }
+
+    public String getFileName() {
+        return getParameter(FILE_NAME_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setFileName(String fileName) throws ValidationException {
+        getParameter(FILE_NAME_PARAMETER_ID).setValue(fileName);
+    }
+
+    public String getFormat() {
+        return getParameter(FORMAT_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setFormat(String format) throws ValidationException {
+        getParameter(FORMAT_PARAMETER_ID).setValue(format);
+    }
+
+    public String getDelimiter() {
+        return getParameter(DELIMITER_PARAMETER_ID).getValueAsString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setDelimiter(String delimiter) throws ValidationException {
+        getParameter(DELIMITER_PARAMETER_ID).setValue(delimiter);
+    }
+
+    public boolean hasHeader() {
+        return Boolean.TRUE.equals(getParameter(HEADER_PARAMETER_ID).getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setHeader(boolean header) throws ValidationException {
+        getParameter(HEADER_PARAMETER_ID).setValue(header);
+    }
+
+    public boolean isFollow() {
+        return Boolean.TRUE.equals(getParameter(FOLLOW_PARAMETER_ID).getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setFollow(boolean follow) throws ValidationException {
+        getParameter(FOLLOW_PARAMETER_ID).setValue(follow);
+    }
+
+    public EventType getEventType() {
+        return getOutput().getEventType();
+    }
+
+    Format getFormatValue() throws ValidationException {
+        try {
+            return Format.valueOf(getFormat().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(String.format("%s is not a valid format, use json or csv.", getFormat()));
+        }
+    }
+
+    /**
+     * Returns the delimiter, a tab for "\t".
+     */
+    char getDelimiterValue() throws ValidationException {
+        return delimiterOf(getDelimiter());
+    }
+
+    /**
+     * Returns the delimiter character of the parameter value, a tab for "\t".
+     */
+    static char delimiterOf(String delimiter) throws ValidationException {
+        if ("\\t".equals(delimiter)) {
+            return '\t';
+        }
+        if (delimiter == null || delimiter.length() != 1 || delimiter.charAt(0) > 127) {
+            throw new ValidationException("The delimiter should be a single ASCII character.");
+        }
+        return delimiter.charAt(0);
+    }
+
+    @Override
+    public TextFileSource newInstance() {
+        UUID sourceId = UUID.randomUUID();
+        return new TextFileSource(sourceId, this);
+    }
+
+    @Override
+    public TextFileSource copyOf() {
+        return new TextFileSource(this);
+    }
+
+    @Override
+    public void validate() throws ValidationException {
+        super.validate();
+
+        if (getFormatValue() == Format.CSV) {
+            getDelimiterValue();
+        }
+    }
+
+    public static TextFileSource newTemplate() {
+        UUID sourceId = UUID.randomUUID();
+        TextFileSource textFileSource = new TextFileSource(sourceId, DEFAULT_NAME, DEFAULT_DESCRIPTION);
+
+        textFileSource.addParameter(Parameter.stringParameterWithIdAndName(FILE_NAME_PARAMETER_ID, "File name:").required(true));
+        textFileSource.addParameter(Parameter.stringParameterWithIdAndName(FORMAT_PARAMETER_ID, "Format:").
+                description("json for a JSON object per line, csv for delimiter separated values.").
+                defaultValue("json").required(true));
+        textFileSource.addParameter(Parameter.stringParameterWithIdAndName(DELIMITER_PARAMETER_ID, "Delimiter:").
+                description("Delimiter of the csv format, \\t for a tab.").
+                defaultValue(",").required(true));
+        textFileSource.addParameter(Parameter.booleanParameterWithIdAndName(HEADER_PARAMETER_ID, "Header:").
+                description("Whether the first line of the csv format has the column names, otherwise the columns are the attributes in order.").
+                defaultValue(Boolean.TRUE).required(true));
+        textFileSource.addParameter(Parameter.booleanParameterWithIdAndName(FOLLOW_PARAMETER_ID, "Follow:").
+                description("Whether to keep reading the lines appended to the file until the source is stopped.").
+                defaultValue(Boolean.FALSE).required(true));
+
+        textFileSource.setOutput(Output.outputWithId(1).setName("Output data:"));
+
+        return textFileSource;
+    }
+
+    @Override
+    public CompiledExternalSource compile() throws ValidationException {
+        validate();
+
+        return new CompiledTextFileSource(this.copyOf());
+    }
+
+    private static class CompiledTextFileSource implements CompiledExternalSource {
+        private static final Logger LOG = LoggerFactory.getLogger(CompiledTextFileSource.class);
+
+        private static final int BATCH_SIZE = 1000;
+
+        private static final long MINIMUM_POLL_INTERVAL = 50;
+        private static final long MAXIMUM_POLL_INTERVAL = 1000;
+
+        private final TextFileSource source;
+
+        private volatile boolean running;
+
+        public CompiledTextFileSource(TextFileSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public void startProcessingEvents(ProcessingRuntime runtime) throws ProcessingException {
+            // this needs to be atomic, both the check and set
+            synchronized (this) {
+                checkState(!running, "Source is already processing events. Cannot call processEvents again");
+                running = true;
+            }
+
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(source.getFileName(), "r");
+                processLines(file.getChannel(), runtime);
+
+            } catch (FileNotFoundException e) {
+                throw new ProcessingException("Could not find file " + source.getFileName(), e);
+            } catch (IOException e) {
+                throw new ProcessingException("Problem reading file " + source.getFileName(), e);
+            } catch (ValidationException e) {
+                // this should never happen since the source was validated
+                throw new ProcessingException(e.getMessage(), e);
+            } finally {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        LOG.warn("Problem closing file " + source.getFileName(), e);
+                    }
+                }
+            }
+        }
+
+        void processLines(FileChannel channel, ProcessingRuntime runtime) throws IOException, ValidationException {
+            Thread thread = Thread.currentThread();
+            boolean follow = source.isFollow();
+
+            MappedLineReader reader = new MappedLineReader(channel, 0);
+            LineDecoder decoder = null;
+            long pollInterval = MINIMUM_POLL_INTERVAL;
+
+            List<Event> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+            while (!thread.isInterrupted() && running) {
+                if (channel.size() < reader.getPosition()) {
+                    // the file was truncated or replaced, start over
+                    reader.setPosition(0);
+                    decoder = null;
+                }
+
+                if (!reader.nextLine(!follow)) {
+                    if (!batch.isEmpty()) {
+                        runtime.sendEventsFromSource(batch, source);
+                        batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                    }
+                    if (!follow) {
+                        break;
+                    }
+
+                    try {
+                        Thread.sleep(pollInterval);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    pollInterval = Math.min(2 * pollInterval, MAXIMUM_POLL_INTERVAL);
+                    continue;
+                }
+                pollInterval = MINIMUM_POLL_INTERVAL;
+
+                if (decoder == null) {
+                    decoder = newDecoder(source.getEventType());
+                    if (decoder instanceof CsvLineDecoder && source.hasHeader()) {
+                        ((CsvLineDecoder) decoder).readHeader(reader.getLine(), reader.getLength());
+                        continue;
+                    }
+                }
+
+                try {
+                    Event event = decoder.decode(reader.getLine(), reader.getLength());
+                    if (event != null) {
+                        batch.add(event);
+                    }
+                } catch (IllegalArgumentException e) {
+                    LOG.info("Skipping line that cannot be decoded: " + e.getMessage());
+                }
+
+                if (batch.size() == BATCH_SIZE) {
+                    runtime.sendEventsFromSource(batch, source);
+                    batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+                }
+            }
+        }
+
+        LineDecoder newDecoder(EventType eventType) throws ValidationException {
+            if (source.getFormatValue() == Format.CSV) {
+                return new CsvLineDecoder(eventType, source.getDelimiterValue());
+            }
+            return new JsonLineDecoder(eventType);
+        }
+
+        @Override
+        public void stopProcessingEvents() {
+            this.running = false;
+        }
+    }
+}
@@ -21,18 +21,30 @@ import java.util.List;
 import org.lisapark.octopus.core.processor.Processor;
 import org.lisapark.octopus.core.processor.impl.Addition;
 import org.lisapark.octopus.core.processor.impl.And;
+import org.lisapark.octopus.core.processor.impl.AnomalyDetector;
 import org.lisapark.octopus.core.processor.impl.Crossing;
+import org.lisapark.octopus.core.processor.impl.DatabaseLookup;
+import org.lisapark.octopus.core.processor.impl.Deduplicate;
 import org.lisapark.octopus.core.processor.impl.Division;
+import org.lisapark.octopus.core.processor.impl.Expression;
 import org.lisapark.octopus.core.processor.impl.ForecastSRM;
+import org.lisapark.octopus.core.processor.impl.HoltWinters;
 import org.lisapark.octopus.core.processor.impl.LinearRegressionProcessor;
+import org.lisapark.octopus.core.processor.impl.MultiSma;
+import org.lisapark.octopus.core.processor.impl.MultipleRegression;
 import org.lisapark.octopus.core.processor.impl.Multiplication;
 import org.lisapark.octopus.core.processor.impl.Or;
 import org.lisapark.octopus.core.processor.impl.PearsonsCorrelationProcessor;
 import org.lisapark.octopus.core.processor.impl.PipeDouble;
 import org.lisapark.octopus.core.processor.impl.PipeString;
 import org.lisapark.octopus.core.processor.impl.PipeStringDouble;
+import org.lisapark.octopus.core.processor.impl.Resample;
+import org.lisapark.octopus.core.processor.impl.Sample;
+import org.lisapark.octopus.core.processor.impl.SequencePattern;
+import org.lisapark.octopus.core.processor.impl.SessionWindow;
 import org.lisapark.octopus.core.processor.impl.Sma;
 import org.lisapark.octopus.core.processor.impl.Subtraction;
+import org.lisapark.octopus.core.processor.impl.WindowJoin;
 import org.lisapark.octopus.core.processor.impl.Xor;
 import org.lisapark.octopus.core.sink.external.ExternalSink;
 import org.lisapark.octopus.core.sink.external.impl.ChocoSimppGssSink;
@@ -58,6 +70,7 @@ import org.lisapark.octopus.core.source.external.impl.Db4oProcessorsSource;
 import org.lisapark.octopus.core.source.external.impl.Db4oReplicaSource;
 import org.lisapark.octopus.core.source.external.impl.Db4oSinksSource;
 import org.lisapark.octopus.core.source.external.impl.Db4oSourcesSource;
+import org.lisapark.octopus.core.source.external.impl.DirectoryWatchSource;
 import org.lisapark.octopus.core.source.external.impl.GssListSourceQuery;
 import org.lisapark.octopus.core.source.external.impl.GssListSourceRange;
 import org.lisapark.octopus.core.source.external.impl.HtmlTableSource;
@@ -72,7 +85,9 @@ import org.lisapark.octopus.core.source.external.impl.RedisListSource;
 import org.lisapark.octopus.core.source.external.impl.RedisMessageSource;
 import org.lisapark.octopus.core.source.external.impl.RedisQuittokenSource;
 import org.lisapark.octopus.core.source.external.impl.SimppGssSource;
+import org.lisapark.octopus.core.source.external.impl.PartitionedSqlQuerySource;
 import org.lisapark.octopus.core.source.external.impl.SqlQuerySource;
+import org.lisapark.octopus.core.source.external.impl.TextFileSource;
 import org.lisapark.octopus.core.source.external.impl.TestSource;
 
 public abstract class AbstractOctopusRepository
@@ -110,6 +125,9 @@ public abstract class AbstractOctopusRepository
                     GssListSourceQuery.newTemplate(),
                     SimppGssSource.newTemplate(),
                     SqlQuerySource.newTemplate(),
+                    PartitionedSqlQuerySource.newTemplate(),
+                    TextFileSource.newTemplate(),
+                    DirectoryWatchSource.newTemplate(),
                     Db4oModelsSource.newTemplate(),
                     Db4oSourcesSource.newTemplate(),
                     Db4oSinksSource.newTemplate(),
@@ -133,16 +151,28 @@ public abstract class AbstractOctopusRepository
                     And.newTemplate(),
                     Or.newTemplate(),
                     Xor.newTemplate(),
+                    AnomalyDetector.newTemplate(),
                     Crossing.newTemplate(),
+                    DatabaseLookup.newTemplate(),
+                    Deduplicate.newTemplate(),
                     ForecastSRM.newTemplate(),
                     Division.newTemplate(),
+                    Expression.newTemplate(),
+                    HoltWinters.newTemplate(),
                     LinearRegressionProcessor.newTemplate(),
+                    MultiSma.newTemplate(),
+                    MultipleRegression.newTemplate(),
                     Multiplication.newTemplate(),
                     PearsonsCorrelationProcessor.newTemplate(),
                     PipeDouble.newTemplate(),
                     PipeString.newTemplate(),
                     PipeStringDouble.newTemplate(),
+                    Resample.newTemplate(),
+                    Sample.newTemplate(),
+                    SequencePattern.newTemplate(),
+                    SessionWindow.newTemplate(),
                     Sma.newTemplate(),
-                    Subtraction.newTemplate()});
+                    Subtraction.newTemplate(),
+                    WindowJoin.newTemplate()});
     }
 }
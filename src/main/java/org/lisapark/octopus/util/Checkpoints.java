@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.UUID;
+
+/**
+ * Helpers for the small local files sources remember their position in, like the last watermark or offset read, so
+ * that they continue where they stopped after a restart.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class Checkpoints {
+
+    /**
+     * Returns the configured file, or a file named after the prefix and the id of the source in the .octopus
+     * directory of the user if none is configured.
+     *
+     * @param configuredFile file name from a parameter, may be null or empty
+     * @param prefix         of the default file name
+     * @param sourceId       id of the source
+     * @return checkpoint file
+     */
+    public static File fileFor(String configuredFile, String prefix, UUID sourceId) {
+        if (configuredFile != null && configuredFile.trim().length() > 0) {
+            return new File(configuredFile.trim());
+        }
+        return new File(new File(System.getProperty("user.home"), ".octopus"), prefix + "-" + sourceId + ".txt");
+    }
+
+    /**
+     * Reads the content of the checkpoint file.
+     *
+     * @param file checkpoint file
+     * @return trimmed content, or null if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static String read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[256];
+            int length;
+            while ((length = reader.read(buffer)) > 0) {
+                content.append(buffer, 0, length);
+            }
+            return content.toString().trim();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the content into a new file that then replaces the checkpoint file, so a crash never leaves half a
+     * checkpoint behind. The directory of the file is created if needed.
+     *
+     * @param file    checkpoint file
+     * @param content to write
+     * @throws IOException if the file cannot be written or replaced
+     */
+    public static void write(File file, String content) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        File newFile = new File(file.getPath() + ".new");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(newFile), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+
+        if (!newFile.renameTo(file)) {
+            // renaming over an existing file fails on some platforms
+            if (!file.delete() || !newFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util;
+
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.Parameter;
+
+/**
+ * Helpers for the optional event time attribute of the processors that work on time, like windows and samples.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class EventTimes {
+
+    private static final String TIME_ATTRIBUTE_DESCRIPTION = "Optional attribute with the event time in" +
+            " milliseconds, by default the arrival time is used.";
+
+    /**
+     * Returns the parameter of the time attribute with the id.
+     *
+     * @param id of the parameter
+     * @return parameter builder
+     */
+    public static Parameter.Builder<String> timeAttributeParameter(int id) {
+        return Parameter.stringParameterWithIdAndName(id, "Time attribute").description(TIME_ATTRIBUTE_DESCRIPTION);
+    }
+
+    /**
+     * Returns the trimmed name of the time attribute, or null if none is configured.
+     *
+     * @param timeAttribute value of the time attribute parameter, may be null
+     * @return attribute name or null
+     */
+    public static String attributeNameOf(String timeAttribute) {
+        if (timeAttribute == null || timeAttribute.trim().length() == 0) {
+            return null;
+        }
+        return timeAttribute.trim();
+    }
+
+    /**
+     * Returns the time of the event, the value of the time attribute, or the arrival time if no time attribute is
+     * configured. If the attribute is configured but the event has no number for it, null is returned rather than
+     * the arrival time, which would move the windows of replayed events to the wall clock.
+     *
+     * @param event             the event
+     * @param timeAttributeName name of the time attribute, null for the arrival time
+     * @return time in milliseconds, or null if the event has no time
+     */
+    public static Long timeOf(Event event, String timeAttributeName) {
+        if (timeAttributeName == null) {
+            return System.currentTimeMillis();
+        }
+
+        Object time = event.getData().get(timeAttributeName);
+        return (time instanceof Number) ? ((Number) time).longValue() : null;
+    }
+}
@@ -0,0 +1,43 @@
+/* 
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util;
+
+/**
+ * Helpers for values that are used as keys of hash based lookups, like join keys or lookup table keys.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class Keys {
+
+    /**
+     * Returns the value to use as a hash key for the specified attribute value. Numbers of different types are made
+     * comparable by value, integral values become longs and floating point values become doubles, so that for example
+     * an Integer id from one source matches a Long id from another source.
+     *
+     * @param value attribute value, may be null
+     * @return key for the value
+     */
+    public static Object keyOf(Object value) {
+        if (value instanceof Double || value instanceof Float || value instanceof java.math.BigDecimal) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+}
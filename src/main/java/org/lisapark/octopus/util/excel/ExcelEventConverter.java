@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.Booleans;
+import org.lisapark.octopus.util.xml.XmlConverterUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class turns the rows of a production or warehouse sheet straight into {@link Event}s, one for every row and,
+ * on a warehouse sheet, every date. The groups of a sheet are given by the indention of the first cell of a row:
+ * the indention divided by the outline increament is the level of the row, and an event carries the names of the
+ * enclosing rows of all levels above it, like SHOP, SHIFT and MACHINE of a production sheet or WAREHOUSE and ITEM of
+ * a warehouse sheet. The values are converted to the types of the attributes of the event type, attributes that
+ * are not in the event type are left out.
+ * <p/>
+ * These are the events {@link XmlConverterUtils#eventsFromProductionXml(String)} and
+ * {@link XmlConverterUtils#eventsFromWarehouseXml(String)} return for the XML of a sheet, without writing the sheet
+ * into an XML string and parsing it back.
+ * <p/>
+ * A converter keeps the enclosing rows of the sheet it reads and is not thread safe; create one per sheet.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class ExcelEventConverter implements StreamingExcelReader.RowHandler {
+
+    public static final String DATE = "DATE";
+
+    /**
+     * The layouts of the spreadsheets, with the names of the levels of the rows and of the columns.
+     */
+    public enum Layout {
+        /**
+         * Rows of shops, shifts, machines, products, product types and raw materials with their totals in the
+         * columns. The name of a shift row holds its date and shift id.
+         */
+        PRODUCTION(2, 0, 0,
+                new String[]{"SHOP", "SHIFT", "MACHINE", "PRODUCT", "PRODUCT_TYPE", "RAW_MATERIAL"},
+                new String[]{"name", "field2", "fiels3", "field4", "category", "TOTAL_MATERIALS", "TOTAL_PRODUCTS"}),
+        /**
+         * Rows of warehouses, items and item types. The columns after the name repeat the quantities for every date
+         * of the date row, which is the third row above the frozen rows.
+         */
+        WAREHOUSE(1, 3, 4,
+                new String[]{"WAREHOUSE", "ITEM", "ITEM_TYPE"},
+                new String[]{"name", "BEGINING", "INCOMING", "OUTGOING", "ENDING"});
+
+        private final int increament;
+        private final int dateRowShift;
+        private final int dateRangeLength;
+        private final String[] treeNodeNames;
+        private final String[] dataFieldNames;
+
+        private Layout(int increament, int dateRowShift, int dateRangeLength, String[] treeNodeNames,
+                       String[] dataFieldNames) {
+            this.increament = increament;
+            this.dateRowShift = dateRowShift;
+            this.dateRangeLength = dateRangeLength;
+            this.treeNodeNames = treeNodeNames;
+            this.dataFieldNames = dataFieldNames;
+        }
+
+        /**
+         * Returns the default outline increament of the layout.
+         */
+        public int getIncreament() {
+            return increament;
+        }
+
+        public List<String> getTreeNodeNames() {
+            return Arrays.asList(treeNodeNames);
+        }
+
+        public List<String> getDataFieldNames() {
+            return Arrays.asList(dataFieldNames);
+        }
+    }
+
+    private static final int SHIFT_LEVEL = 1;
+    private static final int SHIFT_ID_WORD = 4;
+    private static final int SHIFT_DATE_WORD = 6;
+
+    private final Map<String, Class> attributeTypes = Maps.newHashMap();
+    private final Layout layout;
+    private final int increament;
+
+    private final String[] path;
+    private final List<Integer> dateColumns = Lists.newArrayList();
+    private final List<String> dates = Lists.newArrayList();
+    private String shiftDate;
+    private int splitRowNumber;
+
+    /**
+     * Creates a converter for a sheet.
+     *
+     * @param eventType  of the events
+     * @param layout     of the sheet
+     * @param increament indention of a level of the rows, 0 for the default of the layout
+     */
+    protected ExcelEventConverter(EventType eventType, Layout layout, int increament) {
+        for (Attribute attribute : eventType.getAttributes()) {
+            attributeTypes.put(attribute.getName(), attribute.getType());
+        }
+        this.layout = layout;
+        this.increament = (increament > 0) ? increament : layout.increament;
+        this.path = new String[layout.treeNodeNames.length];
+    }
+
+    /**
+     * Processes the event of a row, e.g. by sending it to the runtime.
+     *
+     * @param event of a row
+     * @return true to continue with the next row, false to stop reading the sheet
+     */
+    protected abstract boolean processEvent(Event event);
+
+    @Override
+    public void startSheet(String sheetName, int frozenRows) {
+        splitRowNumber = frozenRows;
+        Arrays.fill(path, null);
+        dateColumns.clear();
+        dates.clear();
+        shiftDate = null;
+    }
+
+    @Override
+    public boolean handleRow(SheetRow row) {
+        if (row.getRowNum() < splitRowNumber) {
+            if (layout.dateRangeLength > 0 && row.getRowNum() == splitRowNumber - layout.dateRowShift) {
+                readDates(row);
+            }
+            return true;
+        }
+
+        int firstCell = row.getFirstCellNum();
+        String name = row.getStringValue(firstCell).trim();
+        int level = row.getIndention(firstCell) / increament;
+        if (name.length() == 0 || level >= path.length) {
+            return true;
+        }
+
+        path[level] = name;
+        Arrays.fill(path, level + 1, path.length, null);
+        if (layout == Layout.PRODUCTION && level <= SHIFT_LEVEL) {
+            shiftDate = null;
+            if (level == SHIFT_LEVEL) {
+                String[] words = name.split(" ");
+                if (words.length > SHIFT_DATE_WORD + 1) {
+                    path[level] = words[SHIFT_ID_WORD];
+                    shiftDate = words[SHIFT_DATE_WORD];
+                }
+            }
+        }
+
+        if (layout.dateRangeLength == 0) {
+            Map<String, Object> values = newValues(level);
+            putValue(values, DATE, shiftDate);
+            for (int i = 1; i < layout.dataFieldNames.length; ++i) {
+                putValue(values, layout.dataFieldNames[i], row.getValue(firstCell + i));
+            }
+            return processEvent(new Event(values));
+        }
+
+        for (int d = 0; d < dates.size(); ++d) {
+            Map<String, Object> values = newValues(level);
+            putValue(values, DATE, dates.get(d));
+            int column = dateColumns.get(d);
+            for (int i = 1; i < layout.dataFieldNames.length; ++i) {
+                putValue(values, layout.dataFieldNames[i], row.getValue(column + i - 1));
+            }
+            if (!processEvent(new Event(values))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readDates(SheetRow row) {
+        for (int column = row.getFirstCellNum() + 1; column < row.getLastCellNum(); column += layout.dateRangeLength) {
+            if (row.hasCell(column)) {
+                dateColumns.add(column);
+                dates.add(row.getStringValue(column).trim());
+            }
+        }
+    }
+
+    private Map<String, Object> newValues(int level) {
+        Map<String, Object> values = Maps.newHashMapWithExpectedSize(attributeTypes.size());
+        for (int i = 0; i <= level; ++i) {
+            putValue(values, layout.treeNodeNames[i], path[i]);
+        }
+        return values;
+    }
+
+    private void putValue(Map<String, Object> values, String name, Object value) {
+        Class type = attributeTypes.get(name);
+        if (type != null && value != null) {
+            Object attributeValue = valueOf(value, type);
+            if (attributeValue != null) {
+                values.put(name, attributeValue);
+            }
+        }
+    }
+
+    /**
+     * Converts the value of a cell, a String, Double, Boolean or Byte error code, to the type. A number is written
+     * without a fraction if it has none; a text that is not a number gives null for a numeric type.
+     */
+    static Object valueOf(Object value, Class type) {
+        if (type == String.class) {
+            if (value instanceof Double && ((Double) value) == Math.rint((Double) value)
+                    && !Double.isInfinite((Double) value)) {
+                return Long.toString(((Double) value).longValue());
+            }
+            return value.toString();
+        } else if (type == Boolean.class) {
+            return (value instanceof Boolean) ? value : Booleans.parseBoolean(value.toString().trim());
+        }
+
+        Double number;
+        if (value instanceof Double) {
+            number = (Double) value;
+        } else if (value instanceof String) {
+            try {
+                number = Double.valueOf(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        if (type == Double.class) {
+            return number;
+        } else if (type == Float.class) {
+            return number.floatValue();
+        } else if (type == Integer.class) {
+            return number.intValue();
+        } else if (type == Long.class) {
+            return number.longValue();
+        } else if (type == Short.class) {
+            return number.shortValue();
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
+        }
+    }
+}
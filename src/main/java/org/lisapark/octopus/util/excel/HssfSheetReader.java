@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Lists;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.ExtendedFormatRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.PaneRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.hssf.record.WindowTwoRecord;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Reads a sheet of an .xls workbook with the HSSF event API in two passes over the records. The first pass collects
+ * the sheet names, the indention of the cell styles and the frozen pane of the sheet, which is only stored after the
+ * cells; it stops at the end of the sheet. The second pass hands the rows to the handler while the cells are read.
+ */
+class HssfSheetReader {
+
+    private static final short CONTINUE = 0;
+    private static final short STOP = 1;
+
+    private final int sheetIndex;
+    private final StreamingExcelReader.RowHandler handler;
+
+    private final List<String> sheetNames = Lists.newArrayList();
+    private final List<Integer> indentions = Lists.newArrayList();
+    private boolean freezePanes;
+    private int paneSplitRow;
+
+    private SSTRecord sst;
+    private final SheetRow row = new SheetRow();
+
+    // the string result of a formula is in the record after the formula
+    private int formulaRow = -1;
+    private int formulaColumn;
+    private int formulaIndention;
+
+    HssfSheetReader(int sheetIndex, StreamingExcelReader.RowHandler handler) {
+        this.sheetIndex = sheetIndex;
+        this.handler = handler;
+    }
+
+    boolean read(InputStream in) throws IOException {
+        POIFSFileSystem fs = new POIFSFileSystem(in);
+        HSSFEventFactory factory = new HSSFEventFactory();
+
+        try {
+            HSSFRequest formats = new HSSFRequest();
+            formats.addListenerForAllRecords(new FormatListener());
+            factory.abortableProcessWorkbookEvents(formats, fs);
+
+            if (sheetIndex >= sheetNames.size()) {
+                return false;
+            }
+            handler.startSheet(sheetNames.get(sheetIndex), freezePanes ? paneSplitRow : 0);
+
+            HSSFRequest cells = new HSSFRequest();
+            cells.addListenerForAllRecords(new CellListener());
+            factory.abortableProcessWorkbookEvents(cells, fs);
+
+        } catch (HSSFUserException e) {
+            throw new IOException("Could not read the workbook.", e);
+        }
+
+        return true;
+    }
+
+    private class FormatListener extends AbortableHSSFListener {
+        private int currentSheet = -1;
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            if (record instanceof BOFRecord) {
+                if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                    currentSheet++;
+                }
+            } else if (record instanceof BoundSheetRecord) {
+                sheetNames.add(((BoundSheetRecord) record).getSheetname());
+            } else if (record instanceof ExtendedFormatRecord) {
+                indentions.add((int) ((ExtendedFormatRecord) record).getIndent());
+            } else if (currentSheet == sheetIndex) {
+                if (record instanceof WindowTwoRecord) {
+                    freezePanes = ((WindowTwoRecord) record).getFreezePanes();
+                } else if (record instanceof PaneRecord) {
+                    paneSplitRow = ((PaneRecord) record).getY();
+                } else if (record instanceof EOFRecord) {
+                    return STOP;
+                }
+            }
+            return CONTINUE;
+        }
+    }
+
+    private class CellListener extends AbortableHSSFListener {
+        private int currentSheet = -1;
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            if (record instanceof BOFRecord) {
+                if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                    currentSheet++;
+                    row.reset(-1);
+                }
+                return CONTINUE;
+            }
+            if (record instanceof SSTRecord) {
+                sst = (SSTRecord) record;
+                return CONTINUE;
+            }
+            if (currentSheet != sheetIndex) {
+                return CONTINUE;
+            }
+
+            if (record instanceof EOFRecord) {
+                handleRow();
+                return STOP;
+            }
+
+            if (record instanceof StringRecord) {
+                if (formulaRow == row.getRowNum()) {
+                    row.setCell(formulaColumn, ((StringRecord) record).getString(), formulaIndention);
+                }
+                formulaRow = -1;
+                return CONTINUE;
+            }
+
+            if (!(record instanceof CellValueRecordInterface)) {
+                return CONTINUE;
+            }
+
+            CellValueRecordInterface cell = (CellValueRecordInterface) record;
+            if (cell.getRow() != row.getRowNum()) {
+                if (!handleRow()) {
+                    return STOP;
+                }
+                row.reset(cell.getRow());
+            }
+
+            int column = cell.getColumn();
+            int indention = indentionOf(cell.getXFIndex());
+
+            if (record instanceof LabelSSTRecord) {
+                row.setCell(column, sst.getString(((LabelSSTRecord) record).getSSTIndex()).getString(), indention);
+            } else if (record instanceof LabelRecord) {
+                row.setCell(column, ((LabelRecord) record).getValue(), indention);
+            } else if (record instanceof NumberRecord) {
+                row.setCell(column, ((NumberRecord) record).getValue(), indention);
+            } else if (record instanceof BoolErrRecord) {
+                BoolErrRecord boolErr = (BoolErrRecord) record;
+                row.setCell(column, boolErr.isBoolean() ? (Object) boolErr.getBooleanValue() : (Object) boolErr.getErrorValue(), indention);
+            } else if (record instanceof BlankRecord) {
+                row.setCell(column, null, indention);
+            } else if (record instanceof FormulaRecord) {
+                FormulaRecord formula = (FormulaRecord) record;
+                if (formula.hasCachedResultString()) {
+                    formulaRow = cell.getRow();
+                    formulaColumn = column;
+                    formulaIndention = indention;
+                } else if (formula.getCachedResultType() == Cell.CELL_TYPE_BOOLEAN) {
+                    row.setCell(column, formula.getCachedBooleanValue(), indention);
+                } else if (formula.getCachedResultType() == Cell.CELL_TYPE_ERROR) {
+                    row.setCell(column, (byte) formula.getCachedErrorValue(), indention);
+                } else {
+                    row.setCell(column, formula.getValue(), indention);
+                }
+            }
+
+            return CONTINUE;
+        }
+
+        /**
+         * Hands the current row to the handler if it has cells, returns false to stop.
+         */
+        private boolean handleRow() {
+            return row.getPhysicalNumberOfCells() == 0 || handler.handleRow(row);
+        }
+
+        private int indentionOf(short xfIndex) {
+            return (xfIndex >= 0 && xfIndex < indentions.size()) ? indentions.get(xfIndex) : 0;
+        }
+    }
+}
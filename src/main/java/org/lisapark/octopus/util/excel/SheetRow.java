@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A row of a spreadsheet as it is read by the {@link StreamingExcelReader}: the values of its cells by column and
+ * the indention of their cell styles. A value is a String, a Double, a Boolean, a Byte error code, or null for a
+ * blank cell.
+ * <p/>
+ * The reader reuses one instance for all rows of a sheet, so a row is only valid while it is handled.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class SheetRow {
+
+    private int rowNum = -1;
+    private Object[] values = new Object[32];
+    private int[] indentions = new int[32];
+    private boolean[] present = new boolean[32];
+    private int firstCellNum = -1;
+    private int lastCellNum = -1;
+    private int physicalNumberOfCells;
+
+    /**
+     * Returns a sheet row with the values of a row of a workbook that is in memory.
+     *
+     * @param row of a workbook
+     * @return new sheet row
+     */
+    public static SheetRow of(Row row) {
+        SheetRow sheetRow = new SheetRow();
+        sheetRow.reset(row.getRowNum());
+
+        for (Iterator<Cell> cells = row.cellIterator(); cells.hasNext(); ) {
+            Cell cell = cells.next();
+            int type = cell.getCellType();
+
+            Object value;
+            if (type == Cell.CELL_TYPE_STRING) {
+                value = cell.getStringCellValue();
+            } else if (type == Cell.CELL_TYPE_NUMERIC) {
+                value = cell.getNumericCellValue();
+            } else if (type == Cell.CELL_TYPE_BOOLEAN) {
+                value = cell.getBooleanCellValue();
+            } else if (type == Cell.CELL_TYPE_ERROR) {
+                value = cell.getErrorCellValue();
+            } else {
+                value = null;
+            }
+            sheetRow.setCell(cell.getColumnIndex(), value, cell.getCellStyle().getIndention());
+        }
+
+        return sheetRow;
+    }
+
+    /**
+     * Returns the 0 based number of the row.
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * Returns the column of the first cell, or -1 if the row has no cells.
+     */
+    public int getFirstCellNum() {
+        return firstCellNum;
+    }
+
+    /**
+     * Returns the column after the last cell, or -1 if the row has no cells, like {@link org.apache.poi.ss.usermodel.Row#getLastCellNum()}.
+     */
+    public int getLastCellNum() {
+        return lastCellNum;
+    }
+
+    public int getPhysicalNumberOfCells() {
+        return physicalNumberOfCells;
+    }
+
+    public boolean hasCell(int column) {
+        return column >= 0 && column < present.length && present[column];
+    }
+
+    /**
+     * Returns the value of the cell in the column, null if the cell is blank or missing.
+     */
+    public Object getValue(int column) {
+        return hasCell(column) ? values[column] : null;
+    }
+
+    /**
+     * Returns the value of the cell in the column as a string, an empty string if the cell is blank or missing.
+     */
+    public String getStringValue(int column) {
+        Object value = getValue(column);
+        return (value == null) ? "" : value.toString();
+    }
+
+    /**
+     * Returns the indention of the style of the cell in the column, 0 if the cell is missing.
+     */
+    public int getIndention(int column) {
+        return hasCell(column) ? indentions[column] : 0;
+    }
+
+    void reset(int rowNum) {
+        if (firstCellNum >= 0) {
+            Arrays.fill(values, firstCellNum, lastCellNum, null);
+            Arrays.fill(indentions, firstCellNum, lastCellNum, 0);
+            Arrays.fill(present, firstCellNum, lastCellNum, false);
+        }
+        this.rowNum = rowNum;
+        this.firstCellNum = -1;
+        this.lastCellNum = -1;
+        this.physicalNumberOfCells = 0;
+    }
+
+    void setCell(int column, Object value, int indention) {
+        if (column >= values.length) {
+            int length = Math.max(column + 1, 2 * values.length);
+            values = Arrays.copyOf(values, length);
+            indentions = Arrays.copyOf(indentions, length);
+            present = Arrays.copyOf(present, length);
+        }
+
+        if (!present[column]) {
+            physicalNumberOfCells++;
+            present[column] = true;
+        }
+        values[column] = value;
+        indentions[column] = indention;
+
+        if (firstCellNum < 0 || column < firstCellNum) {
+            firstCellNum = column;
+        }
+        if (column + 1 > lastCellNum) {
+            lastCellNum = column + 1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("SheetRow{rowNum=").append(rowNum).append(", cells=[");
+        for (int column = Math.max(firstCellNum, 0); column < lastCellNum; ++column) {
+            if (column > Math.max(firstCellNum, 0)) {
+                builder.append(", ");
+            }
+            builder.append(getValue(column));
+        }
+        return builder.append("]}").toString();
+    }
+}
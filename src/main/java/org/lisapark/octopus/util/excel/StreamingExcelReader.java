@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * This class reads a sheet of an Excel workbook row by row while the workbook is parsed, without building the
+ * workbook in memory like {@link org.apache.poi.hssf.usermodel.HSSFWorkbook} does. Every row is handed to a
+ * {@link RowHandler} as soon as its last cell was read.
+ * <p/>
+ * The format is recognized from the first bytes of the stream: .xls workbooks are read with the HSSF event API, .xlsx
+ * workbooks with a SAX parser over the sheet XML. Both keep only the shared strings and the indention of the cell
+ * styles besides the current row. An .xls workbook is a file system of its own that POI has to hold in memory as raw
+ * bytes, which is still a small part of what the full workbook model takes.
+ * <p/>
+ * The reader is thread safe, every call reads its own stream.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class StreamingExcelReader {
+
+    private static final byte[] OLE2_SIGNATURE = {(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0};
+    private static final byte[] ZIP_SIGNATURE = {'P', 'K', 3, 4};
+
+    /**
+     * Gets the rows of a sheet while it is read.
+     */
+    public interface RowHandler {
+
+        /**
+         * Called before the first row of the sheet.
+         *
+         * @param sheetName  name of the sheet
+         * @param frozenRows number of rows at the top of the sheet that are frozen, 0 if there is no frozen pane
+         */
+        void startSheet(String sheetName, int frozenRows);
+
+        /**
+         * Called for every row that has cells, in the order of the rows.
+         *
+         * @param row the row, only valid during the call
+         * @return true to continue reading, false to stop
+         */
+        boolean handleRow(SheetRow row);
+    }
+
+    /**
+     * Reads the sheet with the index from the workbook in the stream. The stream is read to the end of the sheet but
+     * not closed.
+     *
+     * @param in         .xls or .xlsx workbook
+     * @param sheetIndex 0 based index of the sheet
+     * @param handler    of the rows
+     * @return true if the workbook has the sheet
+     * @throws IOException if the stream cannot be read or is not an Excel workbook
+     */
+    public static boolean readSheet(InputStream in, int sheetIndex, RowHandler handler) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(in);
+
+        byte[] signature = new byte[4];
+        input.mark(signature.length);
+        int length = 0;
+        while (length < signature.length) {
+            int read = input.read(signature, length, signature.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        input.reset();
+
+        if (startsWith(signature, length, OLE2_SIGNATURE)) {
+            return new HssfSheetReader(sheetIndex, handler).read(input);
+        } else if (startsWith(signature, length, ZIP_SIGNATURE)) {
+            return new XssfSheetReader(sheetIndex, handler).read(input);
+        } else {
+            throw new IOException("The stream is not an Excel workbook.");
+        }
+    }
+
+    /**
+     * Hands the rows of a sheet of a workbook that is already in memory to the handler, for the places that get
+     * their workbooks as {@link org.apache.poi.hssf.usermodel.HSSFWorkbook}s.
+     *
+     * @param sheet   of a workbook
+     * @param handler of the rows
+     */
+    public static void readRows(Sheet sheet, RowHandler handler) {
+        int frozenRows = 0;
+        if (sheet.getPaneInformation() != null && sheet.getPaneInformation().isFreezePane()) {
+            frozenRows = sheet.getPaneInformation().getHorizontalSplitPosition();
+        }
+        handler.startSheet(sheet.getSheetName(), frozenRows);
+
+        for (Iterator<Row> rows = sheet.rowIterator(); rows.hasNext(); ) {
+            Row row = rows.next();
+            if (row.getPhysicalNumberOfCells() > 0 && !handler.handleRow(SheetRow.of(row))) {
+                break;
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
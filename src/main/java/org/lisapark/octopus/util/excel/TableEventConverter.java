@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This class turns the rows of a plain table sheet into {@link Event}s: the first row after the frozen rows, or the
+ * first row of the sheet if none are frozen, has the column names, and every row after it is an event with the
+ * values of the columns named like attributes of the event type. The values are converted to the types of the
+ * attributes.
+ * <p/>
+ * A converter keeps the columns of the sheet it reads and is not thread safe; create one per sheet.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class TableEventConverter implements StreamingExcelReader.RowHandler {
+
+    private final EventType eventType;
+
+    private Attribute[] columns;
+    private int splitRowNumber;
+
+    protected TableEventConverter(EventType eventType) {
+        this.eventType = eventType;
+    }
+
+    /**
+     * Processes the event of a row, e.g. by adding it to a batch.
+     *
+     * @param event of a row
+     * @return true to continue with the next row, false to stop reading the sheet
+     */
+    protected abstract boolean processEvent(Event event);
+
+    @Override
+    public void startSheet(String sheetName, int frozenRows) {
+        splitRowNumber = frozenRows;
+        columns = null;
+    }
+
+    @Override
+    public boolean handleRow(SheetRow row) {
+        if (row.getRowNum() < splitRowNumber) {
+            return true;
+        }
+
+        if (columns == null) {
+            readColumns(row);
+            return true;
+        }
+
+        Map<String, Object> attributeValues = Maps.newHashMapWithExpectedSize(columns.length);
+        int end = Math.min(row.getLastCellNum(), columns.length);
+        for (int column = Math.max(row.getFirstCellNum(), 0); column < end; ++column) {
+            Attribute attribute = columns[column];
+            Object value = row.getValue(column);
+            if (attribute != null && value != null) {
+                Object attributeValue = ExcelEventConverter.valueOf(value, attribute.getType());
+                if (attributeValue != null) {
+                    attributeValues.put(attribute.getName(), attributeValue);
+                }
+            }
+        }
+
+        return attributeValues.isEmpty() || processEvent(new Event(attributeValues));
+    }
+
+    private void readColumns(SheetRow row) {
+        columns = new Attribute[Math.max(row.getLastCellNum(), 0)];
+        Arrays.fill(columns, null);
+
+        for (int column = Math.max(row.getFirstCellNum(), 0); column < columns.length; ++column) {
+            String name = row.getStringValue(column).trim();
+            if (name.length() == 0) {
+                continue;
+            }
+
+            Attribute attribute = eventType.getAttributeByName(name);
+            if (attribute == null) {
+                for (Attribute candidate : eventType.getAttributes()) {
+                    if (candidate.getName().equalsIgnoreCase(name)) {
+                        attribute = candidate;
+                        break;
+                    }
+                }
+            }
+            columns[column] = attribute;
+        }
+    }
+}
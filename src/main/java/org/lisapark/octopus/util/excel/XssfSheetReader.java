@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Maps;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Reads a sheet of an .xlsx workbook with a SAX parser over the XML of the sheet, so the rows are handed to the
+ * handler while the XML is parsed. The shared strings are read with the {@link ReadOnlySharedStringsTable}, which
+ * keeps them as plain strings.
+ */
+class XssfSheetReader {
+
+    private final int sheetIndex;
+    private final StreamingExcelReader.RowHandler handler;
+
+    XssfSheetReader(int sheetIndex, StreamingExcelReader.RowHandler handler) {
+        this.sheetIndex = sheetIndex;
+        this.handler = handler;
+    }
+
+    boolean read(InputStream in) throws IOException {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(in);
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            for (int index = 0; sheets.hasNext(); ++index) {
+                InputStream sheet = sheets.next();
+                try {
+                    if (index == sheetIndex) {
+                        parse(sheet, new SheetHandler(sheets.getSheetName(), strings, styles));
+                        return true;
+                    }
+                } finally {
+                    sheet.close();
+                }
+            }
+            return false;
+
+        } catch (OpenXML4JException e) {
+            throw new IOException("Could not read the workbook.", e);
+        } catch (SAXException e) {
+            throw new IOException("Could not read the workbook.", e);
+        } finally {
+            if (pkg != null) {
+                // closes the package without saving it
+                pkg.revert();
+            }
+        }
+    }
+
+    private void parse(InputStream sheet, SheetHandler sheetHandler) throws IOException, SAXException {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+
+            XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+            xmlReader.setContentHandler(sheetHandler);
+            xmlReader.parse(new InputSource(sheet));
+
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Could not create an XML parser.", e);
+        } catch (StopParsing e) {
+            // the handler does not want more rows
+        }
+    }
+
+    /**
+     * Thrown to stop parsing when the handler does not want more rows.
+     */
+    private static class StopParsing extends SAXException {
+        StopParsing() {
+            super("Stopped");
+        }
+    }
+
+    private class SheetHandler extends DefaultHandler {
+        private final String sheetName;
+        private final ReadOnlySharedStringsTable strings;
+        private final StylesTable styles;
+        private final Map<Integer, Integer> indentionsByStyle = Maps.newHashMap();
+
+        private final SheetRow row = new SheetRow();
+        private final StringBuilder text = new StringBuilder();
+
+        private int frozenRows;
+        private int column;
+        private String type;
+        private int indention;
+        private boolean collecting;
+        private boolean hasValue;
+
+        SheetHandler(String sheetName, ReadOnlySharedStringsTable strings, StylesTable styles) {
+            this.sheetName = sheetName;
+            this.strings = strings;
+            this.styles = styles;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("pane".equals(localName)) {
+                String state = attributes.getValue("state");
+                String ySplit = attributes.getValue("ySplit");
+                if (state != null && state.startsWith("frozen") && ySplit != null) {
+                    frozenRows = (int) Double.parseDouble(ySplit);
+                }
+            } else if ("sheetData".equals(localName)) {
+                handler.startSheet(sheetName, frozenRows);
+            } else if ("row".equals(localName)) {
+                String r = attributes.getValue("r");
+                row.reset(r != null ? Integer.parseInt(r) - 1 : row.getRowNum() + 1);
+                column = -1;
+            } else if ("c".equals(localName)) {
+                String r = attributes.getValue("r");
+                column = (r != null) ? columnOf(r) : column + 1;
+                type = attributes.getValue("t");
+                indention = indentionOf(attributes.getValue("s"));
+                hasValue = false;
+                text.setLength(0);
+            } else if ("v".equals(localName) || "t".equals(localName)) {
+                // an inline string can have several runs of text
+                collecting = true;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("v".equals(localName) || "t".equals(localName)) {
+                collecting = false;
+                hasValue = true;
+            } else if ("c".equals(localName)) {
+                row.setCell(column, hasValue ? valueOf(text.toString()) : null, indention);
+            } else if ("row".equals(localName)) {
+                if (row.getPhysicalNumberOfCells() > 0 && !handler.handleRow(row)) {
+                    throw new StopParsing();
+                }
+            } else if ("sheetData".equals(localName)) {
+                // nothing after the cells is needed
+                throw new StopParsing();
+            }
+        }
+
+        private Object valueOf(String value) {
+            if ("s".equals(type)) {
+                return strings.getEntryAt(Integer.parseInt(value.trim()));
+            } else if ("inlineStr".equals(type) || "str".equals(type) || "e".equals(type)) {
+                return value;
+            } else if ("b".equals(type)) {
+                return "1".equals(value.trim());
+            } else {
+                return (value.trim().length() == 0) ? null : Double.valueOf(value.trim());
+            }
+        }
+
+        private int indentionOf(String style) {
+            if (style == null) {
+                return 0;
+            }
+
+            Integer styleIndex = Integer.valueOf(style);
+            Integer styleIndention = indentionsByStyle.get(styleIndex);
+            if (styleIndention == null) {
+                styleIndention = (int) styles.getStyleAt(styleIndex).getIndention();
+                indentionsByStyle.put(styleIndex, styleIndention);
+            }
+            return styleIndention;
+        }
+    }
+
+    /**
+     * Returns the 0 based column of a cell reference like B7.
+     */
+    static int columnOf(String reference) {
+        int column = 0;
+        for (int i = 0; i < reference.length(); ++i) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+}
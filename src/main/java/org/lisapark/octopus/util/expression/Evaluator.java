@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.expression;
+
+/**
+ * A compiled expression. The variables of the expression are passed in one array per type, in the order given by
+ * {@link ExpressionCompiler#getDoubleVariables()}, {@link ExpressionCompiler#getLongVariables()} and
+ * {@link ExpressionCompiler#getBooleanVariables()}.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public interface Evaluator {
+
+    /**
+     * Evaluates the expression. Boolean expressions evaluate to 1 for true and 0 for false.
+     *
+     * @param doubles  values of the floating point variables
+     * @param longs    values of the integral variables
+     * @param booleans values of the boolean variables
+     * @return value of the expression
+     */
+    double evaluate(double[] doubles, long[] longs, boolean[] booleans);
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.expression;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.EventType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression over the attributes of events of one {@link EventType}. It copies the attributes used by the
+ * expression out of the event data into primitive arrays and calls the {@link Evaluator} compiled for it. Missing
+ * attributes count as 0 or false.
+ * <p/>
+ * The arrays are allocated once per thread and reused for every event, so an instance can be evaluated by several
+ * threads at a time, e.g. by a stateless processor that is called from the processors feeding it.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class EventExpression {
+    private final ExpressionCompiler.Type type;
+
+    private final String[] doubleAttributeNames;
+    private final String[] longAttributeNames;
+    private final String[] booleanAttributeNames;
+
+    private final ThreadLocal<Variables> variables = new ThreadLocal<Variables>() {
+        @Override
+        protected Variables initialValue() {
+            return new Variables(doubleAttributeNames.length, longAttributeNames.length, booleanAttributeNames.length);
+        }
+    };
+
+    private final Evaluator evaluator;
+
+    private EventExpression(ExpressionCompiler compiler) {
+        this.type = compiler.getType();
+        this.doubleAttributeNames = toArray(compiler.getDoubleVariables());
+        this.longAttributeNames = toArray(compiler.getLongVariables());
+        this.booleanAttributeNames = toArray(compiler.getBooleanVariables());
+
+        this.evaluator = compiler.compile();
+    }
+
+    public ExpressionCompiler.Type getType() {
+        return type;
+    }
+
+    public double evaluate(Map<String, Object> data) {
+        Variables variables = this.variables.get();
+        double[] doubles = variables.doubles;
+        long[] longs = variables.longs;
+        boolean[] booleans = variables.booleans;
+
+        for (int i = 0; i < doubles.length; ++i) {
+            Object value = data.get(doubleAttributeNames[i]);
+            doubles[i] = (value != null) ? ((Number) value).doubleValue() : 0;
+        }
+
+        for (int i = 0; i < longs.length; ++i) {
+            Object value = data.get(longAttributeNames[i]);
+            longs[i] = (value != null) ? ((Number) value).longValue() : 0;
+        }
+
+        for (int i = 0; i < booleans.length; ++i) {
+            booleans[i] = Boolean.TRUE.equals(data.get(booleanAttributeNames[i]));
+        }
+
+        return evaluator.evaluate(doubles, longs, booleans);
+    }
+
+    public boolean test(Map<String, Object> data) {
+        return evaluate(data) != 0;
+    }
+
+    /**
+     * Parses and type checks the specified expression against the attributes of the event type, without compiling it.
+     *
+     * @param expression to check
+     * @param eventType  of the events the expression is evaluated for
+     * @return compiler for the expression
+     * @throws ValidationException if the expression is not valid
+     */
+    public static ExpressionCompiler parse(String expression, EventType eventType) throws ValidationException {
+        Map<String, ExpressionCompiler.Type> variableTypes = Maps.newHashMap();
+
+        for (Attribute attribute : eventType.getAttributes()) {
+            Class type = attribute.getType();
+
+            if (type == Double.class || type == Float.class) {
+                variableTypes.put(attribute.getName(), ExpressionCompiler.Type.DOUBLE);
+            } else if (type == Integer.class || type == Long.class || type == Short.class) {
+                variableTypes.put(attribute.getName(), ExpressionCompiler.Type.LONG);
+            } else if (type == Boolean.class) {
+                variableTypes.put(attribute.getName(), ExpressionCompiler.Type.BOOLEAN);
+            }
+        }
+
+        return new ExpressionCompiler(expression, variableTypes);
+    }
+
+    /**
+     * Parses and compiles the specified expression for events of the event type.
+     *
+     * @param expression to compile
+     * @param eventType  of the events the expression is evaluated for
+     * @return compiled expression
+     * @throws ValidationException if the expression is not valid
+     */
+    public static EventExpression compile(String expression, EventType eventType) throws ValidationException {
+        return new EventExpression(parse(expression, eventType));
+    }
+
+    /**
+     * The values of the variables of the expression for one event.
+     */
+    private static class Variables {
+        private final double[] doubles;
+        private final long[] longs;
+        private final boolean[] booleans;
+
+        private Variables(int numberOfDoubles, int numberOfLongs, int numberOfBooleans) {
+            this.doubles = new double[numberOfDoubles];
+            this.longs = new long[numberOfLongs];
+            this.booleans = new boolean[numberOfBooleans];
+        }
+    }
+
+    private static String[] toArray(List<String> names) {
+        return names.toArray(new String[names.size()]);
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.expression;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.util.expression.ExpressionNodes.BooleanNode;
+import org.lisapark.octopus.util.expression.ExpressionNodes.DoubleNode;
+import org.lisapark.octopus.util.expression.ExpressionNodes.LongNode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compiles arithmetic and boolean expressions over named variables into an {@link Evaluator}.
+ * <p/>
+ * The expression is parsed and type checked here, every variable and every sub expression is either a double, a
+ * long or a boolean. The typed expression is built into a tree of {@link ExpressionNodes} with a node class per
+ * operator and operand type, and all conversions resolved while parsing. Evaluating the tree is a virtual call per
+ * node on primitive values, without boxing, reflection or class generation. Since only the grammar below is
+ * accepted, an expression cannot run arbitrary code.
+ * <p/>
+ * Supported are numbers, <code>true</code>, <code>false</code>, variables, parentheses, the operators
+ * <code>+ - * / %</code>, <code>&lt; &lt;= &gt; &gt;= == !=</code>, <code>&amp;&amp; || !</code>, the conditional
+ * <code>c ? x : y</code> and the functions abs, sqrt, pow, exp, log, log10, floor, ceil, min and max. Division is
+ * always floating point division; addition, subtraction and multiplication of two longs stay longs, like the
+ * remainder of a long by a long constant other than 0. Any other remainder is floating point, so a divisor of 0
+ * gives NaN like division instead of failing the event.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ExpressionCompiler {
+
+    public enum Type {
+        DOUBLE, LONG, BOOLEAN
+    }
+
+    private static final Pattern TOKEN = Pattern.compile(
+            "\\s*(?:(\\d+\\.?\\d*(?:[eE][+-]?\\d+)?|\\.\\d+(?:[eE][+-]?\\d+)?)|([A-Za-z_][A-Za-z0-9_]*)|(&&|\\|\\||==|!=|<=|>=|[-+*/%()<>!?:,]))"
+    );
+
+    private static final Set<String> ONE_ARGUMENT_FUNCTIONS = ImmutableSet.of(
+            "abs", "sqrt", "exp", "log", "log10", "floor", "ceil"
+    );
+    private static final Set<String> TWO_ARGUMENT_FUNCTIONS = ImmutableSet.of("pow", "min", "max");
+
+    private final String expression;
+    private final Map<String, Type> variableTypes;
+
+    private final List<String> doubleVariables = Lists.newArrayList();
+    private final List<String> longVariables = Lists.newArrayList();
+    private final List<String> booleanVariables = Lists.newArrayList();
+    private final Map<String, Integer> variableIndexes = Maps.newHashMap();
+
+    private List<String> tokens;
+    private int position;
+
+    private final Type type;
+    private final DoubleNode root;
+
+    /**
+     * Parses and type checks the specified expression.
+     *
+     * @param expression    to compile
+     * @param variableTypes types of the variables the expression may use
+     * @throws ValidationException if the expression is not valid
+     */
+    public ExpressionCompiler(String expression, Map<String, Type> variableTypes) throws ValidationException {
+        checkArgument(expression != null, "expression cannot be null");
+        checkArgument(variableTypes != null, "variableTypes cannot be null");
+
+        this.expression = expression;
+        this.variableTypes = variableTypes;
+
+        this.tokens = tokenize(expression);
+        this.position = 0;
+
+        Operand result = parseConditional();
+        if (position < tokens.size()) {
+            throw error("Unexpected '" + tokens.get(position) + "'");
+        }
+
+        this.type = result.type;
+        this.root = (result.type == Type.BOOLEAN) ? ExpressionNodes.toDouble(result.booleanNode) : asDouble(result);
+    }
+
+    /**
+     * Returns the {@link Type} of the value of the expression.
+     *
+     * @return type of expression
+     */
+    public Type getType() {
+        return type;
+    }
+
+    public List<String> getDoubleVariables() {
+        return doubleVariables;
+    }
+
+    public List<String> getLongVariables() {
+        return longVariables;
+    }
+
+    public List<String> getBooleanVariables() {
+        return booleanVariables;
+    }
+
+    /**
+     * Returns the evaluator for the expression. It is immutable and can be shared, the values of the variables are
+     * passed to every call.
+     *
+     * @return evaluator for the expression
+     */
+    public Evaluator compile() {
+        return root;
+    }
+
+    private List<String> tokenize(String expression) throws ValidationException {
+        List<String> result = Lists.newArrayList();
+        String text = expression.trim();
+        Matcher matcher = TOKEN.matcher(text);
+
+        int end = 0;
+        while (end < text.length()) {
+            matcher.region(end, text.length());
+            if (!matcher.lookingAt()) {
+                throw error("Unexpected character at position " + (end + 1));
+            }
+            result.add(matcher.group().trim());
+            end = matcher.end();
+        }
+
+        if (result.isEmpty()) {
+            throw error("The expression is empty");
+        }
+
+        return result;
+    }
+
+    private Operand parseConditional() throws ValidationException {
+        Operand condition = parseOr();
+
+        if (!accept("?")) {
+            return condition;
+        }
+        checkType(condition, Type.BOOLEAN, "?");
+
+        Operand whenTrue = parseConditional();
+        expect(":");
+        Operand whenFalse = parseConditional();
+
+        if (whenTrue.type == Type.BOOLEAN || whenFalse.type == Type.BOOLEAN) {
+            checkType(whenTrue, Type.BOOLEAN, ":");
+            checkType(whenFalse, Type.BOOLEAN, ":");
+            return new Operand(ExpressionNodes.conditional(condition.booleanNode, whenTrue.booleanNode,
+                    whenFalse.booleanNode));
+        }
+
+        if (whenTrue.type == Type.LONG && whenFalse.type == Type.LONG) {
+            return new Operand(ExpressionNodes.conditional(condition.booleanNode, whenTrue.longNode, whenFalse.longNode));
+        }
+
+        return new Operand(ExpressionNodes.conditional(condition.booleanNode, asDouble(whenTrue), asDouble(whenFalse)));
+    }
+
+    private Operand parseOr() throws ValidationException {
+        Operand left = parseAnd();
+
+        while (accept("||")) {
+            Operand right = parseAnd();
+            checkType(left, Type.BOOLEAN, "||");
+            checkType(right, Type.BOOLEAN, "||");
+            left = new Operand(ExpressionNodes.or(left.booleanNode, right.booleanNode));
+        }
+
+        return left;
+    }
+
+    private Operand parseAnd() throws ValidationException {
+        Operand left = parseEquality();
+
+        while (accept("&&")) {
+            Operand right = parseEquality();
+            checkType(left, Type.BOOLEAN, "&&");
+            checkType(right, Type.BOOLEAN, "&&");
+            left = new Operand(ExpressionNodes.and(left.booleanNode, right.booleanNode));
+        }
+
+        return left;
+    }
+
+    private Operand parseEquality() throws ValidationException {
+        Operand left = parseRelational();
+
+        while (peek("==") || peek("!=")) {
+            String operator = tokens.get(position++);
+            Operand right = parseRelational();
+
+            if (left.type == Type.BOOLEAN || right.type == Type.BOOLEAN) {
+                checkType(left, Type.BOOLEAN, operator);
+                checkType(right, Type.BOOLEAN, operator);
+                left = new Operand(ExpressionNodes.compare(operator, left.booleanNode, right.booleanNode));
+            } else {
+                left = compare(left, operator, right);
+            }
+        }
+
+        return left;
+    }
+
+    private Operand parseRelational() throws ValidationException {
+        Operand left = parseAdditive();
+
+        while (peek("<") || peek("<=") || peek(">") || peek(">=")) {
+            String operator = tokens.get(position++);
+            Operand right = parseAdditive();
+
+            left = compare(left, operator, right);
+        }
+
+        return left;
+    }
+
+    private Operand parseAdditive() throws ValidationException {
+        Operand left = parseMultiplicative();
+
+        while (peek("+") || peek("-")) {
+            String operator = tokens.get(position++);
+            Operand right = parseMultiplicative();
+
+            left = arithmetic(left, operator, right);
+        }
+
+        return left;
+    }
+
+    private Operand parseMultiplicative() throws ValidationException {
+        Operand left = parseUnary();
+
+        while (peek("*") || peek("/") || peek("%")) {
+            String operator = tokens.get(position++);
+            Operand right = parseUnary();
+
+            if (operator.equals("/") || (operator.equals("%") && !isNonZeroConstant(right))) {
+                checkNumeric(left, operator);
+                checkNumeric(right, operator);
+                left = new Operand(ExpressionNodes.arithmetic(operator.charAt(0), asDouble(left), asDouble(right)));
+            } else {
+                left = arithmetic(left, operator, right);
+            }
+        }
+
+        return left;
+    }
+
+    private Operand parseUnary() throws ValidationException {
+        if (accept("-")) {
+            Operand operand = parseUnary();
+            checkNumeric(operand, "-");
+            return (operand.type == Type.LONG) ?
+                    new Operand(ExpressionNodes.negate(operand.longNode)) :
+                    new Operand(ExpressionNodes.negate(operand.doubleNode));
+        }
+        if (accept("+")) {
+            Operand operand = parseUnary();
+            checkNumeric(operand, "+");
+            return operand;
+        }
+        if (accept("!")) {
+            Operand operand = parseUnary();
+            checkType(operand, Type.BOOLEAN, "!");
+            return new Operand(ExpressionNodes.not(operand.booleanNode));
+        }
+
+        return parsePrimary();
+    }
+
+    private Operand parsePrimary() throws ValidationException {
+        if (position >= tokens.size()) {
+            throw error("Unexpected end of expression");
+        }
+        String token = tokens.get(position++);
+
+        if (token.equals("(")) {
+            Operand operand = parseConditional();
+            expect(")");
+            return operand;
+        }
+
+        if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '.') {
+            if (token.matches("\\d+")) {
+                try {
+                    long value = Long.parseLong(token);
+                    return new Operand(ExpressionNodes.longConstant(value), value);
+                } catch (NumberFormatException e) {
+                    throw error("Number " + token + " is too large");
+                }
+            }
+            double value = Double.parseDouble(token);
+            if (Double.isInfinite(value)) {
+                throw error("Number " + token + " is too large");
+            }
+            return new Operand(ExpressionNodes.doubleConstant(value));
+        }
+
+        if (token.equals("true") || token.equals("false")) {
+            return new Operand(ExpressionNodes.booleanConstant(Boolean.parseBoolean(token)));
+        }
+
+        if (Character.isLetter(token.charAt(0)) || token.charAt(0) == '_') {
+            if (peek("(")) {
+                return parseFunction(token);
+            }
+            return variable(token);
+        }
+
+        throw error("Unexpected '" + token + "'");
+    }
+
+    private Operand parseFunction(String name) throws ValidationException {
+        expect("(");
+        List<Operand> arguments = Lists.newArrayList();
+        if (!peek(")")) {
+            do {
+                Operand argument = parseConditional();
+                checkNumeric(argument, name);
+                arguments.add(argument);
+            } while (accept(","));
+        }
+        expect(")");
+
+        int numberOfArguments;
+        if (ONE_ARGUMENT_FUNCTIONS.contains(name)) {
+            numberOfArguments = 1;
+        } else if (TWO_ARGUMENT_FUNCTIONS.contains(name)) {
+            numberOfArguments = 2;
+        } else {
+            throw error("Unknown function " + name);
+        }
+        if (arguments.size() != numberOfArguments) {
+            throw error(String.format("Function %s takes %d argument(s)", name, numberOfArguments));
+        }
+
+        if (numberOfArguments == 1) {
+            return new Operand(ExpressionNodes.function(name, asDouble(arguments.get(0))));
+        }
+        return new Operand(ExpressionNodes.function(name, asDouble(arguments.get(0)), asDouble(arguments.get(1))));
+    }
+
+    private Operand variable(String name) throws ValidationException {
+        Type variableType = variableTypes.get(name);
+        if (variableType == null) {
+            throw error("Unknown attribute " + name);
+        }
+
+        // every variable has an index in the array of values of its type
+        Integer index = variableIndexes.get(name);
+        if (index == null) {
+            List<String> variables;
+            switch (variableType) {
+                case DOUBLE:
+                    variables = doubleVariables;
+                    break;
+                case LONG:
+                    variables = longVariables;
+                    break;
+                default:
+                    variables = booleanVariables;
+            }
+            index = variables.size();
+            variables.add(name);
+            variableIndexes.put(name, index);
+        }
+
+        switch (variableType) {
+            case DOUBLE:
+                return new Operand(ExpressionNodes.doubleVariable(index));
+            case LONG:
+                return new Operand(ExpressionNodes.longVariable(index));
+            default:
+                return new Operand(ExpressionNodes.booleanVariable(index));
+        }
+    }
+
+    private Operand arithmetic(Operand left, String operator, Operand right) throws ValidationException {
+        checkNumeric(left, operator);
+        checkNumeric(right, operator);
+
+        if (left.type == Type.LONG && right.type == Type.LONG) {
+            return new Operand(ExpressionNodes.arithmetic(operator.charAt(0), left.longNode, right.longNode));
+        }
+
+        return new Operand(ExpressionNodes.arithmetic(operator.charAt(0), asDouble(left), asDouble(right)));
+    }
+
+    private static boolean isNonZeroConstant(Operand operand) {
+        return operand.longConstant != null && operand.longConstant != 0;
+    }
+
+    private Operand compare(Operand left, String operator, Operand right) throws ValidationException {
+        checkNumeric(left, operator);
+        checkNumeric(right, operator);
+
+        if (left.type == Type.LONG && right.type == Type.LONG) {
+            return new Operand(ExpressionNodes.compare(operator, left.longNode, right.longNode));
+        }
+
+        return new Operand(ExpressionNodes.compare(operator, asDouble(left), asDouble(right)));
+    }
+
+    private DoubleNode asDouble(Operand operand) {
+        return (operand.type == Type.LONG) ? ExpressionNodes.toDouble(operand.longNode) : operand.doubleNode;
+    }
+
+    private void checkNumeric(Operand operand, String operator) throws ValidationException {
+        if (operand.type == Type.BOOLEAN) {
+            throw error("'" + operator + "' needs a number but found a boolean");
+        }
+    }
+
+    private void checkType(Operand operand, Type expectedType, String operator) throws ValidationException {
+        if (operand.type != expectedType) {
+            throw error("'" + operator + "' needs a boolean but found a number");
+        }
+    }
+
+    private boolean peek(String token) {
+        return position < tokens.size() && tokens.get(position).equals(token);
+    }
+
+    private boolean accept(String token) {
+        if (peek(token)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) throws ValidationException {
+        if (!accept(token)) {
+            throw error(position < tokens.size() ?
+                    "Expected '" + token + "' but found '" + tokens.get(position) + "'" :
+                    "Expected '" + token + "' at end of expression");
+        }
+    }
+
+    private ValidationException error(String message) {
+        return new ValidationException(String.format("%s in expression '%s'", message, expression));
+    }
+
+    /**
+     * A typed sub expression, only the node of its type is set.
+     */
+    private static class Operand {
+        private final Type type;
+        private final DoubleNode doubleNode;
+        private final LongNode longNode;
+        private final BooleanNode booleanNode;
+
+        /**
+         * Value of a long literal, null for any other operand
+         */
+        private final Long longConstant;
+
+        private Operand(DoubleNode node) {
+            this(Type.DOUBLE, node, null, null, null);
+        }
+
+        private Operand(LongNode node) {
+            this(Type.LONG, null, node, null, null);
+        }
+
+        private Operand(LongNode node, long constant) {
+            this(Type.LONG, null, node, null, constant);
+        }
+
+        private Operand(BooleanNode node) {
+            this(Type.BOOLEAN, null, null, node, null);
+        }
+
+        private Operand(Type type, DoubleNode doubleNode, LongNode longNode, BooleanNode booleanNode, Long longConstant) {
+            this.type = type;
+            this.doubleNode = doubleNode;
+            this.longNode = longNode;
+            this.booleanNode = booleanNode;
+            this.longConstant = longConstant;
+        }
+    }
+}
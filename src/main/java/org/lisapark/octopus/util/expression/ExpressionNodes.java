@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.expression;
+
+/**
+ * The nodes of a compiled expression. There is an abstract node class per {@link ExpressionCompiler.Type} and every
+ * node class evaluates its operands through their typed method, so evaluating a tree works on primitives only and
+ * never boxes a value.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+final class ExpressionNodes {
+
+    private ExpressionNodes() {
+    }
+
+    static abstract class DoubleNode implements Evaluator {
+    }
+
+    static abstract class LongNode {
+        abstract long evaluateLong(double[] doubles, long[] longs, boolean[] booleans);
+    }
+
+    static abstract class BooleanNode {
+        abstract boolean test(double[] doubles, long[] longs, boolean[] booleans);
+    }
+
+    static DoubleNode doubleConstant(final double value) {
+        return new DoubleNode() {
+            @Override
+            public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                return value;
+            }
+        };
+    }
+
+    static LongNode longConstant(final long value) {
+        return new LongNode() {
+            @Override
+            long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                return value;
+            }
+        };
+    }
+
+    static BooleanNode booleanConstant(final boolean value) {
+        return new BooleanNode() {
+            @Override
+            boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                return value;
+            }
+        };
+    }
+
+    static DoubleNode doubleVariable(final int index) {
+        return new DoubleNode() {
+            @Override
+            public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                return doubles[index];
+            }
+        };
+    }
+
+    static LongNode longVariable(final int index) {
+        return new LongNode() {
+            @Override
+            long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                return longs[index];
+            }
+        };
+    }
+
+    static BooleanNode booleanVariable(final int index) {
+        return new BooleanNode() {
+            @Override
+            boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                return booleans[index];
+            }
+        };
+    }
+
+    static DoubleNode toDouble(final LongNode operand) {
+        return new DoubleNode() {
+            @Override
+            public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                return operand.evaluateLong(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static DoubleNode toDouble(final BooleanNode operand) {
+        return new DoubleNode() {
+            @Override
+            public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                return operand.test(doubles, longs, booleans) ? 1.0d : 0.0d;
+            }
+        };
+    }
+
+    static DoubleNode negate(final DoubleNode operand) {
+        return new DoubleNode() {
+            @Override
+            public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                return -operand.evaluate(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static LongNode negate(final LongNode operand) {
+        return new LongNode() {
+            @Override
+            long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                return -operand.evaluateLong(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static BooleanNode not(final BooleanNode operand) {
+        return new BooleanNode() {
+            @Override
+            boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                return !operand.test(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static DoubleNode arithmetic(char operator, final DoubleNode left, final DoubleNode right) {
+        switch (operator) {
+            case '+':
+                return new DoubleNode() {
+                    @Override
+                    public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluate(doubles, longs, booleans) + right.evaluate(doubles, longs, booleans);
+                    }
+                };
+            case '-':
+                return new DoubleNode() {
+                    @Override
+                    public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluate(doubles, longs, booleans) - right.evaluate(doubles, longs, booleans);
+                    }
+                };
+            case '*':
+                return new DoubleNode() {
+                    @Override
+                    public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluate(doubles, longs, booleans) * right.evaluate(doubles, longs, booleans);
+                    }
+                };
+            case '/':
+                return new DoubleNode() {
+                    @Override
+                    public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluate(doubles, longs, booleans) / right.evaluate(doubles, longs, booleans);
+                    }
+                };
+            case '%':
+                return new DoubleNode() {
+                    @Override
+                    public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluate(doubles, longs, booleans) % right.evaluate(doubles, longs, booleans);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operator " + operator);
+        }
+    }
+
+    /**
+     * Returns the node for the operator on two longs. Like in Java, the integral remainder by zero throws an
+     * {@link ArithmeticException}, so the compiler only uses the remainder with a constant divisor other than 0.
+     */
+    static LongNode arithmetic(char operator, final LongNode left, final LongNode right) {
+        switch (operator) {
+            case '+':
+                return new LongNode() {
+                    @Override
+                    long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluateLong(doubles, longs, booleans) + right.evaluateLong(doubles, longs, booleans);
+                    }
+                };
+            case '-':
+                return new LongNode() {
+                    @Override
+                    long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluateLong(doubles, longs, booleans) - right.evaluateLong(doubles, longs, booleans);
+                    }
+                };
+            case '*':
+                return new LongNode() {
+                    @Override
+                    long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluateLong(doubles, longs, booleans) * right.evaluateLong(doubles, longs, booleans);
+                    }
+                };
+            case '%':
+                return new LongNode() {
+                    @Override
+                    long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                        return left.evaluateLong(doubles, longs, booleans) % right.evaluateLong(doubles, longs, booleans);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operator " + operator);
+        }
+    }
+
+    static BooleanNode compare(String operator, final DoubleNode left, final DoubleNode right) {
+        if (operator.equals("<")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluate(doubles, longs, booleans) < right.evaluate(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("<=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluate(doubles, longs, booleans) <= right.evaluate(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals(">")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluate(doubles, longs, booleans) > right.evaluate(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals(">=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluate(doubles, longs, booleans) >= right.evaluate(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("==")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluate(doubles, longs, booleans) == right.evaluate(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("!=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluate(doubles, longs, booleans) != right.evaluate(doubles, longs, booleans);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown operator " + operator);
+    }
+
+    static BooleanNode compare(String operator, final LongNode left, final LongNode right) {
+        if (operator.equals("<")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluateLong(doubles, longs, booleans) < right.evaluateLong(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("<=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluateLong(doubles, longs, booleans) <= right.evaluateLong(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals(">")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluateLong(doubles, longs, booleans) > right.evaluateLong(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals(">=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluateLong(doubles, longs, booleans) >= right.evaluateLong(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("==")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluateLong(doubles, longs, booleans) == right.evaluateLong(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("!=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.evaluateLong(doubles, longs, booleans) != right.evaluateLong(doubles, longs, booleans);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown operator " + operator);
+    }
+
+    static BooleanNode compare(String operator, final BooleanNode left, final BooleanNode right) {
+        if (operator.equals("==")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.test(doubles, longs, booleans) == right.test(doubles, longs, booleans);
+                }
+            };
+        } else if (operator.equals("!=")) {
+            return new BooleanNode() {
+                @Override
+                boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                    return left.test(doubles, longs, booleans) != right.test(doubles, longs, booleans);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown operator " + operator);
+    }
+
+    static BooleanNode and(final BooleanNode left, final BooleanNode right) {
+        return new BooleanNode() {
+            @Override
+            boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                return left.test(doubles, longs, booleans) && right.test(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static BooleanNode or(final BooleanNode left, final BooleanNode right) {
+        return new BooleanNode() {
+            @Override
+            boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                return left.test(doubles, longs, booleans) || right.test(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static DoubleNode conditional(final BooleanNode condition, final DoubleNode whenTrue, final DoubleNode whenFalse) {
+        return new DoubleNode() {
+            @Override
+            public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                return condition.test(doubles, longs, booleans) ?
+                        whenTrue.evaluate(doubles, longs, booleans) : whenFalse.evaluate(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static LongNode conditional(final BooleanNode condition, final LongNode whenTrue, final LongNode whenFalse) {
+        return new LongNode() {
+            @Override
+            long evaluateLong(double[] doubles, long[] longs, boolean[] booleans) {
+                return condition.test(doubles, longs, booleans) ?
+                        whenTrue.evaluateLong(doubles, longs, booleans) : whenFalse.evaluateLong(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static BooleanNode conditional(final BooleanNode condition, final BooleanNode whenTrue, final BooleanNode whenFalse) {
+        return new BooleanNode() {
+            @Override
+            boolean test(double[] doubles, long[] longs, boolean[] booleans) {
+                return condition.test(doubles, longs, booleans) ?
+                        whenTrue.test(doubles, longs, booleans) : whenFalse.test(doubles, longs, booleans);
+            }
+        };
+    }
+
+    static DoubleNode function(String name, final DoubleNode argument) {
+        if (name.equals("abs")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.abs(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("sqrt")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.sqrt(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("exp")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.exp(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("log")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.log(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("log10")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.log10(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("floor")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.floor(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("ceil")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.ceil(argument.evaluate(doubles, longs, booleans));
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown function " + name);
+    }
+
+    static DoubleNode function(String name, final DoubleNode first, final DoubleNode second) {
+        if (name.equals("pow")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.pow(first.evaluate(doubles, longs, booleans), second.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("min")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.min(first.evaluate(doubles, longs, booleans), second.evaluate(doubles, longs, booleans));
+                }
+            };
+        } else if (name.equals("max")) {
+            return new DoubleNode() {
+                @Override
+                public double evaluate(double[] doubles, long[] longs, boolean[] booleans) {
+                    return Math.max(first.evaluate(doubles, longs, booleans), second.evaluate(doubles, longs, booleans));
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown function " + name);
+    }
+}
@@ -20,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
@@ -28,6 +29,37 @@ import java.sql.SQLException;
 public abstract class Connections {
     private static final Logger LOG = LoggerFactory.getLogger(Connections.class);
 
+    /**
+     * Loads the driver class and opens a connection. The user name and password are only used if at least one of
+     * them is set.
+     */
+    public static Connection getConnection(String driverClass, String url, String userName, String password)
+            throws ClassNotFoundException, SQLException {
+        Class.forName(driverClass);
+
+        if (userName == null && password == null) {
+            return DriverManager.getConnection(url);
+        } else {
+            return DriverManager.getConnection(url, userName, password);
+        }
+    }
+
+    /**
+     * Sets the auto commit of the connection if it is not already set, e.g. to restore it after reading results
+     * outside of auto commit. Turning auto commit on commits the open transaction.
+     */
+    public static void setAutoCommitQuietly(Connection connection, boolean autoCommit) {
+        if (connection != null) {
+            try {
+                if (connection.getAutoCommit() != autoCommit) {
+                    connection.setAutoCommit(autoCommit);
+                }
+            } catch (SQLException e) {
+                LOG.warn("Problem restoring auto commit", e);
+            }
+        }
+    }
+
     public static void closeQuietly(Connection connection) {
         if (connection != null) {
             try {
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.jdbc;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.lisapark.octopus.util.Keys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An in-memory copy of a database table, or of the result of a query, indexed by a key column. It is used to look
+ * up rows without querying the database for every lookup.
+ * <p/>
+ * The table is loaded with {@link #load()}. If a refresh interval is set, a lookup that finds the table older than
+ * the interval starts a refresh on a background thread; lookups never wait for it. If a change column is set, e.g.
+ * a last modified timestamp or an auto increment id, a refresh only reads the rows whose change column is greater
+ * than the greatest value already read, otherwise the whole table is read again and swapped in. Note that the
+ * incremental refresh cannot see deleted rows.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class LookupTable {
+    private static final Logger LOG = LoggerFactory.getLogger(LookupTable.class);
+
+    private final String driverClass;
+    private final String url;
+    private final String userName;
+    private final String password;
+    private final String query;
+    private final String keyColumn;
+    private final String changeColumn;
+    private final long refreshIntervalMillis;
+
+    private volatile Map<Object, Map<String, Object>> rowsByKey = new ConcurrentHashMap<Object, Map<String, Object>>();
+
+    /**
+     * Greatest value of the {@link #changeColumn} read so far, guarded by this
+     */
+    private Comparable lastChange;
+
+    private volatile long nextRefreshTime;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ThreadPoolExecutor refresher;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+
+    public LookupTable(String driverClass, String url, String userName, String password, String query,
+                       String keyColumn, String changeColumn, long refreshIntervalMillis) {
+        checkArgument(driverClass != null, "driverClass cannot be null");
+        checkArgument(url != null, "url cannot be null");
+        checkArgument(query != null, "query cannot be null");
+        checkArgument(keyColumn != null, "keyColumn cannot be null");
+
+        this.driverClass = driverClass;
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.query = query;
+        this.keyColumn = keyColumn;
+        this.changeColumn = (changeColumn == null || changeColumn.trim().length() == 0) ? null : changeColumn;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+
+        // a single daemon thread that goes away when the table is not refreshed for a while
+        this.refresher = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lookup-table-refresh-%d").build());
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the row for the specified key, or null if there is none. The row maps column labels to values.
+     *
+     * @param key to look up
+     * @return row or null
+     */
+    public Map<String, Object> get(Object key) {
+        refreshIfDue();
+
+        Map<String, Object> row = (key == null) ? null : rowsByKey.get(Keys.keyOf(key));
+
+        if (row == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return row;
+    }
+
+    /**
+     * Reads the whole table and replaces the current contents with it.
+     */
+    public synchronized void load() throws ClassNotFoundException, SQLException {
+        Map<Object, Map<String, Object>> newRowsByKey = new ConcurrentHashMap<Object, Map<String, Object>>();
+        lastChange = null;
+
+        int numberOfRows = read(null, newRowsByKey);
+        rowsByKey = newRowsByKey;
+        nextRefreshTime = System.currentTimeMillis() + refreshIntervalMillis;
+
+        LOG.info("Loaded {} rows into lookup table for query [{}]", numberOfRows, query);
+    }
+
+    /**
+     * Reads the rows changed since the last load or refresh, or the whole table if there is no change column.
+     */
+    public synchronized void refresh() throws ClassNotFoundException, SQLException {
+        if (changeColumn == null || lastChange == null) {
+            load();
+
+        } else {
+            String changedRowsQuery = String.format("SELECT * FROM (%s) lookup WHERE %s > ?", query, changeColumn);
+            int numberOfRows = read(changedRowsQuery, rowsByKey);
+            nextRefreshTime = System.currentTimeMillis() + refreshIntervalMillis;
+
+            LOG.debug("Refreshed {} changed rows of lookup table for query [{}]", numberOfRows, query);
+        }
+        refreshes.incrementAndGet();
+
+        LOG.debug("Lookup table for query [{}] has {} rows, {} hits, {} misses, {} refreshes",
+                new Object[]{query, size(), hits.get(), misses.get(), refreshes.get()});
+    }
+
+    public int size() {
+        return rowsByKey.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public long getFailedRefreshes() {
+        return failedRefreshes.get();
+    }
+
+    /**
+     * Stops the background refreshes of this table.
+     */
+    public void close() {
+        refresher.shutdownNow();
+    }
+
+    private void refreshIfDue() {
+        if (refreshIntervalMillis > 0 && System.currentTimeMillis() >= nextRefreshTime
+                && refreshing.compareAndSet(false, true)) {
+
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Exception e) {
+                        failedRefreshes.incrementAndGet();
+                        // try again with the next interval instead of with the next lookup
+                        nextRefreshTime = System.currentTimeMillis() + refreshIntervalMillis;
+
+                        LOG.warn(String.format("Problem refreshing lookup table for query [%s]", query), e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the rows of the specified query, or of {@link #query} if it is null, into the specified map. The query
+     * has a parameter for the last change if it is not null.
+     */
+    private int read(String changedRowsQuery, Map<Object, Map<String, Object>> rows) throws ClassNotFoundException, SQLException {
+        Connection connection = Connections.getConnection(driverClass, url, userName, password);
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+
+        try {
+            if (changedRowsQuery == null) {
+                statement = connection.prepareStatement(query);
+            } else {
+                statement = connection.prepareStatement(changedRowsQuery);
+                statement.setObject(1, lastChange);
+            }
+            rs = statement.executeQuery();
+
+            // resolve the columns once for the whole result set
+            ResultSetMetaData metaData = rs.getMetaData();
+            int numberOfColumns = metaData.getColumnCount();
+            String[] labels = new String[numberOfColumns + 1];
+            int keyIndex = -1;
+            int changeIndex = -1;
+
+            for (int i = 1; i <= numberOfColumns; ++i) {
+                labels[i] = metaData.getColumnLabel(i);
+
+                if (labels[i].equalsIgnoreCase(keyColumn)) {
+                    keyIndex = i;
+                }
+                if (changeColumn != null && labels[i].equalsIgnoreCase(changeColumn)) {
+                    changeIndex = i;
+                }
+            }
+            if (keyIndex < 0) {
+                throw new SQLException(String.format("Query [%s] does not return the key column %s", query, keyColumn));
+            }
+
+            int numberOfRows = 0;
+            while (rs.next()) {
+                Object key = rs.getObject(keyIndex);
+                if (key == null) {
+                    continue;
+                }
+
+                Map<String, Object> row = Maps.newHashMapWithExpectedSize(numberOfColumns);
+                for (int i = 1; i <= numberOfColumns; ++i) {
+                    Object value = toAttributeValue(rs.getObject(i));
+                    if (value != null) {
+                        row.put(labels[i], value);
+                    }
+                }
+                rows.put(Keys.keyOf(key), row);
+
+                if (changeIndex > 0) {
+                    trackChange(rs.getObject(changeIndex));
+                }
+                numberOfRows++;
+            }
+
+            return numberOfRows;
+        } finally {
+            ResultSets.closeQuietly(rs);
+            Statements.closeQuietly(statement);
+            Connections.closeQuietly(connection);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void trackChange(Object change) {
+        if (change instanceof Comparable && (lastChange == null || lastChange.compareTo(change) < 0)) {
+            lastChange = (Comparable) change;
+        }
+    }
+
+    /**
+     * Converts a JDBC value to one of the {@link org.lisapark.octopus.core.event.Attribute#SUPPORTED_TYPES}.
+     */
+    static Object toAttributeValue(Object value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).doubleValue();
+        }
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).longValue();
+        }
+        if (value instanceof Byte) {
+            return ((Byte) value).intValue();
+        }
+        if (value instanceof java.util.Date) {
+            return value.toString();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.jdbc;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.Booleans;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class turns the rows of a {@link ResultSet} into {@link Event}s of an {@link EventType}. The columns of the
+ * attributes are looked up by name and a reader for the type of every attribute is chosen once, when the reader is
+ * created, so reading a row only calls the typed getter of every column by index.
+ * <p/>
+ * The values are read the same way as the sources always did: numbers with the primitive getters, so a NULL is 0,
+ * and booleans from their string value.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ResultSetReader {
+
+    private final String[] attributeNames;
+    private final int[] columnIndexes;
+    private final ColumnReader[] columnReaders;
+
+    /**
+     * Creates a reader for the columns of the result set with the names of the attributes of the event type.
+     *
+     * @param eventType of the events
+     * @param rs        result set the columns are looked up in
+     * @throws SQLException if the result set has no column for an attribute
+     */
+    public ResultSetReader(EventType eventType, ResultSet rs) throws SQLException {
+        List<Attribute> attributes = eventType.getAttributes();
+
+        this.attributeNames = new String[attributes.size()];
+        this.columnIndexes = new int[attributes.size()];
+        this.columnReaders = new ColumnReader[attributes.size()];
+
+        for (int i = 0; i < attributes.size(); ++i) {
+            Attribute attribute = attributes.get(i);
+
+            attributeNames[i] = attribute.getName();
+            columnIndexes[i] = rs.findColumn(attribute.getName());
+            columnReaders[i] = readerFor(attribute.getType());
+        }
+    }
+
+    public Event readEvent(ResultSet rs) throws SQLException {
+        Map<String, Object> attributeValues = Maps.newHashMapWithExpectedSize(attributeNames.length);
+
+        for (int i = 0; i < attributeNames.length; ++i) {
+            attributeValues.put(attributeNames[i], columnReaders[i].read(rs, columnIndexes[i]));
+        }
+
+        return new Event(attributeValues);
+    }
+
+    /**
+     * Returns the index of the column with the specified name, as resolved when the reader was created.
+     */
+    public int getColumnIndex(String attributeName) {
+        for (int i = 0; i < attributeNames.length; ++i) {
+            if (attributeNames[i].equals(attributeName)) {
+                return columnIndexes[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Configures the statement to stream its results in chunks of the fetch size instead of reading all rows into
+     * memory. The statement should be created forward only and read only.
+     * <p/>
+     * Most drivers only use a cursor outside of auto commit, so it is turned off on the connection; the caller
+     * should save the auto commit before and restore it once the results are read, e.g. with
+     * {@link Connections#setAutoCommitQuietly(Connection, boolean)}. The MySQL driver needs {@link Integer#MIN_VALUE}
+     * as fetch size to stream, unless cursor fetch was turned on in the url.
+     *
+     * @param connection of the statement
+     * @param statement  to configure
+     * @param url        of the connection
+     * @param fetchSize  number of rows to fetch at a time, 0 for the default of the driver
+     * @throws SQLException if the statement cannot be configured
+     */
+    public static void configureForStreaming(Connection connection, Statement statement, String url, int fetchSize)
+            throws SQLException {
+        if (fetchSize <= 0) {
+            return;
+        }
+
+        connection.setAutoCommit(false);
+
+        if (url != null && url.startsWith("jdbc:mysql:") && !url.contains("useCursorFetch=true")) {
+            statement.setFetchSize(Integer.MIN_VALUE);
+        } else {
+            statement.setFetchSize(fetchSize);
+        }
+    }
+
+    static ColumnReader readerFor(Class type) {
+        if (type == String.class) {
+            return STRING_READER;
+        } else if (type == Integer.class) {
+            return INTEGER_READER;
+        } else if (type == Short.class) {
+            return SHORT_READER;
+        } else if (type == Long.class) {
+            return LONG_READER;
+        } else if (type == Double.class) {
+            return DOUBLE_READER;
+        } else if (type == Float.class) {
+            return FLOAT_READER;
+        } else if (type == Boolean.class) {
+            return BOOLEAN_READER;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
+        }
+    }
+
+    /**
+     * Reads the value of a column of the current row.
+     */
+    interface ColumnReader {
+        Object read(ResultSet rs, int columnIndex) throws SQLException;
+    }
+
+    private static final ColumnReader STRING_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getString(columnIndex);
+        }
+    };
+
+    private static final ColumnReader INTEGER_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getInt(columnIndex);
+        }
+    };
+
+    private static final ColumnReader SHORT_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getShort(columnIndex);
+        }
+    };
+
+    private static final ColumnReader LONG_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getLong(columnIndex);
+        }
+    };
+
+    private static final ColumnReader DOUBLE_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getDouble(columnIndex);
+        }
+    };
+
+    private static final ColumnReader FLOAT_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return rs.getFloat(columnIndex);
+        }
+    };
+
+    private static final ColumnReader BOOLEAN_READER = new ColumnReader() {
+        @Override
+        public Object read(ResultSet rs, int columnIndex) throws SQLException {
+            return Booleans.parseBoolean(rs.getString(columnIndex));
+        }
+    };
+}
@@ -31,6 +31,7 @@ import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
+import org.lisapark.octopus.util.excel.SheetRow;
 import org.openide.util.Exceptions;
 
 /**
@@ -188,6 +189,14 @@ public class ExcelSardineUtils {
      * @return 
      */
     public static boolean processRowProdSs(Map<String, Object> rowMap, Row row, Map<String, Integer> cellIndexMap, int increament) {
+        return processRowProdSs(rowMap, SheetRow.of(row), cellIndexMap, increament);
+    }
+
+    /**
+     * Same as {@link #processRowProdSs(Map, Row, Map, int)} for a row read by the
+     * {@link org.lisapark.octopus.util.excel.StreamingExcelReader}.
+     */
+    public static boolean processRowProdSs(Map<String, Object> rowMap, SheetRow row, Map<String, Integer> cellIndexMap, int increament) {
         Boolean done = false;
         int cellIndex;
         
@@ -265,6 +274,15 @@ public class ExcelSardineUtils {
     
     public static boolean processRowWrhSs(Map<String, Object> rowMap, Row row, 
             Map<String, Integer> cellIndexMap, int increament, int dateIndex) {
+        return processRowWrhSs(rowMap, SheetRow.of(row), cellIndexMap, increament, dateIndex);
+    }
+
+    /**
+     * Same as {@link #processRowWrhSs(Map, Row, Map, int, int)} for a row read by the
+     * {@link org.lisapark.octopus.util.excel.StreamingExcelReader}.
+     */
+    public static boolean processRowWrhSs(Map<String, Object> rowMap, SheetRow row,
+            Map<String, Integer> cellIndexMap, int increament, int dateIndex) {
         Boolean done = false;
         int cellIndex;
         
@@ -320,6 +338,10 @@ public class ExcelSardineUtils {
      * @param cellIndex
      * @return 
      */
+    public static Object cellValue(SheetRow row, int cellIndex) {
+        return row.getValue(cellIndex);
+    }
+
     public static Object cellValue(Row row, int cellIndex) {
         Cell cell = row.getCell(cellIndex);
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.json;
+
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.Booleans;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class turns JSON objects, one per message or line, into {@link Event}s of an {@link EventType}. Only the
+ * members with the names of the attributes are read, and every value is converted to the type of its attribute, so
+ * a number is an Integer for an integer attribute instead of the Double a generic JSON map would hold.
+ * <p/>
+ * A reader is created once per source and reused for all messages; it is not thread safe.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class JsonEventReader {
+
+    private final JsonParser parser = new JsonParser();
+    private final String[] attributeNames;
+    private final Class[] attributeTypes;
+
+    public JsonEventReader(EventType eventType) {
+        List<Attribute> attributes = eventType.getAttributes();
+
+        this.attributeNames = new String[attributes.size()];
+        this.attributeTypes = new Class[attributes.size()];
+        for (int i = 0; i < attributes.size(); ++i) {
+            attributeNames[i] = attributes.get(i).getName();
+            attributeTypes[i] = attributes.get(i).getType();
+        }
+    }
+
+    /**
+     * Returns the event for the JSON object in the message. Members that are missing or null are left out of the
+     * event.
+     *
+     * @param message JSON object
+     * @return new event
+     * @throws JsonParseException if the message is not a JSON object or a value does not fit its attribute
+     */
+    public Event readEvent(String message) throws JsonParseException {
+        JsonElement element = parser.parse(message);
+        if (!element.isJsonObject()) {
+            throw new JsonParseException("Not a JSON object: " + message);
+        }
+        JsonObject object = element.getAsJsonObject();
+
+        Map<String, Object> attributeValues = Maps.newHashMapWithExpectedSize(attributeNames.length);
+        for (int i = 0; i < attributeNames.length; ++i) {
+            JsonElement value = object.get(attributeNames[i]);
+            if (value != null && !value.isJsonNull()) {
+                attributeValues.put(attributeNames[i], valueOf(value, attributeTypes[i]));
+            }
+        }
+
+        return new Event(attributeValues);
+    }
+
+    static Object valueOf(JsonElement value, Class type) {
+        if (!value.isJsonPrimitive()) {
+            // nested objects and arrays are kept as their JSON text
+            return (type == String.class) ? value.toString() : null;
+        }
+
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        try {
+            if (type == String.class) {
+                return primitive.getAsString();
+            } else if (type == Integer.class) {
+                return primitive.isNumber() ? primitive.getAsInt() : Integer.valueOf(primitive.getAsString().trim());
+            } else if (type == Short.class) {
+                return primitive.isNumber() ? primitive.getAsShort() : Short.valueOf(primitive.getAsString().trim());
+            } else if (type == Long.class) {
+                return primitive.isNumber() ? primitive.getAsLong() : Long.valueOf(primitive.getAsString().trim());
+            } else if (type == Double.class) {
+                return primitive.isNumber() ? primitive.getAsDouble() : Double.valueOf(primitive.getAsString().trim());
+            } else if (type == Float.class) {
+                return primitive.isNumber() ? primitive.getAsFloat() : Float.valueOf(primitive.getAsString().trim());
+            } else if (type == Boolean.class) {
+                return primitive.isBoolean() ? primitive.getAsBoolean() : Booleans.parseBoolean(primitive.getAsString());
+            } else {
+                throw new JsonParseException(String.format("Unknown attribute type %s", type));
+            }
+        } catch (NumberFormatException e) {
+            throw new JsonParseException(String.format("%s is not a valid %s", primitive.getAsString(),
+                    type.getSimpleName()), e);
+        }
+    }
+}
@@ -41,26 +41,18 @@ import com.googlecode.sardine.SardineFactory;
 import com.googlecode.sardine.impl.SardineException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import org.apache.commons.io.IOUtils;
 import org.lisapark.octopus.util.gss.GssListUtils;
+import org.lisapark.octopus.util.xml.StaxXmlReader;
 import org.lisapark.octopus.util.xml.XmlUtils;
 import org.openide.util.Exceptions;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -499,18 +491,19 @@ public class ChocoOptiUtils {
      * @throws SAXException
      * @throws IOException
      */
-    public static List<OptiBean> getXmlStringAsOptiBeanList(String xmlData, int measureCoeff, String dict)
+    public static List<OptiBean> getXmlStringAsOptiBeanList(String xmlData, final int measureCoeff, final String dict)
             throws ParserConfigurationException, SAXException, IOException {
 
-        String cleanString = clean(xmlData);
+        final List<OptiBean> mapList = Lists.newArrayList();
 
-//        logger.log(Level.INFO, xmlString, xmlString);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-
-        List<OptiBean> mapList = optiBeanListFromXmlObject(xmlDoc, measureCoeff, dict);
+        readGridItems(xmlData, new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                Map<String, Object> data = getGridItemMap(values, dict);
+                mapList.add(OptiBean.newInstance(data, measureCoeff, dict));
+                return true;
+            }
+        });
 
         return mapList;
     }
@@ -524,18 +517,18 @@ public class ChocoOptiUtils {
      * @throws SAXException
      * @throws IOException
      */
-    public static synchronized List<Map<String, Object>> getXmlStringAsList(String xmlString, int measureCoeff, String dict)
+    public static List<Map<String, Object>> getXmlStringAsList(String xmlString, int measureCoeff, final String dict)
             throws ParserConfigurationException, SAXException, IOException {
 
-        String cleanString = clean(xmlString);
+        final List<Map<String, Object>> mapList = Lists.newArrayList();
 
-//        logger.log(Level.INFO, xmlString, xmlString);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-
-        List<Map<String, Object>> mapList = mapListFromXmlObject(xmlDoc, measureCoeff, dict);
+        readGridItems(xmlString, new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                mapList.add(getGridItemMap(values, dict));
+                return true;
+            }
+        });
 
         return mapList;
     }
@@ -549,20 +542,22 @@ public class ChocoOptiUtils {
      * @throws SAXException
      * @throws IOException
      */
-    public static Map<String, OptiBean> getOptiBeanPlanMapFromXmlString(String xmlString, int measureCoeff, String dict)
-            throws ParserConfigurationException, SAXException, IOException {
-
-        String cleanString = clean(xmlString);
-
-//        logger.log(Level.INFO, xmlString, xmlString);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-
-        Map<String, OptiBean> mapList = optiBeanPlanMapFromXmlObject(xmlDoc, measureCoeff, dict);
+    public static Map<String, OptiBean> getOptiBeanPlanMapFromXmlString(String xmlString, final int measureCoeff,
+            final String dict) throws ParserConfigurationException, SAXException, IOException {
+
+        final Map<String, OptiBean> map = Maps.newHashMap();
+
+        readGridItems(xmlString, new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                Map<String, Object> data = getGridItemMap(values, dict);
+                OptiBean optiBean = OptiBean.newInstance(data, measureCoeff, dict);
+                map.put(optiBean.getProd(), optiBean);
+                return true;
+            }
+        });
 
-        return mapList;
+        return map;
     }
 
     /**
@@ -574,20 +569,22 @@ public class ChocoOptiUtils {
      * @throws SAXException
      * @throws IOException
      */
-    public static Map<String, OptiBean> getOptiBeanResourceMapFromXmlString(String xmlString, int measureCoeff, String dict)
-            throws ParserConfigurationException, SAXException, IOException {
-
-        String cleanString = clean(xmlString);
-
-//        logger.log(Level.INFO, xmlString, xmlString);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-
-        Map<String, OptiBean> mapList = optiBeanMachineMapFromXmlObject(xmlDoc, measureCoeff, dict);
+    public static Map<String, OptiBean> getOptiBeanResourceMapFromXmlString(String xmlString, final int measureCoeff,
+            final String dict) throws ParserConfigurationException, SAXException, IOException {
+
+        final Map<String, OptiBean> map = Maps.newHashMap();
+
+        readGridItems(xmlString, new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                Map<String, Object> data = getGridItemMap(values, dict);
+                OptiBean optiBean = OptiBean.newInstance(data, measureCoeff, dict);
+                map.put(optiBean.getResource(), optiBean);
+                return true;
+            }
+        });
 
-        return mapList;
+        return map;
     }
 
     /**
@@ -599,234 +596,52 @@ public class ChocoOptiUtils {
      * @throws SAXException
      * @throws IOException
      */
-    public static synchronized Map<String, Map<String, Object>> getXmlStringAsMap(String xmlString, int measureCoeff, String dict)
-            throws ParserConfigurationException, SAXException, IOException {
-
-        String cleanString = clean(xmlString);
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-
-        Map<String, Map<String, Object>> mapList = mapMapFromXmlObject(xmlDoc, measureCoeff, dict);
-
-        return mapList;
-    }
-
-    /**
-     *
-     * @param xmlDoc
-     * @param optiBean
-     * @return
-     */
-    private static synchronized List<OptiBean> optiBeanListFromXmlObject(Document xmlDoc, int measureCoeff, String dict) {
-        Element rootElement = xmlDoc.getDocumentElement();
-        List<OptiBean> mapList = Lists.newArrayList();
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                Node body = gridList.item(0);
-                NodeList bodyList = body.getChildNodes();
-                int bodyListLenght = bodyList.getLength();
-                if (bodyListLenght > 0) {
-                    for (int i = 0; i < bodyListLenght; i++) {
-                        Node item = bodyList.item(i);
-                        NamedNodeMap itemMap = item.getAttributes();
-
-                        if (itemMap == null) {
-                            System.out.println("List Node[" + i + "] item is null!!!");
-                            continue;
-                        }
-                        Map<String, Object> data = getGridItemMap(itemMap, dict);
-                        OptiBean optiBean = OptiBean.newInstance(data, measureCoeff, dict);
-
-                        mapList.add(optiBean);
-                    }
-                }
-            }
-        }
-        return mapList;
-    }
-
-    /**
-     *
-     * @param xmlDoc
-     * @param optiBean
-     * @return
-     */
-    public static synchronized Map<String, OptiBean> optiBeanPlanMapFromXmlObject(Document xmlDoc, int measureCoeff, String dict) {
-
-        Element rootElement = xmlDoc.getDocumentElement();
-
-        Map<String, OptiBean> map = Maps.newHashMap();
-
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                Node body = gridList.item(0);
-                NodeList bodyList = body.getChildNodes();
-                int bodyListLenght = bodyList.getLength();
-                if (bodyListLenght > 0) {
-                    for (int i = 0; i < bodyListLenght; i++) {
-                        Node item = bodyList.item(i);
-                        NamedNodeMap itemMap = item.getAttributes();
-
-                        if (itemMap == null) {
-                            System.out.println("List Node[" + i + "] item is null!!!");
-                            continue;
-                        }
-                        Map<String, Object> data = getGridItemMap(itemMap, dict);
-                        OptiBean optiBean = OptiBean.newInstance(data, measureCoeff, dict);
-                        String name;
-                        name = optiBean.getProd();
-                        map.put(name, optiBean);
-                    }
-                }
-            }
-        }
-        return map;
-    }
-
-    /**
-     *
-     * @param xmlDoc
-     * @param optiBean
-     * @return
-     */
-    private static synchronized Map<String, OptiBean> optiBeanMachineMapFromXmlObject(Document xmlDoc, int measureCoeff, String dict) {
-
-        Element rootElement = xmlDoc.getDocumentElement();
-
-        Map<String, OptiBean> map = Maps.newHashMap();
-
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                Node body = gridList.item(0);
-                NodeList bodyList = body.getChildNodes();
-                int bodyListLenght = bodyList.getLength();
-                if (bodyListLenght > 0) {
-                    for (int i = 0; i < bodyListLenght; i++) {
-                        Node item = bodyList.item(i);
-                        NamedNodeMap itemMap = item.getAttributes();
-
-                        if (itemMap == null) {
-                            System.out.println("List Node[" + i + "] item is null!!!");
-                            continue;
-                        }
-                        Map<String, Object> data = getGridItemMap(itemMap, dict);
-                        OptiBean optiBean = OptiBean.newInstance(data, measureCoeff, dict);
-                        String name;
-                        name = optiBean.getResource();
-                        map.put(name, optiBean);
-                    }
-                }
+    public static Map<String, Map<String, Object>> getXmlStringAsMap(String xmlString, final int measureCoeff,
+            final String dict) throws ParserConfigurationException, SAXException, IOException {
+
+        final Map<String, Map<String, Object>> mapList = Maps.newHashMap();
+
+        readGridItems(xmlString, new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                Map<String, Object> dataItem = getGridItemMap(values, dict);
+                OptiBean optiBean = OptiBean.newInstance(dataItem, measureCoeff, dict);
+                mapList.put(getName(dataItem, optiBean), dataItem);
+                return true;
             }
-        }
-        return map;
-    }
+        });
 
-    /**
-     *
-     * @param xmlDoc
-     * @param optiBean
-     * @return
-     * @throws DOMException
-     * @throws NumberFormatException
-     */
-    private static List<Map<String, Object>> mapListFromXmlObject(Document xmlDoc, int measureCoeff, String dict)
-            throws DOMException, NumberFormatException {
-        //            Document xmlDoc = XmlTreeGridUtils.parseXML(xmlString.trim());
-        Element rootElement = xmlDoc.getDocumentElement();
-        List<Map<String, Object>> mapList = Lists.newArrayList();
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                Node body = gridList.item(0);
-                NodeList bodyList = body.getChildNodes();
-                int bodyListLenght = bodyList.getLength();
-                if (bodyListLenght > 0) {
-                    for (int i = 0; i < bodyListLenght; i++) {
-                        Node item = bodyList.item(i);
-                        NamedNodeMap itemMap = item.getAttributes();
-
-                        if (itemMap == null) {
-                            System.out.println("List Node[" + i + "] item is null!!!");
-                            continue;
-                        }
-                        Map<String, Object> dataItem = getGridItemMap(itemMap, dict);
-                        mapList.add(dataItem);
-                    }
-                }
-            }
-        }
         return mapList;
     }
 
     /**
+     * Reads the items of the grid document with the shared StAX reader, which needs no lock and no DOM.
      *
-     * @param xmlDoc
-     * @param optiBean
-     * @return
-     * @throws DOMException
-     * @throws NumberFormatException
+     * @param xmlString grid document
+     * @param handler   of the items
+     * @throws SAXException if the document is not well formed
      */
-    private static Map<String, Map<String, Object>> mapMapFromXmlObject(Document xmlDoc, int measureCoeff, String dict)
-            throws DOMException, NumberFormatException {
-        //            Document xmlDoc = XmlTreeGridUtils.parseXML(xmlString.trim());
-        Element rootElement = xmlDoc.getDocumentElement();
-        Map<String, Map<String, Object>> mapList = Maps.newHashMap();
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                Node body = gridList.item(0);
-                NodeList bodyList = body.getChildNodes();
-                int bodyListLenght = bodyList.getLength();
-                if (bodyListLenght > 0) {
-                    for (int i = 0; i < bodyListLenght; i++) {
-                        Node item = bodyList.item(i);
-                        NamedNodeMap itemMap = item.getAttributes();
-
-                        if (itemMap == null) {
-                            System.out.println("List Node[" + i + "] item is null!!!");
-                            continue;
-                        }
-                        Map<String, Object> dataItem = getGridItemMap(itemMap, dict);
-                        OptiBean optiBean = OptiBean.newInstance(dataItem, measureCoeff, dict);
-                        String name = getName(dataItem, optiBean);
-                        mapList.put(name, dataItem);
-                    }
-                }
-            }
+    private static void readGridItems(String xmlString, StaxXmlReader.ElementHandler handler) throws SAXException {
+        try {
+            StaxXmlReader.readGridItems(xmlString, handler);
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
         }
-        return mapList;
     }
 
     /**
      *
-     * @param itemMap
+     * @param values
      * @return
      * @throws NumberFormatException
-     * @throws DOMException
      */
-    private static Map<String, Object> getGridItemMap(NamedNodeMap itemMap, String dict)
-            throws NumberFormatException, DOMException {
+    private static Map<String, Object> getGridItemMap(Map<String, String> values, String dict)
+            throws NumberFormatException {
 
         Map<String, Object> dataItem = Maps.newHashMap();
         OptiBean optiBean = OptiBean.newInstance(null, 1, dict);
-        for (int k = 0; k < itemMap.getLength(); k++) {
-            Node attr = itemMap.item(k);
-            String attrName = attr.getNodeName();
+        for (Map.Entry<String, String> attr : values.entrySet()) {
+            String attrName = attr.getKey();
 
             if (optiBean.FIXED().equalsIgnoreCase(attrName)
                     || optiBean.LOW_BOUND().equalsIgnoreCase(attrName)
@@ -837,11 +652,11 @@ public class ChocoOptiUtils {
                     || optiBean.RESOURCE_VALUE().equalsIgnoreCase(attrName)
                     || optiBean.PROCESS_STEP().equalsIgnoreCase(attrName)
                     || optiBean.UNIT_VALUE().equalsIgnoreCase(attrName)) {
-                String attrString = attr.getTextContent();
+                String attrString = attr.getValue();
                 int value = attrString.isEmpty() ? 0 : Integer.parseInt(attrString);
                 dataItem.put(attrName, value);
             } else {
-                String attrString = attr.getTextContent();
+                String attrString = attr.getValue();
                 dataItem.put(attrName, attrString);
             }
         }
@@ -853,7 +668,7 @@ public class ChocoOptiUtils {
      * @param string
      * @return
      */
-    public synchronized static String clean(String string) {
+    public static String clean(String string) {
         StringBuilder cleanStr = new StringBuilder();
 
         Character lookFor = '<';
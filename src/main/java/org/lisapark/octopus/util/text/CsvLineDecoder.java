@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.text;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.Booleans;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This {@link LineDecoder} decodes lines of delimiter separated values. The columns are the attributes of the event
+ * type in their order, or, after {@link #readHeader(byte[], int)}, the columns with the names of the attributes.
+ * <p/>
+ * A line is split in place: the fields are ranges of the line buffer, and a quoted field is unquoted by moving its
+ * bytes within the buffer. Whole numbers are parsed straight from the bytes, only string, decimal and boolean values
+ * create a String. An empty field is a missing value, except for string attributes. Quoted fields cannot contain
+ * line breaks.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class CsvLineDecoder implements LineDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte delimiter;
+    private final String[] attributeNames;
+    private final Class[] attributeTypes;
+    private final int[] columnIndexes;
+
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+
+    public CsvLineDecoder(EventType eventType, char delimiter) {
+        if (delimiter > 127) {
+            throw new IllegalArgumentException("The delimiter should be an ASCII character.");
+        }
+        this.delimiter = (byte) delimiter;
+
+        List<Attribute> attributes = eventType.getAttributes();
+        this.attributeNames = new String[attributes.size()];
+        this.attributeTypes = new Class[attributes.size()];
+        this.columnIndexes = new int[attributes.size()];
+        for (int i = 0; i < attributes.size(); ++i) {
+            attributeNames[i] = attributes.get(i).getName();
+            attributeTypes[i] = attributes.get(i).getType();
+            columnIndexes[i] = i;
+        }
+    }
+
+    /**
+     * Maps the attributes to the columns with their names in the header line, ignoring the case if there is no
+     * exact match. Attributes without a column are left out of the events.
+     *
+     * @param line   buffer with the header line
+     * @param length of the line
+     */
+    public void readHeader(byte[] line, int length) {
+        int numberOfFields = split(line, length);
+
+        String[] names = new String[numberOfFields];
+        for (int i = 0; i < numberOfFields; ++i) {
+            names[i] = new String(line, fieldStarts[i], fieldEnds[i] - fieldStarts[i], UTF_8).trim();
+        }
+
+        Arrays.fill(columnIndexes, -1);
+        for (int i = 0; i < attributeNames.length; ++i) {
+            for (int column = 0; column < names.length; ++column) {
+                if (names[column].equals(attributeNames[i])) {
+                    columnIndexes[i] = column;
+                    break;
+                }
+                if (columnIndexes[i] < 0 && names[column].equalsIgnoreCase(attributeNames[i])) {
+                    columnIndexes[i] = column;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Event decode(byte[] line, int length) throws IllegalArgumentException {
+        if (JsonLineDecoder.isBlank(line, length)) {
+            return null;
+        }
+
+        int numberOfFields = split(line, length);
+
+        Map<String, Object> attributeValues = Maps.newHashMapWithExpectedSize(attributeNames.length);
+        for (int i = 0; i < attributeNames.length; ++i) {
+            int column = columnIndexes[i];
+            if (column < 0 || column >= numberOfFields) {
+                continue;
+            }
+
+            Object value = valueOf(line, fieldStarts[column], fieldEnds[column], attributeTypes[i]);
+            if (value != null) {
+                attributeValues.put(attributeNames[i], value);
+            }
+        }
+
+        return new Event(attributeValues);
+    }
+
+    /**
+     * Splits the line into fields and returns their number; the ranges of the fields are in fieldStarts and
+     * fieldEnds.
+     */
+    int split(byte[] line, int length) {
+        int numberOfFields = 0;
+        int i = 0;
+
+        while (true) {
+            if (numberOfFields == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, 2 * numberOfFields);
+                fieldEnds = Arrays.copyOf(fieldEnds, 2 * numberOfFields);
+            }
+
+            int start;
+            int end;
+            if (i < length && line[i] == '"') {
+                // the unquoted field is written over the quoted one, it is never longer
+                int read = i + 1;
+                int write = i + 1;
+                while (read < length) {
+                    if (line[read] == '"') {
+                        if (read + 1 < length && line[read + 1] == '"') {
+                            line[write++] = '"';
+                            read += 2;
+                            continue;
+                        }
+                        read++;
+                        break;
+                    }
+                    line[write++] = line[read++];
+                }
+                start = i + 1;
+                end = write;
+
+                while (read < length && line[read] != delimiter) {
+                    read++;
+                }
+                i = read;
+            } else {
+                start = i;
+                while (i < length && line[i] != delimiter) {
+                    i++;
+                }
+                end = i;
+            }
+
+            fieldStarts[numberOfFields] = start;
+            fieldEnds[numberOfFields] = end;
+            numberOfFields++;
+
+            if (i >= length) {
+                return numberOfFields;
+            }
+            // skips the delimiter
+            i++;
+        }
+    }
+
+    static Object valueOf(byte[] line, int start, int end, Class type) {
+        if (type == String.class) {
+            return new String(line, start, end - start, UTF_8);
+        }
+
+        // trims the spaces around values that are not strings
+        while (start < end && line[start] == ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+
+        if (type == Integer.class) {
+            return (int) parseLong(line, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } else if (type == Short.class) {
+            return (short) parseLong(line, start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+        } else if (type == Long.class) {
+            return parseLong(line, start, end);
+        } else if (type == Double.class) {
+            return Double.parseDouble(new String(line, start, end - start, UTF_8));
+        } else if (type == Float.class) {
+            return Float.parseFloat(new String(line, start, end - start, UTF_8));
+        } else if (type == Boolean.class) {
+            return Booleans.parseBoolean(new String(line, start, end - start, UTF_8));
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
+        }
+    }
+
+    /**
+     * Parses a whole number from the bytes that has to be within the minimum and maximum, so it is not wrapped when
+     * it is narrowed.
+     */
+    static long parseLong(byte[] line, int start, int end, long minimum, long maximum) {
+        long value = parseLong(line, start, end);
+        if (value < minimum || value > maximum) {
+            throw new IllegalArgumentException(String.format("%s is out of the range %d to %d",
+                    new String(line, start, end - start, UTF_8), minimum, maximum));
+        }
+        return value;
+    }
+
+    /**
+     * Parses a whole number from the bytes, anything that is not a plain number is left to {@link Long#parseLong}
+     * so it fails the same way.
+     */
+    static long parseLong(byte[] line, int start, int end) {
+        boolean negative = line[start] == '-';
+        int i = (negative || line[start] == '+') ? start + 1 : start;
+
+        // more than 18 digits could overflow
+        if (i == end || end - i > 18) {
+            return Long.parseLong(new String(line, start, end - start, UTF_8));
+        }
+
+        long value = 0;
+        for (; i < end; ++i) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(new String(line, start, end - start, UTF_8));
+            }
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+}
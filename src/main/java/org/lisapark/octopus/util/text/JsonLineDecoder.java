@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.text;
+
+import com.google.gson.JsonParseException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.json.JsonEventReader;
+
+import java.nio.charset.Charset;
+
+/**
+ * This {@link LineDecoder} decodes lines of newline delimited JSON, one object per line, with a
+ * {@link JsonEventReader}.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class JsonLineDecoder implements LineDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final JsonEventReader reader;
+
+    public JsonLineDecoder(EventType eventType) {
+        this.reader = new JsonEventReader(eventType);
+    }
+
+    @Override
+    public Event decode(byte[] line, int length) throws IllegalArgumentException {
+        if (isBlank(line, length)) {
+            return null;
+        }
+
+        try {
+            return reader.readEvent(new String(line, 0, length, UTF_8));
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    static boolean isBlank(byte[] line, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (line[i] != ' ' && line[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
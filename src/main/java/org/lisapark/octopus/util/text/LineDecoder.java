@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.text;
+
+import org.lisapark.octopus.core.event.Event;
+
+/**
+ * Decodes a line of a text file, given as UTF-8 bytes, into an {@link Event}. Decoders keep buffers between lines
+ * and are not thread safe.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public interface LineDecoder {
+
+    /**
+     * Decodes the first length bytes of the line.
+     *
+     * @param line   buffer with the bytes of the line, without the line terminator
+     * @param length of the line
+     * @return the event, or null for an empty line
+     * @throws IllegalArgumentException if the line cannot be decoded
+     */
+    Event decode(byte[] line, int length) throws IllegalArgumentException;
+}
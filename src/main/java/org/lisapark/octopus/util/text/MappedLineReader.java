@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.text;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class reads the lines of a file through a memory mapped window that moves along the file, so a large file is
+ * read at the speed of the disk without copying it through streams. The bytes of a line, without the line
+ * terminator, are copied into a buffer that is reused for every line; no String is created.
+ * <p/>
+ * The size of the file is checked on every call, so lines appended to a growing file are read as well. A line is
+ * only complete once its newline was written, the last line of a file without a newline can be read with
+ * {@link #nextLine(boolean)}.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class MappedLineReader {
+
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    private byte[] line = new byte[1024];
+    private int length;
+
+    /**
+     * Creates a reader for the lines of the channel starting at the position.
+     *
+     * @param channel  of the file
+     * @param position of the first line
+     */
+    public MappedLineReader(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * Reads the next line into the line buffer.
+     *
+     * @param partialAtEnd true to return the rest of the file as a line when it does not end with a newline
+     * @return true if a line was read, false if there is no complete line after the position
+     * @throws IOException if the file cannot be read
+     */
+    public boolean nextLine(boolean partialAtEnd) throws IOException {
+        long size = channel.size();
+
+        while (position < size) {
+            if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+                map(size, WINDOW_SIZE);
+            }
+
+            int start = (int) (position - windowStart);
+            int limit = window.limit();
+            int end = start;
+            while (end < limit && window.get(end) != '\n') {
+                end++;
+            }
+
+            if (end < limit) {
+                copyLine(start, end);
+                position = windowStart + end + 1;
+                return true;
+            }
+
+            if (windowStart + limit < size) {
+                // the line goes beyond the window, map it from its start with a window large enough for it
+                map(size, Math.max(WINDOW_SIZE, 2L * (limit - start)));
+                continue;
+            }
+
+            if (partialAtEnd) {
+                copyLine(start, limit);
+                position = size;
+                return true;
+            }
+            return false;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the buffer with the bytes of the last line read, only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the position in the file after the last line read.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the reader to the position, e.g. to the start of a file that was truncated.
+     */
+    public void setPosition(long position) {
+        this.position = position;
+        this.window = null;
+    }
+
+    private void map(long size, long windowSize) throws IOException {
+        long mappedSize = Math.min(Math.min(windowSize, Integer.MAX_VALUE), size - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, mappedSize);
+        windowStart = position;
+    }
+
+    private void copyLine(int start, int end) {
+        if (end > start && window.get(end - 1) == '\r') {
+            end--;
+        }
+
+        length = end - start;
+        if (line.length < length) {
+            line = new byte[Math.max(length, 2 * line.length)];
+        }
+
+        // the lines are found with absolute gets, so the position of the window is only used for this bulk copy
+        window.position(start);
+        window.get(line, 0, length);
+    }
+}
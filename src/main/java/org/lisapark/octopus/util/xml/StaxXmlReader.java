@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.xml;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.Booleans;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Map;
+
+/**
+ * This class reads XML documents in one forward pass with a StAX parser and hands the elements it is asked for,
+ * with their attributes, to an {@link ElementHandler}. Nothing of the document is kept besides the element that is
+ * handled, so a large document does not need the heap a DOM of it would.
+ * <p/>
+ * The reader is thread safe without locks: every thread gets its own {@link XMLInputFactory} and every call its own
+ * parser, so several models can read documents at the same time. DTDs and external entities are not read.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public abstract class StaxXmlReader {
+
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            return factory;
+        }
+    };
+
+    private static final int GRID_DEPTH = 2;
+    private static final int BODY_DEPTH = 3;
+    private static final int ITEM_DEPTH = 4;
+
+    /**
+     * Gets the elements of a document while it is read.
+     */
+    public interface ElementHandler {
+
+        /**
+         * Called for every element that is read.
+         *
+         * @param name   local name of the element
+         * @param values attributes of the element by name; the map is reused for the next element
+         * @return true to continue reading, false to stop
+         */
+        boolean handleElement(String name, Map<String, String> values);
+    }
+
+    /**
+     * Reads the items of a grid document: the elements in the first child of every child of the root element, like
+     * the rows in the Body of every Grid of a TreeGrid document. Text before the first tag is skipped, like
+     * {@link XmlUtils#clean(String)} does.
+     *
+     * @param xml     grid document
+     * @param handler of the items
+     * @throws XMLStreamException if the document is not well formed
+     */
+    public static void readGridItems(String xml, ElementHandler handler) throws XMLStreamException {
+        int start = xml.indexOf('<');
+        String document = (start > 0) ? xml.substring(start) : xml;
+
+        readGridItems(FACTORY.get().createXMLStreamReader(new StringReader(document)), handler);
+    }
+
+    /**
+     * Reads the items of a grid document from the stream, see {@link #readGridItems(String, ElementHandler)}. The
+     * stream is not closed.
+     *
+     * @param in      grid document
+     * @param handler of the items
+     * @throws XMLStreamException if the document is not well formed
+     */
+    public static void readGridItems(InputStream in, ElementHandler handler) throws XMLStreamException {
+        readGridItems(FACTORY.get().createXMLStreamReader(in), handler);
+    }
+
+    /**
+     * Reads the elements at the depth, 1 for the root element. Besides its attributes, an element gets the text of
+     * every child element that has only text, e.g. a name for {@code <item><name>A</name></item>}. An attribute
+     * wins over a child element with the same name. The stream is not closed.
+     *
+     * @param in      XML document
+     * @param depth   of the elements
+     * @param handler of the elements
+     * @throws XMLStreamException if the document is not well formed
+     */
+    public static void readElements(InputStream in, int depth, ElementHandler handler) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.get().createXMLStreamReader(in);
+        try {
+            Map<String, String> values = Maps.newHashMap();
+            StringBuilder text = new StringBuilder();
+            String name = null;
+            String childName = null;
+            boolean textOnly = false;
+            int current = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    current++;
+                    if (current == depth) {
+                        name = reader.getLocalName();
+                        values.clear();
+                        putAttributes(reader, values);
+                    } else if (current == depth + 1) {
+                        childName = reader.getLocalName();
+                        text.setLength(0);
+                        textOnly = true;
+                    } else if (current > depth + 1) {
+                        textOnly = false;
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (current == depth + 1 && textOnly) {
+                        text.append(reader.getText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (current == depth + 1 && textOnly) {
+                        String value = text.toString().trim();
+                        if (value.length() > 0 && !values.containsKey(childName)) {
+                            values.put(childName, value);
+                        }
+                    } else if (current == depth && !handler.handleElement(name, values)) {
+                        return;
+                    }
+                    current--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the event with the values of the attributes of the event type, converted to their types. Values that
+     * are missing, blank or not numbers for a numeric attribute are left out.
+     *
+     * @param values    of an element
+     * @param eventType of the event
+     * @return new event
+     */
+    public static Event eventOf(Map<String, String> values, EventType eventType) {
+        Map<String, Object> attributeValues = Maps.newHashMap();
+
+        for (Attribute attribute : eventType.getAttributes()) {
+            String value = values.get(attribute.getName());
+            if (value == null) {
+                continue;
+            }
+
+            Object attributeValue = valueOf(value, attribute.getType());
+            if (attributeValue != null) {
+                attributeValues.put(attribute.getName(), attributeValue);
+            }
+        }
+
+        return new Event(attributeValues);
+    }
+
+    static Object valueOf(String value, Class type) {
+        if (type == String.class) {
+            return value;
+        }
+
+        String trimmed = value.trim();
+        if (trimmed.length() == 0) {
+            return null;
+        }
+        try {
+            if (type == Integer.class) {
+                return Integer.valueOf(trimmed);
+            } else if (type == Short.class) {
+                return Short.valueOf(trimmed);
+            } else if (type == Long.class) {
+                return Long.valueOf(trimmed);
+            } else if (type == Double.class) {
+                return Double.valueOf(trimmed);
+            } else if (type == Float.class) {
+                return Float.valueOf(trimmed);
+            } else if (type == Boolean.class) {
+                return Booleans.parseBoolean(trimmed);
+            } else {
+                throw new IllegalArgumentException(String.format("Unknown attribute type %s", type));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void readGridItems(XMLStreamReader reader, ElementHandler handler) throws XMLStreamException {
+        try {
+            Map<String, String> values = Maps.newHashMap();
+            boolean firstChild = false;
+            boolean inBody = false;
+            int depth = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == GRID_DEPTH) {
+                        firstChild = true;
+                    } else if (depth == BODY_DEPTH) {
+                        // only the first child of a grid holds the items
+                        inBody = firstChild;
+                        firstChild = false;
+                    } else if (depth == ITEM_DEPTH && inBody) {
+                        values.clear();
+                        putAttributes(reader, values);
+                        if (!handler.handleElement(reader.getLocalName(), values)) {
+                            return;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == BODY_DEPTH) {
+                        inBody = false;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void putAttributes(XMLStreamReader reader, Map<String, String> values) {
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            values.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+    }
+}
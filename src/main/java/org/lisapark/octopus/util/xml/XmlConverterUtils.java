@@ -184,7 +184,10 @@ public class XmlConverterUtils {
      * @throws JSONException
      * @throws FileNotFoundException
      * @throws IOException 
+     * @deprecated the rows of a sheet are turned into events directly by
+     * {@link org.lisapark.octopus.util.excel.ExcelEventConverter}
      */
+    @Deprecated
     public static String xmlStringFromProductionSS(HSSFWorkbook book, int index, int increament) 
             throws JSONException, FileNotFoundException, IOException {
         // Get Sheet by index.
@@ -200,6 +203,11 @@ public class XmlConverterUtils {
         }
     }
     
+    /**
+     * @deprecated the rows of a sheet are turned into events directly by
+     * {@link org.lisapark.octopus.util.excel.ExcelEventConverter}
+     */
+    @Deprecated
     public static String xmlStringFromWarehouseSS(HSSFWorkbook book, int index, int increament) 
             throws JSONException, FileNotFoundException, IOException {
         // Get Sheet by index.
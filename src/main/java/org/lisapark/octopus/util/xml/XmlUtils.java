@@ -29,28 +29,18 @@ import com.google.common.collect.Maps;
 import com.googlecode.sardine.Sardine;
 import com.googlecode.sardine.SardineFactory;
 import com.googlecode.sardine.impl.SardineException;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import org.apache.commons.io.IOUtils;
 import org.lisapark.octopus.util.Pair;
 import org.openide.util.Exceptions;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -203,17 +193,15 @@ public class XmlUtils {
      * @param itemMap
      * @return
      * @throws NumberFormatException
-     * @throws DOMException 
      */
-    private Map<String, Object> getGridItemMap(NamedNodeMap itemMap) 
-            throws NumberFormatException, DOMException {
+    private Map<String, Object> getGridItemMap(Map<String, String> itemMap) 
+            throws NumberFormatException {
         
         Map<String, Object> dataItem = Maps.newHashMap();
         Map<String, String> map = getAttrNames();
         
-        for (int k = 0; k < itemMap.getLength(); k++) {
-            Node attr = itemMap.item(k);
-            String attrName = attr.getNodeName();
+        for (Entry<String, String> attr : itemMap.entrySet()) {
+            String attrName = attr.getKey();
             
             if (map.get(KEY_FIXED).equalsIgnoreCase(attrName)
                     || map.get(KEY_LOW_BOUND).equalsIgnoreCase(attrName)
@@ -224,11 +212,11 @@ public class XmlUtils {
                     || map.get(KEY_RESOURCE_VALUE).equalsIgnoreCase(attrName)
                     || map.get(KEY_PROCESS_STEP).equalsIgnoreCase(attrName)
                     || map.get(KEY_UNIT_VALUE).equalsIgnoreCase(attrName)) {
-                String attrString = attr.getTextContent();
+                String attrString = attr.getValue();
                 int value = attrString.isEmpty() ? 0 : Integer.parseInt(attrString);
                 dataItem.put(attrName, value);
             } else {
-                String attrString = attr.getTextContent();
+                String attrString = attr.getValue();
                 dataItem.put(attrName, attrString);
             }
         }
@@ -236,7 +224,7 @@ public class XmlUtils {
         return dataItem;
     }
 
-    public synchronized static String clean(String string){
+    public static String clean(String string){
         StringBuilder cleanStr = new StringBuilder();
         
         Character lookFor = '<';
@@ -729,37 +717,36 @@ public class XmlUtils {
      * @param xmlString
      * @return 
      */
-    public synchronized List<Map<String, Object>> getXmlStringAsList(String xmlString) 
+    public List<Map<String, Object>> getXmlStringAsList(String xmlString) 
             throws ParserConfigurationException, SAXException, IOException {
 
-        String cleanString = clean(xmlString);
-        
-//        logger.log(Level.INFO, xmlString, xmlString);
+        final List<Map<String, Object>> mapList = Lists.newArrayList();
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-        
-        List<Map<String, Object>> mapList = listMapFromXmlObject(xmlDoc);
+        try {
+            StaxXmlReader.readGridItems(xmlString, listHandler(mapList));
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        }
 
         return mapList;
     }
     
-    public synchronized List<Map<String, Object>> getXmlFileAsList(String xmlFileUrl, String userName, String password) 
+    public List<Map<String, Object>> getXmlFileAsList(String xmlFileUrl, String userName, String password) 
             throws ParserConfigurationException, SAXException, IOException {
       
         Sardine sardine = SardineFactory.begin(userName, password);
 
         InputStream isData = sardine.get(xmlFileUrl);
- 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
         
-        Document xmlDoc = builder.parse(new File(xmlFileUrl)
-//                new InputSource(isData)
-                );
-        
-        List<Map<String, Object>> mapList = listMapFromXmlObject(xmlDoc);
+        final List<Map<String, Object>> mapList = Lists.newArrayList();
+
+        try {
+            StaxXmlReader.readGridItems(isData, listHandler(mapList));
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        } finally {
+            isData.close();
+        }
 
         return mapList;
     } 
@@ -770,21 +757,21 @@ public class XmlUtils {
      * @param keyAttrName
      * @return 
      */
-    public synchronized Map<String, Map<String, Object>> getXmlStringAsMap(String xmlString, String keyAttrName) 
+    public Map<String, Map<String, Object>> getXmlStringAsMap(String xmlString, String keyAttrName) 
             throws ParserConfigurationException, SAXException, IOException {
 
-        String cleanString = clean(xmlString);
-        
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document xmlDoc = builder.parse(new InputSource(new StringReader(cleanString)));
-        
-        Map<String, Map<String, Object>> mapList = mapMapFromXmlObject(xmlDoc, keyAttrName);
+        Map<String, Map<String, Object>> mapList = Maps.newHashMap();
+
+        try {
+            StaxXmlReader.readGridItems(xmlString, mapHandler(keyAttrName, mapList));
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        }
 
         return mapList;
     }
   
-    public synchronized Map<String, Map<String, Object>> getXmlFileAsMap(String xmlFileUrl, 
+    public Map<String, Map<String, Object>> getXmlFileAsMap(String xmlFileUrl, 
             String keyAttrName, String userName, String password) 
             throws ParserConfigurationException, SAXException, IOException {
       
@@ -792,33 +779,38 @@ public class XmlUtils {
 
         InputStream isData = sardine.get(xmlFileUrl);
  
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        
-        Document xmlDoc = builder.parse(new InputSource(isData));
-        
-        Map<String, Map<String, Object>> map = mapMapFromXmlObject(xmlDoc, keyAttrName);
+        Map<String, Map<String, Object>> map = Maps.newHashMap();
+
+        try {
+            StaxXmlReader.readGridItems(isData, mapHandler(keyAttrName, map));
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        } finally {
+            isData.close();
+        }
 
         return map;
     } 
     
-    private synchronized void processNode(NodeList nodList, String keyAttrName, Map<String, Map<String, Object>> mapList) 
-            throws DOMException, NumberFormatException {
-        Node body = nodList.item(0);
-        NodeList bodyList = body.getChildNodes();
-        int bodyListLenght = bodyList.getLength();
-        if (bodyListLenght > 0) {
-            for (int i = 0; i < bodyListLenght; i++) {
-                Node item = bodyList.item(i);
-                NamedNodeMap itemMap = item.getAttributes();
-                if (itemMap == null) {
-                    System.out.println(item.getNodeName() + " Map Node[" + i + "] item is null!!!");
-                    continue;
-                }
-                Map<String, Object> dataItem = getGridItemMap(itemMap);
-                mapList.put(itemMap.getNamedItem(keyAttrName).getTextContent(), dataItem);
+    private StaxXmlReader.ElementHandler listHandler(final List<Map<String, Object>> mapList) {
+        return new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                mapList.add(getGridItemMap(values));
+                return true;
             }
-        }
+        };
+    }
+
+    private StaxXmlReader.ElementHandler mapHandler(final String keyAttrName, 
+            final Map<String, Map<String, Object>> mapList) {
+        return new StaxXmlReader.ElementHandler() {
+            @Override
+            public boolean handleElement(String name, Map<String, String> values) {
+                mapList.put(values.get(keyAttrName), getGridItemMap(values));
+                return true;
+            }
+        };
     }
 
     public String formatOutput(List<Map<String, Object>> dataXmlList) {
@@ -878,51 +870,6 @@ public class XmlUtils {
         this.attrNames = attrNames;
     }
 
-    private List<Map<String, Object>> listMapFromXmlObject(Document xmlDoc) throws DOMException, NumberFormatException {
-        //            Document xmlDoc = XmlTreeGridUtils.parseXML(xmlString.trim());
-        Element rootElement = xmlDoc.getDocumentElement();
-        List<Map<String, Object>> mapList = Lists.newArrayList();
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                Node body = gridList.item(0);
-                NodeList bodyList = body.getChildNodes();
-                int bodyListLenght = bodyList.getLength();
-                if (bodyListLenght > 0) {
-                    for (int i = 0; i < bodyListLenght; i++) {
-                        Node item = bodyList.item(i);
-                        NamedNodeMap itemMap = item.getAttributes();
-
-                        if (itemMap == null) {
-                            System.out.println("List Node[" + i + "] item is null!!!");
-                            continue;
-                        }
-                        Map<String, Object> dataItem = getGridItemMap(itemMap);
-                        mapList.add(dataItem);
-                    }
-                }
-            }
-        }
-        return mapList;
-    }
-
-    private Map<String, Map<String, Object>> mapMapFromXmlObject(Document xmlDoc, String keyAttrName) 
-            throws DOMException, NumberFormatException {
-        Element rootElement = xmlDoc.getDocumentElement();
-        Map<String, Map<String, Object>> mapList = Maps.newHashMap();
-        NodeList itemList = rootElement.getChildNodes();
-        for (int j = 0; j < itemList.getLength(); j++) {
-            Node grid = itemList.item(j);
-            NodeList gridList = grid.getChildNodes();
-            if (gridList.getLength() > 0) {
-                processNode(gridList, keyAttrName, mapList);
-            }
-        }
-        return mapList;
-    }
-
     private int getUpperBound(Map<String, Map<String, Object>> planDataMap) {
         int upperBound = 0;
         
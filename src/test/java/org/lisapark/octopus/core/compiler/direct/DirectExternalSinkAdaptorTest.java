@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.compiler.direct;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.runtime.SinkContext;
+import org.lisapark.octopus.core.sink.external.CompiledExternalSink;
+import org.lisapark.octopus.core.sink.external.impl.ConsoleSink;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DirectExternalSinkAdaptorTest {
+    private List<Map<Integer, Event>> received;
+    private CompiledExternalSink sink;
+
+    @Before
+    public void setUp() {
+        received = Lists.newArrayList();
+        sink = new CompiledExternalSink(ConsoleSink.newTemplate()) {
+            @Override
+            public void processEvent(SinkContext ctx, Map<Integer, Event> eventsByInputId) {
+                received.add(Maps.newHashMap(eventsByInputId));
+            }
+        };
+    }
+
+    @Test
+    public void passesTheEventsOfAllInputs() {
+        DirectExternalSinkAdaptor adaptor = new DirectExternalSinkAdaptor(sink, null, new int[]{3, 5}, new int[]{1, 2});
+        Event first = new Event("a", 1);
+        Event second = new Event("b", 2);
+        Event third = new Event("a", 3);
+
+        adaptor.receive(3, first);
+        // the sink is not called until every input has seen an event
+        assertEquals(0, received.size());
+
+        adaptor.receive(5, second);
+        adaptor.receive(3, third);
+
+        assertEquals(2, received.size());
+        assertEquals(first, received.get(0).get(1));
+        assertEquals(second, received.get(0).get(2));
+
+        assertEquals(third, received.get(1).get(1));
+        assertEquals(second, received.get(1).get(2));
+    }
+
+    @Test
+    public void passesTheEventToEveryInputOnItsSource() {
+        DirectExternalSinkAdaptor adaptor = new DirectExternalSinkAdaptor(sink, null, new int[]{4, 4}, new int[]{1, 2});
+        Event event = new Event("a", 1);
+
+        adaptor.receive(4, event);
+
+        assertEquals(1, received.size());
+        assertEquals(event, received.get(0).get(1));
+        assertEquals(event, received.get(0).get(2));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.compiler.esper;
+
+import org.junit.Test;
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.processor.impl.Addition;
+import org.lisapark.octopus.core.processor.impl.Multiplication;
+import org.lisapark.octopus.core.processor.impl.Sma;
+import org.lisapark.octopus.core.processor.impl.WindowJoin;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+import org.lisapark.octopus.util.esper.EsperUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class EsperCompilerTest {
+
+    @Test
+    public void selectsEventOfSelfJoinForBothInputs() throws Exception {
+        TestSource orders = TestSource.newTemplate();
+        orders.getOutput().addAttribute(Attribute.stringAttribute("customer"));
+
+        WindowJoin join = WindowJoin.newTemplate();
+        join.getFirstInput().connectSource(orders);
+        join.getFirstInput().setSourceAttribute("customer");
+        join.getSecondInput().connectSource(orders);
+        join.getSecondInput().setSourceAttribute("customer");
+
+        List<String> statements = new EsperCompiler().getStatementsForInputDrivenProcessor(join.compile());
+
+        String eventName = EsperUtils.getEventNameForSource(orders);
+        assertEquals(1, statements.size());
+        assertEquals("SELECT _0.* as _0_properties, _0.* as _1_properties FROM " + eventName + " as _0", statements.get(0));
+    }
+
+    @Test
+    public void selectsEventOfEachSourceForItsInput() throws Exception {
+        TestSource production = TestSource.newTemplate();
+        production.getOutput().addAttribute(Attribute.stringAttribute("product"));
+        TestSource warehouse = TestSource.newTemplate();
+        warehouse.getOutput().addAttribute(Attribute.stringAttribute("item"));
+
+        WindowJoin join = WindowJoin.newTemplate();
+        join.getFirstInput().connectSource(production);
+        join.getFirstInput().setSourceAttribute("product");
+        join.getSecondInput().connectSource(warehouse);
+        join.getSecondInput().setSourceAttribute("item");
+
+        List<String> statements = new EsperCompiler().getStatementsForInputDrivenProcessor(join.compile());
+
+        assertEquals(2, statements.size());
+        assertEquals("SELECT _0.* as _0_properties FROM " + EsperUtils.getEventNameForSource(production) + " as _0",
+                statements.get(0));
+        assertEquals("SELECT _1.* as _1_properties FROM " + EsperUtils.getEventNameForSource(warehouse) + " as _1",
+                statements.get(1));
+    }
+
+    @Test
+    public void fusesStatelessProcessorBehindItsOnlyStatelessSource() throws Exception {
+        Addition addition = newAddition();
+        Multiplication multiplication = newMultiplicationOf(addition);
+
+        EsperProcessorAdaptor additionAdaptor = new EsperProcessorAdaptor(addition.compile(), null, null);
+        CompiledProcessor<?> compiledMultiplication = multiplication.compile();
+        Map<UUID, EsperProcessorAdaptor> adaptorsById = adaptorsById(additionAdaptor, compiledMultiplication);
+
+        Map<UUID, Integer> numberOfConsumersById = Maps.newHashMap();
+        numberOfConsumersById.put(addition.getId(), 1);
+
+        assertSame(additionAdaptor, new EsperCompiler().getFusablePredecessor(compiledMultiplication, adaptorsById,
+                numberOfConsumersById));
+    }
+
+    @Test
+    public void doesNotFuseBehindSourceWithSeveralConsumers() throws Exception {
+        Addition addition = newAddition();
+        Multiplication multiplication = newMultiplicationOf(addition);
+
+        EsperProcessorAdaptor additionAdaptor = new EsperProcessorAdaptor(addition.compile(), null, null);
+        CompiledProcessor<?> compiledMultiplication = multiplication.compile();
+        Map<UUID, EsperProcessorAdaptor> adaptorsById = adaptorsById(additionAdaptor, compiledMultiplication);
+
+        Map<UUID, Integer> numberOfConsumersById = Maps.newHashMap();
+        numberOfConsumersById.put(addition.getId(), 2);
+
+        assertNull(new EsperCompiler().getFusablePredecessor(compiledMultiplication, adaptorsById, numberOfConsumersById));
+    }
+
+    @Test
+    public void doesNotFuseProcessorWithState() throws Exception {
+        Addition addition = newAddition();
+        Sma sma = Sma.newTemplate();
+        sma.getInputs().get(0).connectSource(addition);
+        sma.getInputs().get(0).setSourceAttribute("sum");
+
+        EsperProcessorAdaptor additionAdaptor = new EsperProcessorAdaptor(addition.compile(), null, null);
+        CompiledProcessor<?> compiledSma = sma.compile();
+        Map<UUID, EsperProcessorAdaptor> adaptorsById = adaptorsById(additionAdaptor, compiledSma);
+
+        Map<UUID, Integer> numberOfConsumersById = Maps.newHashMap();
+        numberOfConsumersById.put(addition.getId(), 1);
+
+        assertNull(new EsperCompiler().getFusablePredecessor(compiledSma, adaptorsById, numberOfConsumersById));
+    }
+
+    private static Addition newAddition() throws Exception {
+        TestSource prices = TestSource.newTemplate();
+        prices.getOutput().addAttribute(Attribute.doubleAttribute("price"));
+        prices.getOutput().addAttribute(Attribute.doubleAttribute("tax"));
+
+        Addition addition = Addition.newTemplate();
+        addition.getInputs().get(0).connectSource(prices);
+        addition.getInputs().get(0).setSourceAttribute("price");
+        addition.getInputs().get(1).connectSource(prices);
+        addition.getInputs().get(1).setSourceAttribute("tax");
+        return addition;
+    }
+
+    private static Multiplication newMultiplicationOf(Addition addition) throws Exception {
+        Multiplication multiplication = Multiplication.newTemplate();
+        multiplication.getInputs().get(0).connectSource(addition);
+        multiplication.getInputs().get(0).setSourceAttribute("sum");
+        multiplication.getInputs().get(1).connectSource(addition);
+        multiplication.getInputs().get(1).setSourceAttribute("sum");
+        return multiplication;
+    }
+
+    private static Map<UUID, EsperProcessorAdaptor> adaptorsById(EsperProcessorAdaptor predecessor,
+                                                                CompiledProcessor<?> processor) {
+        Map<UUID, EsperProcessorAdaptor> adaptorsById = Maps.newLinkedHashMap();
+        adaptorsById.put(predecessor.getProcessor().getId(), predecessor);
+        adaptorsById.put(processor.getId(), new EsperProcessorAdaptor(processor, null, null));
+        return adaptorsById;
+    }
+}
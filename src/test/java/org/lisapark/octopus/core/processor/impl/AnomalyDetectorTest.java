@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.parameter.BooleanParameter;
+import org.lisapark.octopus.core.parameter.Parameter;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class AnomalyDetectorTest {
+    private AnomalyDetector detector;
+
+    @Before
+    public void setUp() throws Exception {
+        detector = AnomalyDetector.newTemplate();
+        detector.setWarmUp(20);
+        connect(detector.getInput(), source("value", Double.class, "sensor", String.class), "value");
+    }
+
+    @Test
+    public void flagsValuesFarFromTheMean() throws Exception {
+        CompiledProcessor<Void> compiled = detector.compile();
+
+        for (int i = 0; i < 20; ++i) {
+            Event output = process(compiled, (i % 2 == 0) ? 9.0 : 11.0, "a");
+            assertEquals(false, output.getData().get(detector.getOutputAttributeName()));
+        }
+        assertEquals(false, process(compiled, 10.0, "a").getData().get(detector.getOutputAttributeName()));
+
+        Event output = process(compiled, 100.0, "a");
+        assertEquals(true, output.getData().get(detector.getOutputAttributeName()));
+        assertTrue((Double) output.getData().get("score") > detector.getThreshold());
+    }
+
+    @Test
+    public void nothingIsFlaggedDuringTheWarmUp() throws Exception {
+        CompiledProcessor<Void> compiled = detector.compile();
+
+        process(compiled, 10.0, "a");
+        process(compiled, 11.0, "a");
+        Event output = process(compiled, 1000.0, "a");
+
+        assertEquals(false, output.getData().get(detector.getOutputAttributeName()));
+    }
+
+    @Test
+    public void everyKeyIsASeparateSeries() throws Exception {
+        detector.setKeyAttribute("sensor");
+        CompiledProcessor<Void> compiled = detector.compile();
+
+        for (int i = 0; i < 20; ++i) {
+            process(compiled, (i % 2 == 0) ? 9.0 : 11.0, "a");
+            process(compiled, (i % 2 == 0) ? 99.0 : 101.0, "b");
+        }
+
+        assertEquals(false, process(compiled, 100.0, "b").getData().get(detector.getOutputAttributeName()));
+        assertEquals(true, process(compiled, 100.0, "a").getData().get(detector.getOutputAttributeName()));
+    }
+
+    @Test
+    public void anomaliesOnlyIsABooleanParameter() throws Exception {
+        for (Parameter parameter : detector.getParameters()) {
+            if (parameter.getName().equals("Anomalies only")) {
+                assertTrue(parameter instanceof BooleanParameter);
+            }
+        }
+        assertEquals(Boolean.FALSE, detector.getAnomaliesOnly());
+
+        detector.setAnomaliesOnly(Boolean.TRUE);
+        CompiledProcessor<Void> compiled = detector.compile();
+
+        for (int i = 0; i < 20; ++i) {
+            assertNull(process(compiled, (i % 2 == 0) ? 9.0 : 11.0, "a"));
+        }
+        assertNull(process(compiled, 10.0, "a"));
+        assertEquals(true, process(compiled, 100.0, "a").getData().get(detector.getOutputAttributeName()));
+    }
+
+    private static Event process(CompiledProcessor<Void> compiled, double value, String sensor) {
+        return (Event) compiled.processEvent(null, on(1, event("value", value, "sensor", sensor)));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DatabaseLookupTest {
+    private static final String URL = "jdbc:h2:mem:lookup;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        connection = DriverManager.getConnection(URL);
+
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE products (id INT PRIMARY KEY, name VARCHAR(20), price DECIMAL(10, 2))");
+        statement.execute("INSERT INTO products VALUES (1, 'bolt', 0.25), (2, 'nut', 0.10)");
+        statement.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.createStatement().execute("DROP TABLE products");
+        connection.close();
+    }
+
+    @Test
+    public void addsColumnsOfRowWithKey() throws Exception {
+        CompiledProcessor<Void> lookup = newLookup().compile();
+
+        Event enriched = (Event) lookup.processEvent(null, on(1, event("product", 2, "quantity", 40)));
+
+        assertEquals("nut", enriched.getData().get("name"));
+        assertEquals(0.10, (Double) enriched.getData().get("price"), 0.0);
+        assertEquals(Boolean.TRUE, enriched.getData().get("found"));
+    }
+
+    @Test
+    public void returnsFalseForUnknownKey() throws Exception {
+        CompiledProcessor<Void> lookup = newLookup().compile();
+
+        assertEquals(Boolean.FALSE, lookup.processEvent(null, on(1, event("product", 3, "quantity", 40))));
+    }
+
+    @Test
+    public void matchesKeysOfDifferentNumberTypes() throws Exception {
+        CompiledProcessor<Void> lookup = newLookup().compile();
+
+        Event enriched = (Event) lookup.processEvent(null, on(1, event("product", 1L, "quantity", 40)));
+
+        assertEquals("bolt", enriched.getData().get("name"));
+    }
+
+    private DatabaseLookup newLookup() throws Exception {
+        DatabaseLookup lookup = DatabaseLookup.newTemplate();
+        lookup.setDriverClass("org.h2.Driver");
+        lookup.setUrl(URL);
+        lookup.setQuery("SELECT id, name, price FROM products");
+        lookup.setRefreshInterval(0);
+
+        connect(lookup.getInput(), source("product", Long.class, "quantity", Integer.class), "product");
+        return lookup;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Test;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DeduplicateTest {
+
+    @Test
+    public void dropsRepeatedKeys() throws Exception {
+        Deduplicate deduplicate = Deduplicate.newTemplate();
+        connect(deduplicate.getInput(), source("id", Integer.class), "id");
+        CompiledProcessor<Void> compiled = deduplicate.compile();
+
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("id", 1))));
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("id", 2))));
+        assertNull(compiled.processEvent(null, on(1, event("id", 1))));
+        // numbers of different types with the same value are the same key
+        assertNull(compiled.processEvent(null, on(1, event("id", 2L))));
+    }
+
+    @Test
+    public void bloomFilterRemembersKeysForAtLeastOneHorizon() {
+        Deduplicate.RotatingBloomFilter keys = new Deduplicate.RotatingBloomFilter(1000, 1000, 0.0001);
+
+        assertTrue(keys.add("a", 1));
+        assertFalse(keys.add("a", 500));
+        // rotated once, the key is in the previous filter
+        assertTrue(keys.add("b", 1001));
+        assertFalse(keys.add("a", 1500));
+    }
+
+    @Test
+    public void bloomFilterForgetsEverythingAfterAnIdleHorizon() {
+        Deduplicate.RotatingBloomFilter keys = new Deduplicate.RotatingBloomFilter(1000, 1000, 0.0001);
+
+        assertTrue(keys.add("a", 1));
+        assertTrue(keys.add("b", 900));
+
+        // more than a horizon after the rotation time, the keys of the current filter are too old as well
+        assertTrue(keys.add("b", 2500));
+        assertTrue(keys.add("a", 2600));
+        assertFalse(keys.add("a", 2700));
+    }
+
+    @Test
+    public void exactKeysAreForgottenAfterTheHorizon() {
+        Deduplicate.ExactKeySet keys = new Deduplicate.ExactKeySet(1000, 10);
+
+        assertTrue(keys.add("a", 0));
+        assertFalse(keys.add("a", 1000));
+        assertTrue(keys.add("a", 1001));
+    }
+}
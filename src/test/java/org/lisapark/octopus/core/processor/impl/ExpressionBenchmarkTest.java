@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * Computes (a + b) * c / d for the same events with the Addition, Multiplication and Division processors, the way
+ * the runtime chains them, and with one Expression, and logs the time of both. The times are not asserted, they
+ * depend on the machine; the test only checks that both give the same results.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ExpressionBenchmarkTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ExpressionBenchmarkTest.class);
+
+    private static final int NUMBER_OF_EVENTS = 200000;
+
+    @Test
+    public void computesWithProcessorsAndExpression() throws Exception {
+        TestSource values = source("a", Double.class, "b", Double.class, "c", Double.class, "d", Double.class,
+                "sum", Double.class, "Result", Double.class);
+
+        Addition addition = Addition.newTemplate();
+        connect(addition.getFirstInput(), values, "a");
+        connect(addition.getSecondInput(), values, "b");
+        Multiplication multiplication = Multiplication.newTemplate();
+        connect(multiplication.getFirstInput(), values, "sum");
+        connect(multiplication.getSecondInput(), values, "c");
+        Division division = Division.newTemplate();
+        connect(division.getFirstInput(), values, "Result");
+        connect(division.getSecondInput(), values, "d");
+
+        Expression expression = Expression.newTemplate();
+        expression.setExpression("(a + b) * c / d");
+        connect(expression.getInput(), values, "a");
+
+        CompiledProcessor<Void> compiledAddition = addition.compile();
+        CompiledProcessor<Void> compiledMultiplication = multiplication.compile();
+        CompiledProcessor<Void> compiledDivision = division.compile();
+        CompiledProcessor<Void> compiledExpression = expression.compile();
+
+        Event[] events = new Event[NUMBER_OF_EVENTS];
+        for (int i = 0; i < events.length; ++i) {
+            events[i] = event("a", (double) i, "b", 1.0, "c", 3.0, "d", 2.0);
+        }
+
+        // the first runs warm up
+        for (int run = 0; run < 5; ++run) {
+            double processorsTotal = 0;
+            long start = System.nanoTime();
+            for (Event event : events) {
+                Event sum = output("sum", compiledAddition.processEvent(null, both(event)), event);
+                Event product = output("Result", compiledMultiplication.processEvent(null, both(sum)), sum);
+                processorsTotal += (Double) compiledDivision.processEvent(null, both(product));
+            }
+            long processorsNanos = System.nanoTime() - start;
+
+            double expressionTotal = 0;
+            start = System.nanoTime();
+            for (Event event : events) {
+                expressionTotal += (Double) compiledExpression.processEvent(null, on(1, event));
+            }
+            long expressionNanos = System.nanoTime() - start;
+
+            assertEquals(processorsTotal, expressionTotal, 1e-6 * Math.abs(processorsTotal));
+            LOG.info("Run {}: processors {} ms, expression {} ms for {} events", new Object[]{run,
+                    processorsNanos / 1000000, expressionNanos / 1000000, events.length});
+        }
+    }
+
+    /**
+     * Returns the event on both inputs of a processor, like the runtime does for inputs of the same source.
+     */
+    private static Map<Integer, Event> both(Event event) {
+        Map<Integer, Event> eventsByInputId = on(1, event);
+        eventsByInputId.put(2, event);
+        return eventsByInputId;
+    }
+
+    /**
+     * Returns the output event of a processor the way the runtime builds it, the output attribute with the
+     * attributes of the input event.
+     */
+    private static Event output(String attributeName, Object value, Event input) {
+        return new Event(attributeName, value).unionWith(input);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Test;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ExpressionTest {
+
+    @Test
+    public void evaluatesExpressionOverInputAttributes() throws Exception {
+        CompiledProcessor<Void> compiled = expression("(price + tax) * quantity / lots").compile();
+
+        assertEquals(25.0, (Double) compiled.processEvent(null,
+                on(1, event("price", 10.0, "tax", 2.5, "quantity", 4, "lots", 2))), 1e-9);
+        // the arrays of the variables are reused, nothing of the previous event is left in them
+        assertEquals(3.0, (Double) compiled.processEvent(null,
+                on(1, event("price", 1.0, "tax", 0.5, "quantity", 2, "lots", 1))), 1e-9);
+    }
+
+    @Test
+    public void countsMissingAttributesAsZeroOrFalse() throws Exception {
+        CompiledProcessor<Void> compiled = expression("flag ? price : quantity + 1").compile();
+
+        assertEquals(1.0, (Double) compiled.processEvent(null, on(1, event("price", 10.0))), 0);
+        assertEquals(10.0, (Double) compiled.processEvent(null, on(1, event("price", 10.0, "flag", true))), 0);
+    }
+
+    @Test
+    public void givesOneOrZeroForBooleanExpressions() throws Exception {
+        CompiledProcessor<Void> compiled = expression("flag && price > 5").compile();
+
+        assertEquals(1.0, (Double) compiled.processEvent(null, on(1, event("price", 10.0, "flag", true))), 0);
+        assertEquals(0.0, (Double) compiled.processEvent(null, on(1, event("price", 1.0, "flag", true))), 0);
+    }
+
+    @Test
+    public void isStateless() throws Exception {
+        assertTrue(expression("price").compile().isStateless());
+    }
+
+    @Test
+    public void evaluatesFromSeveralThreadsAtOnce() throws Exception {
+        final CompiledProcessor<Void> compiled = expression("price * quantity - price * quantity + price").compile();
+        final AtomicInteger numberOfWrongResults = new AtomicInteger();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final double price = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; ++i) {
+                        Object result = compiled.processEvent(null, on(1, event("price", price, "quantity", i)));
+                        if ((Double) result != price) {
+                            numberOfWrongResults.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, numberOfWrongResults.get());
+    }
+
+    @Test
+    public void rejectsExpressionOverUnknownAttribute() throws Exception {
+        try {
+            expression("price + volume").validate();
+            fail("Expected the unknown attribute to be rejected");
+        } catch (ValidationException e) {
+            assertTrue(e.getMessage().contains("volume"));
+        }
+    }
+
+    private static Expression expression(String value) throws ValidationException {
+        TestSource quotes = source("price", Double.class, "tax", Double.class, "quantity", Integer.class,
+                "lots", Integer.class, "flag", Boolean.class);
+
+        Expression expression = Expression.newTemplate();
+        expression.setExpression(value);
+        // the input only selects the source, any of its attributes will do
+        connect(expression.getInput(), quotes, "price");
+        return expression;
+    }
+}
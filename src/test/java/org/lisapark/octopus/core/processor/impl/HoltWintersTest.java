@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class HoltWintersTest {
+    private static final double[] SEASON = {10, 20, 30, 20};
+
+    @Test
+    public void tripleModelForecastsASeasonalSeries() throws Exception {
+        HoltWinters holtWinters = newHoltWinters("triple");
+        CompiledProcessor<Void> compiled = holtWinters.compile();
+
+        Object output = null;
+        for (int i = 0; i < 3 * SEASON.length; ++i) {
+            output = compiled.processEvent(null, on(1, event("value", SEASON[i % SEASON.length])));
+            if (i < 2 * SEASON.length - 1) {
+                assertNull(output);
+            }
+        }
+
+        // the next observation starts a new season
+        Event forecast = (Event) output;
+        assertEquals(SEASON[0], (Double) forecast.getData().get(holtWinters.getOutputAttributeName()), 1e-9);
+        assertEquals(0.0, (Double) forecast.getData().get("trend"), 1e-9);
+    }
+
+    @Test
+    public void doubleModelFollowsTheTrend() throws Exception {
+        HoltWinters holtWinters = newHoltWinters("double");
+        CompiledProcessor<Void> compiled = holtWinters.compile();
+
+        Object output = null;
+        for (int i = 0; i < 10; ++i) {
+            output = compiled.processEvent(null, on(1, event("value", 2.0 * i)));
+        }
+
+        assertEquals(20.0, (Double) ((Event) output).getData().get(holtWinters.getOutputAttributeName()), 1e-9);
+    }
+
+    @Test
+    public void tripleModelIsNotFittedOnTwoSeasonsOrLess() {
+        HoltWinters.Factors current = new HoltWinters.Factors(0.5, 0.1, 0.1);
+        HoltWinters.Smoothing smoothing = new HoltWinters.Smoothing(HoltWinters.Method.TRIPLE, SEASON.length, current);
+
+        assertFalse(smoothing.canFit(2 * SEASON.length));
+        assertTrue(smoothing.canFit(2 * SEASON.length + 1));
+        assertSame(current, smoothing.fit(new double[2 * SEASON.length], current));
+    }
+
+    @Test
+    public void fitFindsTheFactorsOfTheSeries() {
+        HoltWinters.Factors current = new HoltWinters.Factors(0.05, 0.1, 0.1);
+        HoltWinters.Smoothing smoothing = new HoltWinters.Smoothing(HoltWinters.Method.SINGLE, 1, current);
+
+        // a rising series is best forecast by the last observation
+        double[] observations = {1, 2, 4, 5, 7, 8, 10, 11, 13, 14, 16, 17};
+        HoltWinters.Factors fitted = smoothing.fit(observations, current);
+
+        assertEquals(0.95, fitted.getAlpha(), 1e-9);
+        assertEquals(current.getBeta(), fitted.getBeta(), 0);
+        assertEquals(current.getGamma(), fitted.getGamma(), 0);
+    }
+
+    @Test
+    public void refitThreadIsStoppedAtTheEnd() throws Exception {
+        HoltWinters holtWinters = newHoltWinters("single");
+        holtWinters.setRefitInterval(10);
+        holtWinters.setRefitHistory(10);
+        CompiledProcessor<Void> compiled = holtWinters.compile();
+
+        for (int i = 0; i < 20; ++i) {
+            compiled.processEvent(null, on(1, event("value", (double) (i % 3))));
+        }
+        assertTrue(isRefitThreadAlive());
+
+        assertNull(compiled.processEnd(null));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (isRefitThreadAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(isRefitThreadAlive());
+    }
+
+    private static boolean isRefitThreadAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("HoltWinters refit") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HoltWinters newHoltWinters(String method) throws Exception {
+        HoltWinters holtWinters = HoltWinters.newTemplate();
+        holtWinters.setMethod(method);
+        holtWinters.setSeasonLength(SEASON.length);
+        connect(holtWinters.getInput(), source("value", Double.class), "value");
+
+        return holtWinters;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class MultiSmaTest {
+    private MultiSma multiSma;
+
+    @Before
+    public void setUp() throws Exception {
+        multiSma = MultiSma.newTemplate();
+        multiSma.setWindowLengths("2,4");
+        connect(multiSma.getInput(), source("price", Double.class), "price");
+    }
+
+    @Test
+    public void averagesEveryWindowLength() throws Exception {
+        CompiledProcessor<Void> compiled = multiSma.compile();
+
+        Map<String, Object> data = null;
+        for (double price = 1; price <= 10; ++price) {
+            data = ((Event) compiled.processEvent(null, on(1, event("price", price)))).getData();
+        }
+
+        assertEquals(9.5, (Double) data.get("average_2"), 1e-9);
+        assertEquals(8.5, (Double) data.get("average_4"), 1e-9);
+        assertEquals(9.5, (Double) data.get(multiSma.getOutputAttributeName()), 1e-9);
+    }
+
+    @Test
+    public void averagesTheEventsSoFarUntilTheWindowIsFull() throws Exception {
+        CompiledProcessor<Void> compiled = multiSma.compile();
+
+        compiled.processEvent(null, on(1, event("price", 2.0)));
+        Map<String, Object> data = ((Event) compiled.processEvent(null, on(1, event("price", 4.0)))).getData();
+
+        assertEquals(3.0, (Double) data.get("average_4"), 1e-9);
+    }
+
+    @Test
+    public void outputHasAnAverageForEveryWindowLength() throws Exception {
+        multiSma.validate();
+        assertNotNull(multiSma.getOutput().getAttributeByName("average_2"));
+        assertNotNull(multiSma.getOutput().getAttributeByName("average_4"));
+
+        multiSma.setWindowLengths("4");
+        multiSma.validate();
+        assertNull(multiSma.getOutput().getAttributeByName("average_2"));
+        assertNotNull(multiSma.getOutput().getAttributeByName("average_4"));
+    }
+
+    @Test
+    public void keepsAttributesThatAreNotAverages() throws Exception {
+        multiSma.getOutput().addAttribute(Attribute.doubleAttribute("average_price"));
+
+        multiSma.validate();
+
+        assertNotNull(multiSma.getOutput().getAttributeByName("average_price"));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void windowLengthsAreNumbers() throws Exception {
+        multiSma.setWindowLengths("2,four");
+        multiSma.validate();
+    }
+}
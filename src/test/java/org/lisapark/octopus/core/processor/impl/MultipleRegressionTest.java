@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class MultipleRegressionTest {
+    private MultipleRegression regression;
+
+    @Before
+    public void setUp() throws Exception {
+        regression = MultipleRegression.newTemplate();
+        regression.setRegressors("x1, x2");
+        regression.setWindowLength(10);
+        connect(regression.getInput(), source("y", Double.class, "x1", Double.class, "x2", Double.class), "y");
+    }
+
+    @Test
+    public void fitsTheCoefficientsOfTheWindow() throws Exception {
+        CompiledProcessor<Void> compiled = regression.compile();
+
+        Event output = null;
+        for (int i = 0; i < 10; ++i) {
+            output = process(compiled, 1, 2, 3, i);
+        }
+
+        Map<String, Object> data = output.getData();
+        assertEquals(1.0, (Double) data.get("intercept"), 1e-6);
+        assertEquals(2.0, (Double) data.get("b_x1"), 1e-6);
+        assertEquals(3.0, (Double) data.get("b_x2"), 1e-6);
+        assertEquals(1 + 2 * 9.0 + 3 * x2(9), (Double) data.get(regression.getOutputAttributeName()), 1e-6);
+    }
+
+    @Test
+    public void forgetsTheEventsThatLeaveTheWindow() throws Exception {
+        CompiledProcessor<Void> compiled = regression.compile();
+
+        for (int i = 0; i < 10; ++i) {
+            process(compiled, 1, 2, 3, i);
+        }
+        // more than a window of events with other coefficients, past the recomputation of the statistics
+        Event output = null;
+        for (int i = 10; i < 25; ++i) {
+            output = process(compiled, -4, 0.5, 1, i);
+        }
+
+        Map<String, Object> data = output.getData();
+        assertEquals(-4.0, (Double) data.get("intercept"), 1e-6);
+        assertEquals(0.5, (Double) data.get("b_x1"), 1e-6);
+        assertEquals(1.0, (Double) data.get("b_x2"), 1e-6);
+    }
+
+    @Test
+    public void producesNothingUntilTheModelCanBeFitted() throws Exception {
+        CompiledProcessor<Void> compiled = regression.compile();
+
+        assertNull(process(compiled, 1, 2, 3, 0));
+        assertNull(process(compiled, 1, 2, 3, 1));
+        assertNull(process(compiled, 1, 2, 3, 2));
+        assertNotNull(process(compiled, 1, 2, 3, 3));
+    }
+
+    @Test
+    public void outputHasACoefficientForEveryRegressor() throws Exception {
+        regression.validate();
+        assertNotNull(regression.getOutput().getAttributeByName("b_x1"));
+        assertNotNull(regression.getOutput().getAttributeByName("b_x2"));
+
+        regression.setRegressors("x2");
+        regression.validate();
+        assertNull(regression.getOutput().getAttributeByName("b_x1"));
+        assertNotNull(regression.getOutput().getAttributeByName("b_x2"));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void regressorsAreAttributesOfTheSource() throws Exception {
+        regression.setRegressors("x1, x3");
+        regression.validate();
+    }
+
+    private static Event process(CompiledProcessor<Void> compiled, double a, double b1, double b2, int i) {
+        double x1 = i;
+        double x2 = x2(i);
+
+        return (Event) compiled.processEvent(null, on(1, event("y", a + b1 * x1 + b2 * x2, "x1", x1, "x2", x2)));
+    }
+
+    private static double x2(int i) {
+        // not collinear with x1
+        return (i * i) % 7;
+    }
+}
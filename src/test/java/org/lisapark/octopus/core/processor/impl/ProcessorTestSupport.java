@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.Maps;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.ProcessorInput;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+
+import java.util.Map;
+
+/**
+ * Helpers to connect processors to a source and to build the events they are called with.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+abstract class ProcessorTestSupport {
+
+    /**
+     * Returns a source with the attributes, given as name and type pairs.
+     */
+    static TestSource source(Object... namesAndTypes) throws ValidationException {
+        TestSource source = TestSource.newTemplate();
+        for (int i = 0; i < namesAndTypes.length; i += 2) {
+            source.getOutput().addAttribute(Attribute.newAttribute((Class) namesAndTypes[i + 1], (String) namesAndTypes[i]));
+        }
+        return source;
+    }
+
+    static void connect(ProcessorInput input, TestSource source, String attributeName) throws ValidationException {
+        input.connectSource(source);
+        input.setSourceAttribute(attributeName);
+    }
+
+    /**
+     * Returns an event with the attributes, given as name and value pairs.
+     */
+    static Event event(Object... namesAndValues) {
+        Map<String, Object> data = Maps.newHashMap();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            data.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return new Event(data);
+    }
+
+    static Map<Integer, Event> on(int inputId, Event event) {
+        Map<Integer, Event> eventsByInputId = Maps.newHashMap();
+        eventsByInputId.put(inputId, event);
+        return eventsByInputId;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ResampleTest {
+    private Resample resample;
+
+    @Before
+    public void setUp() throws Exception {
+        resample = Resample.newTemplate();
+        resample.setInterval(10);
+        resample.setTimeAttribute("time");
+        connect(resample.getInput(), source("price", Double.class, "time", Long.class), "price");
+    }
+
+    @Test
+    public void producesOneEventPerBucket() throws Exception {
+        CompiledProcessor<Void> compiled = resample.compile();
+
+        assertNull(compiled.processEvent(null, on(1, event("price", 5.0, "time", 1000L))));
+        assertNull(compiled.processEvent(null, on(1, event("price", 7.0, "time", 2000L))));
+        assertNull(compiled.processEvent(null, on(1, event("price", 3.0, "time", 3000L))));
+        assertNull(compiled.processEvent(null, on(1, event("price", 4.0, "time", 9999L))));
+
+        List<Event> buckets = buckets(compiled.processEvent(null, on(1, event("price", 6.0, "time", 10000L))));
+        assertEquals(1, buckets.size());
+
+        Map<String, Object> bucket = buckets.get(0).getData();
+        assertEquals(0L, bucket.get("bucketStart"));
+        assertEquals(5.0, bucket.get("open"));
+        assertEquals(7.0, bucket.get("high"));
+        assertEquals(3.0, bucket.get("low"));
+        assertEquals(4.0, bucket.get(resample.getOutputAttributeName()));
+        assertEquals(4, bucket.get("count"));
+        assertEquals(19.0, bucket.get("sum"));
+    }
+
+    @Test
+    public void bucketEventsHaveOnlyTheBucketAttributes() throws Exception {
+        CompiledProcessor<Void> compiled = resample.compile();
+        compiled.processEvent(null, on(1, event("price", 5.0, "time", 1000L)));
+
+        List<Event> buckets = buckets(compiled.processEvent(null, on(1, event("price", 6.0, "time", 12000L))));
+
+        assertEquals(true, compiled.isOutputEventComplete());
+        assertEquals(ImmutableSet.of("open", "high", "low", resample.getOutputAttributeName(), "count", "sum",
+                "bucketStart"), buckets.get(0).getData().keySet());
+    }
+
+    @Test
+    public void putsTimesBefore1970IntoTheBucketBeforeThem() throws Exception {
+        CompiledProcessor<Void> compiled = resample.compile();
+
+        compiled.processEvent(null, on(1, event("price", 5.0, "time", -1000L)));
+        List<Event> buckets = buckets(compiled.processEvent(null, on(1, event("price", 6.0, "time", 1000L))));
+
+        assertEquals(1, buckets.size());
+        assertEquals(-10000L, buckets.get(0).getData().get("bucketStart"));
+    }
+
+    @Test
+    public void fillsGapsWithTheLastClose() throws Exception {
+        resample.setGapFill(1);
+        CompiledProcessor<Void> compiled = resample.compile();
+
+        compiled.processEvent(null, on(1, event("price", 5.0, "time", 1000L)));
+        List<Event> buckets = buckets(compiled.processEvent(null, on(1, event("price", 6.0, "time", 35000L))));
+
+        // only one of the two empty buckets is filled
+        assertEquals(2, buckets.size());
+        assertEquals(10000L, buckets.get(1).getData().get("bucketStart"));
+        assertEquals(5.0, buckets.get(1).getData().get("open"));
+        assertEquals(0, buckets.get(1).getData().get("count"));
+    }
+
+    @Test
+    public void ignoresLateEvents() throws Exception {
+        CompiledProcessor<Void> compiled = resample.compile();
+
+        compiled.processEvent(null, on(1, event("price", 5.0, "time", 15000L)));
+        assertNull(compiled.processEvent(null, on(1, event("price", 9.0, "time", 1000L))));
+
+        Event bucket = (Event) compiled.processEnd(null);
+        assertEquals(1, bucket.getData().get("count"));
+    }
+
+    @Test
+    public void ignoresEventsWithoutTime() throws Exception {
+        CompiledProcessor<Void> compiled = resample.compile();
+
+        compiled.processEvent(null, on(1, event("price", 5.0, "time", 1000L)));
+        assertNull(compiled.processEvent(null, on(1, event("price", 9.0))));
+
+        Event bucket = (Event) compiled.processEnd(null);
+        assertEquals(5.0, bucket.getData().get("high"));
+        assertEquals(1, bucket.getData().get("count"));
+    }
+
+    @Test
+    public void closesTheLastBucketAtTheEnd() throws Exception {
+        CompiledProcessor<Void> compiled = resample.compile();
+        assertNull(compiled.processEnd(null));
+
+        compiled.processEvent(null, on(1, event("price", 5.0, "time", 1000L)));
+        compiled.processEvent(null, on(1, event("price", 8.0, "time", 2000L)));
+
+        Event bucket = (Event) compiled.processEnd(null);
+        assertEquals(0L, bucket.getData().get("bucketStart"));
+        assertEquals(8.0, bucket.getData().get("high"));
+        assertEquals(2, bucket.getData().get("count"));
+
+        assertNull(compiled.processEnd(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Event> buckets(Object output) {
+        return (List<Event>) output;
+    }
+}
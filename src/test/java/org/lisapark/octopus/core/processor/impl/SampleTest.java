@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class SampleTest {
+    private Sample sample;
+
+    @Before
+    public void setUp() throws Exception {
+        sample = Sample.newTemplate();
+        sample.setSize(2);
+        sample.setWindow(10);
+        sample.setTimeAttribute("time");
+        connect(sample.getInput(), source("symbol", String.class, "time", Long.class), "symbol");
+    }
+
+    @Test
+    public void samplesEveryNthEvent() throws Exception {
+        sample.setMode("every");
+        CompiledProcessor<Void> compiled = sample.compile();
+
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("symbol", "A", "time", 0L))));
+        assertNull(compiled.processEvent(null, on(1, event("symbol", "A", "time", 1L))));
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("symbol", "A", "time", 2L))));
+    }
+
+    @Test
+    public void rateWindowsFollowTheEventTime() throws Exception {
+        sample.setMode("rate");
+        CompiledProcessor<Void> compiled = sample.compile();
+
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("symbol", "A", "time", 1000L))));
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("symbol", "A", "time", 2000L))));
+        assertNull(compiled.processEvent(null, on(1, event("symbol", "A", "time", 9999L))));
+
+        assertEquals(Boolean.TRUE, compiled.processEvent(null, on(1, event("symbol", "A", "time", 10000L))));
+    }
+
+    @Test
+    public void reservoirIsProducedWhenTheWindowIsOver() throws Exception {
+        sample.setMode("reservoir");
+        CompiledProcessor<Void> compiled = sample.compile();
+
+        for (long time = 0; time < 10000; time += 1000) {
+            assertNull(compiled.processEvent(null, on(1, event("symbol", "A", "time", time))));
+        }
+
+        List<Event> sampled = events(compiled.processEvent(null, on(1, event("symbol", "B", "time", 10000L))));
+        assertEquals(2, sampled.size());
+        for (Event event : sampled) {
+            assertEquals("A", event.getData().get("symbol"));
+            assertTrue((Long) event.getData().get("time") < 10000L);
+            assertEquals(Boolean.TRUE, event.getData().get(sample.getOutputAttributeName()));
+        }
+        assertEquals(true, compiled.isOutputEventComplete());
+    }
+
+    @Test
+    public void lastWindowIsProducedAtTheEnd() throws Exception {
+        sample.setMode("stratified");
+        CompiledProcessor<Void> compiled = sample.compile();
+
+        compiled.processEvent(null, on(1, event("symbol", "A", "time", 1000L)));
+        compiled.processEvent(null, on(1, event("symbol", "B", "time", 2000L)));
+        compiled.processEvent(null, on(1, event("symbol", "B", "time", 3000L)));
+        compiled.processEvent(null, on(1, event("symbol", "B", "time", 4000L)));
+
+        List<Event> sampled = events(compiled.processEvent(null, on(1, event("symbol", "C", "time", 5000L))));
+        assertNull(sampled);
+
+        sampled = events(compiled.processEnd(null));
+        assertEquals(4, sampled.size());
+        assertNull(compiled.processEnd(null));
+    }
+
+    @Test
+    public void negativeTimesFallInTheWindowBeforeZero() throws Exception {
+        sample.setMode("reservoir");
+        CompiledProcessor<Void> compiled = sample.compile();
+
+        assertNull(compiled.processEvent(null, on(1, event("symbol", "A", "time", -1L))));
+        List<Event> sampled = events(compiled.processEvent(null, on(1, event("symbol", "B", "time", 0L))));
+
+        assertEquals(1, sampled.size());
+        assertEquals("A", sampled.get(0).getData().get("symbol"));
+    }
+
+    @Test
+    public void leavesOutEventsWithoutTime() throws Exception {
+        sample.setMode("reservoir");
+        CompiledProcessor<Void> compiled = sample.compile();
+
+        assertNull(compiled.processEvent(null, on(1, event("symbol", "A", "time", 1000L))));
+        assertNull(compiled.processEvent(null, on(1, event("symbol", "B"))));
+
+        List<Event> sampled = events(compiled.processEnd(null));
+        assertEquals(1, sampled.size());
+        assertEquals("A", sampled.get(0).getData().get("symbol"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Event> events(Object output) {
+        return (List<Event>) output;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Test;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class SequencePatternTest {
+
+    @Test
+    public void matchesSequenceOfTheSameKey() throws Exception {
+        CompiledProcessor<Void> compiled = pattern("(state == 1) -> (temperature > 90) within 300").compile();
+
+        assertNull(compiled.processEvent(null, on(1, event("machine", "A", "state", 1, "temperature", 20.0))));
+        assertNull(compiled.processEvent(null, on(1, event("machine", "B", "state", 0, "temperature", 95.0))));
+
+        List<Event> matches = matches(compiled.processEvent(null,
+                on(1, event("machine", "A", "state", 0, "temperature", 95.0))));
+        assertEquals(1, matches.size());
+        assertEquals("A", matches.get(0).getData().get("machine"));
+        assertEquals(Boolean.TRUE, matches.get(0).getData().get("matched"));
+    }
+
+    @Test
+    public void completesAbsenceOnTickWithoutEvents() throws Exception {
+        CompiledProcessor<Void> compiled = pattern("(state == 1) -> !(state == 0) for 1").compile();
+        assertEquals(1000L, compiled.getTickIntervalMillis());
+
+        compiled.processEvent(null, on(1, event("machine", "A", "state", 1, "temperature", 20.0)));
+        long now = System.currentTimeMillis();
+
+        assertNull(compiled.processTick(null, now));
+
+        List<Event> matches = matches(compiled.processTick(null, now + 1500));
+        assertEquals(1, matches.size());
+        assertEquals("A", matches.get(0).getData().get("machine"));
+
+        // the partial match is gone once it completed
+        assertNull(compiled.processTick(null, now + 3000));
+    }
+
+    @Test
+    public void matchingEventCancelsAbsence() throws Exception {
+        CompiledProcessor<Void> compiled = pattern("(state == 1) -> !(state == 0) for 1").compile();
+
+        compiled.processEvent(null, on(1, event("machine", "A", "state", 1, "temperature", 20.0)));
+        compiled.processEvent(null, on(1, event("machine", "A", "state", 0, "temperature", 20.0)));
+
+        assertNull(compiled.processTick(null, System.currentTimeMillis() + 1500));
+    }
+
+    @Test
+    public void isNotTickedWithoutAbsences() throws Exception {
+        assertEquals(0L, pattern("(state == 1) -> (state == 0)").compile().getTickIntervalMillis());
+    }
+
+    @Test
+    public void stepWindowsFollowTheEventTime() throws Exception {
+        SequencePattern pattern = pattern("(state == 1) -> (temperature > 90) within 300");
+        pattern.setTimeAttribute("time");
+        CompiledProcessor<Void> compiled = pattern.compile();
+
+        compiled.processEvent(null, on(1, event("machine", "A", "state", 1, "temperature", 20.0, "time", 0L)));
+        assertNull(compiled.processEvent(null, on(1, event("machine", "A", "state", 0, "temperature", 95.0, "time", 301000L))));
+
+        compiled.processEvent(null, on(1, event("machine", "A", "state", 1, "temperature", 20.0, "time", 400000L)));
+        // events without a time are left out
+        assertNull(compiled.processEvent(null, on(1, event("machine", "A", "state", 0, "temperature", 95.0))));
+
+        List<Event> matches = matches(compiled.processEvent(null,
+                on(1, event("machine", "A", "state", 0, "temperature", 95.0, "time", 700000L))));
+        assertEquals(1, matches.size());
+    }
+
+    @Test
+    public void absencesCompleteWithTheEventTime() throws Exception {
+        SequencePattern pattern = pattern("(state == 1) -> !(state == 0) for 60");
+        pattern.setTimeAttribute("time");
+        CompiledProcessor<Void> compiled = pattern.compile();
+        assertEquals(0L, compiled.getTickIntervalMillis());
+
+        compiled.processEvent(null, on(1, event("machine", "A", "state", 1, "temperature", 20.0, "time", 0L)));
+        assertNull(compiled.processEvent(null, on(1, event("machine", "B", "state", 2, "temperature", 20.0, "time", 59000L))));
+
+        List<Event> matches = matches(compiled.processEvent(null,
+                on(1, event("machine", "B", "state", 2, "temperature", 20.0, "time", 60000L))));
+        assertEquals(1, matches.size());
+        assertEquals("A", matches.get(0).getData().get("machine"));
+    }
+
+    @Test
+    public void rejectsNegatedFirstStep() throws Exception {
+        try {
+            pattern("!(state == 1) for 10 -> (state == 0)").validate();
+            fail("Expected the negated first step to be rejected");
+        } catch (ValidationException e) {
+            // expected
+        }
+    }
+
+    private static SequencePattern pattern(String steps) throws ValidationException {
+        TestSource machines = source("machine", String.class, "state", Integer.class, "temperature", Double.class,
+                "time", Long.class);
+
+        SequencePattern pattern = SequencePattern.newTemplate();
+        pattern.setPattern(steps);
+        connect(pattern.getInput(), machines, "machine");
+        return pattern;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Event> matches(Object output) {
+        return (List<Event>) output;
+    }
+}
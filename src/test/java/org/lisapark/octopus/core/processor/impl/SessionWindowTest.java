@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class SessionWindowTest {
+    private SessionWindow sessionWindow;
+
+    @Before
+    public void setUp() throws Exception {
+        sessionWindow = SessionWindow.newTemplate();
+        sessionWindow.setGap(10);
+        sessionWindow.setTimeAttribute("time");
+        sessionWindow.setValueAttribute("amount");
+        connect(sessionWindow.getInput(), source("user", String.class, "amount", Double.class, "time", Long.class), "user");
+    }
+
+    @Test
+    public void sessionIsClosedAfterTheGap() throws Exception {
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+
+        assertNull(process(compiled, "a", 5.0, 1000L));
+        assertNull(process(compiled, "a", 1.0, 8000L));
+        assertNull(process(compiled, "a", 3.0, 17000L));
+        // the gap after the last event of a is not over yet
+        assertNull(process(compiled, "b", 1.0, 26000L));
+
+        List<Event> sessions = sessions(process(compiled, "b", 1.0, 28000L));
+        assertEquals(1, sessions.size());
+
+        Map<String, Object> session = sessions.get(0).getData();
+        assertEquals("a", session.get("user"));
+        assertEquals(1000L, session.get("sessionStart"));
+        assertEquals(17000L, session.get("sessionEnd"));
+        assertEquals(16000L, session.get(sessionWindow.getOutputAttributeName()));
+        assertEquals(3, session.get("count"));
+        assertEquals(9.0, session.get("sum"));
+        assertEquals(1.0, session.get("min"));
+        assertEquals(5.0, session.get("max"));
+    }
+
+    @Test
+    public void everyKeyHasItsOwnSession() throws Exception {
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+
+        process(compiled, "a", 1.0, 0L);
+        assertNull(process(compiled, "b", 1.0, 5000L));
+
+        List<Event> sessions = sessions(process(compiled, "b", 1.0, 12000L));
+        assertEquals(1, sessions.size());
+        assertEquals("a", sessions.get(0).getData().get("user"));
+
+        sessions = sessions(process(compiled, "c", 1.0, 40000L));
+        assertEquals(1, sessions.size());
+        assertEquals("b", sessions.get(0).getData().get("user"));
+        assertEquals(2, sessions.get(0).getData().get("count"));
+    }
+
+    @Test
+    public void sessionsAreClosedAfterALongPause() throws Exception {
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+
+        process(compiled, "a", 1.0, 0L);
+        process(compiled, "b", 1.0, 3000L);
+
+        // many turns of the wheel later
+        List<Event> sessions = sessions(process(compiled, "c", 1.0, 1000000L));
+        assertEquals(2, sessions.size());
+    }
+
+    @Test
+    public void lateEventsCountAsCurrent() throws Exception {
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+
+        process(compiled, "a", 1.0, 10000L);
+        process(compiled, "a", 1.0, 5000L);
+
+        List<Event> sessions = sessions(process(compiled, "b", 1.0, 30000L));
+        assertEquals(10000L, sessions.get(0).getData().get("sessionStart"));
+        assertEquals(10000L, sessions.get(0).getData().get("sessionEnd"));
+        assertEquals(2, sessions.get(0).getData().get("count"));
+    }
+
+    @Test
+    public void ticksCloseSessionsWithTheArrivalTime() throws Exception {
+        sessionWindow.setTimeAttribute(null);
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+        assertTrue(compiled.getTickIntervalMillis() > 0);
+
+        long start = System.currentTimeMillis();
+        assertNull(compiled.processTick(null, start));
+        compiled.processEvent(null, on(1, event("user", "a", "amount", 1.0)));
+
+        assertNull(compiled.processTick(null, start + 1000L));
+        List<Event> sessions = sessions(compiled.processTick(null, start + 20000L));
+        assertEquals(1, sessions.size());
+        assertEquals("a", sessions.get(0).getData().get("user"));
+        assertNull(compiled.processEnd(null));
+    }
+
+    @Test
+    public void eventTimesAreNotTicked() throws Exception {
+        assertEquals(0, sessionWindow.compile().getTickIntervalMillis());
+    }
+
+    @Test
+    public void openSessionsAreClosedAtTheEnd() throws Exception {
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+        assertNull(compiled.processEnd(null));
+
+        process(compiled, "a", 1.0, 1000L);
+        process(compiled, "b", 2.0, 2000L);
+        process(compiled, "a", 3.0, 3000L);
+
+        List<Event> sessions = sessions(compiled.processEnd(null));
+        assertEquals(2, sessions.size());
+        assertNull(compiled.processEnd(null));
+
+        // the window starts over after the end
+        assertNull(process(compiled, "a", 1.0, 100000L));
+        assertEquals(1, sessions(compiled.processEnd(null)).size());
+    }
+
+    @Test
+    public void leavesOutEventsWithoutTime() throws Exception {
+        CompiledProcessor<Void> compiled = sessionWindow.compile();
+
+        process(compiled, "a", 1.0, 1000L);
+        assertNull(compiled.processEvent(null, on(1, event("user", "a", "amount", 2.0))));
+
+        List<Event> sessions = sessions(compiled.processEnd(null));
+        assertEquals(1, sessions.get(0).getData().get("count"));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void valueAttributeIsAnAttributeOfTheSource() throws Exception {
+        sessionWindow.setValueAttribute("price");
+        sessionWindow.validate();
+    }
+
+    private static Object process(CompiledProcessor<Void> compiled, String user, double amount, long time) {
+        return compiled.processEvent(null, on(1, event("user", user, "amount", amount, "time", time)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Event> sessions(Object output) {
+        return (List<Event>) output;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.processor.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.processor.CompiledProcessor;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.connect;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.event;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.on;
+import static org.lisapark.octopus.core.processor.impl.ProcessorTestSupport.source;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class WindowJoinTest {
+    private WindowJoin join;
+
+    @Before
+    public void setUp() throws Exception {
+        join = WindowJoin.newTemplate();
+        join.setTimeWindow(10);
+        join.setTimeAttribute("time");
+
+        TestSource production = source("product", String.class, "produced", Integer.class, "time", Long.class);
+        TestSource warehouse = source("item", String.class, "stock", Integer.class, "time", Long.class);
+        connect(join.getFirstInput(), production, "product");
+        connect(join.getSecondInput(), warehouse, "item");
+    }
+
+    @Test
+    public void joinsEventsWithTheSameKey() throws Exception {
+        CompiledProcessor<Void> compiled = join.compile();
+
+        assertNull(compiled.processEvent(null, on(1, event("product", "A", "produced", 5, "time", 1000L))));
+        assertNull(compiled.processEvent(null, on(2, event("item", "B", "stock", 7, "time", 2000L))));
+
+        List<Event> joined = joined(compiled.processEvent(null, on(2, event("item", "A", "stock", 3, "time", 3000L))));
+        assertEquals(1, joined.size());
+        assertEquals(5, joined.get(0).getData().get("produced"));
+        assertEquals(3, joined.get(0).getData().get("stock"));
+        assertEquals(1, joined.get(0).getData().get("matches"));
+    }
+
+    @Test
+    public void evictsByEventTime() throws Exception {
+        CompiledProcessor<Void> compiled = join.compile();
+
+        compiled.processEvent(null, on(1, event("product", "A", "produced", 1, "time", 0L)));
+        compiled.processEvent(null, on(1, event("product", "A", "produced", 2, "time", 5000L)));
+
+        // 12 s after the first event, only the second one is still in the window
+        List<Event> joined = joined(compiled.processEvent(null, on(2, event("item", "A", "stock", 3, "time", 12000L))));
+        assertEquals(1, joined.size());
+        assertEquals(2, joined.get(0).getData().get("produced"));
+    }
+
+    @Test
+    public void keepsWindowLength() throws Exception {
+        join.setWindowLength(2);
+        CompiledProcessor<Void> compiled = join.compile();
+
+        for (int i = 0; i < 5; ++i) {
+            compiled.processEvent(null, on(1, event("product", "A", "produced", i, "time", 1000L)));
+        }
+
+        List<Event> joined = joined(compiled.processEvent(null, on(2, event("item", "A", "stock", 3, "time", 1000L))));
+        assertEquals(2, joined.size());
+        assertEquals(3, joined.get(0).getData().get("produced"));
+        assertEquals(4, joined.get(1).getData().get("produced"));
+    }
+
+    @Test
+    public void joinsInputsOfTheSameSource() throws Exception {
+        TestSource orders = source("customer", String.class, "amount", Integer.class, "time", Long.class);
+        connect(join.getFirstInput(), orders, "customer");
+        connect(join.getSecondInput(), orders, "customer");
+        CompiledProcessor<Void> compiled = join.compile();
+
+        // the runtime hands an event of a self join to both inputs at once
+        Map<Integer, Event> first = on(1, event("customer", "C", "amount", 1, "time", 1000L));
+        first.put(2, first.get(1));
+        assertNull(compiled.processEvent(null, first));
+
+        // each pair of events is joined once
+        Map<Integer, Event> second = on(1, event("customer", "C", "amount", 2, "time", 2000L));
+        second.put(2, second.get(1));
+        List<Event> joined = joined(compiled.processEvent(null, second));
+        assertEquals(1, joined.size());
+        assertEquals(2, joined.get(0).getData().get("amount"));
+
+        Map<Integer, Event> third = on(1, event("customer", "C", "amount", 3, "time", 3000L));
+        third.put(2, third.get(1));
+        assertEquals(2, joined(compiled.processEvent(null, third)).size());
+    }
+
+    @Test
+    public void skipsEventsWithoutTime() throws Exception {
+        CompiledProcessor<Void> compiled = join.compile();
+
+        compiled.processEvent(null, on(1, event("product", "A", "produced", 1, "time", 0L)));
+
+        // an event without a time neither joins nor moves the window
+        assertNull(compiled.processEvent(null, on(2, event("item", "A", "stock", 2))));
+        assertNull(compiled.processEvent(null, on(2, event("item", "A", "stock", 3, "time", "late"))));
+
+        List<Event> joined = joined(compiled.processEvent(null, on(2, event("item", "A", "stock", 4, "time", 1000L))));
+        assertEquals(1, joined.size());
+        assertEquals(4, joined.get(0).getData().get("stock"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Event> joined(Object output) {
+        return (List<Event>) output;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime.direct;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.runtime.ScheduledProcessor;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DirectRuntimeTest {
+    private TestSource source;
+    private List<Event> received;
+    private EventConsumer consumer;
+
+    @Before
+    public void setUp() {
+        source = TestSource.newTemplate();
+        received = Collections.synchronizedList(Lists.<Event>newArrayList());
+        consumer = new EventConsumer() {
+            @Override
+            public void receive(int sourceIndex, Event event) {
+                assertEquals(0, sourceIndex);
+                received.add(event);
+            }
+        };
+    }
+
+    @Test
+    public void drainsExternalSourcesUntilShutdown() {
+        final List<Event> events = Lists.newArrayList(new Event("a", 1), new Event("a", 2), new Event("a", 3));
+        CompiledExternalSource externalSource = new CompiledExternalSource() {
+            @Override
+            public void startProcessingEvents(ProcessingRuntime runtime) {
+                runtime.sendEventFromSource(events.get(0), source);
+                runtime.sendEventsFromSource(events.subList(1, 3), source);
+            }
+
+            @Override
+            public void stopProcessingEvents() {
+            }
+        };
+
+        DirectRuntime runtime = newRuntime(Collections.singletonList(externalSource));
+        runtime.start();
+        runtime.shutdown();
+
+        assertEquals(events, received);
+    }
+
+    @Test
+    public void rejectsEventsBeforeStart() {
+        DirectRuntime runtime = newRuntime(Collections.<CompiledExternalSource>emptyList());
+
+        try {
+            runtime.sendEventFromSource(new Event("a", 1), source);
+            fail("Expected the event to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, received.size());
+    }
+
+    @Test
+    public void cannotStartTwice() {
+        DirectRuntime runtime = newRuntime(Collections.<CompiledExternalSource>emptyList());
+        runtime.start();
+
+        try {
+            runtime.start();
+            fail("Expected the second start to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            runtime.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsFailingSourcesOnStandardError() {
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        CompiledExternalSource failingSource = new CompiledExternalSource() {
+            @Override
+            public void startProcessingEvents(ProcessingRuntime runtime) {
+                throw new IllegalArgumentException("no such file");
+            }
+
+            @Override
+            public void stopProcessingEvents() {
+            }
+        };
+
+        DirectRuntime runtime = new DirectRuntime(Collections.singletonList(failingSource),
+                ImmutableMap.of(source.getId(), 0), new EventConsumer[][]{{consumer}},
+                System.out, new PrintStream(error, true));
+        runtime.start();
+        runtime.shutdown();
+
+        assertEquals(true, error.toString().contains("no such file"));
+    }
+
+    @Test
+    public void ticksProcessorsWhileRunningAndEndsThemOnShutdown() throws Exception {
+        final CountDownLatch ticked = new CountDownLatch(2);
+        final AtomicInteger ends = new AtomicInteger();
+        final AtomicInteger ticksAfterEnd = new AtomicInteger();
+        ScheduledProcessor processor = new ScheduledProcessor() {
+            @Override
+            public long getTickIntervalMillis() {
+                return 10;
+            }
+
+            @Override
+            public void processTick(long now) {
+                if (ends.get() > 0) {
+                    ticksAfterEnd.incrementAndGet();
+                }
+                ticked.countDown();
+            }
+
+            @Override
+            public void processEnd() {
+                ends.incrementAndGet();
+            }
+        };
+
+        DirectRuntime runtime = new DirectRuntime(Collections.singletonList(idleSource()),
+                ImmutableMap.of(source.getId(), 0), new EventConsumer[][]{{consumer}},
+                Collections.singletonList(processor), System.out, System.err);
+        runtime.start();
+
+        assertTrue(ticked.await(5, TimeUnit.SECONDS));
+        runtime.shutdown();
+        Thread.sleep(50);
+
+        assertEquals(1, ends.get());
+        assertEquals(0, ticksAfterEnd.get());
+    }
+
+    private DirectRuntime newRuntime(List<CompiledExternalSource> externalSources) {
+        // a runtime needs at least one thread to run its sources
+        List<CompiledExternalSource> sources = externalSources.isEmpty() ?
+                Collections.singletonList(idleSource()) : externalSources;
+
+        return new DirectRuntime(sources, ImmutableMap.of(source.getId(), 0), new EventConsumer[][]{{consumer}},
+                System.out, System.err);
+    }
+
+    private static CompiledExternalSource idleSource() {
+        return new CompiledExternalSource() {
+            @Override
+            public void startProcessingEvents(ProcessingRuntime runtime) {
+            }
+
+            @Override
+            public void stopProcessingEvents() {
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.runtime.esper;
+
+import com.espertech.esper.client.EPAdministrator;
+import com.espertech.esper.client.EPRuntime;
+import com.espertech.esper.client.EPServiceProvider;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.core.source.external.impl.TestSource;
+import org.lisapark.octopus.util.esper.EsperUtils;
+import org.mockito.InOrder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class EsperRuntimeTest {
+    private EPServiceProvider epService;
+    private EPRuntime epRuntime;
+    private SourceEventsListener listener;
+
+    private TestSource source;
+    private String eventName;
+    private List<Event> events;
+
+    private EsperRuntime runtime;
+
+    @Before
+    public void setUp() {
+        epService = mock(EPServiceProvider.class);
+        epRuntime = mock(EPRuntime.class);
+        when(epService.getEPRuntime()).thenReturn(epRuntime);
+        when(epService.getEPAdministrator()).thenReturn(mock(EPAdministrator.class));
+        listener = mock(SourceEventsListener.class);
+
+        source = TestSource.newTemplate();
+        eventName = EsperUtils.getEventNameForSource(source);
+        events = Lists.newArrayList(new Event("value", 1), new Event("value", 2));
+    }
+
+    @After
+    public void tearDown() {
+        runtime.shutdown();
+    }
+
+    @Test
+    public void interleavesEventsIfStatementsReadTheSource() {
+        startRuntime(ImmutableSet.of(eventName));
+
+        runtime.sendEventsFromSource(events, source);
+
+        InOrder order = inOrder(epRuntime, listener);
+        order.verify(epRuntime).sendEvent(events.get(0).getData(), eventName);
+        order.verify(listener).update(events.get(0));
+        order.verify(epRuntime).sendEvent(events.get(1).getData(), eventName);
+        order.verify(listener).update(events.get(1));
+        verify(listener, never()).update(any(List.class));
+    }
+
+    @Test
+    public void handsBatchToListenersIfNoStatementReadsTheSource() {
+        startRuntime(Collections.<String>emptySet());
+
+        runtime.sendEventsFromSource(events, source);
+
+        verify(listener).update(events);
+        verify(listener, never()).update(any(Event.class));
+        verify(epRuntime, never()).sendEvent(anyMap(), anyString());
+    }
+
+    private void startRuntime(Set<String> sourcesReadByStatements) {
+        Multimap<String, SourceEventsListener> listeners = ArrayListMultimap.create();
+        listeners.put(eventName, listener);
+
+        List<CompiledExternalSource> sources = Collections.singletonList(mock(CompiledExternalSource.class));
+        runtime = new EsperRuntime(epService, sources, listeners, sourcesReadByStatements, System.out, System.err);
+        runtime.start();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+import org.lisapark.octopus.util.Checkpoints;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DbScannerSourceTest {
+    private static final String URL = "jdbc:h2:mem:db-scanner;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+    private static final long TIMEOUT = 10000;
+
+    private Connection connection;
+    private File watermarkFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        connection = DriverManager.getConnection(URL);
+        connection.createStatement().execute("CREATE TABLE orders (id BIGINT, version BIGINT)");
+
+        watermarkFile = File.createTempFile("watermark", ".txt");
+        watermarkFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.createStatement().execute("DROP TABLE orders");
+        connection.close();
+        watermarkFile.delete();
+    }
+
+    @Test
+    public void readsNewRowsOnceInTheOrderOfTheWatermark() throws Exception {
+        insert(1, 2, 3, 4, 5);
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        Scan scan = new Scan(newChangeCaptureSource(2), runtime);
+        try {
+            waitForEvents(runtime, 5);
+            insert(6, 7, 8);
+            waitForEvents(runtime, 8);
+        } finally {
+            scan.stop();
+        }
+
+        assertIds(runtime.getEvents(), 1, 2, 3, 4, 5, 6, 7, 8);
+        assertEquals("long:8", Checkpoints.read(watermarkFile));
+    }
+
+    @Test
+    public void continuesFromTheSavedWatermark() throws Exception {
+        insert(1, 2, 3, 4, 5);
+        Checkpoints.write(watermarkFile, "long:3");
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        Scan scan = new Scan(newChangeCaptureSource(10), runtime);
+        try {
+            waitForEvents(runtime, 2);
+        } finally {
+            scan.stop();
+        }
+
+        assertIds(runtime.getEvents(), 4, 5);
+    }
+
+    @Test
+    public void fullBatchIsNotSplitInsideAWatermark() throws Exception {
+        insertVersions(new long[][]{{1, 1}, {2, 1}, {3, 2}, {4, 2}, {5, 2}, {6, 3}});
+
+        DbScannerSource source = newChangeCaptureSource(4);
+        source.setWatermarkColumn("version");
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        Scan scan = new Scan(source, runtime);
+        try {
+            waitForEvents(runtime, 6);
+        } finally {
+            scan.stop();
+        }
+
+        assertSortedIds(runtime.getEvents(), 1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    public void readsAllRowsOfAWatermarkLargerThanTheBatch() throws Exception {
+        insertVersions(new long[][]{{1, 2}, {2, 2}, {3, 2}, {4, 2}, {5, 2}, {6, 3}});
+
+        DbScannerSource source = newChangeCaptureSource(4);
+        source.setWatermarkColumn("version");
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        Scan scan = new Scan(source, runtime);
+        try {
+            waitForEvents(runtime, 6);
+        } finally {
+            scan.stop();
+        }
+
+        assertSortedIds(runtime.getEvents(), 1, 2, 3, 4, 5, 6);
+        assertEquals(5, (int) runtime.getBatchSizes().get(0));
+        assertEquals("long:3", Checkpoints.read(watermarkFile));
+    }
+
+    private void insert(long... ids) throws Exception {
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO orders VALUES (?, ?)");
+        for (long id : ids) {
+            insert.setLong(1, id);
+            insert.setLong(2, id);
+            insert.executeUpdate();
+        }
+        insert.close();
+    }
+
+    private void insertVersions(long[][] rows) throws Exception {
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO orders VALUES (?, ?)");
+        for (long[] row : rows) {
+            insert.setLong(1, row[0]);
+            insert.setLong(2, row[1]);
+            insert.executeUpdate();
+        }
+        insert.close();
+    }
+
+    private DbScannerSource newChangeCaptureSource(int batchSize) throws Exception {
+        DbScannerSource source = newSource();
+        source.setQuery("SELECT id, version FROM orders");
+        source.setWatermarkColumn("id");
+        source.setWatermarkFile(watermarkFile.getPath());
+        source.setBatchSize(batchSize);
+
+        return source;
+    }
+
+    private static DbScannerSource newSource() throws Exception {
+        DbScannerSource source = DbScannerSource.newTemplate();
+        source.setUrl(URL);
+        source.setDriverClass("org.h2.Driver");
+        source.setMaximumPollInterval(100);
+        source.getOutput().addAttribute(Attribute.longAttribute("id"));
+        source.getOutput().addAttribute(Attribute.longAttribute("version"));
+
+        return source;
+    }
+
+    private static void waitForEvents(RecordingRuntime runtime, int numberOfEvents) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (runtime.getEvents().size() < numberOfEvents && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertIds(List<Event> events, long... ids) {
+        assertEquals(ids.length, events.size());
+        for (int i = 0; i < ids.length; ++i) {
+            assertEquals(ids[i], events.get(i).getData().get("id"));
+        }
+    }
+
+    /**
+     * Asserts the ids in any order, rows with the same watermark can come in any order.
+     */
+    private static void assertSortedIds(List<Event> events, long... ids) {
+        List<Long> actualIds = Lists.newArrayList();
+        for (Event event : events) {
+            actualIds.add((Long) event.getData().get("id"));
+        }
+        Collections.sort(actualIds);
+
+        List<Long> expectedIds = Lists.newArrayList();
+        for (long id : ids) {
+            expectedIds.add(id);
+        }
+        assertEquals(expectedIds, actualIds);
+    }
+
+    /**
+     * Runs the source on its own thread until it is stopped.
+     */
+    private static class Scan {
+        private final CompiledExternalSource compiled;
+        private final Thread thread;
+
+        Scan(DbScannerSource source, final RecordingRuntime runtime) throws Exception {
+            this.compiled = source.compile();
+            this.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compiled.startProcessingEvents(runtime);
+                    } catch (Exception e) {
+                        // the test fails on the missing events
+                    }
+                }
+            });
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            compiled.stopProcessingEvents();
+            thread.join(TIMEOUT);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class DirectoryWatchSourceTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path directory;
+    private File indexFile;
+    private DirectoryWatchSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("watched");
+        indexFile = File.createTempFile("directory-index", ".txt");
+        indexFile.delete();
+
+        source = DirectoryWatchSource.newTemplate();
+        source.setDirectory(directory.toString());
+        source.setIndexFile(indexFile.getPath());
+        source.setWorkerThreads(2);
+        source.getOutput().addAttribute(Attribute.integerAttribute("id"));
+        source.getOutput().addAttribute(Attribute.stringAttribute("name"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+        indexFile.delete();
+        new File(indexFile.getPath() + ".new").delete();
+    }
+
+    @Test
+    public void readsTheFilesInTheDirectoryByTheirExtension() throws Exception {
+        write("a.json", "{\"id\": 1, \"name\": \"json\"}\n{\"id\": 2}\n");
+        write("b.csv", "name,id\ncsv,3\n");
+        write("c.tsv", "id\tname\n4\ttsv\n");
+        write("d.xml", "<items><item id=\"5\"><name>xml</name></item></items>");
+        write("e.unknown", "{\"id\": 6}\n");
+
+        Watch watch = new Watch();
+        try {
+            watch.waitForEvents(5);
+        } finally {
+            watch.stop();
+        }
+
+        assertEquals(Lists.newArrayList(1, 2, 3, 4, 5), idsOf(watch.runtime.getEvents()));
+    }
+
+    @Test
+    public void readsOnlyTheFilesMatchingThePattern() throws Exception {
+        source.setFilePattern("*.csv");
+        write("a.json", "{\"id\": 1}\n");
+        write("b.csv", "id\n2\n");
+
+        Watch watch = new Watch();
+        try {
+            watch.waitForEvents(1);
+            // give the other file the time it would need
+            Thread.sleep(1000);
+        } finally {
+            watch.stop();
+        }
+
+        assertEquals(Lists.newArrayList(2), idsOf(watch.runtime.getEvents()));
+    }
+
+    @Test
+    public void readsTheFilesCreatedOrChangedWhileWatching() throws Exception {
+        Watch watch = new Watch();
+        try {
+            write("a.json", "{\"id\": 1}\n");
+            watch.waitForEvents(1);
+
+            write("a.json", "{\"id\": 1}\n{\"id\": 2}\n");
+            watch.waitForEvents(3);
+        } finally {
+            watch.stop();
+        }
+
+        assertEquals(Lists.newArrayList(1, 1, 2), idsOf(watch.runtime.getEvents()));
+    }
+
+    @Test
+    public void readsOnlyTheNewAndChangedFilesAfterARestart() throws Exception {
+        write("a.json", "{\"id\": 1}\n");
+        write("b.json", "{\"id\": 2}\n");
+
+        Watch watch = new Watch();
+        try {
+            watch.waitForEvents(2);
+            waitForIndex(directory.resolve("a.json"), directory.resolve("b.json"));
+        } finally {
+            watch.stop();
+        }
+
+        write("b.json", "{\"id\": 2}\n{\"id\": 3}\n");
+        write("c.json", "{\"id\": 4}\n");
+
+        watch = new Watch();
+        try {
+            watch.waitForEvents(3);
+            Thread.sleep(1000);
+        } finally {
+            watch.stop();
+        }
+
+        assertEquals(Lists.newArrayList(2, 3, 4), idsOf(watch.runtime.getEvents()));
+    }
+
+    @Test
+    public void sendsTheEventsOfALargeFileInBatches() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int id = 0; id < 2500; ++id) {
+            lines.append("{\"id\": ").append(id).append("}\n");
+        }
+        write("a.json", lines.toString());
+
+        Watch watch = new Watch();
+        try {
+            watch.waitForEvents(2500);
+        } finally {
+            watch.stop();
+        }
+
+        assertEquals(Lists.newArrayList(1000, 1000, 500), watch.runtime.getBatchSizes());
+        List<Event> events = watch.runtime.getEvents();
+        for (int id = 0; id < 2500; ++id) {
+            assertEquals(id, events.get(id).getData().get("id"));
+        }
+    }
+
+    @Test
+    public void readsAFileThatCouldNotBeReadAgainOnceItChanged() throws Exception {
+        write("a.xml", "<items><item id=\"1\"><name>xml</name></item>");
+        write("b.json", "{\"id\": 2}\n");
+
+        Watch watch = new Watch();
+        try {
+            waitForIndex(directory.resolve("b.json"));
+            Thread.sleep(500);
+            String index = new String(Files.readAllBytes(indexFile.toPath()), UTF_8);
+            assertFalse(index.contains(directory.resolve("a.xml").toString()));
+
+            write("a.xml", "<items><item id=\"1\"><name>xml</name></item><item id=\"3\"/></items>");
+            waitForIndex(directory.resolve("a.xml"));
+        } finally {
+            watch.stop();
+        }
+
+        assertTrue(idsOf(watch.runtime.getEvents()).containsAll(Lists.newArrayList(1, 2, 3)));
+    }
+
+    @Test
+    public void failsForADirectoryThatDoesNotExist() throws Exception {
+        source.setDirectory(directory.resolve("missing").toString());
+
+        try {
+            source.compile().startProcessingEvents(new RecordingRuntime());
+            fail("expected a ProcessingException");
+        } catch (ProcessingException e) {
+            assertTrue(e.getMessage().contains("missing"));
+        }
+    }
+
+    @Test
+    public void rejectsAnInvalidPatternLayoutOrDelimiter() throws Exception {
+        source.setFilePattern("*.{csv");
+        assertInvalid();
+
+        source.setFilePattern("*");
+        source.setExcelLayout("pivot");
+        assertInvalid();
+
+        source.setExcelLayout("Warehouse");
+        source.setDelimiter(";;");
+        assertInvalid();
+
+        source.setDelimiter("\\t");
+        source.validate();
+    }
+
+    private void assertInvalid() {
+        try {
+            source.validate();
+            fail("expected a ValidationException");
+        } catch (ValidationException e) {
+            // expected
+        }
+    }
+
+    private void write(String name, String content) throws IOException {
+        Path file = directory.resolve(name);
+        boolean exists = Files.exists(file);
+        Files.write(file, content.getBytes(UTF_8));
+        if (exists) {
+            // make sure the change is seen even if the clock of the file system is coarse
+            file.toFile().setLastModified(file.toFile().lastModified() + 2000);
+        }
+    }
+
+    private void waitForIndex(Path... files) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            String index = indexFile.exists() ? new String(Files.readAllBytes(indexFile.toPath()), UTF_8) : "";
+            boolean complete = true;
+            for (Path file : files) {
+                complete &= index.contains(file.toString());
+            }
+            if (complete) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("the index does not have all files");
+    }
+
+    private static List<Integer> idsOf(List<Event> events) {
+        List<Integer> ids = Lists.newArrayList();
+        for (Event event : events) {
+            ids.add((Integer) event.getData().get("id"));
+        }
+        // files are read in parallel
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Runs the compiled source on a thread of its own until it is stopped.
+     */
+    private class Watch {
+        private final RecordingRuntime runtime = new RecordingRuntime();
+        private final CompiledExternalSource compiled;
+        private final Thread thread;
+        private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Watch() throws ValidationException {
+            compiled = source.compile();
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compiled.startProcessingEvents(runtime);
+                    } catch (Exception e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            thread.start();
+        }
+
+        void waitForEvents(int numberOfEvents) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (runtime.getEvents().size() < numberOfEvents && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(numberOfEvents, runtime.getEvents().size());
+        }
+
+        void stop() throws Exception {
+            compiled.stopProcessingEvents();
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads a table of an in-memory H2 database with one and with several partitions and logs the rows per second of
+ * both. The times are not asserted, they depend on the machine; the test only checks that every read is complete.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class PartitionedSqlQuerySourceBenchmarkTest {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedSqlQuerySourceBenchmarkTest.class);
+
+    private static final String URL = "jdbc:h2:mem:partitioned-benchmark;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+    private static final int NUMBER_OF_ROWS = 200000;
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = PartitionedSqlQuerySourceTest.createTrades(URL, NUMBER_OF_ROWS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.createStatement().execute("DROP TABLE trades");
+        connection.close();
+    }
+
+    @Test
+    public void readsWithOneAndWithSeveralPartitions() throws Exception {
+        // warm up
+        read(1, null);
+
+        for (int numberOfPartitions : new int[]{1, 4}) {
+            read(numberOfPartitions, null);
+            read(numberOfPartitions, "stamp");
+        }
+    }
+
+    private void read(int numberOfPartitions, String sortAttribute) throws Exception {
+        long start = System.nanoTime();
+        int numberOfEvents = PartitionedSqlQuerySourceTest.read(
+                PartitionedSqlQuerySourceTest.newSource(URL, numberOfPartitions, sortAttribute)).size();
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(NUMBER_OF_ROWS, numberOfEvents);
+        LOG.info("{} partitions{}: {} rows per second", new Object[]{numberOfPartitions,
+                (sortAttribute == null) ? "" : " sorted", NUMBER_OF_ROWS * 1000000000L / Math.max(1, nanos)});
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import org.junit.After;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class PartitionedSqlQuerySourceTest {
+    static final String URL = "jdbc:h2:mem:partitioned-source;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+
+    private Connection connection;
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.createStatement().execute("DROP TABLE trades");
+            connection.close();
+        }
+    }
+
+    @Test
+    public void rangesDivideTheBoundsEvenly() {
+        List<long[]> ranges = PartitionedSqlQuerySource.rangesOf(0, 99, 4);
+
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{0, 24}, ranges.get(0));
+        assertArrayEquals(new long[]{75, 99}, ranges.get(3));
+    }
+
+    @Test
+    public void lastRangeIsSmaller() {
+        List<long[]> ranges = PartitionedSqlQuerySource.rangesOf(1, 10, 4);
+
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{1, 3}, ranges.get(0));
+        assertArrayEquals(new long[]{4, 6}, ranges.get(1));
+        assertArrayEquals(new long[]{7, 9}, ranges.get(2));
+        assertArrayEquals(new long[]{10, 10}, ranges.get(3));
+    }
+
+    @Test
+    public void noRangeIsEmptyOrInverted() {
+        // (max - min) / n + 1 gave ranges of 3 here, so the fourth one started after the upper bound
+        List<long[]> ranges = PartitionedSqlQuerySource.rangesOf(0, 8, 4);
+
+        long next = 0;
+        for (long[] range : ranges) {
+            assertEquals(next, range[0]);
+            assertTrue(range[0] <= range[1]);
+            next = range[1] + 1;
+        }
+        assertEquals(9, next);
+    }
+
+    @Test
+    public void fewerRangesThanPartitionsForFewValues() {
+        List<long[]> ranges = PartitionedSqlQuerySource.rangesOf(5, 6, 8);
+
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[]{5, 5}, ranges.get(0));
+        assertArrayEquals(new long[]{6, 6}, ranges.get(1));
+    }
+
+    @Test
+    public void boundsFarApartDoNotOverflow() {
+        List<long[]> ranges = PartitionedSqlQuerySource.rangesOf(Long.MIN_VALUE, Long.MAX_VALUE, 2);
+
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[]{Long.MIN_VALUE, -1}, ranges.get(0));
+        assertArrayEquals(new long[]{0, Long.MAX_VALUE}, ranges.get(1));
+
+        ranges = PartitionedSqlQuerySource.rangesOf(Long.MIN_VALUE, Long.MAX_VALUE, 1);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[]{Long.MIN_VALUE, Long.MAX_VALUE}, ranges.get(0));
+    }
+
+    @Test
+    public void readsEveryRowOnce() throws Exception {
+        createTrades(1000);
+
+        List<Event> events = read(newSource(3, null));
+
+        assertEquals(1000, events.size());
+        boolean[] seen = new boolean[1000];
+        for (Event event : events) {
+            int id = (Integer) event.getData().get("id");
+            assertTrue(!seen[id]);
+            seen[id] = true;
+        }
+    }
+
+    @Test
+    public void mergesThePartitionsInTheOrderOfTheSortAttribute() throws Exception {
+        createTrades(2500);
+
+        List<Event> events = read(newSource(4, "stamp"));
+
+        assertEquals(2500, events.size());
+        for (int i = 1; i < events.size(); ++i) {
+            assertTrue((Long) events.get(i - 1).getData().get("stamp") <= (Long) events.get(i).getData().get("stamp"));
+        }
+    }
+
+    @Test
+    public void configuredBoundsLimitTheRows() throws Exception {
+        createTrades(100);
+
+        PartitionedSqlQuerySource source = newSource(4, null);
+        source.setBounds(10L, 19L);
+
+        assertEquals(10, read(source).size());
+    }
+
+    void createTrades(int numberOfRows) throws Exception {
+        connection = createTrades(URL, numberOfRows);
+    }
+
+    /**
+     * Creates a table of trades with the ids from 0, the stamps are in the reverse order of the ids.
+     */
+    static Connection createTrades(String url, int numberOfRows) throws Exception {
+        Class.forName("org.h2.Driver");
+        Connection connection = DriverManager.getConnection(url);
+        connection.createStatement().execute("CREATE TABLE trades (id INT PRIMARY KEY, stamp BIGINT, price DOUBLE)");
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO trades VALUES (?, ?, ?)");
+        for (int i = 0; i < numberOfRows; ++i) {
+            insert.setInt(1, i);
+            insert.setLong(2, numberOfRows - i);
+            insert.setDouble(3, i / 100.0);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+
+        return connection;
+    }
+
+    static PartitionedSqlQuerySource newSource(String url, int numberOfPartitions, String sortAttribute) throws Exception {
+        PartitionedSqlQuerySource source = PartitionedSqlQuerySource.newTemplate();
+        source.setUrl(url);
+        source.setDriverClass("org.h2.Driver");
+        source.setQuery("SELECT id, stamp, price FROM trades");
+        source.setPartitionColumn("id");
+        source.setNumberOfPartitions(numberOfPartitions);
+        source.setSortAttribute(sortAttribute);
+        source.getOutput().addAttribute(Attribute.integerAttribute("id"));
+        source.getOutput().addAttribute(Attribute.longAttribute("stamp"));
+        source.getOutput().addAttribute(Attribute.doubleAttribute("price"));
+
+        return source;
+    }
+
+    static List<Event> read(PartitionedSqlQuerySource source) throws Exception {
+        RecordingRuntime runtime = new RecordingRuntime();
+        source.compile().startProcessingEvents(runtime);
+
+        return runtime.getEvents();
+    }
+
+    private static PartitionedSqlQuerySource newSource(int numberOfPartitions, String sortAttribute) throws Exception {
+        return newSource(URL, numberOfPartitions, sortAttribute);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Consumes messages from the in-process stand-in of {@link RabbitMqSourceTest} with one and with several channels and
+ * with small and large ack batches, and logs the messages per second. The times are not asserted, they depend on the
+ * machine; the test only checks that every message was sent to the runtime.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class RabbitMqSourceBenchmarkTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RabbitMqSourceBenchmarkTest.class);
+
+    private static final int NUMBER_OF_MESSAGES = 100000;
+
+    @Test
+    public void consumesWithOneAndWithSeveralChannels() throws Exception {
+        // warm up
+        consume(1, 100);
+
+        for (int numberOfChannels : new int[]{1, 4}) {
+            consume(numberOfChannels, 1);
+            consume(numberOfChannels, 100);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void consume(int numberOfChannels, int ackBatchSize) throws Exception {
+        List<byte[]>[] messagesOfChannels = new List[numberOfChannels];
+        int messagesPerChannel = NUMBER_OF_MESSAGES / numberOfChannels;
+        for (int i = 0; i < numberOfChannels; ++i) {
+            messagesOfChannels[i] = RabbitMqSourceTest.messages(i * messagesPerChannel, messagesPerChannel);
+        }
+        RabbitMqSourceTest.StandIn standIn = new RabbitMqSourceTest.StandIn(messagesOfChannels);
+        RecordingRuntime runtime = new RecordingRuntime();
+
+        long start = System.nanoTime();
+        standIn.compile(RabbitMqSourceTest.newSource(numberOfChannels, ackBatchSize)).startProcessingEvents(runtime);
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(numberOfChannels * messagesPerChannel, runtime.getEvents().size());
+        LOG.info("{} channels, ack batch {}: {} messages per second", new Object[]{numberOfChannels, ackBatchSize,
+                numberOfChannels * messagesPerChannel * 1000000000L / Math.max(1, nanos)});
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Consumes messages from a stand-in for a RabbitMQ server, mocked connections and channels that deliver the messages
+ * of each channel as soon as it starts consuming.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class RabbitMqSourceTest {
+    private static final String QUEUE_NAME = "events";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private RabbitMqSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        source = newSource(1, 100);
+    }
+
+    @Test
+    public void acknowledgesEveryBatchAfterItWasSent() throws Exception {
+        StandIn standIn = new StandIn(messages(0, 250));
+        RecordingRuntime runtime = new RecordingRuntime();
+
+        standIn.compile(source).startProcessingEvents(runtime);
+
+        assertIds(runtime.getEvents(), 0, 250);
+        assertEquals(Arrays.asList(100, 100, 50), runtime.getBatchSizes());
+
+        Channel channel = standIn.channels.get(0);
+        verify(channel).basicQos(source.getPrefetch());
+        verify(channel).basicConsume(eq(QUEUE_NAME), eq(false), any(Consumer.class));
+        verify(channel).basicAck(100L, true);
+        verify(channel).basicAck(200L, true);
+        verify(channel).basicAck(250L, true);
+    }
+
+    @Test
+    public void consumesOnSeveralChannels() throws Exception {
+        source.setNumberOfChannels(3);
+        StandIn standIn = new StandIn(messages(0, 120), messages(120, 30), messages(150, 50));
+        RecordingRuntime runtime = new RecordingRuntime();
+
+        standIn.compile(source).startProcessingEvents(runtime);
+
+        List<Event> events = runtime.getEvents();
+        Collections.sort(events, BY_ID);
+        assertIds(events, 0, 200);
+
+        assertEquals(3, standIn.channels.size());
+        verify(standIn.channels.get(0)).basicAck(120L, true);
+        verify(standIn.channels.get(1)).basicAck(30L, true);
+        verify(standIn.channels.get(2)).basicAck(50L, true);
+    }
+
+    @Test
+    public void acknowledgesMessagesThatCannotBeDecoded() throws Exception {
+        List<byte[]> messages = messages(0, 2);
+        messages.add(1, "not json".getBytes(UTF_8));
+        StandIn standIn = new StandIn(messages);
+        RecordingRuntime runtime = new RecordingRuntime();
+
+        standIn.compile(source).startProcessingEvents(runtime);
+
+        assertIds(runtime.getEvents(), 0, 2);
+        verify(standIn.channels.get(0)).basicAck(3L, true);
+    }
+
+    @Test
+    public void stopsAChannelAfterTheTimeOut() throws Exception {
+        source.setTimeOut(1L);
+        StandIn standIn = new StandIn(messages(0, 10));
+        standIn.stopWhenAllAcknowledged = false;
+        RecordingRuntime runtime = new RecordingRuntime();
+
+        standIn.compile(source).startProcessingEvents(runtime);
+
+        assertIds(runtime.getEvents(), 0, 10);
+        verify(standIn.channels.get(0)).basicAck(10L, true);
+    }
+
+    @Test
+    public void failsWithoutAcknowledgingWhenAChannelIsShutDown() throws Exception {
+        StandIn standIn = new StandIn(messages(0, 10));
+        standIn.shutdownAfterMessages = true;
+        RecordingRuntime runtime = new RecordingRuntime();
+
+        try {
+            standIn.compile(source).startProcessingEvents(runtime);
+            fail("expected a ProcessingException");
+        } catch (ProcessingException e) {
+            assertEquals(ShutdownSignalException.class, e.getCause().getClass());
+        }
+        // the batch was cut short by the shut down, so the server delivers its messages again
+        assertEquals(0, runtime.getEvents().size());
+        verify(standIn.channels.get(0), never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    static RabbitMqSource newSource(int numberOfChannels, int ackBatchSize) throws Exception {
+        RabbitMqSource source = RabbitMqSource.newTemplate();
+        source.setQueueName(QUEUE_NAME);
+        source.setNumberOfChannels(numberOfChannels);
+        source.setAckBatchSize(ackBatchSize);
+        source.getOutput().addAttribute(Attribute.integerAttribute("id"));
+        return source;
+    }
+
+    static List<byte[]> messages(int firstId, int numberOfMessages) {
+        List<byte[]> messages = Lists.newArrayListWithCapacity(numberOfMessages);
+        for (int id = firstId; id < firstId + numberOfMessages; ++id) {
+            messages.add(("{\"id\": " + id + "}").getBytes(UTF_8));
+        }
+        return messages;
+    }
+
+    private static void assertIds(List<Event> events, int firstId, int numberOfIds) {
+        assertEquals(numberOfIds, events.size());
+        for (int i = 0; i < numberOfIds; ++i) {
+            assertEquals(firstId + i, events.get(i).getData().get("id"));
+        }
+    }
+
+    private static final Comparator<Event> BY_ID = new Comparator<Event>() {
+        @Override
+        public int compare(Event e1, Event e2) {
+            return ((Integer) e1.getData().get("id")).compareTo((Integer) e2.getData().get("id"));
+        }
+    };
+
+    /**
+     * A mocked connection factory whose connection creates a channel for declaring the queue, and then a channel per
+     * list of messages that delivers the messages with the delivery tags 1, 2, ... when it starts consuming. The
+     * compiled source is stopped once every message was acknowledged, unless this is turned off.
+     */
+    static class StandIn {
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        final List<Channel> channels = Lists.newArrayList();
+
+        boolean stopWhenAllAcknowledged = true;
+        boolean shutdownAfterMessages;
+
+        private final List<List<byte[]>> messagesOfChannels;
+        private long numberOfUnacknowledged;
+        private RabbitMqSource.CompiledTestSource compiled;
+
+        StandIn(List<byte[]>... messagesOfChannels) throws IOException {
+            this.messagesOfChannels = Arrays.asList(messagesOfChannels);
+            for (List<byte[]> messages : messagesOfChannels) {
+                numberOfUnacknowledged += messages.size();
+            }
+
+            Connection connection = mock(Connection.class);
+            when(factory.newConnection()).thenReturn(connection);
+            when(connection.createChannel()).thenAnswer(new Answer<Channel>() {
+                private boolean declared;
+
+                @Override
+                public Channel answer(InvocationOnMock invocation) throws Throwable {
+                    if (!declared) {
+                        declared = true;
+                        return mock(Channel.class);
+                    }
+                    Channel channel = newChannel(StandIn.this.messagesOfChannels.get(channels.size()));
+                    channels.add(channel);
+                    return channel;
+                }
+            });
+        }
+
+        RabbitMqSource.CompiledTestSource compile(RabbitMqSource source) {
+            compiled = new RabbitMqSource.CompiledTestSource(source, factory);
+            return compiled;
+        }
+
+        private Channel newChannel(final List<byte[]> messages) throws IOException {
+            Channel channel = mock(Channel.class);
+            when(channel.basicConsume(anyString(), anyBoolean(), any(Consumer.class))).thenAnswer(new Answer<String>() {
+                @Override
+                public String answer(InvocationOnMock invocation) throws Throwable {
+                    Consumer consumer = (Consumer) invocation.getArguments()[2];
+                    for (int i = 0; i < messages.size(); ++i) {
+                        consumer.handleDelivery("consumer", new Envelope(i + 1, false, "", QUEUE_NAME), null,
+                                messages.get(i));
+                    }
+                    if (shutdownAfterMessages) {
+                        consumer.handleShutdownSignal("consumer",
+                                new ShutdownSignalException(true, false, "connection lost", null));
+                    }
+                    return "consumer";
+                }
+            });
+            doAnswer(new Answer<Void>() {
+                private long lastAcknowledged;
+
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    long deliveryTag = (Long) invocation.getArguments()[0];
+                    acknowledged(deliveryTag - lastAcknowledged);
+                    lastAcknowledged = deliveryTag;
+                    return null;
+                }
+            }).when(channel).basicAck(anyLong(), anyBoolean());
+            return channel;
+        }
+
+        private void acknowledged(long numberOfMessages) {
+            // the acknowledgements come from the thread that sends the events to the runtime
+            numberOfUnacknowledged -= numberOfMessages;
+            if (numberOfUnacknowledged == 0 && stopWhenAllAcknowledged) {
+                compiled.stopProcessingEvents();
+            }
+        }
+    }
+}
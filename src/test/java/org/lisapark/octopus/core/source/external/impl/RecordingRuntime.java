@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.runtime.ProcessingRuntime;
+import org.lisapark.octopus.core.source.Source;
+
+import java.util.List;
+
+/**
+ * A {@link ProcessingRuntime} for the tests of sources that keeps the events that were sent and the sizes of the
+ * batches they were sent in.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+class RecordingRuntime implements ProcessingRuntime {
+    private final List<Event> events = Lists.newArrayList();
+    private final List<Integer> batchSizes = Lists.newArrayList();
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public synchronized void sendEventFromSource(Event event, Source source) {
+        events.add(event);
+        batchSizes.add(1);
+    }
+
+    @Override
+    public synchronized void sendEventsFromSource(List<Event> events, Source source) {
+        this.events.addAll(events);
+        batchSizes.add(events.size());
+    }
+
+    synchronized List<Event> getEvents() {
+        return Lists.newArrayList(events);
+    }
+
+    synchronized List<Integer> getBatchSizes() {
+        return Lists.newArrayList(batchSizes);
+    }
+}
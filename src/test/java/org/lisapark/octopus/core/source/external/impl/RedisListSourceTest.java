@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.util.Checkpoints;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.redis.connection.RedisConnection;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class RedisListSourceTest {
+    // default prefix and name of the list
+    private static final byte[] KEY = bytes("listmodel");
+
+    private RedisListSource source;
+    private File offsetFile;
+
+    @Before
+    public void setUp() throws Exception {
+        source = RedisListSource.newTemplate();
+        source.setPageSize(3);
+        source.getOutput().addAttribute(Attribute.integerAttribute("id"));
+
+        offsetFile = File.createTempFile("redis-offset", ".txt");
+        offsetFile.delete();
+        source.setOffsetFile(offsetFile.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        offsetFile.delete();
+    }
+
+    @Test
+    public void popTakesTheWaitingMessagesWithARangeAndATrim() throws Exception {
+        source.setMode("pop");
+        final RedisListSource.CompiledRedisSource compiled = (RedisListSource.CompiledRedisSource) source.compile();
+
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.bLPop(anyInt(), any(byte[].class))).thenAnswer(new Answer<List<byte[]>>() {
+            private int calls;
+
+            @Override
+            public List<byte[]> answer(InvocationOnMock invocation) {
+                if (calls++ == 0) {
+                    return Arrays.asList(KEY, bytes("{\"id\": 1}"));
+                }
+                // nothing more arrives
+                compiled.stopProcessingEvents();
+                return null;
+            }
+        });
+        List<Object> results = Lists.newArrayList();
+        results.add(Arrays.asList(bytes("{\"id\": 2}"), bytes("{\"id\": 3}")));
+        results.add(bytes("OK"));
+        when(connection.exec()).thenReturn(results);
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        compiled.processEvents(connection, runtime);
+
+        InOrder order = inOrder(connection);
+        order.verify(connection).multi();
+        order.verify(connection).lRange(KEY, 0, 1);
+        order.verify(connection).lTrim(KEY, 2, -1);
+        order.verify(connection).exec();
+        verify(connection, never()).lPop(any(byte[].class));
+
+        assertIds(runtime.getEvents(), 1, 2, 3);
+        assertEquals(Arrays.asList(3), runtime.getBatchSizes());
+    }
+
+    @Test
+    public void popWithAPageOfOneOnlyPops() throws Exception {
+        source.setMode("pop");
+        source.setPageSize(1);
+        final RedisListSource.CompiledRedisSource compiled = (RedisListSource.CompiledRedisSource) source.compile();
+
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.bLPop(anyInt(), any(byte[].class))).thenAnswer(new Answer<List<byte[]>>() {
+            private int calls;
+
+            @Override
+            public List<byte[]> answer(InvocationOnMock invocation) {
+                if (calls++ < 2) {
+                    return Arrays.asList(KEY, bytes("{\"id\": " + calls + "}"));
+                }
+                compiled.stopProcessingEvents();
+                return null;
+            }
+        });
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        compiled.processEvents(connection, runtime);
+
+        verify(connection, never()).multi();
+        assertIds(runtime.getEvents(), 1, 2);
+    }
+
+    @Test
+    public void rangeReadsPagesUntilTheEndOfTheListAndSavesTheOffset() throws Exception {
+        RedisListSource.CompiledRedisSource compiled = (RedisListSource.CompiledRedisSource) source.compile();
+
+        RedisConnection connection = mock(RedisConnection.class);
+        List<Object> pages = Lists.newArrayList();
+        pages.add(Arrays.asList(bytes("{\"id\": 1}"), bytes("{\"id\": 2}"), bytes("{\"id\": 3}")));
+        pages.add(Arrays.asList(bytes("{\"id\": 4}")));
+        pages.add(Lists.newArrayList());
+        pages.add(Lists.newArrayList());
+        when(connection.closePipeline()).thenReturn(pages);
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        compiled.processEvents(connection, runtime);
+
+        verify(connection).lRange(KEY, 0, 2);
+        verify(connection).lRange(KEY, 3, 5);
+        assertIds(runtime.getEvents(), 1, 2, 3, 4);
+        assertEquals("4", Checkpoints.read(offsetFile));
+    }
+
+    @Test
+    public void rangeContinuesFromTheSavedOffset() throws Exception {
+        Checkpoints.write(offsetFile, "10");
+        RedisListSource.CompiledRedisSource compiled = (RedisListSource.CompiledRedisSource) source.compile();
+
+        RedisConnection connection = mock(RedisConnection.class);
+        List<Object> pages = Lists.newArrayList();
+        pages.add(Arrays.asList(bytes("{\"id\": 11}")));
+        pages.add(Lists.newArrayList());
+        pages.add(Lists.newArrayList());
+        pages.add(Lists.newArrayList());
+        when(connection.closePipeline()).thenReturn(pages);
+
+        compiled.processEvents(connection, new RecordingRuntime());
+
+        verify(connection).lRange(KEY, 10, 12);
+        assertEquals("11", Checkpoints.read(offsetFile));
+    }
+
+    private static void assertIds(List<Event> events, int... ids) {
+        assertEquals(ids.length, events.size());
+        for (int i = 0; i < ids.length; ++i) {
+            assertEquals(ids[i], events.get(i).getData().get("id"));
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
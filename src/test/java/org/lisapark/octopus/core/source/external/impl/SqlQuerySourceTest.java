@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class SqlQuerySourceTest {
+    private static final String URL = "jdbc:h2:mem:sql-query-source;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+    private static final int NUMBER_OF_ROWS = 2500;
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        connection = DriverManager.getConnection(URL);
+
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE trades (id INT PRIMARY KEY, symbol VARCHAR(10), price DOUBLE)");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO trades VALUES (?, ?, ?)");
+        for (int i = 0; i < NUMBER_OF_ROWS; ++i) {
+            insert.setInt(1, i);
+            insert.setString(2, (i % 2 == 0) ? "IBM" : "MSFT");
+            insert.setDouble(3, i / 10.0);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.createStatement().execute("DROP TABLE trades");
+        connection.close();
+    }
+
+    @Test
+    public void readsEveryRowInOrder() throws Exception {
+        RecordingRuntime runtime = read(100);
+
+        List<Event> events = runtime.getEvents();
+        assertEquals(NUMBER_OF_ROWS, events.size());
+        for (int i = 0; i < NUMBER_OF_ROWS; ++i) {
+            assertEquals(i, events.get(i).getData().get("id"));
+        }
+        assertEquals("MSFT", events.get(1).getData().get("symbol"));
+        assertEquals(0.1, (Double) events.get(1).getData().get("price"), 0);
+    }
+
+    @Test
+    public void sendsTheRowsInBatches() throws Exception {
+        RecordingRuntime runtime = read(100);
+
+        int sum = 0;
+        for (int size : runtime.getBatchSizes()) {
+            sum += size;
+        }
+        assertEquals(NUMBER_OF_ROWS, sum);
+        assertEquals(true, runtime.getBatchSizes().size() > 1);
+    }
+
+    @Test
+    public void readsTheWholeResultWithoutFetchSize() throws Exception {
+        assertEquals(NUMBER_OF_ROWS, read(0).getEvents().size());
+    }
+
+    private static RecordingRuntime read(int fetchSize) throws Exception {
+        SqlQuerySource source = SqlQuerySource.newTemplate();
+        source.setUrl(URL);
+        source.setDriverClass("org.h2.Driver");
+        source.setQuery("SELECT id, symbol, price FROM trades ORDER BY id");
+        source.setFetchSize(fetchSize);
+        source.getOutput().addAttribute(Attribute.integerAttribute("id"));
+        source.getOutput().addAttribute(Attribute.stringAttribute("symbol"));
+        source.getOutput().addAttribute(Attribute.doubleAttribute("price"));
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        source.compile().startProcessingEvents(runtime);
+
+        return runtime;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.core.source.external.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.ProcessingException;
+import org.lisapark.octopus.core.ValidationException;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.source.external.CompiledExternalSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class TextFileSourceTest {
+    private TextFileSource source;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("text-source", ".txt");
+
+        source = TextFileSource.newTemplate();
+        source.setFileName(file.getPath());
+        source.getOutput().addAttribute(Attribute.integerAttribute("id"));
+        source.getOutput().addAttribute(Attribute.stringAttribute("name"));
+        source.getOutput().addAttribute(Attribute.doubleAttribute("price"));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsJsonLinesAndSkipsTheLinesThatCannotBeDecoded() throws Exception {
+        write(false, "{\"id\": 1, \"name\": \"a\", \"price\": 1.5}\n",
+                "not json\n",
+                "\n",
+                "{\"id\": 2, \"name\": \"b\"}");
+
+        List<Event> events = read();
+
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), 1, "a", 1.5);
+        assertEvent(events.get(1), 2, "b", null);
+    }
+
+    @Test
+    public void sendsTheEventsInBatches() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int id = 0; id < 2500; ++id) {
+            lines.append("{\"id\": ").append(id).append("}\n");
+        }
+        write(false, lines.toString());
+
+        RecordingRuntime runtime = new RecordingRuntime();
+        source.compile().startProcessingEvents(runtime);
+
+        assertEquals(Arrays.asList(1000, 1000, 500), runtime.getBatchSizes());
+        List<Event> events = runtime.getEvents();
+        for (int id = 0; id < 2500; ++id) {
+            assertEquals(id, events.get(id).getData().get("id"));
+        }
+    }
+
+    @Test
+    public void readsCsvWithTheColumnsOfTheHeader() throws Exception {
+        source.setFormat("csv");
+        source.setDelimiter("\\t");
+        write(false, "price\tID\tname\n",
+                "1.5\t1\t\"a, b\"\n",
+                "\t2\tc\r\n");
+
+        List<Event> events = read();
+
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), 1, "a, b", 1.5);
+        assertEvent(events.get(1), 2, "c", null);
+    }
+
+    @Test
+    public void readsCsvWithTheColumnsInTheOrderOfTheAttributes() throws Exception {
+        source.setFormat("CSV");
+        source.setHeader(false);
+        write(false, "1,a,1.5\n", "2,b,2.5\n");
+
+        List<Event> events = read();
+
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), 1, "a", 1.5);
+        assertEvent(events.get(1), 2, "b", 2.5);
+    }
+
+    @Test
+    public void skipsCsvNumbersOutOfTheRangeOfTheAttribute() throws Exception {
+        source.setFormat("csv");
+        source.setHeader(false);
+        write(false, "1,a,1.5\n", "4294967297,b,2.5\n", "-2147483648,c,3.5\n");
+
+        List<Event> events = read();
+
+        // 2^32 + 1 would be read as 1 if it were narrowed to an int
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), 1, "a", 1.5);
+        assertEvent(events.get(1), Integer.MIN_VALUE, "c", 3.5);
+    }
+
+    @Test
+    public void followsTheLinesAppendedToTheFile() throws Exception {
+        source.setFollow(true);
+        write(false, "{\"id\": 1}\n");
+
+        final CompiledExternalSource compiled = source.compile();
+        final RecordingRuntime runtime = new RecordingRuntime();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compiled.startProcessingEvents(runtime);
+                } catch (ProcessingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        try {
+            waitForEvents(runtime, 1);
+
+            // the line is only read once it is complete
+            write(true, "{\"id\": 2}\n{\"id\"");
+            waitForEvents(runtime, 2);
+            write(true, ": 3}\n");
+            waitForEvents(runtime, 3);
+        } finally {
+            compiled.stopProcessingEvents();
+            thread.join(5000);
+        }
+
+        assertTrue(!thread.isAlive());
+        List<Event> events = runtime.getEvents();
+        assertEquals(3, events.size());
+        assertEquals(3, events.get(2).getData().get("id"));
+    }
+
+    @Test
+    public void failsForAFileThatDoesNotExist() throws Exception {
+        file.delete();
+
+        try {
+            source.compile().startProcessingEvents(new RecordingRuntime());
+            fail("expected a ProcessingException");
+        } catch (ProcessingException e) {
+            assertTrue(e.getMessage().contains(file.getPath()));
+        }
+    }
+
+    @Test(expected = ValidationException.class)
+    public void rejectsAnUnknownFormat() throws Exception {
+        source.setFormat("xml");
+        source.compile();
+    }
+
+    @Test
+    public void parsesTheDelimiter() throws Exception {
+        assertEquals('\t', TextFileSource.delimiterOf("\\t"));
+        assertEquals(';', TextFileSource.delimiterOf(";"));
+
+        for (String delimiter : new String[]{"", ";;", "\u00e9"}) {
+            try {
+                TextFileSource.delimiterOf(delimiter);
+                fail("expected a ValidationException for " + delimiter);
+            } catch (ValidationException e) {
+                // expected
+            }
+        }
+    }
+
+    private List<Event> read() throws Exception {
+        RecordingRuntime runtime = new RecordingRuntime();
+        source.compile().startProcessingEvents(runtime);
+        return runtime.getEvents();
+    }
+
+    private void write(boolean append, String... lines) throws IOException {
+        OutputStream out = new FileOutputStream(file, append);
+        try {
+            for (String line : lines) {
+                out.write(line.getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void waitForEvents(RecordingRuntime runtime, int numberOfEvents) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runtime.getEvents().size() < numberOfEvents && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(numberOfEvents, runtime.getEvents().size());
+    }
+
+    private static void assertEvent(Event event, int id, String name, Double price) {
+        assertEquals(id, event.getData().get("id"));
+        assertEquals(name, event.getData().get("name"));
+        assertEquals(price, event.getData().get("price"));
+    }
+}
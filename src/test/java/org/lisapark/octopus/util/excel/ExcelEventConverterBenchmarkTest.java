@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+import org.lisapark.octopus.util.xml.XmlConverterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Converts a generated warehouse workbook into events through the XML of the sheet, like before, and straight from
+ * the rows, and logs the time of both. The times are not asserted, they depend on the machine; the test only checks
+ * that the direct conversion gives an event for every row and date.
+ *
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ExcelEventConverterBenchmarkTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ExcelEventConverterBenchmarkTest.class);
+
+    private static final int NUMBER_OF_WAREHOUSES = 20;
+    private static final int ITEMS_PER_WAREHOUSE = 500;
+    private static final String[] DATES = {"2013-01-01", "2013-01-02", "2013-01-03"};
+
+    private static byte[] workbook;
+
+    @BeforeClass
+    public static void createWorkbook() throws Exception {
+        HSSFWorkbook book = new HSSFWorkbook();
+        Sheet sheet = book.createSheet("warehouse");
+        sheet.createFreezePane(0, 4);
+        CellStyle item = book.createCellStyle();
+        item.setIndention((short) 1);
+
+        sheet.createRow(0).createCell(0).setCellValue("Warehouse report");
+
+        // the dates are in the third row above the frozen rows, every date over four columns; the XML conversion
+        // takes the dates up to the number of cells of the row
+        Row dates = sheet.createRow(1);
+        dates.createCell(0).setCellValue("Dates");
+        for (int column = 1; column < 4 * DATES.length; ++column) {
+            dates.createCell(column).setCellValue((column % 4 == 1) ? DATES[column / 4] : "");
+        }
+
+        int rowNum = 4;
+        for (int w = 0; w < NUMBER_OF_WAREHOUSES; ++w) {
+            sheet.createRow(rowNum++).createCell(0).setCellValue("W" + w);
+
+            for (int i = 0; i < ITEMS_PER_WAREHOUSE; ++i) {
+                Row row = sheet.createRow(rowNum++);
+                Cell name = row.createCell(0);
+                name.setCellValue("Item" + i);
+                name.setCellStyle(item);
+                for (int column = 1; column <= 4 * DATES.length; ++column) {
+                    row.createCell(column).setCellValue(i + column);
+                }
+            }
+        }
+
+        workbook = StreamingExcelReaderTest.bytes(book);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void convertsThroughXmlAndDirectly() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute(ExcelEventConverter.DATE));
+        eventType.addAttribute(Attribute.stringAttribute("WAREHOUSE"));
+        eventType.addAttribute(Attribute.stringAttribute("ITEM"));
+        for (String name : new String[]{"BEGINING", "INCOMING", "OUTGOING", "ENDING"}) {
+            eventType.addAttribute(Attribute.doubleAttribute(name));
+        }
+        int numberOfEvents = (NUMBER_OF_WAREHOUSES + NUMBER_OF_WAREHOUSES * ITEMS_PER_WAREHOUSE) * DATES.length;
+
+        // the first run warms up
+        for (int run = 0; run < 3; ++run) {
+            long start = System.nanoTime();
+            HSSFWorkbook book = new HSSFWorkbook(new ByteArrayInputStream(workbook));
+            List<Map<String, Object>> maps = XmlConverterUtils.eventsFromWarehouseXml(
+                    XmlConverterUtils.xmlStringFromWarehouseSS(book, 0, 0));
+            long xmlNanos = System.nanoTime() - start;
+
+            final int[] count = new int[1];
+            start = System.nanoTime();
+            StreamingExcelReader.readSheet(new ByteArrayInputStream(workbook), 0,
+                    new ExcelEventConverter(eventType, ExcelEventConverter.Layout.WAREHOUSE, 0) {
+                        @Override
+                        protected boolean processEvent(Event event) {
+                            count[0]++;
+                            return true;
+                        }
+                    });
+            long directNanos = System.nanoTime() - start;
+
+            assertEquals(numberOfEvents, count[0]);
+            LOG.info("Run {}: XML {} ms for {} maps, direct {} ms for {} events", new Object[]{run,
+                    xmlNanos / 1000000, maps.size(), directNanos / 1000000, count[0]});
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ExcelEventConverterTest {
+
+    @Test
+    public void convertsTheRowsOfAProductionSheet() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute(ExcelEventConverter.DATE));
+        eventType.addAttribute(Attribute.stringAttribute("SHOP"));
+        eventType.addAttribute(Attribute.stringAttribute("SHIFT"));
+        eventType.addAttribute(Attribute.stringAttribute("MACHINE"));
+        eventType.addAttribute(Attribute.doubleAttribute("TOTAL_MATERIALS"));
+        eventType.addAttribute(Attribute.integerAttribute("TOTAL_PRODUCTS"));
+        RecordingConverter converter = new RecordingConverter(eventType, ExcelEventConverter.Layout.PRODUCTION);
+
+        converter.startSheet("production", 1);
+        converter.handleRow(row(0, 0, "Name", "", "", "", "", "Materials", "Products"));
+        converter.handleRow(row(1, 0, "Shop 1"));
+        converter.handleRow(row(2, 2, "Shift report of shop S1 on 2013-01-02 morning"));
+        converter.handleRow(row(3, 4, "M1", null, null, null, null, 12.5, 10.0));
+        converter.handleRow(row(4, 4, "M2", null, null, null, null, "7", "4"));
+        converter.handleRow(row(5, 0, "Shop 2"));
+
+        List<Map<String, Object>> events = converter.getEvents();
+        assertEquals(5, events.size());
+        assertEquals(map("SHOP", "Shop 1"), events.get(0));
+        assertEquals(map("SHOP", "Shop 1", "SHIFT", "S1", ExcelEventConverter.DATE, "2013-01-02"), events.get(1));
+        assertEquals(map("SHOP", "Shop 1", "SHIFT", "S1", ExcelEventConverter.DATE, "2013-01-02", "MACHINE", "M1",
+                "TOTAL_MATERIALS", 12.5, "TOTAL_PRODUCTS", 10), events.get(2));
+        assertEquals(map("SHOP", "Shop 1", "SHIFT", "S1", ExcelEventConverter.DATE, "2013-01-02", "MACHINE", "M2",
+                "TOTAL_MATERIALS", 7.0, "TOTAL_PRODUCTS", 4), events.get(3));
+        // a new shop starts without the shift and date of the one before
+        assertEquals(map("SHOP", "Shop 2"), events.get(4));
+    }
+
+    @Test
+    public void convertsTheRowsOfAWarehouseSheetForEveryDate() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute(ExcelEventConverter.DATE));
+        eventType.addAttribute(Attribute.stringAttribute("WAREHOUSE"));
+        eventType.addAttribute(Attribute.stringAttribute("ITEM"));
+        eventType.addAttribute(Attribute.doubleAttribute("BEGINING"));
+        eventType.addAttribute(Attribute.doubleAttribute("ENDING"));
+        RecordingConverter converter = new RecordingConverter(eventType, ExcelEventConverter.Layout.WAREHOUSE);
+
+        // the dates are in the third row above the four frozen rows
+        converter.startSheet("warehouse", 4);
+        converter.handleRow(row(0, 0, "Report"));
+        converter.handleRow(row(1, 0, "Dates", "2013-01-01", null, null, null, "2013-01-02"));
+        converter.handleRow(row(3, 0, "Name", "Begin", "In", "Out", "End", "Begin", "In", "Out", "End"));
+        converter.handleRow(row(4, 0, "W1"));
+        converter.handleRow(row(5, 1, "Bolts", 10.0, 5.0, 3.0, 12.0, 12.0, 0.0, 2.0, 10.0));
+
+        List<Map<String, Object>> events = converter.getEvents();
+        assertEquals(4, events.size());
+        assertEquals(map("WAREHOUSE", "W1", ExcelEventConverter.DATE, "2013-01-01"), events.get(0));
+        assertEquals(map("WAREHOUSE", "W1", ExcelEventConverter.DATE, "2013-01-02"), events.get(1));
+        assertEquals(map("WAREHOUSE", "W1", "ITEM", "Bolts", ExcelEventConverter.DATE, "2013-01-01",
+                "BEGINING", 10.0, "ENDING", 12.0), events.get(2));
+        assertEquals(map("WAREHOUSE", "W1", "ITEM", "Bolts", ExcelEventConverter.DATE, "2013-01-02",
+                "BEGINING", 12.0, "ENDING", 10.0), events.get(3));
+    }
+
+    @Test
+    public void usesTheGivenIncreamentAndSkipsRowsBelowTheLastLevel() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute("WAREHOUSE"));
+        eventType.addAttribute(Attribute.stringAttribute("ITEM"));
+        eventType.addAttribute(Attribute.stringAttribute("ITEM_TYPE"));
+        RecordingConverter converter = new RecordingConverter(eventType, ExcelEventConverter.Layout.WAREHOUSE, 3);
+
+        converter.startSheet("warehouse", 4);
+        converter.handleRow(row(1, 0, "Dates", "2013-01-01"));
+        converter.handleRow(row(4, 0, "W1"));
+        converter.handleRow(row(5, 3, "Bolts"));
+        converter.handleRow(row(6, 6, "M8"));
+        converter.handleRow(row(7, 9, "too deep"));
+        converter.handleRow(row(8, 3, "   "));
+
+        List<Map<String, Object>> events = converter.getEvents();
+        assertEquals(3, events.size());
+        assertEquals(map("WAREHOUSE", "W1", "ITEM", "Bolts", "ITEM_TYPE", "M8"), events.get(2));
+    }
+
+    @Test
+    public void stopsWhenAnEventIsNotWanted() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute("WAREHOUSE"));
+        RecordingConverter converter = new RecordingConverter(eventType, ExcelEventConverter.Layout.WAREHOUSE);
+        converter.maximumEvents = 1;
+
+        converter.startSheet("warehouse", 4);
+        converter.handleRow(row(1, 0, "Dates", "2013-01-01", null, null, null, "2013-01-02"));
+
+        assertEquals(false, converter.handleRow(row(4, 0, "W1")));
+        assertEquals(1, converter.getEvents().size());
+    }
+
+    @Test
+    public void convertsCellValuesToTheTypesOfTheAttributes() {
+        assertEquals("3", ExcelEventConverter.valueOf(3.0, String.class));
+        assertEquals("3.5", ExcelEventConverter.valueOf(3.5, String.class));
+        assertEquals("true", ExcelEventConverter.valueOf(true, String.class));
+
+        assertEquals(true, ExcelEventConverter.valueOf(true, Boolean.class));
+        assertEquals(true, ExcelEventConverter.valueOf(" yes ", Boolean.class));
+        assertEquals(false, ExcelEventConverter.valueOf("no", Boolean.class));
+
+        assertEquals(2.5, ExcelEventConverter.valueOf(2.5, Double.class));
+        assertEquals(2.5f, ExcelEventConverter.valueOf(" 2.5", Float.class));
+        assertEquals(2, ExcelEventConverter.valueOf(2.9, Integer.class));
+        assertEquals(12L, ExcelEventConverter.valueOf("12", Long.class));
+        assertEquals((short) 7, ExcelEventConverter.valueOf(7.0, Short.class));
+
+        assertNull(ExcelEventConverter.valueOf("n/a", Double.class));
+        assertNull(ExcelEventConverter.valueOf((byte) 7, Integer.class));
+    }
+
+    /**
+     * Returns a row with the values from the first column on, null for a missing cell; the first cell has the
+     * indention.
+     */
+    static SheetRow row(int rowNum, int indention, Object... values) {
+        SheetRow row = new SheetRow();
+        row.reset(rowNum);
+        for (int column = 0; column < values.length; ++column) {
+            if (values[column] != null) {
+                row.setCell(column, values[column], (column == 0) ? indention : 0);
+            }
+        }
+        return row;
+    }
+
+    private static Map<String, Object> map(Object... namesAndValues) {
+        Map<String, Object> map = Maps.newHashMap();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            map.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static class RecordingConverter extends ExcelEventConverter {
+        private final List<Map<String, Object>> events = Lists.newArrayList();
+        private int maximumEvents = Integer.MAX_VALUE;
+
+        RecordingConverter(EventType eventType, Layout layout) {
+            this(eventType, layout, 0);
+        }
+
+        RecordingConverter(EventType eventType, Layout layout, int increament) {
+            super(eventType, layout, increament);
+        }
+
+        @Override
+        protected boolean processEvent(Event event) {
+            events.add(event.getData());
+            return events.size() < maximumEvents;
+        }
+
+        List<Map<String, Object>> getEvents() {
+            return events;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Lists;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class StreamingExcelReaderTest {
+
+    private static final List<String> DATA_ROWS = Arrays.asList(
+            "0 SheetRow{rowNum=0, cells=[name, value, flag]}",
+            "0 SheetRow{rowNum=1, cells=[a, 1.5, true]} indention 2",
+            "2 SheetRow{rowNum=3, cells=[c]}",
+            "0 SheetRow{rowNum=4, cells=[d, 4.0, false]}");
+
+    @Test
+    public void readsASheetOfAnXlsWorkbook() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+
+        assertTrue(StreamingExcelReader.readSheet(input(new HSSFWorkbook()), 1, handler));
+
+        assertEquals("data", handler.sheetName);
+        assertEquals(1, handler.frozenRows);
+        assertEquals(DATA_ROWS, handler.rows);
+    }
+
+    @Test
+    public void readsASheetOfAnXlsxWorkbook() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+
+        assertTrue(StreamingExcelReader.readSheet(input(new XSSFWorkbook()), 1, handler));
+
+        assertEquals("data", handler.sheetName);
+        assertEquals(1, handler.frozenRows);
+        assertEquals(DATA_ROWS, handler.rows);
+    }
+
+    @Test
+    public void readsTheRowsOfAWorkbookInMemoryLikeTheStream() throws Exception {
+        Workbook workbook = new HSSFWorkbook();
+        fill(workbook);
+        RecordingHandler handler = new RecordingHandler();
+
+        StreamingExcelReader.readRows(workbook.getSheetAt(1), handler);
+
+        assertEquals("data", handler.sheetName);
+        assertEquals(1, handler.frozenRows);
+        assertEquals(DATA_ROWS, handler.rows);
+    }
+
+    @Test
+    public void readsTheFirstSheetWithoutAFrozenPane() throws Exception {
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            RecordingHandler handler = new RecordingHandler();
+
+            assertTrue(StreamingExcelReader.readSheet(input(workbook), 0, handler));
+
+            assertEquals("first", handler.sheetName);
+            assertEquals(0, handler.frozenRows);
+            assertEquals(Arrays.asList("0 SheetRow{rowNum=0, cells=[only]}"), handler.rows);
+        }
+    }
+
+    @Test
+    public void stopsWhenTheHandlerDoesNotWantMoreRows() throws Exception {
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            RecordingHandler handler = new RecordingHandler();
+            handler.maximumRows = 2;
+
+            assertTrue(StreamingExcelReader.readSheet(input(workbook), 1, handler));
+
+            assertEquals(DATA_ROWS.subList(0, 2), handler.rows);
+        }
+    }
+
+    @Test
+    public void returnsFalseForAMissingSheet() throws Exception {
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            RecordingHandler handler = new RecordingHandler();
+
+            assertFalse(StreamingExcelReader.readSheet(input(workbook), 2, handler));
+
+            assertEquals(null, handler.sheetName);
+            assertTrue(handler.rows.isEmpty());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAStreamThatIsNotAWorkbook() throws Exception {
+        StreamingExcelReader.readSheet(new ByteArrayInputStream("name,value".getBytes("UTF-8")), 0,
+                new RecordingHandler());
+    }
+
+    @Test
+    public void convertsCellReferencesToColumns() {
+        assertEquals(0, XssfSheetReader.columnOf("A1"));
+        assertEquals(25, XssfSheetReader.columnOf("Z10"));
+        assertEquals(27, XssfSheetReader.columnOf("AB7"));
+    }
+
+    /**
+     * Fills the workbook with a sheet "first" with one cell, and a sheet "data" with a frozen header row, an indented
+     * cell, an empty row and a row with a single cell in the third column.
+     */
+    static void fill(Workbook workbook) {
+        workbook.createSheet("first").createRow(0).createCell(0).setCellValue("only");
+
+        Sheet sheet = workbook.createSheet("data");
+        sheet.createFreezePane(0, 1);
+        CellStyle indented = workbook.createCellStyle();
+        indented.setIndention((short) 2);
+
+        Row header = sheet.createRow(0);
+        header.createCell(0).setCellValue("name");
+        header.createCell(1).setCellValue("value");
+        header.createCell(2).setCellValue("flag");
+
+        Row row = sheet.createRow(1);
+        row.createCell(0).setCellValue("a");
+        row.getCell(0).setCellStyle(indented);
+        row.createCell(1).setCellValue(1.5);
+        row.createCell(2).setCellValue(true);
+
+        // a row without cells is skipped
+        sheet.createRow(2);
+
+        sheet.createRow(3).createCell(2).setCellValue("c");
+
+        row = sheet.createRow(4);
+        row.createCell(0).setCellValue("d");
+        row.createCell(1).setCellValue(4);
+        row.createCell(2).setCellValue(false);
+    }
+
+    static byte[] bytes(Workbook workbook) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        return out.toByteArray();
+    }
+
+    private static ByteArrayInputStream input(Workbook workbook) throws IOException {
+        fill(workbook);
+        return new ByteArrayInputStream(bytes(workbook));
+    }
+
+    /**
+     * Keeps the rows as the column of their first cell, the row and the indention of the first column if any.
+     */
+    private static class RecordingHandler implements StreamingExcelReader.RowHandler {
+        private final List<String> rows = Lists.newArrayList();
+        private String sheetName;
+        private int frozenRows = -1;
+        private int maximumRows = Integer.MAX_VALUE;
+
+        @Override
+        public void startSheet(String sheetName, int frozenRows) {
+            this.sheetName = sheetName;
+            this.frozenRows = frozenRows;
+        }
+
+        @Override
+        public boolean handleRow(SheetRow row) {
+            String text = row.getFirstCellNum() + " " + row;
+            if (row.getIndention(0) > 0) {
+                text += " indention " + row.getIndention(0);
+            }
+            rows.add(text);
+            return rows.size() < maximumRows;
+        }
+    }
+}
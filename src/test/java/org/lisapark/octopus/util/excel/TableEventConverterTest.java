@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.excel;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.lisapark.octopus.util.excel.ExcelEventConverterTest.row;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class TableEventConverterTest {
+    private RecordingConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute("name"));
+        eventType.addAttribute(Attribute.integerAttribute("Quantity"));
+        eventType.addAttribute(Attribute.doubleAttribute("price"));
+        eventType.addAttribute(Attribute.booleanAttribute("active"));
+        converter = new RecordingConverter(eventType);
+    }
+
+    @Test
+    public void readsTheColumnsFromTheFirstRowAfterTheFrozenRows() {
+        converter.startSheet("table", 2);
+        converter.handleRow(row(0, 0, "Inventory"));
+        converter.handleRow(row(2, 0, "NAME", "quantity", "comment", "price", "active"));
+        converter.handleRow(row(3, 0, "bolt", 10.0, "ignored", "1.25", "yes"));
+        converter.handleRow(row(4, 0, 42.0, null, null, 0.5));
+
+        List<Map<String, Object>> events = converter.events;
+        assertEquals(2, events.size());
+        assertEquals("bolt", events.get(0).get("name"));
+        assertEquals(10, events.get(0).get("Quantity"));
+        assertEquals(1.25, events.get(0).get("price"));
+        assertEquals(true, events.get(0).get("active"));
+        assertEquals(4, events.get(0).size());
+
+        assertEquals("42", events.get(1).get("name"));
+        assertEquals(0.5, events.get(1).get("price"));
+        assertEquals(2, events.get(1).size());
+    }
+
+    @Test
+    public void readsTheColumnsFromTheFirstRowWithoutFrozenRows() {
+        converter.startSheet("table", 0);
+        converter.handleRow(row(0, 0, "name"));
+        converter.handleRow(row(1, 0, "bolt", 10.0));
+
+        assertEquals(1, converter.events.size());
+        assertEquals(1, converter.events.get(0).size());
+    }
+
+    @Test
+    public void skipsRowsWithoutValuesAndValuesThatCannotBeConverted() {
+        converter.startSheet("table", 0);
+        converter.handleRow(row(0, 0, "quantity", "comment"));
+        converter.handleRow(row(1, 0, "many", "text"));
+        converter.handleRow(row(2, 0, null, "text"));
+        converter.handleRow(row(3, 0, 3.0));
+
+        assertEquals(1, converter.events.size());
+        assertEquals(3, converter.events.get(0).get("Quantity"));
+    }
+
+    @Test
+    public void startsOverWithANewSheet() {
+        converter.startSheet("first", 0);
+        converter.handleRow(row(0, 0, "name"));
+        converter.startSheet("second", 0);
+        converter.handleRow(row(0, 0, "price"));
+        converter.handleRow(row(1, 0, 2.0));
+
+        assertEquals(1, converter.events.size());
+        assertEquals(2.0, converter.events.get(0).get("price"));
+    }
+
+    @Test
+    public void stopsWhenAnEventIsNotWanted() {
+        converter.maximumEvents = 1;
+        converter.startSheet("table", 0);
+        converter.handleRow(row(0, 0, "name"));
+
+        assertFalse(converter.handleRow(row(1, 0, "bolt")));
+    }
+
+    private static class RecordingConverter extends TableEventConverter {
+        private final List<Map<String, Object>> events = Lists.newArrayList();
+        private int maximumEvents = Integer.MAX_VALUE;
+
+        RecordingConverter(EventType eventType) {
+            super(eventType);
+        }
+
+        @Override
+        protected boolean processEvent(Event event) {
+            events.add(event.getData());
+            return events.size() < maximumEvents;
+        }
+    }
+}
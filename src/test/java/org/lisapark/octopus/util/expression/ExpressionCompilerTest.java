@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.expression;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.lisapark.octopus.core.ValidationException;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ExpressionCompilerTest {
+    private static final Map<String, ExpressionCompiler.Type> VARIABLES = ImmutableMap.of(
+            "price", ExpressionCompiler.Type.DOUBLE,
+            "tax", ExpressionCompiler.Type.DOUBLE,
+            "quantity", ExpressionCompiler.Type.LONG,
+            "lots", ExpressionCompiler.Type.LONG,
+            "active", ExpressionCompiler.Type.BOOLEAN
+    );
+
+    @Test
+    public void typesExpressions() throws Exception {
+        assertEquals(ExpressionCompiler.Type.LONG, compiler("quantity * 2 + lots % 3").getType());
+        assertEquals(ExpressionCompiler.Type.DOUBLE, compiler("quantity / lots").getType());
+        assertEquals(ExpressionCompiler.Type.DOUBLE, compiler("price + quantity").getType());
+        assertEquals(ExpressionCompiler.Type.BOOLEAN, compiler("active && price > 10").getType());
+        assertEquals(ExpressionCompiler.Type.LONG, compiler("active ? quantity : lots").getType());
+        assertEquals(ExpressionCompiler.Type.DOUBLE, compiler("active ? quantity : price").getType());
+    }
+
+    @Test
+    public void indexesVariablesByType() throws Exception {
+        ExpressionCompiler compiler = compiler("tax + price * quantity + price - lots + (active ? 1 : 0)");
+
+        assertEquals(Arrays.asList("tax", "price"), compiler.getDoubleVariables());
+        assertEquals(Arrays.asList("quantity", "lots"), compiler.getLongVariables());
+        assertEquals(Arrays.asList("active"), compiler.getBooleanVariables());
+    }
+
+    @Test
+    public void evaluatesArithmetic() throws Exception {
+        assertEquals(25.0, evaluate("(price + tax) * quantity / lots", 10.0, 2.5, 4, 2, false), 1e-9);
+        assertEquals(-7.0, evaluate("-quantity - 3", 0, 0, 4, 0, false), 1e-9);
+        assertEquals(1.0, evaluate("quantity % lots", 0, 0, 7, 3, false), 1e-9);
+        assertEquals(0.5, evaluate("quantity / lots", 0, 0, 1, 2, false), 1e-9);
+        assertEquals(1.5, evaluate("1.5e0 * 1", 0, 0, 0, 0, false), 1e-9);
+        assertEquals(0.25, evaluate(".25", 0, 0, 0, 0, false), 1e-9);
+    }
+
+    @Test
+    public void takesRemainderByAVariableInFloatingPoint() throws Exception {
+        assertEquals(ExpressionCompiler.Type.DOUBLE, compiler("quantity % lots").getType());
+        assertEquals(ExpressionCompiler.Type.DOUBLE, compiler("quantity % 0").getType());
+
+        // like division, a divisor of 0 gives NaN instead of an ArithmeticException
+        assertTrue(Double.isNaN(evaluate("quantity % lots", 0, 0, 7, 0, false)));
+        assertTrue(Double.isNaN(evaluate("quantity % 0", 0, 0, 7, 0, false)));
+        assertEquals(2.0, evaluate("quantity % 5", 0, 0, 7, 0, false), 0);
+    }
+
+    @Test
+    public void keepsLongArithmeticExact() throws Exception {
+        // 2^53 + 1 cannot be represented as a double, the long sum is exact before the final conversion
+        assertEquals(0.0, evaluate("quantity + 1 - lots", 0, 0, 9007199254740992L, 9007199254740993L, false), 0);
+    }
+
+    @Test
+    public void evaluatesComparisonsAndLogic() throws Exception {
+        assertEquals(1.0, evaluate("active && price > 10", 11, 0, 0, 0, true), 0);
+        assertEquals(0.0, evaluate("active && price > 10", 11, 0, 0, 0, false), 0);
+        assertEquals(1.0, evaluate("!active || quantity >= lots", 0, 0, 3, 3, true), 0);
+        assertEquals(1.0, evaluate("quantity == 3 == (lots != 3)", 0, 0, 3, 4, false), 0);
+        assertEquals(1.0, evaluate("price <= quantity", 2.5, 0, 3, 0, false), 0);
+    }
+
+    @Test
+    public void evaluatesConditionalsAndFunctions() throws Exception {
+        assertEquals(4.0, evaluate("active ? quantity : lots", 0, 0, 4, 5, true), 0);
+        assertEquals(2.5, evaluate("active ? quantity : price", 2.5, 0, 4, 5, false), 0);
+        assertEquals(5.0, evaluate("sqrt(pow(price, 2) + pow(tax, 2))", 3, 4, 0, 0, false), 1e-9);
+        assertEquals(2.0, evaluate("max(abs(price), min(floor(tax), ceil(0.5)))", -2, 7.5, 0, 0, false), 1e-9);
+        assertEquals(2.0, evaluate("log10(100) * log(exp(1))", 0, 0, 0, 0, false), 1e-9);
+    }
+
+    @Test
+    public void rejectsInvalidExpressions() {
+        assertInvalid("");
+        assertInvalid("price +");
+        assertInvalid("(price");
+        assertInvalid("price tax");
+        assertInvalid("unknown + 1");
+        assertInvalid("active + 1");
+        assertInvalid("price && active");
+        assertInvalid("price ? 1 : 2");
+        assertInvalid("active ? 1 : false");
+        assertInvalid("sqrt(1, 2)");
+        assertInvalid("sqrt(active)");
+        assertInvalid("system(1)");
+        assertInvalid("price = 1");
+        assertInvalid("99999999999999999999");
+    }
+
+    private static ExpressionCompiler compiler(String expression) throws ValidationException {
+        return new ExpressionCompiler(expression, VARIABLES);
+    }
+
+    private static double evaluate(String expression, double price, double tax, long quantity, long lots,
+                                   boolean active) throws ValidationException {
+        ExpressionCompiler compiler = compiler(expression);
+        Map<String, Object> values = ImmutableMap.<String, Object>of(
+                "price", price, "tax", tax, "quantity", quantity, "lots", lots, "active", active);
+
+        double[] doubles = new double[compiler.getDoubleVariables().size()];
+        for (int i = 0; i < doubles.length; ++i) {
+            doubles[i] = (Double) values.get(compiler.getDoubleVariables().get(i));
+        }
+        long[] longs = new long[compiler.getLongVariables().size()];
+        for (int i = 0; i < longs.length; ++i) {
+            longs[i] = (Long) values.get(compiler.getLongVariables().get(i));
+        }
+        boolean[] booleans = new boolean[compiler.getBooleanVariables().size()];
+        for (int i = 0; i < booleans.length; ++i) {
+            booleans[i] = (Boolean) values.get(compiler.getBooleanVariables().get(i));
+        }
+
+        return compiler.compile().evaluate(doubles, longs, booleans);
+    }
+
+    private static void assertInvalid(String expression) {
+        try {
+            compiler(expression);
+            fail("Expected '" + expression + "' to be rejected");
+        } catch (ValidationException e) {
+            // expected
+        }
+    }
+}
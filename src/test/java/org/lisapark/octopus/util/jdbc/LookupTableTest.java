@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class LookupTableTest {
+    private static final String URL = "jdbc:h2:mem:lookup-table;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+    private static final String QUERY = "SELECT id, name, modified FROM products";
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        connection = DriverManager.getConnection(URL);
+
+        execute("CREATE TABLE products (id INT PRIMARY KEY, name VARCHAR(20), modified BIGINT)");
+        execute("INSERT INTO products VALUES (1, 'bolt', 10), (2, 'nut', 20)");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        execute("DROP TABLE products");
+        connection.close();
+    }
+
+    @Test
+    public void refreshReadsOnlyChangedRows() throws Exception {
+        LookupTable table = new LookupTable("org.h2.Driver", URL, null, null, QUERY, "id", "modified", 0);
+        table.load();
+        assertEquals(2, table.size());
+
+        execute("UPDATE products SET name = 'washer', modified = 30 WHERE id = 2");
+        // a change below the last one read is not seen by a refresh, so it proves only changed rows are read
+        execute("UPDATE products SET name = 'screw', modified = 5 WHERE id = 1");
+        table.refresh();
+
+        assertEquals("washer", table.get(2).get("name"));
+        assertEquals("bolt", table.get(1).get("name"));
+        assertEquals(1, table.getRefreshes());
+        table.close();
+    }
+
+    @Test
+    public void loadReplacesTheWholeTable() throws Exception {
+        LookupTable table = new LookupTable("org.h2.Driver", URL, null, null, QUERY, "id", null, 0);
+        table.load();
+
+        execute("DELETE FROM products WHERE id = 1");
+        table.refresh();
+
+        assertNull(table.get(1));
+        assertEquals("nut", table.get(2).get("name"));
+        assertEquals(1, table.getHits());
+        assertEquals(1, table.getMisses());
+        table.close();
+    }
+
+    private void execute(String sql) throws Exception {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
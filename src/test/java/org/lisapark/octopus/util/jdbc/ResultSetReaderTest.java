@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.jdbc;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class ResultSetReaderTest {
+
+    @Test
+    public void streamingTurnsOffAutoCommitAndItCanBeRestored() throws Exception {
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        boolean autoCommit = connection.getAutoCommit();
+        ResultSetReader.configureForStreaming(connection, statement, "jdbc:h2:mem:test", 100);
+
+        verify(connection).setAutoCommit(false);
+        verify(statement).setFetchSize(100);
+
+        when(connection.getAutoCommit()).thenReturn(false);
+        Connections.setAutoCommitQuietly(connection, autoCommit);
+
+        verify(connection).setAutoCommit(true);
+    }
+
+    @Test
+    public void mysqlStreamsWithTheMinimumFetchSize() throws Exception {
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+
+        ResultSetReader.configureForStreaming(connection, statement, "jdbc:mysql://localhost/test", 100);
+
+        verify(statement).setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Test
+    public void withoutFetchSizeTheConnectionIsNotChanged() throws Exception {
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+
+        ResultSetReader.configureForStreaming(connection, statement, "jdbc:h2:mem:test", 0);
+
+        verify(connection, never()).setAutoCommit(false);
+    }
+
+    @Test
+    public void autoCommitIsOnlySetIfItChanges() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        Connections.setAutoCommitQuietly(connection, true);
+
+        verify(connection, never()).setAutoCommit(true);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 Lisa Park, Inc. (www.lisa-park.net)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.lisapark.octopus.util.xml;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.lisapark.octopus.core.event.Attribute;
+import org.lisapark.octopus.core.event.Event;
+import org.lisapark.octopus.core.event.EventType;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Alex Mylnikov (alexmy@lisa-park.com)
+ */
+public class StaxXmlReaderTest {
+
+    private static final String GRID = "junk before the document<Grids>"
+            + "<Grid><Body><I id=\"1\" name=\"a\"/><I id=\"2\" name=\"b\"><Child/></I></Body>"
+            + "<Foot><I id=\"x\"/></Foot></Grid>"
+            + "<Grid><Body><I id=\"3\"/></Body></Grid>"
+            + "</Grids>";
+
+    @Test
+    public void readsTheItemsInTheFirstChildOfEveryGrid() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+
+        StaxXmlReader.readGridItems(GRID, handler);
+
+        assertEquals(Lists.newArrayList("I{id=1, name=a}", "I{id=2, name=b}", "I{id=3}"), handler.elements);
+    }
+
+    @Test
+    public void readsTheItemsOfAGridFromAStream() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+
+        StaxXmlReader.readGridItems(stream("<Grids><Grid><Body><I id=\"1\"/></Body></Grid></Grids>"), handler);
+
+        assertEquals(Lists.newArrayList("I{id=1}"), handler.elements);
+    }
+
+    @Test
+    public void stopsWhenTheHandlerDoesNotWantMoreElements() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        handler.maximumElements = 1;
+
+        StaxXmlReader.readGridItems(GRID, handler);
+
+        assertEquals(Lists.newArrayList("I{id=1, name=a}"), handler.elements);
+    }
+
+    @Test
+    public void readsTheElementsAtADepthWithTheTextOfTheirChildren() throws Exception {
+        String xml = "<items>"
+                + "<item id=\"1\"><name>A</name><price> 1.5 </price><blank>  </blank></item>"
+                + "<item id=\"2\" name=\"attribute\"><name>child</name><tags><tag>x</tag></tags></item>"
+                + "<item id=\"3\"><name><![CDATA[<b>]]></name></item>"
+                + "</items>";
+        RecordingHandler handler = new RecordingHandler();
+
+        StaxXmlReader.readElements(stream(xml), 2, handler);
+
+        assertEquals(Lists.newArrayList("item{id=1, name=A, price=1.5}", "item{id=2, name=attribute}",
+                "item{id=3, name=<b>}"), handler.elements);
+    }
+
+    @Test
+    public void doesNotReadExternalEntities() throws Exception {
+        File secret = File.createTempFile("secret", ".txt");
+        try {
+            OutputStream out = new FileOutputStream(secret);
+            try {
+                out.write("secret".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            String xml = "<!DOCTYPE items [<!ENTITY secret SYSTEM \"" + secret.toURI() + "\">]>"
+                    + "<items><item><name>&secret;</name></item></items>";
+            RecordingHandler handler = new RecordingHandler();
+
+            try {
+                StaxXmlReader.readElements(stream(xml), 2, handler);
+            } catch (XMLStreamException e) {
+                // the parser may also refuse the undeclared entity
+            }
+
+            for (String element : handler.elements) {
+                assertFalse(element, element.contains("secret"));
+            }
+        } finally {
+            secret.delete();
+        }
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void failsForADocumentThatIsNotWellFormed() throws Exception {
+        StaxXmlReader.readElements(stream("<items><item></items>"), 2, new RecordingHandler());
+    }
+
+    @Test
+    public void readsDocumentsOnSeveralThreads() throws Exception {
+        StringBuilder xml = new StringBuilder("<Grids><Grid><Body>");
+        for (int i = 0; i < 1000; ++i) {
+            xml.append("<I id=\"").append(i).append("\"/>");
+        }
+        final String document = xml.append("</Body></Grid></Grids>").toString();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> counts = Lists.newArrayList();
+            for (int i = 0; i < 8; ++i) {
+                counts.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        RecordingHandler handler = new RecordingHandler();
+                        StaxXmlReader.readGridItems(document, handler);
+                        return handler.elements.size();
+                    }
+                }));
+            }
+            for (Future<Integer> count : counts) {
+                assertEquals(1000, (int) count.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void convertsTheValuesToTheTypesOfTheAttributes() throws Exception {
+        EventType eventType = new EventType();
+        eventType.addAttribute(Attribute.stringAttribute("name"));
+        eventType.addAttribute(Attribute.integerAttribute("quantity"));
+        eventType.addAttribute(Attribute.doubleAttribute("price"));
+        eventType.addAttribute(Attribute.longAttribute("blank"));
+        eventType.addAttribute(Attribute.booleanAttribute("active"));
+        eventType.addAttribute(Attribute.shortAttribute("missing"));
+
+        Map<String, String> values = Maps.newHashMap();
+        values.put("name", " bolt ");
+        values.put("quantity", " 12 ");
+        values.put("price", "not a number");
+        values.put("blank", "  ");
+        values.put("active", "yes");
+        values.put("other", "1");
+
+        Event event = StaxXmlReader.eventOf(values, eventType);
+
+        assertEquals(" bolt ", event.getData().get("name"));
+        assertEquals(12, event.getData().get("quantity"));
+        assertEquals(true, event.getData().get("active"));
+        assertNull(event.getData().get("price"));
+        assertEquals(3, event.getData().size());
+    }
+
+    private static InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    /**
+     * Keeps the elements as their name with their values sorted by name.
+     */
+    private static class RecordingHandler implements StaxXmlReader.ElementHandler {
+        private final List<String> elements = Lists.newArrayList();
+        private int maximumElements = Integer.MAX_VALUE;
+
+        @Override
+        public boolean handleElement(String name, Map<String, String> values) {
+            elements.add(name + new TreeMap<String, String>(values));
+            return elements.size() < maximumElements;
+        }
+    }
+}